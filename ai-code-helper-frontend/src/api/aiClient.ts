@@ -10,12 +10,26 @@ import type {
 
 } from '../types/api';
 
+const CLIENT_ID_KEY = 'ai-helper-client-id';
+
 export class AiApiClient {
   private baseUrl: string;
   private abortController?: AbortController;
+  private readonly clientId: string;
 
   constructor(baseUrl: string = '/api') {
     this.baseUrl = baseUrl;
+    this.clientId = this.loadClientId();
+  }
+
+  // Identifies this browser to the server; generated once and kept across reloads
+  private loadClientId(): string {
+    let clientId = localStorage.getItem(CLIENT_ID_KEY);
+    if (!clientId) {
+      clientId = crypto.randomUUID();
+      localStorage.setItem(CLIENT_ID_KEY, clientId);
+    }
+    return clientId;
   }
 
   // Basic chat endpoint
@@ -24,6 +38,7 @@ export class AiApiClient {
       method: 'POST',
       headers: {
         'Content-Type': 'application/json',
+        'X-Client-Id': this.clientId,
       },
       body: JSON.stringify(request.message),
     });
@@ -36,21 +51,72 @@ export class AiApiClient {
   }
 
   // Streaming chat with Server-Sent Events
+  // A dropped connection is resumed with Last-Event-ID, so the server continues the same answer
   async *streamChat(request: StreamChatRequest): AsyncGenerator<string, void, unknown> {
     this.abortController = new AbortController();
-    
+    const requestId = crypto.randomUUID();
+    let lastEventId: string | undefined;
+
+    for (let attempt = 0; ; attempt++) {
+      try {
+        for await (const event of this.readStream(request, requestId, lastEventId)) {
+          if (event.id) {
+            // A resumed stream continues right after the last event; anything else is a new answer
+            if (lastEventId && attempt > 0 && !this.followsEvent(event.id, lastEventId)) {
+              throw new Error('Stream could not be resumed');
+            }
+            lastEventId = event.id;
+          }
+          attempt = 0;
+          if (event.data === '[DONE]') {
+            return;
+          }
+          if (event.data !== 'null' && event.data !== '') {
+            yield event.data;
+          }
+        }
+        return;
+      } catch (error) {
+        // Only network failures are retried; aborts and HTTP errors surface to the caller
+        const retryable = error instanceof TypeError && !this.abortController.signal.aborted;
+        if (!retryable || attempt >= 3) {
+          throw error;
+        }
+        await new Promise(resolve => setTimeout(resolve, 1000 * (attempt + 1)));
+      }
+    }
+  }
+
+  private followsEvent(id: string, previousId: string): boolean {
+    const sequence = (value: string) => Number(value.slice(value.lastIndexOf(':') + 1));
+    return sequence(id) === sequence(previousId) + 1;
+  }
+
+  private async *readStream(
+    request: StreamChatRequest,
+    requestId: string,
+    lastEventId?: string,
+  ): AsyncGenerator<{ id?: string; data: string }, void, unknown> {
     const params = new URLSearchParams({
       message: request.message,
-      memoryId: (request.memoryId || 1).toString(),
+      // Chat memory is kept per session on the server, so the session is scoped to this client
+      memoryId: `${this.clientId}:${request.memoryId}`,
+      requestId,
     });
 
+    const headers: Record<string, string> = {
+      'Accept': 'text/event-stream',
+      'Cache-Control': 'no-cache',
+      'X-Client-Id': this.clientId,
+    };
+    if (lastEventId) {
+      headers['Last-Event-ID'] = lastEventId;
+    }
+
     const response = await fetch(`${this.baseUrl}/ai/chat/stream?${params}`, {
       method: 'GET',
-      headers: {
-        'Accept': 'text/event-stream',
-        'Cache-Control': 'no-cache',
-      },
-      signal: this.abortController.signal,
+      headers,
+      signal: this.abortController?.signal,
     });
 
     if (!response.ok) {
@@ -71,21 +137,26 @@ export class AiApiClient {
         if (done) break;
 
         buffer += decoder.decode(value, { stream: true });
-        const lines = buffer.split('\n');
-        buffer = lines.pop() || '';
-
-        for (const line of lines) {
-          if (line.startsWith('data:')) {
-            const data = line.slice(5); // Remove 'data:' but preserve spaces
-            if (data === '[DONE]') {
-              return;
-            }
-            if (data && data !== 'null' && data !== '') {
-              // Unescape newlines that were escaped for SSE transmission
-              const unescapedData = data.replace(/\\n/g, '\n');
-              yield unescapedData;
+
+        // Events are separated by a blank line; a multi-line chunk arrives as
+        // several consecutive data: lines of the same event
+        let boundary: number;
+        while ((boundary = buffer.search(/\r?\n\r?\n/)) !== -1) {
+          const event = buffer.slice(0, boundary);
+          buffer = buffer.slice(boundary).replace(/^\r?\n\r?\n/, '');
+
+          let id: string | undefined;
+          const dataLines: string[] = [];
+          for (const line of event.split(/\r?\n/)) {
+            if (line.startsWith('data:')) {
+              dataLines.push(line.slice(5)); // Remove 'data:' but preserve spaces
+            } else if (line.startsWith('id:')) {
+              id = line.slice(3).trim();
             }
           }
+          if (dataLines.length > 0) {
+            yield { id, data: dataLines.join('\n') };
+          }
         }
       }
     } finally {
@@ -99,6 +170,7 @@ export class AiApiClient {
       method: 'POST',
       headers: {
         'Content-Type': 'application/json',
+        'X-Client-Id': this.clientId,
       },
       body: JSON.stringify({ message: request.message }),
     });
@@ -122,6 +194,7 @@ export class AiApiClient {
       method: 'POST',
       headers: {
         'Content-Type': 'application/json',
+        'X-Client-Id': this.clientId,
       },
       body: JSON.stringify({ message: request.message }),
     });
@@ -320,7 +320,7 @@ export class ChatWindow {
     this.addMessage(aiMessage);
 
     try {
-      for await (const chunk of aiApiClient.streamChat({ message, memoryId: 1 })) {
+      for await (const chunk of aiApiClient.streamChat({ message, memoryId: this.currentSession.id })) {
         console.debug('Received chunk:', JSON.stringify(chunk));
         aiResponse += chunk;
         this.updateMessage(aiMessage.id, aiResponse);
@@ -60,7 +60,8 @@ export interface ChatRequest {
 
 export interface StreamChatRequest {
   message: string;
-  memoryId?: number;
+  // Chat session whose memory the answer uses
+  memoryId: string;
 }
 
 export interface LearningReportRequest {
@@ -3,6 +3,7 @@ package com.aicodehelper.ai;
 import com.aicodehelper.ai.guardrail.SafeInputGuardrail;
 import dev.langchain4j.service.*;
 import dev.langchain4j.service.guardrail.InputGuardrails;
+import dev.langchain4j.service.memory.ChatMemoryAccess;
 import reactor.core.publisher.Flux;
 
 import java.util.List;
@@ -19,7 +20,7 @@ import java.util.List;
  * Note: Manually built for greater flexibility instead of using @AiService
  */
 @InputGuardrails({SafeInputGuardrail.class})
-public interface AiCodeHelperService {
+public interface AiCodeHelperService extends ChatMemoryAccess {
 
     /**
      * Basic chat with system prompt from external file.
@@ -63,5 +64,5 @@ public interface AiCodeHelperService {
      * @param userMessage User's input message
      * @return Flux stream of response chunks
      */
-    Flux<String> chatStream(@MemoryId int sessionId, @UserMessage String userMessage);
+    Flux<String> chatStream(@MemoryId String sessionId, @UserMessage String userMessage);
 }
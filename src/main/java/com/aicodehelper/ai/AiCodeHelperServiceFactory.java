@@ -1,10 +1,14 @@
 package com.aicodehelper.ai;
 
+import com.aicodehelper.ai.memory.ChatMemoryCompactor;
+import com.aicodehelper.ai.memory.TieredChatMemoryStore;
+import com.aicodehelper.ai.tools.ConcurrentToolExecution;
 import com.aicodehelper.ai.tools.InterviewQuestionTool;
 import dev.langchain4j.mcp.McpToolProvider;
 import dev.langchain4j.memory.ChatMemory;
 import dev.langchain4j.memory.chat.MessageWindowChatMemory;
 import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.StreamingChatModel;
 
 import dev.langchain4j.rag.content.retriever.ContentRetriever;
 import dev.langchain4j.service.AiServices;
@@ -18,9 +22,10 @@ import org.springframework.context.annotation.Configuration;
  * Factory class for creating and configuring the AI Code Helper Service.
  * This factory creates a comprehensive AI service with:
  * - Chat and streaming chat models
- * - Conversation memory management
+ * - Conversation memory management, bounded in heap and spilled to disk, either the last
+ *   messages or a token budget with older turns summarized
  * - RAG (Retrieval Augmented Generation) capabilities
- * - Tool integration (Interview Questions, Web Search via MCP)
+ * - Tool integration (Interview Questions, Web Search via MCP), executed concurrently
  * - Input safety guardrails
  */
 @Configuration
@@ -30,7 +35,8 @@ public class AiCodeHelperServiceFactory {
     @Resource
     private ChatModel myGeminiChatModel;
 
-
+    @Resource
+    private StreamingChatModel myGeminiStreamingChatModel;
 
     @Resource
     private ContentRetriever contentRetriever;
@@ -38,9 +44,25 @@ public class AiCodeHelperServiceFactory {
     @Resource
     private McpToolProvider mcpToolProvider;
 
+    @Resource
+    private InterviewQuestionTool interviewQuestionTool;
+
+    @Resource
+    private ConcurrentToolExecution concurrentToolExecution;
+
+    @Resource
+    private TieredChatMemoryStore chatMemoryStore;
+
+    @Resource
+    private ChatMemoryCompactor chatMemoryCompactor;
+
     @Value("${ai.chat.memory.max-messages:10}")
     private int maxMemoryMessages;
 
+    // "window" keeps the last max-messages messages, "summarizing" a token budget with a summary of older turns
+    @Value("${ai.chat.memory.type:window}")
+    private String memoryType;
+
     /**
      * Creates the main AI service with all advanced features enabled.
      * 
@@ -48,7 +70,7 @@ public class AiCodeHelperServiceFactory {
      */
     @Bean
     public AiCodeHelperService aiCodeHelperService() {
-        log.info("Initializing AI Code Helper Service with max memory messages: {}", maxMemoryMessages);
+        log.info("Initializing AI Code Helper Service with {} memory, max memory messages: {}", memoryType, maxMemoryMessages);
         
         // Configure conversation memory for default session
         ChatMemory defaultChatMemory = MessageWindowChatMemory.withMaxMessages(maxMemoryMessages);
@@ -56,16 +78,30 @@ public class AiCodeHelperServiceFactory {
         // Build the comprehensive AI service
         AiCodeHelperService service = AiServices.builder(AiCodeHelperService.class)
                 .chatModel(myGeminiChatModel)
-
+                .streamingChatModel(myGeminiStreamingChatModel)
                 .chatMemory(defaultChatMemory)
-                .chatMemoryProvider(sessionId -> 
-                        MessageWindowChatMemory.withMaxMessages(maxMemoryMessages)) // Independent memory per session
+                .chatMemoryProvider(this::sessionMemory) // Independent memory per session
                 .contentRetriever(contentRetriever) // Enable RAG with knowledge base
-                .tools(new InterviewQuestionTool()) // Add interview question search tool
-                .toolProvider(mcpToolProvider) // Add MCP web search capabilities
+                // Tool calls of one turn run concurrently, each with its own timeout
+                .tools(concurrentToolExecution.tools(interviewQuestionTool)) // Add interview question search tool
+                .toolProvider(concurrentToolExecution.tools(mcpToolProvider)) // Add MCP web search capabilities
                 .build();
+
+        // Sessions leaving the hot tier are dropped by the service as well; it recreates them on return
+        chatMemoryStore.onEviction(service::evictChatMemory);
         
         log.info("AI Code Helper Service successfully initialized");
         return service;
     }
+
+    private ChatMemory sessionMemory(Object sessionId) {
+        if ("summarizing".equalsIgnoreCase(memoryType)) {
+            return chatMemoryCompactor.memory(sessionId, chatMemoryStore);
+        }
+        return MessageWindowChatMemory.builder()
+                .id(sessionId)
+                .maxMessages(maxMemoryMessages)
+                .chatMemoryStore(chatMemoryStore)
+                .build();
+    }
 }
@@ -0,0 +1,150 @@
+package com.aicodehelper.ai.cache;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+
+/**
+ * Size- and age-bounded map used by the response cache tiers.
+ *
+ * Entries expire after a fixed time-to-live and, once the cache is full, the
+ * least recently used (LRU) or least frequently used (LFU) entry is evicted.
+ * A {@link ReentrantLock} guards the map rather than {@code synchronized} so that
+ * virtual threads never pin their carrier while waiting for it.
+ *
+ * @param <K> Key type
+ * @param <V> Value type
+ */
+class BoundedCache<K, V> {
+
+    /**
+     * Eviction policy applied when the cache reaches its maximum size.
+     */
+    enum EvictionPolicy { LRU, LFU }
+
+    private final int maxEntries;
+    private final Duration ttl;
+    private final EvictionPolicy policy;
+    private final Clock clock;
+    private final Runnable onEviction;
+
+    // Access-ordered, so iteration runs from least to most recently used
+    private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final ReentrantLock lock = new ReentrantLock();
+
+    BoundedCache(int maxEntries, Duration ttl, EvictionPolicy policy, Clock clock, Runnable onEviction) {
+        this.maxEntries = maxEntries;
+        this.ttl = ttl;
+        this.policy = policy;
+        this.clock = clock;
+        this.onEviction = onEviction;
+    }
+
+    V get(K key) {
+        lock.lock();
+        try {
+            Entry<V> entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (isExpired(entry)) {
+                entries.remove(key);
+                return null;
+            }
+            entry.hits++;
+            return entry.value;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void put(K key, V value) {
+        if (maxEntries <= 0) {
+            return;
+        }
+        lock.lock();
+        try {
+            entries.put(key, new Entry<>(value, clock.millis()));
+            while (entries.size() > maxEntries) {
+                evictOne(key);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Visits every live entry and drops expired ones along the way. The visitor runs
+     * under the cache lock and must not call back into the cache.
+     */
+    void forEachLive(BiConsumer<K, V> visitor) {
+        lock.lock();
+        try {
+            Iterator<Map.Entry<K, Entry<V>>> iterator = entries.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<K, Entry<V>> entry = iterator.next();
+                if (isExpired(entry.getValue())) {
+                    iterator.remove();
+                } else {
+                    visitor.accept(entry.getKey(), entry.getValue().value);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Marks an entry found by {@link #forEachLive} as used, so it counts for LRU/LFU eviction.
+     */
+    void touch(K key) {
+        get(key);
+    }
+
+    int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void evictOne(K justAdded) {
+        K victim = null;
+        if (policy == EvictionPolicy.LFU) {
+            // Ties go to the least recently used entry thanks to the access order; the entry
+            // just added has no hits yet and is never its own victim
+            long fewestHits = Long.MAX_VALUE;
+            for (Map.Entry<K, Entry<V>> entry : entries.entrySet()) {
+                if (!entry.getKey().equals(justAdded) && entry.getValue().hits < fewestHits) {
+                    fewestHits = entry.getValue().hits;
+                    victim = entry.getKey();
+                }
+            }
+        } else {
+            victim = entries.keySet().iterator().next();
+        }
+        entries.remove(victim);
+        onEviction.run();
+    }
+
+    private boolean isExpired(Entry<V> entry) {
+        return clock.millis() - entry.createdAt >= ttl.toMillis();
+    }
+
+    private static final class Entry<V> {
+        private final V value;
+        private final long createdAt;
+        private long hits;
+
+        private Entry(V value, long createdAt) {
+            this.value = value;
+            this.createdAt = createdAt;
+        }
+    }
+}
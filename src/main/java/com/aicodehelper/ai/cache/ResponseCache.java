@@ -0,0 +1,277 @@
+package com.aicodehelper.ai.cache;
+
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Locale;
+
+/**
+ * Two-tier response cache in front of the Gemini model.
+ *
+ * - Exact tier: keyed on the prompt with whitespace collapsed, model name and generation
+ *   config. Case is kept, since code prompts differing only in identifier case differ in meaning
+ * - Semantic tier: embeds the prompt, also folded to lower case and without trailing
+ *   punctuation, with the configured EmbeddingModel and serves a cached answer whose prompt
+ *   is similar enough, for the same model and config
+ *
+ * Both tiers are bounded in size, expire entries after a TTL and evict by LRU or LFU.
+ * Hits, misses, evictions and tier sizes are exported as Micrometer metrics.
+ */
+@Component
+@Slf4j
+public class ResponseCache {
+
+    @Resource
+    private EmbeddingModel embeddingModel;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    @Value("${ai.cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${ai.cache.eviction-policy:LRU}")
+    private String evictionPolicy;
+
+    @Value("${ai.cache.exact.max-entries:1000}")
+    private int exactMaxEntries;
+
+    @Value("${ai.cache.exact.ttl-minutes:60}")
+    private long exactTtlMinutes;
+
+    @Value("${ai.cache.semantic.enabled:true}")
+    private boolean semanticEnabled;
+
+    @Value("${ai.cache.semantic.max-entries:500}")
+    private int semanticMaxEntries;
+
+    @Value("${ai.cache.semantic.ttl-minutes:60}")
+    private long semanticTtlMinutes;
+
+    @Value("${ai.cache.semantic.similarity-threshold:0.92}")
+    private double similarityThreshold;
+
+    private Clock clock = Clock.systemUTC();
+
+    private BoundedCache<Key, String> exactTier;
+    private BoundedCache<Key, SemanticEntry> semanticTier;
+
+    private Counter exactHits;
+    private Counter exactMisses;
+    private Counter semanticHits;
+    private Counter semanticMisses;
+
+    @PostConstruct
+    public void init() {
+        BoundedCache.EvictionPolicy policy = BoundedCache.EvictionPolicy.valueOf(evictionPolicy.trim().toUpperCase(Locale.ROOT));
+        log.info("Initializing response cache - enabled: {}, policy: {}, exact: {} entries/{} min, semantic: {} ({} entries/{} min, threshold {})",
+                enabled, policy, exactMaxEntries, exactTtlMinutes, semanticEnabled, semanticMaxEntries, semanticTtlMinutes, similarityThreshold);
+
+        exactTier = new BoundedCache<>(exactMaxEntries, Duration.ofMinutes(exactTtlMinutes), policy, clock,
+                Counter.builder("ai.cache.evictions").tag("tier", "exact").register(meterRegistry)::increment);
+        semanticTier = new BoundedCache<>(semanticMaxEntries, Duration.ofMinutes(semanticTtlMinutes), policy, clock,
+                Counter.builder("ai.cache.evictions").tag("tier", "semantic").register(meterRegistry)::increment);
+
+        exactHits = requestCounter("exact", "hit");
+        exactMisses = requestCounter("exact", "miss");
+        semanticHits = requestCounter("semantic", "hit");
+        semanticMisses = requestCounter("semantic", "miss");
+
+        Gauge.builder("ai.cache.size", exactTier, BoundedCache::size).tag("tier", "exact").register(meterRegistry);
+        Gauge.builder("ai.cache.size", semanticTier, BoundedCache::size).tag("tier", "semantic").register(meterRegistry);
+    }
+
+    /**
+     * Looks up a cached answer, first by exact key and then by prompt similarity.
+     *
+     * The returned lookup carries the prompt embedding on a miss, so storing the
+     * answer afterwards does not embed the prompt a second time.
+     *
+     * @param prompt Prompt as sent by the caller
+     * @param modelName Model that would answer the prompt
+     * @param generationConfig Canonical form of the generation parameters
+     * @return Lookup result; {@link Lookup#isHit()} tells whether an answer was found
+     */
+    public Lookup lookup(String prompt, String modelName, String generationConfig) {
+        Key key = new Key(normalize(prompt), modelName, generationConfig);
+        if (!enabled) {
+            return new Lookup(key, null, null);
+        }
+
+        String answer = exactTier.get(key);
+        if (answer != null) {
+            exactHits.increment();
+            log.debug("Exact cache hit for prompt: {}", abbreviate(key.prompt()));
+            return new Lookup(key, null, answer);
+        }
+        exactMisses.increment();
+
+        if (!semanticEnabled) {
+            return new Lookup(key, null, null);
+        }
+
+        float[] embedding = embed(semanticText(key.prompt()));
+        if (embedding == null) {
+            return new Lookup(key, null, null);
+        }
+
+        Key[] bestKey = new Key[1];
+        SemanticEntry[] bestEntry = new SemanticEntry[1];
+        double[] bestScore = {similarityThreshold};
+        semanticTier.forEachLive((candidateKey, entry) -> {
+            if (!candidateKey.modelName().equals(modelName) || !candidateKey.generationConfig().equals(generationConfig)) {
+                return;
+            }
+            double score = cosineSimilarity(embedding, entry.embedding());
+            if (score >= bestScore[0]) {
+                bestScore[0] = score;
+                bestKey[0] = candidateKey;
+                bestEntry[0] = entry;
+            }
+        });
+
+        if (bestEntry[0] == null) {
+            semanticMisses.increment();
+            return new Lookup(key, embedding, null);
+        }
+
+        semanticTier.touch(bestKey[0]);
+        semanticHits.increment();
+        log.debug("Semantic cache hit (similarity {}) for prompt: {}", bestScore[0], abbreviate(key.prompt()));
+        return new Lookup(key, embedding, bestEntry[0].answer());
+    }
+
+    /**
+     * Stores the answer for a lookup that missed.
+     *
+     * @param lookup Lookup returned by {@link #lookup}
+     * @param answer Complete answer from the model
+     */
+    public void store(Lookup lookup, String answer) {
+        store(lookup, lookup.key().modelName(), answer);
+    }
+
+    /**
+     * Stores the answer for a lookup that missed, under the model that actually answered,
+     * which differs from the looked-up one when the call fell back to another model.
+     *
+     * @param lookup Lookup returned by {@link #lookup}
+     * @param modelName Model that produced the answer
+     * @param answer Complete answer from the model
+     */
+    public void store(Lookup lookup, String modelName, String answer) {
+        if (!enabled || lookup.isHit() || answer == null || answer.isBlank()) {
+            return;
+        }
+        Key key = modelName.equals(lookup.key().modelName())
+                ? lookup.key() : new Key(lookup.key().prompt(), modelName, lookup.key().generationConfig());
+        exactTier.put(key, answer);
+        if (lookup.embedding() != null) {
+            semanticTier.put(key, new SemanticEntry(lookup.embedding(), answer));
+        }
+    }
+
+    private Counter requestCounter(String tier, String result) {
+        return Counter.builder("ai.cache.requests")
+                .tag("tier", tier)
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    private float[] embed(String text) {
+        try {
+            float[] vector = embeddingModel.embed(text).content().vector();
+            // A zero vector (e.g. from the stub embedding model) cannot be compared meaningfully
+            for (float value : vector) {
+                if (value != 0f) {
+                    return vector;
+                }
+            }
+            return null;
+        } catch (Exception e) {
+            log.warn("Semantic cache lookup skipped, embedding failed: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    static String normalize(String prompt) {
+        return prompt.trim().replaceAll("\\s+", " ");
+    }
+
+    /**
+     * @return Normalized prompt folded further for embedding, where case and trailing
+     *         punctuation only add noise
+     */
+    static String semanticText(String normalizedPrompt) {
+        return normalizedPrompt.toLowerCase(Locale.ROOT).replaceAll("[?.!]+$", "");
+    }
+
+    private static double cosineSimilarity(float[] a, float[] b) {
+        if (a.length != b.length) {
+            return 0;
+        }
+        double dot = 0;
+        double normA = 0;
+        double normB = 0;
+        for (int i = 0; i < a.length; i++) {
+            dot += a[i] * b[i];
+            normA += a[i] * a[i];
+            normB += b[i] * b[i];
+        }
+        return normA == 0 || normB == 0 ? 0 : dot / (Math.sqrt(normA) * Math.sqrt(normB));
+    }
+
+    private static String abbreviate(String text) {
+        return text.substring(0, Math.min(50, text.length()));
+    }
+
+    /**
+     * Exact-match cache key.
+     */
+    record Key(String prompt, String modelName, String generationConfig) {
+    }
+
+    private record SemanticEntry(float[] embedding, String answer) {
+    }
+
+    /**
+     * Result of a cache lookup.
+     */
+    public static final class Lookup {
+
+        private final Key key;
+        private final float[] embedding;
+        private final String answer;
+
+        private Lookup(Key key, float[] embedding, String answer) {
+            this.key = key;
+            this.embedding = embedding;
+            this.answer = answer;
+        }
+
+        public boolean isHit() {
+            return answer != null;
+        }
+
+        public String answer() {
+            return answer;
+        }
+
+        Key key() {
+            return key;
+        }
+
+        float[] embedding() {
+            return embedding;
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package com.aicodehelper.ai.embedding;
+
+import ai.djl.huggingface.tokenizers.Encoding;
+import ai.djl.huggingface.tokenizers.HuggingFaceTokenizer;
+import ai.onnxruntime.OnnxTensor;
+import ai.onnxruntime.OrtEnvironment;
+import ai.onnxruntime.OrtException;
+import ai.onnxruntime.OrtSession;
+import ai.onnxruntime.TensorInfo;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+import dev.langchain4j.model.output.TokenUsage;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.IntStream;
+
+/**
+ * In-process sentence embeddings from an ONNX BERT encoder, run in batches on the CPU.
+ *
+ * LangChain4j's own in-process models run the encoder once per text. This one tokenizes all
+ * texts of a call at once, sorts them by length and runs them through ONNX Runtime
+ * {@code batchSize} at a time, padded only to the longest text of each batch. Embeddings are the
+ * mean of the token states, normalized to unit length.
+ *
+ * - ONNX Runtime parallelizes each batch over {@code threads} CPU threads
+ * - Input ids, masks and the output states live in direct buffers that are reused across calls;
+ *   ONNX Runtime reads the inputs from and writes the output into them without copying
+ * - Texts longer than {@code maxTokens} tokens are truncated
+ *
+ * The bundled model is all-MiniLM-L6-v2 with 384 dimensions, loaded from the classpath, so no
+ * network or GPU is needed at runtime.
+ */
+@Slf4j
+public class BatchedOnnxEmbeddingModel implements EmbeddingModel, AutoCloseable {
+
+    private static final String MODEL_RESOURCE = "/all-minilm-l6-v2.onnx";
+    private static final String TOKENIZER_RESOURCE = "/all-minilm-l6-v2-tokenizer.json";
+
+    private final OrtEnvironment environment = OrtEnvironment.getEnvironment();
+    private final OrtSession session;
+    private final HuggingFaceTokenizer tokenizer;
+    private final boolean usesTokenTypes;
+    private final String outputName;
+    private final int dimension;
+    private final int batchSize;
+    // Idle buffer sets; one is taken per call in progress
+    private final ConcurrentLinkedQueue<Workspace> workspaces = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Loads the bundled all-MiniLM-L6-v2 model.
+     */
+    public static BatchedOnnxEmbeddingModel allMiniLmL6V2(int threads, int batchSize, int maxTokens) {
+        try (InputStream model = resource(MODEL_RESOURCE); InputStream tokenizer = resource(TOKENIZER_RESOURCE)) {
+            return new BatchedOnnxEmbeddingModel(model.readAllBytes(), tokenizer, threads, batchSize, maxTokens);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to load embedding model", e);
+        }
+    }
+
+    BatchedOnnxEmbeddingModel(byte[] model, InputStream tokenizerJson, int threads, int batchSize, int maxTokens) throws IOException {
+        this.batchSize = Math.max(1, batchSize);
+        Map<String, String> options = new HashMap<>();
+        options.put("padding", "false");
+        options.put("truncation", "true");
+        options.put("maxLength", String.valueOf(maxTokens));
+        this.tokenizer = HuggingFaceTokenizer.newInstance(tokenizerJson, options);
+        try (OrtSession.SessionOptions sessionOptions = new OrtSession.SessionOptions()) {
+            sessionOptions.setOptimizationLevel(OrtSession.SessionOptions.OptLevel.ALL_OPT);
+            sessionOptions.setIntraOpNumThreads(threads);
+            sessionOptions.setInterOpNumThreads(1);
+            this.session = environment.createSession(model, sessionOptions);
+            this.usesTokenTypes = session.getInputNames().contains("token_type_ids");
+            this.outputName = session.getOutputNames().iterator().next();
+            long[] outputShape = ((TensorInfo) session.getOutputInfo().get(outputName).getInfo()).getShape();
+            this.dimension = (int) outputShape[outputShape.length - 1];
+        } catch (OrtException e) {
+            throw new IOException("Failed to create ONNX session", e);
+        }
+        log.info("Loaded embedding model - dimension: {}, threads: {}, batch size: {}, max tokens: {}",
+                dimension, threads, this.batchSize, maxTokens);
+    }
+
+    @Override
+    public Response<List<Embedding>> embedAll(List<TextSegment> segments) {
+        if (segments.isEmpty()) {
+            return Response.from(List.of());
+        }
+        Encoding[] encodings = tokenizer.batchEncode(segments.stream().map(TextSegment::text).toList());
+        // Similar lengths share a batch, which keeps padding short
+        Integer[] order = IntStream.range(0, encodings.length).boxed()
+                .sorted(Comparator.comparingInt(i -> encodings[i].getIds().length))
+                .toArray(Integer[]::new);
+
+        Embedding[] embeddings = new Embedding[encodings.length];
+        int tokens = 0;
+        Workspace workspace = workspaces.poll();
+        if (workspace == null) {
+            workspace = new Workspace();
+        }
+        try {
+            for (int start = 0; start < order.length; start += batchSize) {
+                tokens += runBatch(workspace, encodings, order, start, Math.min(order.length, start + batchSize), embeddings);
+            }
+        } catch (OrtException e) {
+            throw new IllegalStateException("Embedding inference failed", e);
+        } finally {
+            workspaces.offer(workspace);
+        }
+        return Response.from(Arrays.asList(embeddings), new TokenUsage(tokens));
+    }
+
+    @Override
+    public int dimension() {
+        return dimension;
+    }
+
+    @Override
+    public void close() throws OrtException {
+        session.close();
+        tokenizer.close();
+    }
+
+    /**
+     * @return Tokens in the batch, excluding padding
+     */
+    private int runBatch(Workspace workspace, Encoding[] encodings, Integer[] order, int start, int end,
+                         Embedding[] embeddings) throws OrtException {
+        int rows = end - start;
+        int width = encodings[order[end - 1]].getIds().length;
+        workspace.ensure(rows * width, rows * width * dimension);
+
+        LongBuffer ids = workspace.ids.clear();
+        LongBuffer mask = workspace.mask.clear();
+        LongBuffer types = workspace.types.clear();
+        int tokens = 0;
+        for (int row = 0; row < rows; row++) {
+            Encoding encoding = encodings[order[start + row]];
+            long[] rowIds = encoding.getIds();
+            ids.put(rowIds);
+            mask.put(encoding.getAttentionMask());
+            types.put(encoding.getTypeIds());
+            for (int pad = rowIds.length; pad < width; pad++) {
+                ids.put(0L);
+                mask.put(0L);
+                types.put(0L);
+            }
+            tokens += rowIds.length;
+        }
+        long[] inputShape = {rows, width};
+        FloatBuffer states = workspace.states.clear().limit(rows * width * dimension);
+
+        try (OnnxTensor idsTensor = OnnxTensor.createTensor(environment, ids.flip(), inputShape);
+             OnnxTensor maskTensor = OnnxTensor.createTensor(environment, mask.flip(), inputShape);
+             OnnxTensor typesTensor = OnnxTensor.createTensor(environment, types.flip(), inputShape);
+             OnnxTensor output = OnnxTensor.createTensor(environment, states, new long[] {rows, width, dimension})) {
+            Map<String, OnnxTensor> inputs = new HashMap<>();
+            inputs.put("input_ids", idsTensor);
+            inputs.put("attention_mask", maskTensor);
+            if (usesTokenTypes) {
+                inputs.put("token_type_ids", typesTensor);
+            }
+            // The result does not own the pinned output, which is closed above
+            session.run(inputs, Map.of(outputName, output)).close();
+        }
+
+        for (int row = 0; row < rows; row++) {
+            int length = encodings[order[start + row]].getIds().length;
+            embeddings[order[start + row]] = Embedding.from(meanPool(workspace.states, row * width * dimension, length));
+        }
+        return tokens;
+    }
+
+    private float[] meanPool(FloatBuffer states, int offset, int length) {
+        float[] vector = new float[dimension];
+        for (int token = 0; token < length; token++) {
+            int base = offset + token * dimension;
+            for (int d = 0; d < dimension; d++) {
+                vector[d] += states.get(base + d);
+            }
+        }
+        double norm = 0;
+        for (float value : vector) {
+            norm += value * value;
+        }
+        // Dividing by the token count first would cancel out in the normalization
+        float scale = norm > 0 ? (float) (1 / Math.sqrt(norm)) : 0f;
+        for (int d = 0; d < dimension; d++) {
+            vector[d] *= scale;
+        }
+        return vector;
+    }
+
+    private static InputStream resource(String name) throws IOException {
+        InputStream stream = BatchedOnnxEmbeddingModel.class.getResourceAsStream(name);
+        if (stream == null) {
+            throw new IOException("Missing classpath resource " + name);
+        }
+        return stream;
+    }
+
+    /**
+     * Direct buffers for the inputs and output of one batch, grown as needed.
+     */
+    private static final class Workspace {
+
+        private LongBuffer ids = LongBuffer.allocate(0);
+        private LongBuffer mask = LongBuffer.allocate(0);
+        private LongBuffer types = LongBuffer.allocate(0);
+        private FloatBuffer states = FloatBuffer.allocate(0);
+
+        void ensure(int tokens, int stateValues) {
+            if (ids.capacity() < tokens) {
+                int capacity = Math.max(tokens, ids.capacity() * 2);
+                ids = directLongs(capacity);
+                mask = directLongs(capacity);
+                types = directLongs(capacity);
+            }
+            if (states.capacity() < stateValues) {
+                states = ByteBuffer.allocateDirect(Math.max(stateValues, states.capacity() * 2) * Float.BYTES)
+                        .order(ByteOrder.nativeOrder()).asFloatBuffer();
+            }
+        }
+
+        private static LongBuffer directLongs(int capacity) {
+            return ByteBuffer.allocateDirect(capacity * Long.BYTES).order(ByteOrder.nativeOrder()).asLongBuffer();
+        }
+    }
+}
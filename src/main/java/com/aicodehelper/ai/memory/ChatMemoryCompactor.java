@@ -0,0 +1,195 @@
+package com.aicodehelper.ai.memory;
+
+import com.aicodehelper.ai.traffic.CallerContext;
+import com.aicodehelper.ai.traffic.RequestPriority;
+import dev.langchain4j.agent.tool.ToolExecutionRequest;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.ToolExecutionResultMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.memory.ChatMemory;
+import dev.langchain4j.model.TokenCountEstimator;
+import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.store.memory.chat.ChatMemoryStore;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates {@link SummarizingChatMemory} instances and compacts them in the background.
+ *
+ * - Compaction runs on a small pool of its own, at most once at a time per session; requests
+ *   for a session already being compacted, or beyond the queue, are dropped, as the next
+ *   message asks again
+ * - Summaries are generated by the chat model at batch priority, extending the previous summary
+ *   with the turns that fell out of the budget, and capped at {@code summary-max-tokens}
+ * - Token counts are local estimates from {@link GeminiTokenEstimator}
+ * - Duration per outcome is recorded in {@code ai.chat.memory.compactions}
+ */
+@Component
+@Slf4j
+public class ChatMemoryCompactor {
+
+    private static final String CLIENT_ID = "memory-compaction";
+    private static final String INSTRUCTIONS = """
+            You maintain the running summary of a conversation between a user and a programming \
+            assistant. Extend the previous summary with the new turns. Keep the user's goals, \
+            facts about the user, decisions, code identifiers and open questions; drop pleasantries \
+            and details of answers that can be regenerated. Write in the language of the \
+            conversation, as plain prose, in at most %d words.""";
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    @Resource
+    private ChatModel myGeminiChatModel;
+
+    @Value("${ai.chat.memory.summary.max-tokens:2000}")
+    private int maxTokens;
+
+    @Value("${ai.chat.memory.summary.summary-max-tokens:400}")
+    private int summaryMaxTokens;
+
+    @Value("${ai.chat.memory.summary.threads:2}")
+    private int threads;
+
+    @Value("${ai.chat.memory.summary.queue-size:100}")
+    private int queueSize;
+
+    private final TokenCountEstimator estimator = new GeminiTokenEstimator();
+    // Sessions with a compaction queued or running
+    private final Set<Object> compacting = ConcurrentHashMap.newKeySet();
+
+    private ThreadPoolExecutor pool;
+
+    @PostConstruct
+    public void init() {
+        log.info("Initializing chat memory compaction - budget: {} tokens, summary: {} tokens, threads: {}",
+                maxTokens, summaryMaxTokens, threads);
+
+        AtomicInteger count = new AtomicInteger();
+        pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(Math.max(1, queueSize)),
+                task -> {
+                    Thread thread = new Thread(task, "memory-compaction-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        pool.allowCoreThreadTimeOut(true);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * @return Token-budgeted memory of a session, kept in {@code store}
+     */
+    public ChatMemory memory(Object memoryId, ChatMemoryStore store) {
+        return new SummarizingChatMemory(memoryId, store, estimator, maxTokens, this::schedule);
+    }
+
+    private void schedule(SummarizingChatMemory memory) {
+        if (!compacting.add(memory.id())) {
+            return;
+        }
+        try {
+            pool.execute(() -> {
+                try {
+                    compact(memory);
+                } finally {
+                    compacting.remove(memory.id());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            compacting.remove(memory.id());
+            log.debug("Compaction queue full, skipping session {} for now", memory.id());
+        }
+    }
+
+    private void compact(SummarizingChatMemory memory) {
+        // Messages added while a summary was generated may call for another round
+        while (memory.isOverBudget()) {
+            SummarizingChatMemory.Compaction compaction = memory.pendingCompaction();
+            if (compaction == null || !compact(memory, compaction)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return Whether the summary replaced the turns
+     */
+    private boolean compact(SummarizingChatMemory memory, SummarizingChatMemory.Compaction compaction) {
+        long startedAt = System.nanoTime();
+        String outcome;
+        try {
+            String summary = summarize(compaction);
+            outcome = memory.applySummary(compaction, summary) ? "success" : "stale";
+            log.debug("Compacted {} messages of session {} into a summary of {} tokens: {}",
+                    compaction.turns().size(), memory.id(), estimator.estimateTokenCountInText(summary), outcome);
+        } catch (RuntimeException e) {
+            outcome = "failure";
+            log.warn("Failed to compact chat memory of session {}: {}", memory.id(), e.getMessage());
+        }
+        Timer.builder("ai.chat.memory.compactions")
+                .tag("outcome", outcome)
+                .register(meterRegistry)
+                .record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+        return outcome.equals("success");
+    }
+
+    private String summarize(SummarizingChatMemory.Compaction compaction) {
+        StringBuilder transcript = new StringBuilder();
+        if (compaction.previousSummary() != null) {
+            transcript.append("Previous summary:\n").append(compaction.previousSummary()).append("\n\n");
+        }
+        transcript.append("New turns:\n");
+        for (ChatMessage message : compaction.turns()) {
+            appendTurn(transcript, message);
+        }
+
+        ChatRequest request = ChatRequest.builder()
+                .messages(SystemMessage.from(INSTRUCTIONS.formatted(summaryMaxTokens * 3 / 4)), UserMessage.from(transcript.toString()))
+                .maxOutputTokens(summaryMaxTokens)
+                .build();
+        CallerContext caller = new CallerContext(RequestPriority.BATCH, CLIENT_ID);
+        String summary = caller.run(() -> myGeminiChatModel.chat(request)).aiMessage().text();
+        if (summary == null || summary.isBlank()) {
+            throw new IllegalStateException("Empty summary");
+        }
+        return summary.strip();
+    }
+
+    private static void appendTurn(StringBuilder transcript, ChatMessage message) {
+        if (message instanceof UserMessage user) {
+            transcript.append("User: ").append(user.hasSingleText() ? user.singleText() : "[image]").append('\n');
+        } else if (message instanceof AiMessage ai) {
+            if (ai.text() != null) {
+                transcript.append("Assistant: ").append(ai.text()).append('\n');
+            }
+            if (ai.hasToolExecutionRequests()) {
+                for (ToolExecutionRequest call : ai.toolExecutionRequests()) {
+                    transcript.append("Assistant called ").append(call.name()).append(' ').append(call.arguments()).append('\n');
+                }
+            }
+        } else if (message instanceof ToolExecutionResultMessage result) {
+            transcript.append("Tool ").append(result.toolName()).append(" returned: ").append(result.text()).append('\n');
+        }
+    }
+}
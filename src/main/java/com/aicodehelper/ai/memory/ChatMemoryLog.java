@@ -0,0 +1,292 @@
+package com.aicodehelper.ai.memory;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only file of chat session snapshots, read through a memory mapping.
+ *
+ * Every record holds the complete messages of one session, so the latest record of a session
+ * is all that is needed to restore it and older ones are garbage until {@link #compact()}
+ * rewrites the file with live records only. Deleting a session appends a tombstone.
+ *
+ * Record layout: payload length (int), CRC32 of the payload (int), type (byte), then the
+ * payload of key length (short), key and message JSON, all UTF-8. On opening, the file is
+ * scanned to rebuild the offset of the latest record per session; a torn or corrupt tail,
+ * as left by a crash during a write, is cut off.
+ *
+ * Not thread-safe; {@link TieredChatMemoryStore} serializes access.
+ */
+@Slf4j
+final class ChatMemoryLog implements Closeable {
+
+    private static final int HEADER_BYTES = 9;
+    private static final byte SNAPSHOT = 1;
+    private static final byte TOMBSTONE = 0;
+
+    /**
+     * Replaces the log with its compacted copy.
+     */
+    interface Swap {
+        void move(Path compacted, Path log) throws IOException;
+    }
+
+    private final Path path;
+    private Swap swap = ChatMemoryLog::replace;
+    private FileChannel channel;
+    private MappedByteBuffer mapped;
+
+    // Offset of the latest snapshot per session
+    private Map<String, Long> offsets = new HashMap<>();
+    private long size;
+    private long liveBytes;
+
+    private ChatMemoryLog(Path path) {
+        this.path = path;
+    }
+
+    static ChatMemoryLog open(Path path) throws IOException {
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        ChatMemoryLog log = new ChatMemoryLog(path);
+        log.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        log.recover();
+        return log;
+    }
+
+    boolean contains(String key) {
+        return offsets.containsKey(key);
+    }
+
+    /**
+     * @return Message JSON of the latest snapshot of a session, or null if none is stored
+     */
+    String read(String key) throws IOException {
+        Long offset = offsets.get(key);
+        if (offset == null) {
+            return null;
+        }
+        ByteBuffer record = record(offset);
+        int payloadLength = record.getInt();
+        record.getInt();
+        record.get();
+        byte[] payload = new byte[payloadLength];
+        record.get(payload);
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        buffer.position(Short.BYTES + buffer.getShort());
+        return StandardCharsets.UTF_8.decode(buffer).toString();
+    }
+
+    void append(String key, String json) throws IOException {
+        long offset = size;
+        int length = write(SNAPSHOT, key, json);
+        Long previous = offsets.put(key, offset);
+        if (previous != null) {
+            liveBytes -= recordLength(previous);
+        }
+        liveBytes += length;
+    }
+
+    void delete(String key) throws IOException {
+        Long previous = offsets.remove(key);
+        if (previous != null) {
+            liveBytes -= recordLength(previous);
+            write(TOMBSTONE, key, "");
+        }
+    }
+
+    int sessions() {
+        return offsets.size();
+    }
+
+    long size() {
+        return size;
+    }
+
+    long liveBytes() {
+        return liveBytes;
+    }
+
+    void force() throws IOException {
+        channel.force(false);
+    }
+
+    /**
+     * Rewrites the file with the latest snapshot of every stored session and swaps it in.
+     *
+     * If the swap fails, for example because the file system has no atomic move or, on
+     * Windows, because the old file is still mapped, the log stays open on the uncompacted
+     * file and the error is rethrown.
+     */
+    void compact() throws IOException {
+        Path compacted = path.resolveSibling(path.getFileName() + ".compact");
+        Map<String, Long> compactedOffsets = new HashMap<>(offsets.size() * 2);
+        long position = 0;
+        try (FileChannel target = FileChannel.open(compacted, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            for (Map.Entry<String, Long> entry : offsets.entrySet()) {
+                ByteBuffer record = record(entry.getValue());
+                compactedOffsets.put(entry.getKey(), position);
+                position += record.remaining();
+                while (record.hasRemaining()) {
+                    target.write(record);
+                }
+            }
+            target.force(false);
+        }
+        channel.close();
+        mapped = null;
+        try {
+            swap.move(compacted, path);
+        } catch (IOException | RuntimeException e) {
+            if (!reopenAfterFailedSwap(compacted, e)) {
+                throw e;
+            }
+        }
+        if (!channel.isOpen()) {
+            channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+        offsets = compactedOffsets;
+        size = position;
+        liveBytes = position;
+    }
+
+    /**
+     * Reopens whichever file holds the sessions after a failed swap, so the log stays usable.
+     *
+     * @return Whether the compacted file ended up in place after all, as when a non-atomic
+     * replacement removed the old file before failing
+     */
+    private boolean reopenAfterFailedSwap(Path compacted, Exception cause) {
+        try {
+            if (Files.exists(path)) {
+                channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                Files.deleteIfExists(compacted);
+                log.warn("Could not swap in the compacted chat memory log {}, keeping the uncompacted one: {}",
+                        path, cause.toString());
+                return false;
+            }
+            Files.move(compacted, path);
+            channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            return true;
+        } catch (IOException e) {
+            cause.addSuppressed(e);
+            return false;
+        }
+    }
+
+    private static void replace(Path compacted, Path log) throws IOException {
+        try {
+            Files.move(compacted, log, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(compacted, log, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        mapped = null;
+        channel.close();
+    }
+
+    private int write(byte type, String key, String json) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        byte[] jsonBytes = json.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer payload = ByteBuffer.allocate(Short.BYTES + keyBytes.length + jsonBytes.length);
+        payload.putShort((short) keyBytes.length).put(keyBytes).put(jsonBytes).flip();
+        CRC32 crc = new CRC32();
+        crc.update(payload.duplicate());
+
+        ByteBuffer record = ByteBuffer.allocate(HEADER_BYTES + payload.remaining());
+        record.putInt(payload.remaining()).putInt((int) crc.getValue()).put(type).put(payload).flip();
+        int length = record.remaining();
+        long position = size;
+        while (record.hasRemaining()) {
+            position += channel.write(record, position);
+        }
+        size = position;
+        return length;
+    }
+
+    private int recordLength(long offset) throws IOException {
+        return HEADER_BYTES + mapping(offset + HEADER_BYTES).getInt((int) offset);
+    }
+
+    /**
+     * @return Complete record at an offset, positioned at its header
+     */
+    private ByteBuffer record(long offset) throws IOException {
+        MappedByteBuffer buffer = mapping(offset + HEADER_BYTES);
+        int length = HEADER_BYTES + buffer.getInt((int) offset);
+        return mapping(offset + length).slice((int) offset, length);
+    }
+
+    /**
+     * @return Read-only mapping of the file covering at least {@code end} bytes; the file is
+     * remapped as it grows
+     */
+    private MappedByteBuffer mapping(long end) throws IOException {
+        if (mapped == null || mapped.capacity() < end) {
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Chat memory log exceeds 2 GB: " + path);
+            }
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        return mapped;
+    }
+
+    private void recover() throws IOException {
+        long fileSize = channel.size();
+        if (fileSize == 0) {
+            return;
+        }
+        size = fileSize;
+        MappedByteBuffer buffer = mapping(fileSize);
+        long position = 0;
+        while (position + HEADER_BYTES <= fileSize) {
+            int payloadLength = buffer.getInt((int) position);
+            if (payloadLength < Short.BYTES || position + HEADER_BYTES + payloadLength > fileSize) {
+                break;
+            }
+            ByteBuffer payload = buffer.slice((int) position + HEADER_BYTES, payloadLength);
+            CRC32 crc = new CRC32();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != buffer.getInt((int) position + Integer.BYTES)) {
+                break;
+            }
+            byte[] keyBytes = new byte[payload.getShort()];
+            payload.get(keyBytes);
+            String key = new String(keyBytes, StandardCharsets.UTF_8);
+            int length = HEADER_BYTES + payloadLength;
+            boolean snapshot = buffer.get((int) position + Integer.BYTES * 2) == SNAPSHOT;
+            Long previous = snapshot ? offsets.put(key, position) : offsets.remove(key);
+            if (previous != null) {
+                liveBytes -= HEADER_BYTES + buffer.getInt(previous.intValue());
+            }
+            if (snapshot) {
+                liveBytes += length;
+            }
+            position += length;
+        }
+        if (position < fileSize) {
+            log.warn("Truncating chat memory log {} at {} of {} bytes after a torn or corrupt record", path, position, fileSize);
+            mapped = null;
+            channel.truncate(position);
+        }
+        size = position;
+        log.info("Opened chat memory log {} - sessions: {}, bytes: {}", path, offsets.size(), size);
+    }
+}
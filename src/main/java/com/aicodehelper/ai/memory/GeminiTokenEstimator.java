@@ -0,0 +1,77 @@
+package com.aicodehelper.ai.memory;
+
+import com.aicodehelper.ai.quota.ApiKeyPool;
+import dev.langchain4j.agent.tool.ToolExecutionRequest;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.Content;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.TextContent;
+import dev.langchain4j.data.message.ToolExecutionResultMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.model.TokenCountEstimator;
+
+/**
+ * Local estimate of the Gemini tokens of chat messages, without a call to {@code countTokens}.
+ *
+ * - ASCII text counts one token per four characters, as in {@link ApiKeyPool#estimateTokens}
+ * - Other characters, mostly CJK here, count one token each, which is what Gemini's tokenizer
+ *   roughly produces for Chinese
+ * - Images count a flat 258 tokens, and every message a few tokens of turn framing
+ *
+ * Estimates are meant for budgets, not billing; they err on the high side for mixed text.
+ */
+public class GeminiTokenEstimator implements TokenCountEstimator {
+
+    private static final int TOKENS_PER_MESSAGE = 4;
+    private static final int TOKENS_PER_IMAGE = 258;
+
+    @Override
+    public int estimateTokenCountInText(String text) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+        long ascii = 0;
+        long other = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                ascii++;
+            } else if (!Character.isLowSurrogate(c)) {
+                other++;
+            }
+        }
+        return (int) Math.min(Integer.MAX_VALUE, ApiKeyPool.estimateTokens(ascii) + other);
+    }
+
+    @Override
+    public int estimateTokenCountInMessage(ChatMessage message) {
+        int tokens = TOKENS_PER_MESSAGE;
+        if (message instanceof SystemMessage system) {
+            tokens += estimateTokenCountInText(system.text());
+        } else if (message instanceof UserMessage user) {
+            for (Content content : user.contents()) {
+                tokens += content instanceof TextContent text ? estimateTokenCountInText(text.text()) : TOKENS_PER_IMAGE;
+            }
+        } else if (message instanceof AiMessage ai) {
+            tokens += estimateTokenCountInText(ai.text());
+            if (ai.hasToolExecutionRequests()) {
+                for (ToolExecutionRequest request : ai.toolExecutionRequests()) {
+                    tokens += estimateTokenCountInText(request.name()) + estimateTokenCountInText(request.arguments());
+                }
+            }
+        } else if (message instanceof ToolExecutionResultMessage result) {
+            tokens += estimateTokenCountInText(result.toolName()) + estimateTokenCountInText(result.text());
+        }
+        return tokens;
+    }
+
+    @Override
+    public int estimateTokenCountInMessages(Iterable<ChatMessage> messages) {
+        int tokens = 0;
+        for (ChatMessage message : messages) {
+            tokens += estimateTokenCountInMessage(message);
+        }
+        return tokens;
+    }
+}
@@ -0,0 +1,227 @@
+package com.aicodehelper.ai.memory;
+
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.memory.ChatMemory;
+import dev.langchain4j.model.TokenCountEstimator;
+import dev.langchain4j.store.memory.chat.ChatMemoryStore;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Chat memory held to a token budget, with older turns folded into a running summary.
+ *
+ * The stored messages are the system message, if any, then the summary of earlier turns as a
+ * user message named {@value #SUMMARY_NAME}, then the turns not summarized yet. What the model
+ * sees is the system message, the summary and as many of the newest turns as fit in
+ * {@code maxTokens}, so the prompt stays within the budget however long the conversation gets.
+ *
+ * Once the stored messages exceed the budget, compaction is requested. It runs off the request
+ * path: {@link ChatMemoryCompactor} summarizes the turns outside the newest half of the budget
+ * and replaces them with the new summary, unless the memory changed in the meantime. Until then,
+ * turns that no longer fit are left out of the prompt. Turns are only ever cut whole, at a user
+ * message, so tool calls and their results stay together.
+ */
+public class SummarizingChatMemory implements ChatMemory {
+
+    static final String SUMMARY_NAME = "conversation-summary";
+    private static final String SUMMARY_PREFIX = "Summary of the earlier conversation:\n";
+
+    private final Object id;
+    private final ChatMemoryStore store;
+    private final TokenCountEstimator estimator;
+    private final int maxTokens;
+    private final Consumer<SummarizingChatMemory> compaction;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    SummarizingChatMemory(Object id, ChatMemoryStore store, TokenCountEstimator estimator, int maxTokens,
+                          Consumer<SummarizingChatMemory> compaction) {
+        this.id = id;
+        this.store = store;
+        this.estimator = estimator;
+        this.maxTokens = maxTokens;
+        this.compaction = compaction;
+    }
+
+    @Override
+    public Object id() {
+        return id;
+    }
+
+    @Override
+    public void add(ChatMessage message) {
+        boolean overBudget;
+        lock.lock();
+        try {
+            Layout layout = new Layout(store.getMessages(id));
+            if (message instanceof SystemMessage system) {
+                if (system.equals(layout.system)) {
+                    return;
+                }
+                layout.system = system;
+            } else {
+                layout.turns.add(message);
+            }
+            List<ChatMessage> messages = layout.messages();
+            store.updateMessages(id, messages);
+            overBudget = estimator.estimateTokenCountInMessages(messages) > maxTokens;
+        } finally {
+            lock.unlock();
+        }
+        if (overBudget) {
+            compaction.accept(this);
+        }
+    }
+
+    @Override
+    public List<ChatMessage> messages() {
+        Layout layout = new Layout(store.getMessages(id));
+        int cut = layout.cut(maxTokens - layout.fixedTokens());
+        List<ChatMessage> messages = new ArrayList<>(layout.fixed());
+        messages.addAll(layout.turns.subList(cut, layout.turns.size()));
+        return messages;
+    }
+
+    @Override
+    public void clear() {
+        lock.lock();
+        try {
+            store.deleteMessages(id);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean isOverBudget() {
+        return estimator.estimateTokenCountInMessages(store.getMessages(id)) > maxTokens;
+    }
+
+    /**
+     * @return Turns to fold into the summary so that the remaining ones take at most half of the
+     * budget, or null if there are none
+     */
+    Compaction pendingCompaction() {
+        lock.lock();
+        try {
+            Layout layout = new Layout(store.getMessages(id));
+            int cut = layout.cut(maxTokens / 2 - layout.fixedTokens());
+            if (cut == 0) {
+                return null;
+            }
+            return new Compaction(layout.summary != null ? summaryText(layout.summary) : null,
+                    List.copyOf(layout.turns.subList(0, cut)));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Replaces the summarized turns with their summary.
+     *
+     * @return False if the memory changed since the compaction was planned and nothing was replaced
+     */
+    boolean applySummary(Compaction compaction, String summary) {
+        lock.lock();
+        try {
+            Layout layout = new Layout(store.getMessages(id));
+            String current = layout.summary != null ? summaryText(layout.summary) : null;
+            int folded = compaction.turns().size();
+            if (!Objects.equals(current, compaction.previousSummary())
+                    || layout.turns.size() < folded
+                    || !layout.turns.subList(0, folded).equals(compaction.turns())) {
+                return false;
+            }
+            layout.summary = UserMessage.from(SUMMARY_NAME, SUMMARY_PREFIX + summary);
+            layout.turns.subList(0, folded).clear();
+            store.updateMessages(id, layout.messages());
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static String summaryText(UserMessage summary) {
+        return summary.singleText().substring(SUMMARY_PREFIX.length());
+    }
+
+    /**
+     * Turns that are due to be summarized, along with the summary they extend.
+     */
+    record Compaction(String previousSummary, List<ChatMessage> turns) {
+    }
+
+    /**
+     * Stored messages split into system message, summary and turns.
+     */
+    private final class Layout {
+
+        private SystemMessage system;
+        private UserMessage summary;
+        private final List<ChatMessage> turns = new ArrayList<>();
+
+        private Layout(List<ChatMessage> messages) {
+            for (ChatMessage message : messages) {
+                if (message instanceof SystemMessage systemMessage) {
+                    system = systemMessage;
+                } else if (message instanceof UserMessage user && SUMMARY_NAME.equals(user.name()) && summary == null && turns.isEmpty()) {
+                    summary = user;
+                } else {
+                    turns.add(message);
+                }
+            }
+        }
+
+        List<ChatMessage> fixed() {
+            List<ChatMessage> fixed = new ArrayList<>(2);
+            if (system != null) {
+                fixed.add(system);
+            }
+            if (summary != null) {
+                fixed.add(summary);
+            }
+            return fixed;
+        }
+
+        int fixedTokens() {
+            return estimator.estimateTokenCountInMessages(fixed());
+        }
+
+        List<ChatMessage> messages() {
+            List<ChatMessage> messages = fixed();
+            messages.addAll(turns);
+            return messages;
+        }
+
+        /**
+         * @return Index of the first turn to keep: the earliest user message from which all turns
+         * fit in {@code budget}, or the last user message if even the latest turn does not fit
+         */
+        int cut(int budget) {
+            int cut = turns.size();
+            int lastUserMessage = -1;
+            int tokens = 0;
+            for (int i = turns.size() - 1; i >= 0; i--) {
+                tokens += estimator.estimateTokenCountInMessage(turns.get(i));
+                if (turns.get(i) instanceof UserMessage) {
+                    if (lastUserMessage < 0) {
+                        lastUserMessage = i;
+                    }
+                    if (tokens > budget) {
+                        break;
+                    }
+                    cut = i;
+                }
+            }
+            if (cut == turns.size()) {
+                // Not even the latest turn fits; it is kept whole regardless
+                cut = Math.max(0, lastUserMessage);
+            }
+            return cut;
+        }
+    }
+}
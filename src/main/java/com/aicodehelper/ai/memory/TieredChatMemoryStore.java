@@ -0,0 +1,307 @@
+package com.aicodehelper.ai.memory;
+
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.ChatMessageDeserializer;
+import dev.langchain4j.data.message.ChatMessageSerializer;
+import dev.langchain4j.store.memory.chat.ChatMemoryStore;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Chat memory store with a bounded in-heap tier for active sessions and a disk tier for the rest.
+ *
+ * - Hot tier: up to {@code max-hot-sessions} sessions, least recently used evicted first, and
+ *   sessions idle for {@code idle-minutes} evicted by a periodic sweep
+ * - Disk tier: a {@link ChatMemoryLog} in {@code directory}. Evicted sessions are appended to it,
+ *   and changed hot sessions every {@code flush-interval-seconds}, so conversations survive a
+ *   restart. The log is compacted once mostly garbage
+ * - A session that is not hot is read back from the log on its next access
+ *
+ * Heap use follows the active sessions; the disk tier only keeps a file offset per session in
+ * heap. Listeners registered with {@link #onEviction} learn about sessions leaving the hot tier,
+ * so holders of per-session objects can drop them too. When disabled, or when the log cannot be
+ * opened, every session stays on the heap as before.
+ */
+@Component
+@Slf4j
+public class TieredChatMemoryStore implements ChatMemoryStore {
+
+    private static final String LOG_FILE = "chat-memory.log";
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    @Value("${ai.chat.memory.store.enabled:true}")
+    private boolean enabled;
+
+    @Value("${ai.chat.memory.store.directory:data/chat-memory}")
+    private String directory;
+
+    @Value("${ai.chat.memory.store.max-hot-sessions:1000}")
+    private int maxHotSessions;
+
+    @Value("${ai.chat.memory.store.idle-minutes:30}")
+    private long idleMinutes;
+
+    @Value("${ai.chat.memory.store.flush-interval-seconds:5}")
+    private long flushIntervalSeconds;
+
+    @Value("${ai.chat.memory.store.compaction-min-bytes:1048576}")
+    private long compactionMinBytes;
+
+    private Clock clock = Clock.systemUTC();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    // Access-ordered, so iteration runs from least to most recently used
+    private final LinkedHashMap<String, Session> hot = new LinkedHashMap<>(16, 0.75f, true);
+    private ChatMemoryLog diskLog;
+    private final List<Consumer<Object>> evictionListeners = new ArrayList<>();
+
+    private Counter hotHits;
+    private Counter diskHits;
+    private Counter misses;
+    private Counter spills;
+    private Disposable sweeper;
+
+    @PostConstruct
+    public void init() {
+        log.info("Initializing chat memory store - enabled: {}, directory: {}, hot sessions: {}, idle: {} min",
+                enabled, directory, maxHotSessions, idleMinutes);
+
+        if (enabled) {
+            try {
+                diskLog = ChatMemoryLog.open(Path.of(directory, LOG_FILE));
+            } catch (IOException e) {
+                log.error("Cannot open chat memory log in {}, keeping all sessions on the heap: {}", directory, e.getMessage());
+            }
+        }
+
+        hotHits = Counter.builder("ai.chat.memory.lookups").tag("tier", "hot").register(meterRegistry);
+        diskHits = Counter.builder("ai.chat.memory.lookups").tag("tier", "disk").register(meterRegistry);
+        misses = Counter.builder("ai.chat.memory.lookups").tag("tier", "none").register(meterRegistry);
+        spills = Counter.builder("ai.chat.memory.spills").register(meterRegistry);
+        Gauge.builder("ai.chat.memory.hot.sessions", this, store -> store.withLock(store.hot::size)).register(meterRegistry);
+        Gauge.builder("ai.chat.memory.disk.sessions", this,
+                store -> store.withLock(() -> store.diskLog != null ? store.diskLog.sessions() : 0)).register(meterRegistry);
+        Gauge.builder("ai.chat.memory.disk.bytes", this,
+                store -> store.withLock(() -> store.diskLog != null ? store.diskLog.size() : 0)).register(meterRegistry);
+
+        if (diskLog != null) {
+            sweeper = Schedulers.parallel().schedulePeriodically(this::sweep, flushIntervalSeconds, flushIntervalSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (sweeper != null) {
+            sweeper.dispose();
+        }
+        lock.lock();
+        try {
+            if (diskLog == null) {
+                return;
+            }
+            for (Map.Entry<String, Session> entry : hot.entrySet()) {
+                write(entry.getKey(), entry.getValue());
+            }
+            diskLog.force();
+            diskLog.close();
+            diskLog = null;
+        } catch (IOException e) {
+            log.error("Failed to flush chat memory log: {}", e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Registers a listener called with the memory ID of every session leaving the hot tier.
+     * Listeners run under the store lock and must not call back into the store.
+     */
+    public void onEviction(Consumer<Object> listener) {
+        lock.lock();
+        try {
+            evictionListeners.add(listener);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public List<ChatMessage> getMessages(Object memoryId) {
+        String key = key(memoryId);
+        lock.lock();
+        try {
+            Session session = hot.get(key);
+            if (session != null) {
+                hotHits.increment();
+                session.lastAccess = clock.millis();
+                return new ArrayList<>(session.messages);
+            }
+            String json = readQuietly(key);
+            if (json == null) {
+                misses.increment();
+                return new ArrayList<>();
+            }
+            diskHits.increment();
+            List<ChatMessage> messages = ChatMessageDeserializer.messagesFromJson(json);
+            hot.put(key, new Session(memoryId, List.copyOf(messages), false, clock.millis()));
+            evictOverflow();
+            return new ArrayList<>(messages);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void updateMessages(Object memoryId, List<ChatMessage> messages) {
+        String key = key(memoryId);
+        lock.lock();
+        try {
+            hot.put(key, new Session(memoryId, List.copyOf(messages), true, clock.millis()));
+            evictOverflow();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void deleteMessages(Object memoryId) {
+        String key = key(memoryId);
+        lock.lock();
+        try {
+            hot.remove(key);
+            if (diskLog != null && diskLog.contains(key)) {
+                diskLog.delete(key);
+            }
+        } catch (IOException e) {
+            log.error("Failed to delete session {} from the chat memory log: {}", key, e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Evicts idle sessions, writes changed ones to the log and compacts the log when worthwhile.
+     */
+    private void sweep() {
+        lock.lock();
+        try {
+            if (diskLog == null) {
+                return;
+            }
+            long idleBefore = clock.millis() - Duration.ofMinutes(idleMinutes).toMillis();
+            Iterator<Map.Entry<String, Session>> iterator = hot.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, Session> entry = iterator.next();
+                if (entry.getValue().lastAccess <= idleBefore) {
+                    iterator.remove();
+                    evicted(entry.getKey(), entry.getValue());
+                } else {
+                    write(entry.getKey(), entry.getValue());
+                }
+            }
+            diskLog.force();
+            if (diskLog.size() >= compactionMinBytes && diskLog.liveBytes() * 2 < diskLog.size()) {
+                long before = diskLog.size();
+                diskLog.compact();
+                log.info("Compacted chat memory log from {} to {} bytes", before, diskLog.size());
+            }
+        } catch (IOException e) {
+            log.error("Failed to flush chat memory log: {}", e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void evictOverflow() {
+        if (diskLog == null) {
+            return;
+        }
+        while (hot.size() > maxHotSessions) {
+            Iterator<Map.Entry<String, Session>> eldest = hot.entrySet().iterator();
+            Map.Entry<String, Session> entry = eldest.next();
+            eldest.remove();
+            evicted(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private void evicted(String key, Session session) {
+        try {
+            write(key, session);
+            spills.increment();
+        } catch (IOException e) {
+            log.error("Failed to spill session {} to the chat memory log, its messages are lost: {}", key, e.getMessage());
+        }
+        evictionListeners.forEach(listener -> listener.accept(session.memoryId));
+    }
+
+    private void write(String key, Session session) throws IOException {
+        if (session.dirty) {
+            diskLog.append(key, ChatMessageSerializer.messagesToJson(session.messages));
+            session.dirty = false;
+        }
+    }
+
+    private String readQuietly(String key) {
+        if (diskLog == null) {
+            return null;
+        }
+        try {
+            return diskLog.read(key);
+        } catch (IOException e) {
+            log.error("Failed to read session {} from the chat memory log: {}", key, e.getMessage());
+            return null;
+        }
+    }
+
+    private <T> T withLock(Supplier<T> supplier) {
+        lock.lock();
+        try {
+            return supplier.get();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static String key(Object memoryId) {
+        return String.valueOf(memoryId);
+    }
+
+    private static final class Session {
+        private final Object memoryId;
+        private final List<ChatMessage> messages;
+        private boolean dirty;
+        private long lastAccess;
+
+        private Session(Object memoryId, List<ChatMessage> messages, boolean dirty, long lastAccess) {
+            this.memoryId = memoryId;
+            this.messages = messages;
+            this.dirty = dirty;
+            this.lastAccess = lastAccess;
+        }
+    }
+}
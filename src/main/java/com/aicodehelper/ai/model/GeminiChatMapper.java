@@ -0,0 +1,196 @@
+package com.aicodehelper.ai.model;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.langchain4j.agent.tool.ToolExecutionRequest;
+import dev.langchain4j.agent.tool.ToolSpecification;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.Content;
+import dev.langchain4j.data.message.ImageContent;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.TextContent;
+import dev.langchain4j.data.message.ToolExecutionResultMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.internal.JsonSchemaElementUtils;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.output.FinishReason;
+import dev.langchain4j.model.output.TokenUsage;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Maps LangChain4j chat requests onto Gemini's native request shape, and Gemini responses back.
+ *
+ * - {@link SystemMessage}s become the system instruction, joined in order
+ * - {@link UserMessage}s become {@code user} turns with text and inline image parts
+ * - {@link AiMessage}s become {@code model} turns with text and {@code functionCall} parts
+ * - {@link ToolExecutionResultMessage}s become {@code functionResponse} parts of a {@code user} turn
+ *
+ * Consecutive messages of the same role are merged into one turn, so the results of
+ * parallel function calls reach Gemini together as it expects. Gemini function calls carry no
+ * ID, so each one gets a random ID that tells identical calls of a response apart.
+ */
+final class GeminiChatMapper {
+
+    private static final TypeReference<Map<String, Object>> JSON_OBJECT = new TypeReference<>() {
+    };
+
+    private final ObjectMapper objectMapper;
+
+    GeminiChatMapper(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    GeminiConversation conversation(ChatRequest request) {
+        List<String> system = new ArrayList<>();
+        List<Map<String, Object>> contents = new ArrayList<>();
+        String routingText = "";
+        for (ChatMessage message : request.messages()) {
+            if (message instanceof SystemMessage systemMessage) {
+                system.add(systemMessage.text());
+            } else if (message instanceof UserMessage userMessage) {
+                add(contents, "user", userParts(userMessage));
+                routingText = userText(userMessage);
+            } else if (message instanceof AiMessage aiMessage) {
+                add(contents, "model", modelParts(aiMessage));
+            } else if (message instanceof ToolExecutionResultMessage result) {
+                add(contents, "user", List.of(Map.of("functionResponse", Map.of(
+                        "name", result.toolName(),
+                        "response", Map.of("content", result.text())))));
+            } else {
+                throw new IllegalArgumentException("Unsupported message type for Gemini: " + message.type());
+            }
+        }
+        return new GeminiConversation(system.isEmpty() ? null : String.join("\n\n", system), contents,
+                tools(request.toolSpecifications()), request.temperature(), request.maxOutputTokens(), routingText);
+    }
+
+    ChatResponse chatResponse(GeminiResponse response) {
+        List<ToolExecutionRequest> toolRequests = response.functionCalls().stream()
+                .map(call -> ToolExecutionRequest.builder()
+                        .id(UUID.randomUUID().toString())
+                        .name(call.name())
+                        .arguments(call.arguments())
+                        .build())
+                .toList();
+        AiMessage aiMessage = toolRequests.isEmpty()
+                ? AiMessage.from(response.hasText() ? response.text() : "")
+                : response.hasText() ? AiMessage.from(response.text(), toolRequests) : AiMessage.from(toolRequests);
+        GeminiResponse.Usage usage = response.usage();
+        return ChatResponse.builder()
+                .aiMessage(aiMessage)
+                .modelName(response.model())
+                .tokenUsage(usage != null ? new TokenUsage(usage.promptTokens(), usage.outputTokens(), usage.totalTokens()) : null)
+                .finishReason(toolRequests.isEmpty() ? finishReason(response.finishReason()) : FinishReason.TOOL_EXECUTION)
+                .build();
+    }
+
+    static FinishReason finishReason(String geminiReason) {
+        if (geminiReason == null) {
+            return null;
+        }
+        return switch (geminiReason) {
+            case "STOP" -> FinishReason.STOP;
+            case "MAX_TOKENS" -> FinishReason.LENGTH;
+            case "SAFETY", "RECITATION", "BLOCKLIST", "PROHIBITED_CONTENT", "SPII", "IMAGE_SAFETY" -> FinishReason.CONTENT_FILTER;
+            default -> FinishReason.OTHER;
+        };
+    }
+
+    private static void add(List<Map<String, Object>> contents, String role, List<Map<String, Object>> parts) {
+        if (parts.isEmpty()) {
+            return;
+        }
+        Map<String, Object> last = contents.isEmpty() ? null : contents.get(contents.size() - 1);
+        if (last != null && role.equals(last.get("role"))) {
+            @SuppressWarnings("unchecked")
+            List<Map<String, Object>> lastParts = (List<Map<String, Object>>) last.get("parts");
+            lastParts.addAll(parts);
+            return;
+        }
+        Map<String, Object> content = new LinkedHashMap<>();
+        content.put("role", role);
+        content.put("parts", new ArrayList<>(parts));
+        contents.add(content);
+    }
+
+    private static List<Map<String, Object>> userParts(UserMessage message) {
+        List<Map<String, Object>> parts = new ArrayList<>(message.contents().size());
+        for (Content content : message.contents()) {
+            if (content instanceof TextContent text) {
+                parts.add(Map.of("text", text.text()));
+            } else if (content instanceof ImageContent image && image.image().base64Data() != null) {
+                parts.add(Map.of("inlineData", Map.of(
+                        "mimeType", image.image().mimeType() != null ? image.image().mimeType() : "image/png",
+                        "data", image.image().base64Data())));
+            } else {
+                throw new IllegalArgumentException("Unsupported user content for Gemini: " + content.type());
+            }
+        }
+        return parts;
+    }
+
+    private static String userText(UserMessage message) {
+        StringBuilder text = new StringBuilder();
+        for (Content content : message.contents()) {
+            if (content instanceof TextContent textContent) {
+                text.append(textContent.text());
+            }
+        }
+        return text.toString();
+    }
+
+    private List<Map<String, Object>> modelParts(AiMessage message) {
+        List<Map<String, Object>> parts = new ArrayList<>(1);
+        if (message.text() != null && !message.text().isEmpty()) {
+            parts.add(Map.of("text", message.text()));
+        }
+        if (message.hasToolExecutionRequests()) {
+            for (ToolExecutionRequest request : message.toolExecutionRequests()) {
+                parts.add(Map.of("functionCall", Map.of(
+                        "name", request.name(),
+                        "args", arguments(request))));
+            }
+        }
+        return parts;
+    }
+
+    private Map<String, Object> arguments(ToolExecutionRequest request) {
+        String arguments = request.arguments();
+        if (arguments == null || arguments.isBlank()) {
+            return Map.of();
+        }
+        try {
+            return objectMapper.readValue(arguments, JSON_OBJECT);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Arguments of tool call " + request.name() + " are not a JSON object", e);
+        }
+    }
+
+    private static List<Map<String, Object>> tools(List<ToolSpecification> specifications) {
+        if (specifications == null || specifications.isEmpty()) {
+            return List.of();
+        }
+        List<Map<String, Object>> declarations = new ArrayList<>(specifications.size());
+        for (ToolSpecification specification : specifications) {
+            Map<String, Object> declaration = new LinkedHashMap<>();
+            declaration.put("name", specification.name());
+            if (specification.description() != null) {
+                declaration.put("description", specification.description());
+            }
+            // A function without parameters must not declare an empty object schema
+            if (specification.parameters() != null && !specification.parameters().properties().isEmpty()) {
+                declaration.put("parameters", JsonSchemaElementUtils.toMap(specification.parameters()));
+            }
+            declarations.add(declaration);
+        }
+        return List.of(Map.of("functionDeclarations", declarations));
+    }
+}
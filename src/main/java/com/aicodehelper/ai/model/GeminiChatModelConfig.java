@@ -1,6 +1,7 @@
 package com.aicodehelper.ai.model;
 
 import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.StreamingChatModel;
 import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.annotation.Bean;
@@ -28,6 +29,9 @@ public class GeminiChatModelConfig {
     @Resource
     private GoogleAiStudioChatModel googleAiStudioChatModel;
 
+    @Resource
+    private GoogleAiStudioStreamingChatModel googleAiStudioStreamingChatModel;
+
     /**
      * Creates and configures the primary Gemini chat model bean.
      * 
@@ -43,4 +47,19 @@ public class GeminiChatModelConfig {
         log.info("Initializing Google AI Studio Chat Model");
         return googleAiStudioChatModel;
     }
-}
\ No newline at end of file
+
+    /**
+     * Creates the streaming Gemini chat model bean.
+     * 
+     * This model is used for:
+     * - Streaming chat with session memory
+     * - Token-by-token delivery over Server-Sent Events
+     * 
+     * @return Streaming model backed by Gemini's streamGenerateContent endpoint
+     */
+    @Bean
+    public StreamingChatModel myGeminiStreamingChatModel() {
+        log.info("Initializing Google AI Studio Streaming Chat Model");
+        return googleAiStudioStreamingChatModel;
+    }
+}
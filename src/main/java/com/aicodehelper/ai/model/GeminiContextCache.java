@@ -0,0 +1,356 @@
+package com.aicodehelper.ai.model;
+
+import com.aicodehelper.ai.quota.ApiKeyPool;
+import com.fasterxml.jackson.databind.JsonNode;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.Disposable;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Gemini context cache for the static prefix of every request.
+ *
+ * The prefix is the system prompt ({@code system-prompt.txt}) followed by the code formatting
+ * instructions. Instead of sending it with every call, it is registered once as a Gemini
+ * {@code cachedContents} resource and requests reference it by name, which cuts input tokens
+ * and prefill time.
+ *
+ * - Cached contents belong to one model and one API key's project, so there is one per
+ *   model and key, created asynchronously on first use; calls send the prefix inline meanwhile
+ * - Before half of {@code ttl-minutes} has passed, the TTL of a cache that was used within the
+ *   last TTL is extended; unused caches are left to expire
+ * - A prefix estimated below {@code min-tokens}, Gemini's minimum cacheable size, is never
+ *   submitted, since creation would only fail; the prefix is then always sent inline
+ * - Creation fails when Gemini does not support caching for the model or the prefix is below
+ *   its minimum cacheable size. Calls then keep sending the prefix inline, and creation is not
+ *   retried for {@code retry-after-failure-minutes}
+ *
+ * Disabled by default: the bundled system prompt is far below the minimum cacheable size.
+ */
+@Component
+@Slf4j
+public class GeminiContextCache {
+
+    /** Appended to the system prompt to encourage properly formatted code */
+    static final String FORMATTING_INSTRUCTIONS = "IMPORTANT: When providing code examples:\n" +
+            "1. Use markdown code blocks with language tags (```java, ```python, ```cpp, etc.)\n" +
+            "2. Format code with proper line breaks and indentation\n" +
+            "3. Each statement should be on its own line\n" +
+            "4. Use proper spacing and structure\n" +
+            "5. For single-line examples, still use code blocks";
+
+    // A cache this close to expiry is not referenced, since it may expire before Gemini reads it
+    private static final Duration EXPIRY_MARGIN = Duration.ofSeconds(30);
+
+    private static final String API_KEY_HEADER = "x-goog-api-key";
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    @Resource(name = "geminiWebClient")
+    private WebClient webClient;
+
+    @Value("${google-ai.base-url:https://generativelanguage.googleapis.com/v1beta/models/}")
+    private String baseUrl;
+
+    @Value("${ai.context-cache.enabled:false}")
+    private boolean enabled;
+
+    @Value("${ai.context-cache.min-tokens:4096}")
+    private long minTokens;
+
+    @Value("${ai.context-cache.ttl-minutes:60}")
+    private long ttlMinutes;
+
+    @Value("${ai.context-cache.retry-after-failure-minutes:30}")
+    private long retryAfterFailureMinutes;
+
+    private Clock clock = Clock.systemUTC();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ConcurrentMap<String, CachedPrefix> caches = new ConcurrentHashMap<>();
+
+    private String systemPrompt;
+    private String systemInstruction;
+    private URI cachedContentsUri;
+    private Counter hits;
+    private Counter misses;
+    private Disposable refresher;
+
+    @PostConstruct
+    public void init() {
+        try {
+            systemPrompt = new ClassPathResource("system-prompt.txt").getContentAsString(StandardCharsets.UTF_8).trim();
+            systemInstruction = systemPrompt + "\n\n" + FORMATTING_INSTRUCTIONS;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to load system-prompt.txt", e);
+        }
+        // cachedContents is a sibling of the models collection
+        cachedContentsUri = URI.create(baseUrl).resolve("../cachedContents");
+
+        long prefixTokens = ApiKeyPool.estimateTokens(systemInstruction.length());
+        if (enabled && prefixTokens < minTokens) {
+            log.warn("Gemini context cache disabled: the prefix of about {} tokens is below the minimum of {} tokens",
+                    prefixTokens, minTokens);
+            enabled = false;
+        }
+        log.info("Initializing Gemini context cache - enabled: {}, prefix: {} chars, ttl: {} min",
+                enabled, systemInstruction.length(), ttlMinutes);
+
+        hits = Counter.builder("ai.context-cache.requests").tag("result", "hit").register(meterRegistry);
+        misses = Counter.builder("ai.context-cache.requests").tag("result", "miss").register(meterRegistry);
+        Gauge.builder("ai.context-cache.entries", this, cache -> cache.withLock(cache::liveCount))
+                .register(meterRegistry);
+
+        if (enabled) {
+            long refreshMinutes = Math.max(1, ttlMinutes / 4);
+            refresher = Schedulers.parallel().schedulePeriodically(this::refresh, refreshMinutes, refreshMinutes, TimeUnit.MINUTES);
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (refresher != null) {
+            refresher.dispose();
+        }
+    }
+
+    /**
+     * @return Static prefix sent as the system instruction, inline or from the cache
+     */
+    String systemInstruction() {
+        return systemInstruction;
+    }
+
+    /**
+     * @return Whether a caller's system text is the system prompt the static prefix is built from
+     */
+    boolean isSystemPrompt(String text) {
+        return text != null && systemPrompt.equals(text.trim());
+    }
+
+    /**
+     * Looks up the cached prefix for a call, and starts creating it if there is none.
+     *
+     * @param model Model of the call
+     * @param apiKey API key the call is sent with
+     * @return Name of the cached content to reference, or empty to send the prefix inline
+     */
+    Optional<String> cachedContent(String model, String apiKey) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        CachedPrefix cache = caches.computeIfAbsent(model + '\u0000' + apiKey, key -> new CachedPrefix(model, apiKey));
+        String name = null;
+        boolean create = false;
+        lock.lock();
+        try {
+            long now = clock.millis();
+            cache.lastUsedAt = now;
+            if (cache.name != null && cache.expiresAt - now > EXPIRY_MARGIN.toMillis()) {
+                name = cache.name;
+            } else if (!cache.pending && now >= cache.unavailableUntil) {
+                cache.pending = true;
+                create = true;
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (create) {
+            create(cache);
+        }
+        (name != null ? hits : misses).increment();
+        return Optional.ofNullable(name);
+    }
+
+    /**
+     * Extends the TTL of caches that are in use and past half of their lifetime.
+     */
+    void refresh() {
+        long now = clock.millis();
+        long ttl = TimeUnit.MINUTES.toMillis(ttlMinutes);
+        for (CachedPrefix cache : caches.values()) {
+            boolean extend;
+            lock.lock();
+            try {
+                if (cache.name != null && cache.expiresAt <= now) {
+                    cache.name = null;
+                }
+                extend = cache.name != null && !cache.pending
+                        && cache.expiresAt - now < ttl / 2 && cache.lastUsedAt > now - ttl;
+                if (extend) {
+                    cache.pending = true;
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (extend) {
+                extend(cache);
+            }
+        }
+    }
+
+    private void create(CachedPrefix cache) {
+        Map<String, Object> body = Map.of(
+                "model", "models/" + cache.model,
+                "systemInstruction", Map.of("parts", List.of(Map.of("text", systemInstruction))),
+                "ttl", ttl());
+        webClient.post()
+                .uri(cachedContentsUri)
+                .header(API_KEY_HEADER, cache.apiKey)
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(body)
+                .retrieve()
+                .bodyToMono(JsonNode.class)
+                .subscribe(created -> {
+                    String name = created.path("name").asText(null);
+                    if (name == null) {
+                        failed(cache, "create", new IllegalStateException("No name in cached content response"));
+                        return;
+                    }
+                    cached(cache, name, created);
+                    operation("create", "success");
+                    log.info("Cached the prompt prefix for {} as {}", cache.model, name);
+                }, error -> failed(cache, "create", error));
+    }
+
+    private void extend(CachedPrefix cache) {
+        String name;
+        lock.lock();
+        try {
+            name = cache.name;
+        } finally {
+            lock.unlock();
+        }
+        webClient.patch()
+                .uri(UriComponentsBuilder.fromUri(cachedContentsUri)
+                        .pathSegment(name.substring(name.indexOf('/') + 1))
+                        .queryParam("updateMask", "ttl")
+                        .build().toUri())
+                .header(API_KEY_HEADER, cache.apiKey)
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(Map.of("ttl", ttl()))
+                .retrieve()
+                .bodyToMono(JsonNode.class)
+                .subscribe(updated -> {
+                    cached(cache, name, updated);
+                    operation("refresh", "success");
+                }, error -> {
+                    lock.lock();
+                    try {
+                        cache.pending = false;
+                        // Gone or no longer ours: forget it, the next call creates a new one
+                        if (error instanceof WebClientResponseException response && response.getStatusCode().is4xxClientError()) {
+                            cache.name = null;
+                        }
+                    } finally {
+                        lock.unlock();
+                    }
+                    operation("refresh", "failure");
+                    log.warn("Failed to extend cached prompt prefix {}: {}", name, error.getMessage());
+                });
+    }
+
+    private void cached(CachedPrefix cache, String name, JsonNode response) {
+        long expiresAt;
+        try {
+            expiresAt = Instant.parse(response.path("expireTime").asText()).toEpochMilli();
+        } catch (RuntimeException e) {
+            expiresAt = clock.millis() + TimeUnit.MINUTES.toMillis(ttlMinutes);
+        }
+        lock.lock();
+        try {
+            cache.name = name;
+            cache.expiresAt = expiresAt;
+            cache.pending = false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void failed(CachedPrefix cache, String operation, Throwable error) {
+        lock.lock();
+        try {
+            cache.pending = false;
+            cache.unavailableUntil = clock.millis() + TimeUnit.MINUTES.toMillis(retryAfterFailureMinutes);
+        } finally {
+            lock.unlock();
+        }
+        operation(operation, "failure");
+        log.warn("Context caching unavailable for {}, sending the prompt prefix inline for {} min: {}",
+                cache.model, retryAfterFailureMinutes, error.getMessage());
+    }
+
+    private void operation(String operation, String outcome) {
+        Counter.builder("ai.context-cache.operations")
+                .tag("operation", operation)
+                .tag("outcome", outcome)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    private String ttl() {
+        return TimeUnit.MINUTES.toSeconds(ttlMinutes) + "s";
+    }
+
+    private int liveCount() {
+        long now = clock.millis();
+        return (int) caches.values().stream().filter(cache -> cache.name != null && cache.expiresAt > now).count();
+    }
+
+    private <T> T withLock(Supplier<T> action) {
+        lock.lock();
+        try {
+            return action.get();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Cached prefix of one model and key. Mutable state is guarded by the cache lock.
+     */
+    private static final class CachedPrefix {
+
+        private final String model;
+        private final String apiKey;
+        private String name;
+        private long expiresAt;
+        private long lastUsedAt;
+        private long unavailableUntil;
+        private boolean pending;
+
+        private CachedPrefix(String model, String apiKey) {
+            this.model = model;
+            this.apiKey = apiKey;
+        }
+    }
+}
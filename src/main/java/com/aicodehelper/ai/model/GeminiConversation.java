@@ -0,0 +1,19 @@
+package com.aicodehelper.ai.model;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Multi-turn request in Gemini's native shape, as sent by the LangChain4j chat model adapter.
+ *
+ * @param systemInstruction System text. Null or the text of {@code system-prompt.txt} selects
+ *                          the static prefix, which may be served from the context cache
+ * @param contents Gemini {@code contents}: turns with role {@code user} or {@code model} and their parts
+ * @param tools Gemini {@code tools}, empty if the model may not call functions
+ * @param temperature Overrides {@code google-ai.temperature} if not null
+ * @param maxOutputTokens Overrides {@code google-ai.max-tokens} if not null
+ * @param routingText Text the {@link com.aicodehelper.ai.routing.ModelRouter} classifies, normally the last user turn
+ */
+record GeminiConversation(String systemInstruction, List<Map<String, Object>> contents, List<Map<String, Object>> tools,
+                          Double temperature, Integer maxOutputTokens, String routingText) {
+}
@@ -0,0 +1,72 @@
+package com.aicodehelper.ai.model;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.Function;
+
+/**
+ * Pre-serialized Gemini request body with a slot for the prompt.
+ *
+ * The body is serialized once, with a marker in place of the prompt, and split around
+ * the marker. Rendering a request only escapes the prompt and copies it between the two
+ * fixed halves, so the bytes sent are exactly what Jackson would produce for the full
+ * body, without building and walking the nested maps on every call.
+ */
+final class GeminiRequestTemplate {
+
+    private static final String PROMPT_MARKER = "__GEMINI_PROMPT_SLOT__";
+
+    private final byte[] head;
+    private final byte[] tail;
+
+    /**
+     * @param objectMapper Mapper used to serialize the body once
+     * @param bodyForPrompt Builds the request body for a prompt; must embed the prompt
+     *                      in a single JSON string value exactly once
+     */
+    GeminiRequestTemplate(ObjectMapper objectMapper, Function<String, ?> bodyForPrompt) {
+        byte[] body;
+        try {
+            body = objectMapper.writeValueAsBytes(bodyForPrompt.apply(PROMPT_MARKER));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to serialize Gemini request template", e);
+        }
+        byte[] marker = PROMPT_MARKER.getBytes(StandardCharsets.US_ASCII);
+        int slot = indexOf(body, marker, 0);
+        if (slot < 0 || indexOf(body, marker, slot + 1) >= 0) {
+            throw new IllegalStateException("Gemini request template must contain the prompt exactly once");
+        }
+        this.head = Arrays.copyOfRange(body, 0, slot);
+        this.tail = Arrays.copyOfRange(body, slot + marker.length, body.length);
+    }
+
+    /**
+     * @param prompt Prompt to splice in
+     * @return UTF-8 JSON request body
+     */
+    byte[] render(String prompt) {
+        byte[] escaped = JsonStringEncoder.getInstance().quoteAsUTF8(prompt);
+        byte[] body = new byte[head.length + escaped.length + tail.length];
+        System.arraycopy(head, 0, body, 0, head.length);
+        System.arraycopy(escaped, 0, body, head.length, escaped.length);
+        System.arraycopy(tail, 0, body, head.length + escaped.length, tail.length);
+        return body;
+    }
+
+    private static int indexOf(byte[] bytes, byte[] pattern, int from) {
+        outer:
+        for (int i = from; i <= bytes.length - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (bytes[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+}
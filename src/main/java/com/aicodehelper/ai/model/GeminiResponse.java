@@ -0,0 +1,41 @@
+package com.aicodehelper.ai.model;
+
+import java.util.List;
+
+/**
+ * First candidate of a Gemini response with the call's token usage.
+ *
+ * @param model Model that produced the response, set by the client after parsing
+ * @param text Concatenated text parts, or null if the candidate has none
+ * @param functionCalls Function calls requested by the model, in order
+ * @param finishReason Gemini finish reason such as {@code STOP} or {@code MAX_TOKENS}, if reported
+ * @param usage Token usage from {@code usageMetadata}, if reported
+ */
+record GeminiResponse(String model, String text, List<FunctionCall> functionCalls, String finishReason, Usage usage) {
+
+    /**
+     * @param name Function name
+     * @param arguments Arguments as a JSON object
+     */
+    record FunctionCall(String name, String arguments) {
+    }
+
+    /**
+     * Token counts of one call. Counts Gemini does not report are null.
+     *
+     * @param promptTokens Input tokens, including cached ones
+     * @param outputTokens Tokens of the candidates
+     * @param totalTokens Input and output tokens together
+     * @param cachedTokens Input tokens served from a context cache
+     */
+    record Usage(Integer promptTokens, Integer outputTokens, Integer totalTokens, Integer cachedTokens) {
+    }
+
+    boolean hasText() {
+        return text != null;
+    }
+
+    GeminiResponse withModel(String model) {
+        return new GeminiResponse(model, text, functionCalls, finishReason, usage);
+    }
+}
@@ -0,0 +1,363 @@
+package com.aicodehelper.ai.model;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonStreamContext;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteBufferFeeder;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Extracts the first candidate from Gemini responses while the bytes arrive.
+ *
+ * Response buffers are fed as-is into Jackson's non-blocking parser, which is driven token
+ * by token; only the values that make up a {@link GeminiResponse} are copied out:
+ *
+ * - Text at {@code candidates[0].content.parts[*].text}, straight from the parser's character buffer
+ * - Function calls at {@code candidates[0].content.parts[*].functionCall}, with their arguments
+ *   re-serialized as JSON
+ * - {@code candidates[0].finishReason} and the token counts of {@code usageMetadata}
+ *
+ * No response {@code String}, JSON tree or intermediate copy of the body is created, and
+ * every buffer is released as soon as it has been consumed.
+ *
+ * For the streaming endpoint the SSE framing is scanned on the same bytes: the payload of
+ * {@code data:} lines is fed to a parser per event, and a blank line completes the event.
+ */
+final class GeminiResponseParser {
+
+    private static final byte[] DATA_FIELD = "data:".getBytes(StandardCharsets.US_ASCII);
+
+    private final JsonFactory jsonFactory;
+
+    GeminiResponseParser(JsonFactory jsonFactory) {
+        this.jsonFactory = jsonFactory;
+    }
+
+    /**
+     * @param body Body of a {@code generateContent} response
+     * @return First candidate of the response; its text is null if it only calls functions
+     */
+    Mono<GeminiResponse> response(Flux<DataBuffer> body) {
+        return body
+                .reduceWith(this::newDocument, (document, buffer) -> {
+                    try {
+                        document.feed(buffer);
+                        return document;
+                    } finally {
+                        DataBufferUtils.release(buffer);
+                    }
+                })
+                .doOnDiscard(DataBuffer.class, DataBufferUtils::release)
+                .map(Document::finish);
+    }
+
+    /**
+     * @param body Body of a {@code streamGenerateContent?alt=sse} response
+     * @return First candidate of each event, in arrival order. Gemini reports the usage so
+     *         far with each event, so the last one carries the totals of the call
+     */
+    Flux<GeminiResponse> stream(Flux<DataBuffer> body) {
+        return Flux.defer(() -> {
+            EventScanner scanner = new EventScanner();
+            return body
+                    .concatMapIterable(buffer -> {
+                        try {
+                            return scanner.scan(buffer);
+                        } finally {
+                            DataBufferUtils.release(buffer);
+                        }
+                    })
+                    .doOnDiscard(DataBuffer.class, DataBufferUtils::release)
+                    .concatWith(Flux.defer(() -> Flux.fromIterable(scanner.finish())));
+        });
+    }
+
+    private Document newDocument() {
+        try {
+            return new Document(jsonFactory, jsonFactory.createNonBlockingByteBufferParser());
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to create JSON parser", e);
+        }
+    }
+
+    /**
+     * One JSON response document, parsed incrementally.
+     */
+    private static final class Document {
+
+        private final JsonFactory jsonFactory;
+        private final JsonParser parser;
+        private final ByteBufferFeeder feeder;
+        private final StringBuilder text = new StringBuilder();
+        private boolean hasText;
+        private final List<GeminiResponse.FunctionCall> functionCalls = new ArrayList<>(0);
+        private String functionName;
+        private String functionArguments;
+        // Set while the arguments of a function call are copied
+        private StringWriter argumentsText;
+        private JsonGenerator arguments;
+        private int argumentsDepth;
+        private String finishReason;
+        private Integer promptTokens;
+        private Integer outputTokens;
+        private Integer totalTokens;
+        private Integer cachedTokens;
+
+        private Document(JsonFactory jsonFactory, JsonParser parser) {
+            this.jsonFactory = jsonFactory;
+            this.parser = parser;
+            this.feeder = (ByteBufferFeeder) parser.getNonBlockingInputFeeder();
+        }
+
+        void feed(DataBuffer buffer) {
+            try (DataBuffer.ByteBufferIterator buffers = buffer.readableByteBuffers()) {
+                while (buffers.hasNext()) {
+                    feed(buffers.next());
+                }
+            }
+        }
+
+        void feed(ByteBuffer bytes) {
+            try {
+                feeder.feedInput(bytes);
+                drain();
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to parse AI response: " + e.getMessage(), e);
+            }
+        }
+
+        GeminiResponse finish() {
+            try {
+                feeder.endOfInput();
+                drain();
+                parser.close();
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to parse AI response: " + e.getMessage(), e);
+            }
+            GeminiResponse.Usage usage = promptTokens != null || outputTokens != null || totalTokens != null
+                    ? new GeminiResponse.Usage(promptTokens, outputTokens, totalTokens, cachedTokens)
+                    : null;
+            return new GeminiResponse(null, hasText ? text.toString() : null, List.copyOf(functionCalls),
+                    finishReason, usage);
+        }
+
+        /**
+         * Consumes every token available so far. The parser keeps partial tokens itself,
+         * so the fed bytes are not referenced afterwards.
+         */
+        private void drain() throws IOException {
+            JsonToken token;
+            while ((token = parser.nextToken()) != null && token != JsonToken.NOT_AVAILABLE) {
+                if (arguments != null) {
+                    copyArguments(token);
+                    continue;
+                }
+                JsonStreamContext context = parser.getParsingContext();
+                switch (token) {
+                    case VALUE_STRING -> string(context);
+                    case VALUE_NUMBER_INT -> tokenCount(context);
+                    case START_OBJECT -> {
+                        if (isFunctionCallField(context.getParent(), "args")) {
+                            argumentsText = new StringWriter();
+                            arguments = jsonFactory.createGenerator(argumentsText);
+                            copyArguments(token);
+                        }
+                    }
+                    case END_OBJECT -> {
+                        if ("functionCall".equals(context.getCurrentName()) && isCandidatePart(context)) {
+                            if (functionName != null) {
+                                functionCalls.add(new GeminiResponse.FunctionCall(functionName,
+                                        functionArguments != null ? functionArguments : "{}"));
+                            }
+                            functionName = null;
+                            functionArguments = null;
+                        }
+                    }
+                    default -> {
+                    }
+                }
+            }
+        }
+
+        private void string(JsonStreamContext context) throws IOException {
+            String field = context.getCurrentName();
+            if ("text".equals(field) && isCandidatePart(context)) {
+                hasText = true;
+                text.append(parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+            } else if ("name".equals(field) && isFunctionCallField(context, "name")) {
+                functionName = parser.getText();
+            } else if ("finishReason".equals(field) && isFirstCandidate(context)) {
+                finishReason = parser.getText();
+            }
+        }
+
+        private void tokenCount(JsonStreamContext context) throws IOException {
+            JsonStreamContext metadata = context.getParent();
+            if (!context.inObject() || metadata == null || !"usageMetadata".equals(metadata.getCurrentName())
+                    || metadata.getParent() == null || !metadata.getParent().inRoot()) {
+                return;
+            }
+            switch (context.getCurrentName()) {
+                case "promptTokenCount" -> promptTokens = parser.getIntValue();
+                case "candidatesTokenCount" -> outputTokens = parser.getIntValue();
+                case "totalTokenCount" -> totalTokens = parser.getIntValue();
+                case "cachedContentTokenCount" -> cachedTokens = parser.getIntValue();
+                default -> {
+                }
+            }
+        }
+
+        private void copyArguments(JsonToken token) throws IOException {
+            arguments.copyCurrentEvent(parser);
+            if (token.isStructStart()) {
+                argumentsDepth++;
+            } else if (token.isStructEnd() && --argumentsDepth == 0) {
+                arguments.close();
+                functionArguments = argumentsText.toString();
+                arguments = null;
+                argumentsText = null;
+            }
+        }
+
+        /**
+         * Matches a field of {@code candidates[0].content.parts[*].functionCall}.
+         */
+        private static boolean isFunctionCallField(JsonStreamContext functionCall, String field) {
+            if (functionCall == null || !functionCall.inObject() || !field.equals(functionCall.getCurrentName())) {
+                return false;
+            }
+            JsonStreamContext part = functionCall.getParent();
+            return part != null && "functionCall".equals(part.getCurrentName()) && isCandidatePart(part);
+        }
+
+        /**
+         * Matches an element of {@code candidates[0].content.parts}, innermost context first.
+         */
+        private static boolean isCandidatePart(JsonStreamContext part) {
+            JsonStreamContext parts = part.getParent();
+            if (!part.inObject() || parts == null || !parts.inArray()) {
+                return false;
+            }
+            JsonStreamContext content = parts.getParent();
+            if (content == null || !"parts".equals(content.getCurrentName())) {
+                return false;
+            }
+            JsonStreamContext candidate = content.getParent();
+            return candidate != null && "content".equals(candidate.getCurrentName()) && isFirstCandidate(candidate);
+        }
+
+        /**
+         * Matches {@code candidates[0]}.
+         */
+        private static boolean isFirstCandidate(JsonStreamContext candidate) {
+            JsonStreamContext candidates = candidate.getParent();
+            if (!candidate.inObject() || candidates == null || !candidates.inArray() || candidates.getCurrentIndex() != 0) {
+                return false;
+            }
+            JsonStreamContext root = candidates.getParent();
+            return root != null && "candidates".equals(root.getCurrentName()) && root.getParent().inRoot();
+        }
+    }
+
+    /**
+     * Splits an SSE byte stream into events and parses the {@code data:} payload of each.
+     * Field names and line endings may be split across buffers, so the position within
+     * the current line is carried over between calls.
+     */
+    private final class EventScanner {
+
+        private Document event;
+        private int lineLength;
+        private boolean dataLine;
+        private boolean otherLine;
+        private boolean afterCarriageReturn;
+
+        List<GeminiResponse> scan(DataBuffer buffer) {
+            List<GeminiResponse> events = new ArrayList<>(1);
+            try (DataBuffer.ByteBufferIterator buffers = buffer.readableByteBuffers()) {
+                while (buffers.hasNext()) {
+                    scan(buffers.next(), events);
+                }
+            }
+            return events;
+        }
+
+        /**
+         * Completes an event left open by a stream that did not end with a blank line.
+         */
+        List<GeminiResponse> finish() {
+            return event != null ? List.of(completeEvent()) : List.of();
+        }
+
+        private void scan(ByteBuffer bytes, List<GeminiResponse> events) {
+            int limit = bytes.limit();
+            int payloadStart = dataLine ? bytes.position() : -1;
+            for (int i = bytes.position(); i < limit; i++) {
+                byte b = bytes.get(i);
+                if (afterCarriageReturn) {
+                    afterCarriageReturn = false;
+                    if (b == '\n') {
+                        continue;
+                    }
+                }
+                if (b == '\r' || b == '\n') {
+                    if (payloadStart >= 0 && i > payloadStart) {
+                        feed(bytes, payloadStart, i);
+                    }
+                    payloadStart = -1;
+                    endLine(events);
+                    afterCarriageReturn = b == '\r';
+                    continue;
+                }
+                if (!dataLine && !otherLine) {
+                    if (lineLength < DATA_FIELD.length && b == DATA_FIELD[lineLength]) {
+                        if (lineLength == DATA_FIELD.length - 1) {
+                            dataLine = true;
+                            payloadStart = i + 1;
+                        }
+                    } else {
+                        otherLine = true;
+                    }
+                }
+                lineLength++;
+            }
+            if (payloadStart >= 0 && payloadStart < limit) {
+                feed(bytes, payloadStart, limit);
+            }
+        }
+
+        private void feed(ByteBuffer bytes, int from, int to) {
+            if (event == null) {
+                event = newDocument();
+            }
+            event.feed(bytes.duplicate().limit(to).position(from));
+        }
+
+        private void endLine(List<GeminiResponse> events) {
+            if (lineLength == 0 && event != null) {
+                events.add(completeEvent());
+            }
+            lineLength = 0;
+            dataLine = false;
+            otherLine = false;
+        }
+
+        private GeminiResponse completeEvent() {
+            GeminiResponse response = event.finish();
+            event = null;
+            return response;
+        }
+    }
+}
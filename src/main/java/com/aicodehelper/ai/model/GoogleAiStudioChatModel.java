@@ -1,58 +1,78 @@
 package com.aicodehelper.ai.model;
 
+import com.aicodehelper.ai.traffic.CallerContext;
+import com.aicodehelper.ai.traffic.RequestPriority;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import dev.langchain4j.data.message.AiMessage;
 import dev.langchain4j.data.message.ChatMessage;
-import dev.langchain4j.data.message.UserMessage;
 import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.listener.ChatModelListener;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.response.ChatResponse;
 import dev.langchain4j.model.output.Response;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import java.util.List;
+import java.util.Optional;
 
+/**
+ * LangChain4j {@link ChatModel} on top of {@link GoogleAiStudioClient}.
+ *
+ * Chat requests are sent to Gemini as a native multi-turn conversation: system messages become
+ * the system instruction, user, AI and tool result messages become {@code contents} turns, and
+ * tool specifications become function declarations. Responses carry Gemini's token usage and
+ * finish reason, plus tool execution requests for the function calls the model makes.
+ *
+ * Priority and client identity come from the {@link CallerContext} of the calling thread.
+ * Registered {@link ChatModelListener}s are notified of every request.
+ */
 @Component
 @Slf4j
 public class GoogleAiStudioChatModel implements ChatModel {
 
     private final GoogleAiStudioClient aiStudioClient;
+    private final GeminiChatMapper chatMapper = new GeminiChatMapper(new ObjectMapper());
+    private final List<ChatModelListener> listeners;
 
-    public GoogleAiStudioChatModel(GoogleAiStudioClient aiStudioClient) {
+    @Autowired
+    public GoogleAiStudioChatModel(GoogleAiStudioClient aiStudioClient, ObjectProvider<ChatModelListener> listeners) {
+        this(aiStudioClient, listeners.orderedStream().toList());
+    }
+
+    GoogleAiStudioChatModel(GoogleAiStudioClient aiStudioClient, List<ChatModelListener> listeners) {
         this.aiStudioClient = aiStudioClient;
+        this.listeners = List.copyOf(listeners);
     }
 
-    public Response<AiMessage> generate(List<ChatMessage> messages) {
+    @Override
+    public ChatResponse doChat(ChatRequest chatRequest) {
         try {
-            // Convert messages to a single prompt string
-            StringBuilder promptBuilder = new StringBuilder();
-            for (ChatMessage message : messages) {
-                if (message instanceof UserMessage) {
-                    UserMessage userMessage = (UserMessage) message;
-                    promptBuilder.append("User: ").append(userMessage.singleText()).append("\n");
-                } else {
-                    promptBuilder.append(message.toString()).append("\n");
-                }
-            }
-            
-            String prompt = promptBuilder.toString().trim();
-            log.debug("Sending prompt to Google AI Studio: {}", prompt);
-            
-            String responseText = aiStudioClient.generateContent(prompt);
-            log.debug("Received response from Google AI Studio: {}", responseText);
-            
-            AiMessage aiMessage = AiMessage.from(responseText);
-            
-            return Response.from(aiMessage);
-            
+            GeminiConversation conversation = chatMapper.conversation(chatRequest);
+            log.debug("Sending conversation of {} turns to Google AI Studio", conversation.contents().size());
+
+            Optional<CallerContext> caller = CallerContext.current();
+            GeminiResponse response = aiStudioClient.generate(conversation,
+                    caller.map(CallerContext::priority).orElse(RequestPriority.INTERACTIVE),
+                    caller.map(CallerContext::clientId).orElse(GoogleAiStudioClient.ANONYMOUS_CLIENT)).block();
+            log.debug("Received response from Google AI Studio: {}", response);
+
+            return chatMapper.chatResponse(response);
         } catch (Exception e) {
             log.error("Error generating response from Google AI Studio: {}", e.getMessage());
             throw new RuntimeException("Failed to generate AI response", e);
         }
     }
 
+    public Response<AiMessage> generate(List<ChatMessage> messages) {
+        ChatResponse response = chat(ChatRequest.builder().messages(messages).build());
+        return Response.from(response.aiMessage(), response.tokenUsage(), response.finishReason());
+    }
+
     @Override
-    public String chat(String userMessage) {
-        UserMessage message = UserMessage.from(userMessage);
-        Response<AiMessage> response = generate(List.of(message));
-        return response.content().text();
+    public List<ChatModelListener> listeners() {
+        return listeners;
     }
-}
\ No newline at end of file
+}
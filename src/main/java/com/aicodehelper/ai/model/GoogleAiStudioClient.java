@@ -1,125 +1,661 @@
 package com.aicodehelper.ai.model;
 
+import com.aicodehelper.ai.cache.ResponseCache;
+import com.aicodehelper.ai.quota.ApiKeyPool;
+import com.aicodehelper.ai.resilience.ModelCallResilience;
+import com.aicodehelper.ai.routing.ModelRouter;
+import com.aicodehelper.ai.traffic.AdmissionController;
+import com.aicodehelper.ai.traffic.AdmissionRejectedException;
+import com.aicodehelper.ai.traffic.RequestCoalescer;
+import com.aicodehelper.ai.traffic.RequestPriority;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.io.buffer.DataBuffer;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.function.client.WebClient;
-import com.fasterxml.jackson.databind.JsonNode;
+import org.springframework.web.util.UriComponentsBuilder;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
+import java.net.URI;
+import java.time.Duration;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Optional;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 
 @Component
 @Slf4j
 public class GoogleAiStudioClient {
 
-    @Value("${GOOGLE_AI_GEMINI_API_KEY}")
-    private String apiKey;
-    
-    @Value("${google-ai.model-name:gemini-1.5-flash}")
-    private String modelName;
+    /** Client identity for callers that do not identify themselves */
+    public static final String ANONYMOUS_CLIENT = "anonymous";
+
+    /**
+     * Text of an answer and the model that produced it.
+     *
+     * @param text Extracted response text
+     * @param model Model that answered, which differs from the routed one after a fallback
+     */
+    public record GeneratedContent(String text, String model) {
+    }
+
+    // Sent as a header rather than a query parameter, so keys stay out of URLs and access logs
+    private static final String API_KEY_HEADER = "x-goog-api-key";
+
+    @Value("${google-ai.base-url:https://generativelanguage.googleapis.com/v1beta/models/}")
+    private String baseUrl;
+
+    @Value("${google-ai.temperature:0.7}")
+    private double temperature;
+
+    @Value("${google-ai.max-tokens:2000}")
+    private int maxOutputTokens;
+
+    @Value("${google-ai.request-timeout-seconds:120}")
+    private long requestTimeoutSeconds;
+
+    @Value("${google-ai.http.prewarm-connections:2}")
+    private int prewarmConnections;
+
+    @Resource
+    private ResponseCache responseCache;
+
+    @Resource
+    private RequestCoalescer requestCoalescer;
+
+    @Resource
+    private AdmissionController admissionController;
+
+    @Resource
+    private ModelCallResilience modelCallResilience;
+
+    @Resource
+    private ModelRouter modelRouter;
+
+    @Resource
+    private GeminiContextCache contextCache;
+
+    @Resource
+    private ApiKeyPool apiKeyPool;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    @Resource(name = "geminiWebClient")
+    private WebClient webClient;
 
-    private final WebClient webClient;
     private final ObjectMapper objectMapper;
+    private final GeminiResponseParser responseParser;
+    // Prefix sent inline; used until a model's context cache exists, or when caching is unavailable
+    private GeminiRequestTemplate requestTemplate;
+    // Templates referencing a cached prefix by name. Names only change when a cache is recreated
+    private final ConcurrentMap<String, GeminiRequestTemplate> cachedPrefixTemplates = new ConcurrentHashMap<>();
+
+    // Built once per model; per-request String.format and URI template expansion are avoided
+    private final ConcurrentMap<String, ModelEndpoints> endpoints = new ConcurrentHashMap<>();
+
+    private Timer abandonedUnary;
+    private Timer abandonedStream;
 
     public GoogleAiStudioClient() {
-        this.webClient = WebClient.builder()
-                .baseUrl("https://generativelanguage.googleapis.com/v1beta/models/")
-                .build();
         this.objectMapper = new ObjectMapper();
+        this.responseParser = new GeminiResponseParser(objectMapper.getFactory());
+    }
+
+    @PostConstruct
+    public void init() {
+        requestTemplate = new GeminiRequestTemplate(objectMapper, prompt -> buildRequestBody(prompt, null));
+
+        abandonedUnary = abandonedTimer("unary");
+        abandonedStream = abandonedTimer("stream");
+    }
+
+    /**
+     * Opens connections to Gemini once the application is ready, so the first user
+     * requests find pooled connections with TLS already negotiated.
+     * 
+     * Each warm-up call fetches the model's metadata, which is cheap and generates nothing.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void prewarm() {
+        Optional<String> apiKey = apiKeyPool.anyKey();
+        if (prewarmConnections <= 0 || apiKey.isEmpty()) {
+            return;
+        }
+        List<String> models = modelRouter.models();
+        long startedAt = System.nanoTime();
+        Flux.range(0, prewarmConnections)
+                .flatMap(i -> webClient.get()
+                        .uri(endpoints(models.get(i % models.size())).metadata())
+                        .header(API_KEY_HEADER, apiKey.get())
+                        .retrieve()
+                        .toBodilessEntity()
+                        .timeout(requestTimeout())
+                        .onErrorResume(e -> {
+                            log.warn("Gemini connection pre-warming failed: {}", e.getMessage());
+                            return Mono.empty();
+                        }))
+                .count()
+                .subscribe(warmed -> log.info("Pre-warmed {} of {} Gemini connections in {} ms",
+                        warmed, prewarmConnections, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt)));
     }
 
+    /**
+     * Blocking variant of {@link #generateContentAsync(String)} for callers that
+     * run on their own thread, such as the LangChain4j {@code ChatModel} adapter.
+     * Interrupting the calling thread cancels the upstream exchange.
+     */
     public String generateContent(String prompt) {
-        try {
-            if (apiKey == null || apiKey.contains("your-api-key-here")) {
-                log.error("API key not configured properly: {}", apiKey);
-                throw new IllegalArgumentException("GOOGLE_AI_GEMINI_API_KEY is not configured properly");
-            }
+        return generateContentAsync(prompt).block();
+    }
 
-            log.info("Generating content with model: {} for prompt: {}", modelName, prompt.substring(0, Math.min(50, prompt.length())));
-
-            // Enhanced prompt to encourage proper code formatting with line breaks
-            String enhancedPrompt = prompt + "\n\nIMPORTANT: When providing code examples:\n" +
-                "1. Use markdown code blocks with language tags (```java, ```python, ```cpp, etc.)\n" +
-                "2. Format code with proper line breaks and indentation\n" +
-                "3. Each statement should be on its own line\n" +
-                "4. Use proper spacing and structure\n" +
-                "5. For single-line examples, still use code blocks";
-
-            Map<String, Object> requestBody = Map.of(
-                "contents", List.of(
-                    Map.of("parts", List.of(
-                        Map.of("text", enhancedPrompt)
-                    ))
-                ),
-                "generationConfig", Map.of(
-                    "temperature", 0.7,
-                    "maxOutputTokens", 2000
-                )
-            );
-
-            log.debug("Request body: {}", requestBody);
-
-            String url = String.format("https://generativelanguage.googleapis.com/v1beta/models/%s:generateContent?key=%s", 
-                    modelName, apiKey);
-            
-            String response = webClient.post()
-                    .uri(url)
-                    .contentType(MediaType.APPLICATION_JSON)
-                    .bodyValue(requestBody)
-                    .retrieve()
-                    .bodyToMono(String.class)
-                    .block();
-
-            log.debug("Raw API response: {}", response);
-            String result = extractTextFromResponse(response);
-            log.info("Extracted text response: {}", result.substring(0, Math.min(100, result.length())));
-            
-            return result;
-            
-        } catch (Exception e) {
+    /**
+     * Generates content as an interactive request of an anonymous client.
+     */
+    public Mono<String> generateContentAsync(String prompt) {
+        return generateContentAsync(prompt, RequestPriority.INTERACTIVE, ANONYMOUS_CLIENT);
+    }
+
+    /**
+     * Generates content without blocking the calling thread.
+     * 
+     * @param prompt User prompt
+     * @param priority Scheduling class of the request
+     * @param clientId Caller identity used for fairness within the class
+     * @return Mono emitting the extracted response text
+     * @see #generate(String, RequestPriority, String)
+     */
+    public Mono<String> generateContentAsync(String prompt, RequestPriority priority, String clientId) {
+        return generate(prompt, priority, clientId).map(GeneratedContent::text);
+    }
+
+    /**
+     * Generates content without blocking the calling thread, along with the model that
+     * produced it.
+     * 
+     * The request is only issued on subscription, so controllers can return the
+     * Mono directly and release their request thread for the whole model round trip.
+     * The model is chosen per request by the {@link ModelRouter}. Answers are served
+     * from the response cache when possible, and identical concurrent prompts are
+     * coalesced into a single upstream call. The upstream
+     * call itself goes through admission control and may fail fast with an
+     * {@link com.aicodehelper.ai.traffic.AdmissionRejectedException} under overload.
+     * 
+     * @param prompt User prompt
+     * @param priority Scheduling class of the request
+     * @param clientId Caller identity used for fairness within the class
+     * @return Mono emitting the extracted response text and the model that answered
+     */
+    public Mono<GeneratedContent> generate(String prompt, RequestPriority priority, String clientId) {
+        return Mono.defer(() -> {
+            ModelRouter.Route route = modelRouter.route(prompt, priority);
+            return lookupCached(prompt, route).flatMap(cached -> {
+                if (cached.isHit()) {
+                    return Mono.just(new GeneratedContent(cached.answer(), route.model()));
+                }
+                // Identical concurrent prompts share one upstream call
+                return requestCoalescer.join(coalescingKey(route, prompt), () -> admissionController
+                        .admit(modelRouter.withFallback(route, model -> requestContent(model, prompt)
+                                .map(text -> new GeneratedContent(text, model))), priority, clientId)
+                        .flatMap(content -> storeCached(cached, content.model(), content.text()).thenReturn(content)));
+            });
+        });
+    }
+
+    /**
+     * Streams content as an interactive request of an anonymous client.
+     */
+    public Flux<String> streamContent(String prompt) {
+        return streamContent(prompt, RequestPriority.INTERACTIVE, ANONYMOUS_CLIENT);
+    }
+
+    /**
+     * Streams content from the {@code streamGenerateContent} SSE endpoint.
+     * 
+     * Each element is the text of one partial candidate as delivered by the model,
+     * so the first element arrives as soon as Gemini emits its first chunk instead
+     * of after the full answer has been generated. A cached answer is emitted as a
+     * single element, and a completed stream is added to the cache. Callers joining
+     * an identical in-flight stream receive the chunks produced so far, then the tail.
+     * 
+     * @param prompt User prompt
+     * @param priority Scheduling class of the request
+     * @param clientId Caller identity used for fairness within the class
+     * @return Flux of partial response texts in arrival order
+     */
+    public Flux<String> streamContent(String prompt, RequestPriority priority, String clientId) {
+        return Flux.defer(() -> {
+            ModelRouter.Route route = modelRouter.route(prompt, priority);
+            return lookupCached(prompt, route).flatMapMany(cached -> {
+                if (cached.isHit()) {
+                    return Flux.just(cached.answer());
+                }
+                return requestCoalescer.joinStream(coalescingKey(route, prompt), () -> {
+                    StringBuilder answer = new StringBuilder();
+                    // The last model called is the one that answered
+                    AtomicReference<String> answeredBy = new AtomicReference<>(route.model());
+                    return admissionController.admitStream(
+                                    modelRouter.withFallbackStream(route, model -> {
+                                        answeredBy.set(model);
+                                        return requestContentStream(model, prompt);
+                                    }),
+                                    priority, clientId)
+                            .doOnNext(answer::append)
+                            .concatWith(Mono.defer(() -> storeCached(cached, answeredBy.get(), answer.toString()))
+                                    .then(Mono.empty()));
+                });
+            });
+        });
+    }
+
+    /**
+     * Looks the prompt up in the response cache on a bounded elastic worker.
+     * 
+     * A semantic lookup embeds the prompt and scans the cached embeddings under the
+     * cache lock, which must not run on a Netty event loop thread. The chain continues
+     * on the worker until the upstream call switches to the HTTP client's threads.
+     */
+    private Mono<ResponseCache.Lookup> lookupCached(String prompt, ModelRouter.Route route) {
+        return Mono.fromCallable(() -> responseCache.lookup(prompt, route.model(), generationConfigKey()))
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    /**
+     * Stores an answer in the response cache on a bounded elastic worker, under the model that
+     * produced it. The answer is released to callers once stored, so a repeated prompt routed
+     * to that model is guaranteed to hit.
+     */
+    private Mono<Void> storeCached(ResponseCache.Lookup cached, String model, String answer) {
+        return Mono.<Void>fromRunnable(() -> responseCache.store(cached, model, answer))
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    /**
+     * Sends a multi-turn conversation in Gemini's native shape.
+     * 
+     * Routing, admission control, resilience and the key pool apply as for prompts. Answers
+     * depend on the whole conversation and may call functions, so they are neither cached
+     * nor coalesced.
+     * 
+     * @param conversation Turns, system instruction and tools of the request
+     * @param priority Scheduling class of the request
+     * @param clientId Caller identity used for fairness within the class
+     * @return Mono emitting the first candidate with its token usage
+     */
+    Mono<GeminiResponse> generate(GeminiConversation conversation, RequestPriority priority, String clientId) {
+        return Mono.defer(() -> {
+            ModelRouter.Route route = modelRouter.route(conversation.routingText(), priority);
+            return admissionController.admit(
+                    modelRouter.withFallback(route, model -> requestConversation(model, conversation)), priority, clientId);
+        });
+    }
+
+    /**
+     * Streams a multi-turn conversation in Gemini's native shape.
+     * 
+     * Each element is one event of the first candidate: text chunks as they are generated,
+     * function calls, and the finish reason and token usage towards the end. Like
+     * {@link #generate(GeminiConversation, RequestPriority, String)}, the stream is neither
+     * cached nor coalesced.
+     * 
+     * @param conversation Turns, system instruction and tools of the request
+     * @param priority Scheduling class of the request
+     * @param clientId Caller identity used for fairness within the class
+     * @return Flux of response events in arrival order
+     */
+    Flux<GeminiResponse> streamConversation(GeminiConversation conversation, RequestPriority priority, String clientId) {
+        return Flux.defer(() -> {
+            ModelRouter.Route route = modelRouter.route(conversation.routingText(), priority);
+            return admissionController.admitStream(
+                    modelRouter.withFallbackStream(route, model -> requestConversationStream(model, conversation)),
+                    priority, clientId);
+        });
+    }
+
+    private Mono<String> requestContent(String model, String prompt) {
+        return Mono.defer(() -> {
+            validateApiKey();
+
+            log.info("Generating content with model: {} for prompt: {}", model, prompt.substring(0, Math.min(50, prompt.length())));
+
+            // Quota is accounted for with the prefix inline, which is an upper bound
+            byte[] inlineBody = requestTemplate.render(prompt);
+            return exchange(model, inlineBody.length, maxOutputTokens,
+                    apiKey -> requestBody(model, apiKey, prompt, inlineBody),
+                    response -> {
+                        if (!response.hasText()) {
+                            throw new IllegalStateException("No candidate text in AI response");
+                        }
+                        return response.text();
+                    });
+        }).doOnNext(result -> log.info("Extracted text response: {}", result.substring(0, Math.min(100, result.length()))))
+        .onErrorMap(e -> !(e instanceof AdmissionRejectedException), e -> {
+            log.error("Error calling Google AI Studio API: {}", e.getMessage(), e);
+            return new RuntimeException("Failed to generate AI response: " + e.getMessage(), e);
+        });
+    }
+
+    private Mono<GeminiResponse> requestConversation(String model, GeminiConversation conversation) {
+        return Mono.defer(() -> {
+            validateApiKey();
+
+            log.info("Generating content with model: {} for a conversation of {} turns", model, conversation.contents().size());
+
+            byte[] inlineBody = conversationBody(conversation, null);
+            int maxTokens = conversation.maxOutputTokens() != null ? conversation.maxOutputTokens() : maxOutputTokens;
+            return exchange(model, inlineBody.length, maxTokens,
+                    apiKey -> conversationBody(model, apiKey, conversation, inlineBody),
+                    response -> response);
+        }).onErrorMap(e -> !(e instanceof AdmissionRejectedException), e -> {
             log.error("Error calling Google AI Studio API: {}", e.getMessage(), e);
-            throw new RuntimeException("Failed to generate AI response: " + e.getMessage(), e);
+            return new RuntimeException("Failed to generate AI response: " + e.getMessage(), e);
+        });
+    }
+
+    /**
+     * Calls {@code generateContent} under the deadline, with retries and hedges, each attempt
+     * on a key of its own, and settles the key's quota with the usage Gemini reports.
+     */
+    private <T> Mono<T> exchange(String model, int inlineBodyLength, int maxTokens, Function<String, byte[]> bodyForKey,
+                                 Function<GeminiResponse, T> result) {
+        long reservedTokens = ApiKeyPool.estimateTokens(inlineBodyLength) + maxTokens;
+        long startedAt = System.nanoTime();
+        // Retries and hedges run inside the deadline and are cancelled with the call;
+        // each attempt takes its own key, so a retry after a 429 moves to another key
+        URI uri = endpoints(model).generateContent();
+        return modelCallResilience.execute(model, () -> apiKeyPool.acquire(reservedTokens)
+                        .flatMap(lease -> responseParser.response(webClient.post()
+                                        .uri(uri)
+                                        .header(API_KEY_HEADER, lease.key())
+                                        .contentType(MediaType.APPLICATION_JSON)
+                                        .bodyValue(bodyForKey.apply(lease.key()))
+                                        .retrieve()
+                                        .bodyToFlux(DataBuffer.class))
+                                .doOnNext(response -> lease.complete(usedTokens(model, response.usage(),
+                                        inlineBodyLength, response.hasText() ? response.text().length() : 0)))
+                                .map(response -> result.apply(response.withModel(model)))
+                                .doOnError(lease::fail)
+                                // Cancelled before an answer: the reservation goes back to the key
+                                .doFinally(signal -> lease.release())))
+                // Cancelling closes the exchange, so Gemini stops generating. This happens on
+                // client disconnect, deadline expiry, or interruption of a blocked caller
+                .doOnCancel(() -> abandoned(abandonedUnary, startedAt))
+                .timeout(requestTimeout());
+    }
+
+    private Flux<String> requestContentStream(String model, String prompt) {
+        return Flux.defer(() -> {
+            validateApiKey();
+
+            log.info("Streaming content with model: {} for prompt: {}", model, prompt.substring(0, Math.min(50, prompt.length())));
+
+            byte[] inlineBody = requestTemplate.render(prompt);
+            return streamExchange(model, inlineBody.length, maxOutputTokens,
+                    apiKey -> requestBody(model, apiKey, prompt, inlineBody))
+                    .filter(GeminiResponse::hasText)
+                    .map(GeminiResponse::text)
+                    .filter(text -> !text.isEmpty());
+        }).doOnError(e -> log.error("Error streaming from Google AI Studio API: {}", e.getMessage(), e));
+    }
+
+    private Flux<GeminiResponse> requestConversationStream(String model, GeminiConversation conversation) {
+        return Flux.defer(() -> {
+            validateApiKey();
+
+            log.info("Streaming content with model: {} for a conversation of {} turns", model, conversation.contents().size());
+
+            byte[] inlineBody = conversationBody(conversation, null);
+            int maxTokens = conversation.maxOutputTokens() != null ? conversation.maxOutputTokens() : maxOutputTokens;
+            return streamExchange(model, inlineBody.length, maxTokens,
+                    apiKey -> conversationBody(model, apiKey, conversation, inlineBody));
+        }).doOnError(e -> log.error("Error streaming from Google AI Studio API: {}", e.getMessage(), e));
+    }
+
+    /**
+     * Calls {@code streamGenerateContent} under a deadline for the whole stream, and records the
+     * time to the first text chunk and between chunks of the attempt that is delivered.
+     */
+    private Flux<GeminiResponse> streamExchange(String model, int inlineBodyLength, int maxTokens,
+                                                Function<String, byte[]> bodyForKey) {
+        long reservedTokens = ApiKeyPool.estimateTokens(inlineBodyLength) + maxTokens;
+        long startedAt = System.nanoTime();
+        AtomicLong lastChunkAt = new AtomicLong();
+        URI uri = endpoints(model).streamGenerateContent();
+        return modelCallResilience.executeStream(model, () -> apiKeyPool.acquire(reservedTokens)
+                        .flatMapMany(lease -> {
+                            AtomicLong streamedChars = new AtomicLong();
+                            // Each event reports the usage so far; the last one holds the totals
+                            AtomicReference<GeminiResponse.Usage> usage = new AtomicReference<>();
+                            return responseParser.stream(webClient.post()
+                                            .uri(uri)
+                                            .header(API_KEY_HEADER, lease.key())
+                                            .contentType(MediaType.APPLICATION_JSON)
+                                            .accept(MediaType.TEXT_EVENT_STREAM)
+                                            .bodyValue(bodyForKey.apply(lease.key()))
+                                            .retrieve()
+                                            .bodyToFlux(DataBuffer.class))
+                                    .doOnNext(event -> {
+                                        if (event.usage() != null) {
+                                            usage.set(event.usage());
+                                        }
+                                        if (event.hasText()) {
+                                            streamedChars.addAndGet(event.text().length());
+                                        }
+                                    })
+                                    .doOnComplete(() -> lease.complete(
+                                            usedTokens(model, usage.get(), inlineBodyLength, streamedChars.get())))
+                                    .doOnError(lease::fail)
+                                    // A cancelled stream is charged what it generated so far
+                                    .doOnCancel(() -> lease.complete(
+                                            usedTokens(model, usage.get(), inlineBodyLength, streamedChars.get())))
+                                    .doFinally(signal -> lease.release());
+                        }))
+                .map(event -> event.withModel(model))
+                .doOnNext(event -> {
+                    if (event.hasText() && !event.text().isEmpty()) {
+                        long now = System.nanoTime();
+                        long previous = lastChunkAt.getAndSet(now);
+                        if (previous == 0) {
+                            streamTimer("ai.stream.first-token", model).record(now - startedAt, TimeUnit.NANOSECONDS);
+                        } else {
+                            streamTimer("ai.stream.inter-token", model).record(now - previous, TimeUnit.NANOSECONDS);
+                        }
+                    }
+                })
+                .doOnCancel(() -> abandoned(abandonedStream, startedAt))
+                // Deadline for the whole stream rather than per chunk
+                .timeout(untilDeadline(startedAt), chunk -> untilDeadline(startedAt))
+                .onErrorMap(TimeoutException.class, e -> new TimeoutException("Stream exceeded " + requestTimeout()));
+    }
+
+    private Timer streamTimer(String name, String model) {
+        return Timer.builder(name)
+                .tag("model", model)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    /**
+     * Records the token usage of a completed call.
+     *
+     * @return Tokens the call consumed, as reported by Gemini or else estimated from the request and answer sizes
+     */
+    private long usedTokens(String model, GeminiResponse.Usage usage, long requestChars, long answerChars) {
+        if (usage == null || usage.totalTokens() == null) {
+            return ApiKeyPool.estimateTokens(requestChars + answerChars);
         }
+        recordTokens(model, "input", usage.promptTokens());
+        recordTokens(model, "output", usage.outputTokens());
+        recordTokens(model, "cached", usage.cachedTokens());
+        return usage.totalTokens();
     }
 
-    private String extractTextFromResponse(String response) {
-        try {
-            log.debug("Parsing response: {}", response);
-            JsonNode jsonNode = objectMapper.readTree(response);
-            
-            if (!jsonNode.has("candidates") || jsonNode.path("candidates").isEmpty()) {
-                log.error("No candidates found in response: {}", response);
-                throw new RuntimeException("No candidates in AI response");
-            }
-            
-            JsonNode firstCandidate = jsonNode.path("candidates").get(0);
-            if (!firstCandidate.has("content")) {
-                log.error("No content found in first candidate: {}", firstCandidate);
-                throw new RuntimeException("No content in AI response candidate");
-            }
-            
-            JsonNode content = firstCandidate.path("content");
-            if (!content.has("parts") || content.path("parts").isEmpty()) {
-                log.error("No parts found in content: {}", content);
-                throw new RuntimeException("No parts in AI response content");
-            }
-            
-            JsonNode firstPart = content.path("parts").get(0);
-            if (!firstPart.has("text")) {
-                log.error("No text found in first part: {}", firstPart);
-                throw new RuntimeException("No text in AI response part");
+    private void recordTokens(String model, String type, Integer count) {
+        if (count != null) {
+            DistributionSummary.builder("ai.tokens")
+                    .baseUnit("tokens")
+                    .tag("model", model)
+                    .tag("type", type)
+                    .register(meterRegistry)
+                    .record(count);
+        }
+    }
+
+    private ModelEndpoints endpoints(String model) {
+        return endpoints.computeIfAbsent(model, name -> new ModelEndpoints(
+                modelUri(name, "").build().toUri(),
+                modelUri(name, ":generateContent").build().toUri(),
+                modelUri(name, ":streamGenerateContent").queryParam("alt", "sse").build().toUri()));
+    }
+
+    private UriComponentsBuilder modelUri(String model, String method) {
+        return UriComponentsBuilder.fromUriString(baseUrl + model + method).encode();
+    }
+
+    private Duration requestTimeout() {
+        return Duration.ofSeconds(requestTimeoutSeconds);
+    }
+
+    private Mono<Long> untilDeadline(long startedAt) {
+        long remaining = startedAt + requestTimeout().toNanos() - System.nanoTime();
+        return Mono.delay(Duration.ofNanos(Math.max(0, remaining)));
+    }
+
+    /**
+     * Records an upstream call cancelled before it finished, with the time it had run.
+     */
+    private void abandoned(Timer timer, long startedAt) {
+        long elapsed = System.nanoTime() - startedAt;
+        timer.record(elapsed, TimeUnit.NANOSECONDS);
+        log.info("Abandoned upstream generation after {} ms", TimeUnit.NANOSECONDS.toMillis(elapsed));
+    }
+
+    private Timer abandonedTimer(String mode) {
+        return Timer.builder("ai.generation.abandoned")
+                .tag("mode", mode)
+                .register(meterRegistry);
+    }
+
+    private void validateApiKey() {
+        if (!apiKeyPool.isConfigured()) {
+            log.error("No usable Gemini API key configured");
+            throw new IllegalArgumentException("GOOGLE_AI_GEMINI_API_KEY is not configured properly");
+        }
+    }
+
+    /**
+     * @return Body referencing the model's cached prompt prefix when there is one, the inline body otherwise
+     */
+    private byte[] requestBody(String model, String apiKey, String prompt, byte[] inlineBody) {
+        Optional<String> cachedContent = contextCache.cachedContent(model, apiKey);
+        if (cachedContent.isEmpty()) {
+            return inlineBody;
+        }
+        GeminiRequestTemplate template = cachedPrefixTemplates.get(cachedContent.get());
+        if (template == null) {
+            if (cachedPrefixTemplates.size() >= 64) {
+                cachedPrefixTemplates.clear();
             }
-            
-            String result = firstPart.path("text").asText();
-            log.debug("Successfully extracted text: {}", result);
-            return result;
-            
-        } catch (Exception e) {
-            log.error("Error parsing Google AI response: {}", response, e);
-            throw new RuntimeException("Failed to parse AI response: " + e.getMessage(), e);
+            template = cachedPrefixTemplates.computeIfAbsent(cachedContent.get(),
+                    name -> new GeminiRequestTemplate(objectMapper, text -> buildRequestBody(text, name)));
+        }
+        return template.render(prompt);
+    }
+
+    /**
+     * Builds a request whose static prefix (system prompt and formatting instructions) is either
+     * referenced as cached content or sent inline as the system instruction.
+     */
+    private Map<String, Object> buildRequestBody(String prompt, String cachedContent) {
+        Map<String, Object> body = new LinkedHashMap<>();
+        if (cachedContent != null) {
+            body.put("cachedContent", cachedContent);
+        } else {
+            body.put("systemInstruction", Map.of("parts", List.of(Map.of("text", contextCache.systemInstruction()))));
+        }
+        body.put("contents", List.of(
+                Map.of("role", "user", "parts", List.of(Map.of("text", prompt)))
+        ));
+        body.put("generationConfig", Map.of(
+                "temperature", temperature,
+                "maxOutputTokens", maxOutputTokens
+        ));
+        return body;
+    }
+
+    /**
+     * @return Conversation body referencing the cached prompt prefix when the conversation uses it
+     *         and has one, the inline body otherwise
+     */
+    private byte[] conversationBody(String model, String apiKey, GeminiConversation conversation, byte[] inlineBody) {
+        // Gemini rejects tools next to cached content, so conversations that declare tools stay inline
+        if (!usesStaticPrefix(conversation) || !conversation.tools().isEmpty()) {
+            return inlineBody;
         }
+        return contextCache.cachedContent(model, apiKey)
+                .map(cachedContent -> conversationBody(conversation, cachedContent))
+                .orElse(inlineBody);
+    }
+
+    private byte[] conversationBody(GeminiConversation conversation, String cachedContent) {
+        Map<String, Object> body = new LinkedHashMap<>();
+        if (cachedContent != null) {
+            body.put("cachedContent", cachedContent);
+        } else {
+            String systemInstruction = usesStaticPrefix(conversation)
+                    ? contextCache.systemInstruction() : conversation.systemInstruction();
+            body.put("systemInstruction", Map.of("parts", List.of(Map.of("text", systemInstruction))));
+        }
+        body.put("contents", conversation.contents());
+        if (!conversation.tools().isEmpty()) {
+            body.put("tools", conversation.tools());
+        }
+        body.put("generationConfig", Map.of(
+                "temperature", conversation.temperature() != null ? conversation.temperature() : temperature,
+                "maxOutputTokens", conversation.maxOutputTokens() != null ? conversation.maxOutputTokens() : maxOutputTokens
+        ));
+        try {
+            return objectMapper.writeValueAsBytes(body);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Failed to encode Gemini request: " + e.getMessage(), e);
+        }
+    }
+
+    private boolean usesStaticPrefix(GeminiConversation conversation) {
+        return conversation.systemInstruction() == null || contextCache.isSystemPrompt(conversation.systemInstruction());
+    }
+
+    /**
+     * Identifies calls that may share one upstream call. The route's fallback is part of the key,
+     * so only callers whose calls could be answered by the same models are coalesced.
+     */
+    private String coalescingKey(ModelRouter.Route route, String prompt) {
+        return route.model() + '\u0000' + route.fallback() + '\u0000' + generationConfigKey() + '\u0000' + prompt;
+    }
+
+    private String generationConfigKey() {
+        return "temperature=" + temperature + ",maxOutputTokens=" + maxOutputTokens;
+    }
+
+    private record ModelEndpoints(URI metadata, URI generateContent, URI streamGenerateContent) {
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,133 @@
+package com.aicodehelper.ai.model;
+
+import com.aicodehelper.ai.traffic.CallerContext;
+import com.aicodehelper.ai.traffic.RequestPriority;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.langchain4j.model.chat.StreamingChatModel;
+import dev.langchain4j.model.chat.listener.ChatModelListener;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.response.StreamingChatResponseHandler;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * LangChain4j {@link StreamingChatModel} on top of Gemini's {@code streamGenerateContent} endpoint.
+ *
+ * Requests are mapped like those of {@link GoogleAiStudioChatModel}. Text chunks are handed to
+ * the handler as Gemini emits them; function calls, token usage and the finish reason are
+ * collected into the complete response.
+ *
+ * - Priority and client identity come from the {@link CallerContext} of the invoking thread,
+ *   and the call is registered with it, so cancelling the context stops generation upstream
+ * - The complete response is delivered on a bounded elastic thread with the caller context
+ *   restored: LangChain4j stores it in chat memory and may execute tools and call the model
+ *   again from there, none of which may block an event loop
+ */
+@Component
+@Slf4j
+public class GoogleAiStudioStreamingChatModel implements StreamingChatModel {
+
+    private final GoogleAiStudioClient aiStudioClient;
+    private final GeminiChatMapper chatMapper = new GeminiChatMapper(new ObjectMapper());
+    private final List<ChatModelListener> listeners;
+
+    @Autowired
+    public GoogleAiStudioStreamingChatModel(GoogleAiStudioClient aiStudioClient, ObjectProvider<ChatModelListener> listeners) {
+        this(aiStudioClient, listeners.orderedStream().toList());
+    }
+
+    GoogleAiStudioStreamingChatModel(GoogleAiStudioClient aiStudioClient, List<ChatModelListener> listeners) {
+        this.aiStudioClient = aiStudioClient;
+        this.listeners = List.copyOf(listeners);
+    }
+
+    @Override
+    public void doChat(ChatRequest chatRequest, StreamingChatResponseHandler handler) {
+        GeminiConversation conversation;
+        try {
+            conversation = chatMapper.conversation(chatRequest);
+        } catch (RuntimeException e) {
+            handler.onError(e);
+            return;
+        }
+        Optional<CallerContext> caller = CallerContext.current();
+        RequestPriority priority = caller.map(CallerContext::priority).orElse(RequestPriority.INTERACTIVE);
+        String clientId = caller.map(CallerContext::clientId).orElse(GoogleAiStudioClient.ANONYMOUS_CLIENT);
+        log.debug("Streaming conversation of {} turns from Google AI Studio", conversation.contents().size());
+
+        StreamedResponse response = new StreamedResponse();
+        Disposable call = aiStudioClient.streamConversation(conversation, priority, clientId)
+                .doOnNext(event -> {
+                    response.add(event);
+                    if (event.hasText() && !event.text().isEmpty()) {
+                        handler.onPartialResponse(event.text());
+                    }
+                })
+                .then()
+                .publishOn(Schedulers.boundedElastic())
+                .subscribe(null,
+                        error -> {
+                            log.error("Error streaming response from Google AI Studio: {}", error.getMessage());
+                            withCaller(caller, () -> handler.onError(error));
+                        },
+                        () -> withCaller(caller, () -> handler.onCompleteResponse(chatMapper.chatResponse(response.finish()))));
+        caller.ifPresent(context -> context.track(call));
+    }
+
+    @Override
+    public List<ChatModelListener> listeners() {
+        return listeners;
+    }
+
+    private static void withCaller(Optional<CallerContext> caller, Runnable action) {
+        if (caller.isPresent()) {
+            caller.get().run(() -> {
+                action.run();
+                return null;
+            });
+        } else {
+            action.run();
+        }
+    }
+
+    /**
+     * Events of one stream merged into a single response. Events arrive serially.
+     */
+    private static final class StreamedResponse {
+
+        private final StringBuilder text = new StringBuilder();
+        private boolean hasText;
+        private final List<GeminiResponse.FunctionCall> functionCalls = new ArrayList<>(0);
+        private String model;
+        private String finishReason;
+        private GeminiResponse.Usage usage;
+
+        void add(GeminiResponse event) {
+            model = event.model();
+            if (event.hasText()) {
+                hasText = true;
+                text.append(event.text());
+            }
+            functionCalls.addAll(event.functionCalls());
+            if (event.finishReason() != null) {
+                finishReason = event.finishReason();
+            }
+            // Usage is cumulative, so the latest report holds the totals
+            if (event.usage() != null) {
+                usage = event.usage();
+            }
+        }
+
+        GeminiResponse finish() {
+            return new GeminiResponse(model, hasText ? text.toString() : null, List.copyOf(functionCalls), finishReason, usage);
+        }
+    }
+}
@@ -1,41 +1,37 @@
 package com.aicodehelper.ai.model;
 
-import dev.langchain4j.data.embedding.Embedding;
-import dev.langchain4j.data.segment.TextSegment;
+import com.aicodehelper.ai.embedding.BatchedOnnxEmbeddingModel;
 import dev.langchain4j.model.embedding.EmbeddingModel;
-import dev.langchain4j.model.output.Response;
-import dev.langchain4j.store.embedding.EmbeddingStore;
-import dev.langchain4j.store.embedding.inmemory.InMemoryEmbeddingStore;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
 
 /**
- * Provides a minimal in-memory embedding setup so that the application can
- * start without external embedding services or ONNX models. It returns a
- * zero-vector embedding for any input which is sufficient for development
- * and unit-test usage.
+ * Provides an in-process embedding setup so that the application can start
+ * without external embedding services. Texts are embedded on the CPU by the
+ * all-MiniLM-L6-v2 ONNX model bundled on the classpath, in batches. The knowledge
+ * base vectors are kept by {@link com.aicodehelper.ai.rag.PersistentEmbeddingStore}.
  */
 @Configuration
 public class LocalEmbeddingConfig {
 
-    /**
-     * Dummy embedding model that returns a single-dimension zero vector for all inputs.
-     */
-    @Bean
-    public EmbeddingModel embeddingModel() {
-        return texts -> Response.from(
-                texts.stream()
-                        .map(t -> new Embedding(new float[]{0f}))
-                        .toList()
-        );
-    }
+    // 0 uses every available processor
+    @Value("${ai.embedding.threads:0}")
+    private int threads;
+
+    @Value("${ai.embedding.batch-size:32}")
+    private int batchSize;
+
+    @Value("${ai.embedding.max-tokens:256}")
+    private int maxTokens;
 
     /**
-     * Simple in-memory vector store.
+     * Batched ONNX sentence embedding model, closed with the application context.
      */
     @Bean
-    public EmbeddingStore<TextSegment> embeddingStore() {
-        return new InMemoryEmbeddingStore<>();
+    public EmbeddingModel embeddingModel() {
+        int inferenceThreads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        return BatchedOnnxEmbeddingModel.allMiniLmL6V2(inferenceThreads, batchSize, maxTokens);
     }
 }
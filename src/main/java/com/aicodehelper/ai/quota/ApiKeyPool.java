@@ -0,0 +1,314 @@
+package com.aicodehelper.ai.quota;
+
+import com.aicodehelper.ai.traffic.AdmissionRejectedException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Pool of Gemini API keys with per-key rate limiting.
+ *
+ * Each key has a token bucket for requests per minute and one for tokens per minute, sized
+ * to the key's quota, so calls are spread before Gemini starts answering 429. Quotas depend on
+ * the key's tier, so neither limit is enforced locally unless configured; with a limit of 0,
+ * only Gemini's own 429s throttle the key. A call goes to
+ * the key with the most headroom, that is the largest free fraction of its tighter bucket.
+ * A key that does get a 429 cools off for the Retry-After period (or {@code cool-off-seconds})
+ * and receives no calls meanwhile.
+ *
+ * Token usage is not known before a call, so the prompt's estimated size plus the maximum
+ * output is reserved. The unused part is refunded when the call completes, and the whole
+ * reservation when it fails or is cancelled without reporting its usage. When no key
+ * has room, a call waits up to {@code max-wait-ms} for one and is otherwise rejected with
+ * 429 and a Retry-After.
+ *
+ * Keys come from {@code google-ai.api-keys}, a comma-separated list that defaults to the
+ * single {@code GOOGLE_AI_GEMINI_API_KEY}. Metrics are tagged {@code key-<index>} and never
+ * with the key itself.
+ */
+@Component
+@Slf4j
+public class ApiKeyPool {
+
+    /** Rough characters per token for Gemini's tokenizer on English text and code */
+    private static final int CHARS_PER_TOKEN = 4;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    @Value("${google-ai.api-keys:${GOOGLE_AI_GEMINI_API_KEY:}}")
+    private List<String> apiKeys;
+
+    @Value("${google-ai.key-pool.requests-per-minute:0}")
+    private long requestsPerMinute;
+
+    @Value("${google-ai.key-pool.tokens-per-minute:0}")
+    private long tokensPerMinute;
+
+    @Value("${google-ai.key-pool.cool-off-seconds:60}")
+    private long coolOffSeconds;
+
+    @Value("${google-ai.key-pool.max-wait-ms:2000}")
+    private long maxWaitMillis;
+
+    private Clock clock = Clock.systemUTC();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private List<ApiKey> keys;
+    private Counter exhausted;
+
+    @PostConstruct
+    public void init() {
+        keys = new ArrayList<>();
+        for (String value : new LinkedHashSet<>(apiKeys)) {
+            String key = value.trim();
+            if (key.isEmpty() || key.contains("your-api-key-here")) {
+                continue;
+            }
+            keys.add(new ApiKey(keys.size(), key));
+        }
+        log.info("Initializing API key pool - keys: {}, per key: {} requests/min, {} tokens/min",
+                keys.stream().map(ApiKey::describe).toList(), limit(requestsPerMinute), limit(tokensPerMinute));
+
+        exhausted = Counter.builder("ai.keys.exhausted").register(meterRegistry);
+        for (ApiKey key : keys) {
+            key.registerMeters();
+        }
+    }
+
+    /**
+     * @return Whether at least one usable key is configured
+     */
+    public boolean isConfigured() {
+        return !keys.isEmpty();
+    }
+
+    /**
+     * @return A key for calls that do not count against the quota, such as connection warm-up
+     */
+    public Optional<String> anyKey() {
+        return keys.stream().findFirst().map(key -> key.value);
+    }
+
+    /**
+     * Reserves one request and {@code estimatedTokens} tokens on the key with the most headroom.
+     *
+     * @param estimatedTokens Tokens the call may consume, prompt and output
+     * @return Lease on the chosen key; the caller reports the outcome on it
+     */
+    public Mono<Lease> acquire(long estimatedTokens) {
+        return Mono.defer(() -> acquire(estimatedTokens, clock.millis() + maxWaitMillis));
+    }
+
+    /**
+     * Estimates the token count of a text from its length.
+     */
+    public static long estimateTokens(long chars) {
+        return (chars + CHARS_PER_TOKEN - 1) / CHARS_PER_TOKEN;
+    }
+
+    private Mono<Lease> acquire(long estimatedTokens, long waitUntil) {
+        ApiKey best = null;
+        double bestHeadroom = -1;
+        long wait = Long.MAX_VALUE;
+        lock.lock();
+        try {
+            long now = clock.millis();
+            for (ApiKey key : keys) {
+                if (key.coolingUntil > now) {
+                    wait = Math.min(wait, key.coolingUntil - now);
+                } else if (key.requests.canTake(1) && key.tokens.canTake(estimatedTokens)) {
+                    double headroom = Math.min(key.requests.headroom(), key.tokens.headroom());
+                    if (headroom > bestHeadroom) {
+                        best = key;
+                        bestHeadroom = headroom;
+                    }
+                } else {
+                    wait = Math.min(wait, Math.max(key.requests.millisUntil(1), key.tokens.millisUntil(estimatedTokens)));
+                }
+            }
+            if (best != null) {
+                best.requests.take(1);
+                best.tokens.take(estimatedTokens);
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (best != null) {
+            best.calls.increment();
+            return Mono.just(new Lease(best, estimatedTokens));
+        }
+        if (keys.isEmpty()) {
+            return Mono.error(new IllegalArgumentException("GOOGLE_AI_GEMINI_API_KEY is not configured properly"));
+        }
+        long now = clock.millis();
+        if (now + wait > waitUntil) {
+            exhausted.increment();
+            log.warn("All {} Gemini API keys are at their rate limit, next free in {} ms", keys.size(), wait);
+            return Mono.error(new AdmissionRejectedException(HttpStatus.TOO_MANY_REQUESTS, Duration.ofMillis(wait),
+                    "All Gemini API keys are at their rate limit"));
+        }
+        return Mono.delay(Duration.ofMillis(Math.max(1, wait)))
+                .then(Mono.defer(() -> acquire(estimatedTokens, waitUntil)));
+    }
+
+    private static String limit(long perMinute) {
+        return perMinute > 0 ? String.valueOf(perMinute) : "unlimited";
+    }
+
+    private double read(ApiKey key, ToDoubleFunction<ApiKey> reader) {
+        lock.lock();
+        try {
+            return reader.applyAsDouble(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reservation on one key for one call.
+     */
+    public final class Lease {
+
+        private final ApiKey key;
+        private final long reservedTokens;
+        private boolean settled;
+
+        private Lease(ApiKey key, long reservedTokens) {
+            this.key = key;
+            this.reservedTokens = reservedTokens;
+        }
+
+        /**
+         * @return API key to send with the call
+         */
+        public String key() {
+            return key.value;
+        }
+
+        /**
+         * Settles a call with its actual usage, refunding tokens reserved beyond it. Used for
+         * successful calls, and for cancelled streams with the usage up to the cancellation.
+         */
+        public void complete(long usedTokens) {
+            settle(Math.max(0, reservedTokens - usedTokens));
+        }
+
+        /**
+         * Settles a failed call, refunding the whole reservation. A 429 also puts the key into
+         * cool-off.
+         */
+        public void fail(Throwable error) {
+            settle(reservedTokens);
+            if (!(error instanceof WebClientResponseException response) || response.getStatusCode().value() != 429) {
+                return;
+            }
+            Duration coolOff = retryAfter(response);
+            lock.lock();
+            try {
+                key.coolingUntil = Math.max(key.coolingUntil, clock.millis() + coolOff.toMillis());
+            } finally {
+                lock.unlock();
+            }
+            key.rateLimited.increment();
+            log.warn("Gemini API key {} was rate limited, cooling off for {} s", key.describe(), coolOff.toSeconds());
+        }
+
+        /**
+         * Refunds the whole reservation unless the call was already settled. Called when a call
+         * terminates in any way, so that cancelled calls (lost hedges, client disconnects and
+         * deadlines) do not keep their reservation.
+         */
+        public void release() {
+            settle(reservedTokens);
+        }
+
+        private void settle(long refund) {
+            lock.lock();
+            try {
+                if (settled) {
+                    return;
+                }
+                settled = true;
+                if (refund > 0) {
+                    key.tokens.refund(refund);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private Duration retryAfter(WebClientResponseException response) {
+            String value = response.getHeaders().getFirst(HttpHeaders.RETRY_AFTER);
+            if (value != null) {
+                try {
+                    return Duration.ofSeconds(Long.parseLong(value.trim()));
+                } catch (NumberFormatException e) {
+                    // HTTP-date form; fall back to the configured cool-off
+                }
+            }
+            return Duration.ofSeconds(coolOffSeconds);
+        }
+    }
+
+    /**
+     * One key with its buckets. Buckets and cool-off are guarded by the pool lock.
+     */
+    private final class ApiKey {
+
+        private final String name;
+        private final String value;
+        private final TokenBucket requests;
+        private final TokenBucket tokens;
+        private long coolingUntil;
+        private Counter calls;
+        private Counter rateLimited;
+
+        private ApiKey(int index, String value) {
+            this.name = "key-" + index;
+            this.value = value;
+            this.requests = new TokenBucket(requestsPerMinute, clock);
+            this.tokens = new TokenBucket(tokensPerMinute, clock);
+        }
+
+        void registerMeters() {
+            calls = Counter.builder("ai.keys.requests").tag("key", name).register(meterRegistry);
+            rateLimited = Counter.builder("ai.keys.rate-limited").tag("key", name).register(meterRegistry);
+            Gauge.builder("ai.keys.utilization", this, key -> read(key, k -> 1 - k.requests.headroom()))
+                    .tag("key", name).tag("limit", "requests")
+                    .register(meterRegistry);
+            Gauge.builder("ai.keys.utilization", this, key -> read(key, k -> 1 - k.tokens.headroom()))
+                    .tag("key", name).tag("limit", "tokens")
+                    .register(meterRegistry);
+            Gauge.builder("ai.keys.cooling", this, key -> read(key, k -> k.coolingUntil > clock.millis() ? 1 : 0))
+                    .tag("key", name)
+                    .register(meterRegistry);
+        }
+
+        /**
+         * @return Metric name with the last characters of the key, for matching keys in logs
+         */
+        String describe() {
+            return name + " (..." + value.substring(Math.max(0, value.length() - 4)) + ")";
+        }
+    }
+}
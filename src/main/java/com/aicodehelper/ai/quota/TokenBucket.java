@@ -0,0 +1,86 @@
+package com.aicodehelper.ai.quota;
+
+import java.time.Clock;
+
+/**
+ * Token bucket refilled continuously at {@code capacity} tokens per minute, matching how
+ * Gemini enforces per-minute quotas. A bucket of 0 or fewer tokens per minute is unlimited:
+ * it always has room and never runs out. Not thread-safe; {@link ApiKeyPool} serializes access.
+ */
+class TokenBucket {
+
+    private static final double MILLIS_PER_MINUTE = 60_000.0;
+
+    private final boolean unlimited;
+    private final double capacity;
+    private final Clock clock;
+    private double tokens;
+    private long refilledAt;
+
+    TokenBucket(long perMinute, Clock clock) {
+        this.unlimited = perMinute <= 0;
+        this.capacity = Math.max(1, perMinute);
+        this.clock = clock;
+        this.tokens = capacity;
+        this.refilledAt = clock.millis();
+    }
+
+    /**
+     * @return Fraction of the capacity currently available
+     */
+    double headroom() {
+        if (unlimited) {
+            return 1;
+        }
+        refill();
+        return tokens / capacity;
+    }
+
+    boolean canTake(double amount) {
+        if (unlimited) {
+            return true;
+        }
+        refill();
+        return tokens >= Math.min(amount, capacity);
+    }
+
+    /**
+     * Takes tokens that {@link #canTake} has confirmed. A request larger than the whole
+     * bucket is let through when the bucket is full, leaving it in debt.
+     */
+    void take(double amount) {
+        refill();
+        tokens -= amount;
+    }
+
+    /**
+     * Returns tokens reserved in excess of what was actually used.
+     */
+    void refund(double amount) {
+        refill();
+        tokens = Math.min(capacity, tokens + amount);
+    }
+
+    /**
+     * @return Milliseconds until {@code amount} tokens are available
+     */
+    long millisUntil(double amount) {
+        if (unlimited) {
+            return 0;
+        }
+        refill();
+        double missing = Math.min(amount, capacity) - tokens;
+        return missing <= 0 ? 0 : (long) Math.ceil(missing * MILLIS_PER_MINUTE / capacity);
+    }
+
+    private void refill() {
+        if (unlimited) {
+            return;
+        }
+        long now = clock.millis();
+        if (now > refilledAt) {
+            tokens = Math.min(capacity, tokens + (now - refilledAt) * capacity / MILLIS_PER_MINUTE);
+            refilledAt = now;
+        }
+    }
+}
@@ -0,0 +1,310 @@
+package com.aicodehelper.ai.rag;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.segment.TextSegment;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * One immutable generation of the knowledge base index on disk: a vector file, memory-mapped
+ * read-only, and a JSON manifest with the sources, their content hashes and segments.
+ * Similarities are computed on the mapping with {@link VectorMath}.
+ *
+ * Vector file layout: magic (int), format version (int), dimension (int), vector count (int),
+ * then the vectors as little-endian floats, in manifest order of sources and segments. Each
+ * generation writes a new vector file and then atomically replaces the manifest pointing to it,
+ * so a crash leaves either the old or the new generation intact. Files of other generations,
+ * named {@code <name>-<generation>.bin}, are deleted once the manifest no longer names them.
+ *
+ * The vector file is mapped as a single buffer, which limits a generation to 2 GB of vectors,
+ * about 1.4 million segments of 384 dimensions. A larger generation is rejected before it is
+ * written. The mapping is released by the garbage collector once the generation is unreachable,
+ * so a search still holding a replaced generation keeps reading valid memory.
+ *
+ * Safe for concurrent reads.
+ */
+@Slf4j
+final class EmbeddingIndex implements HnswGraph.Vectors {
+
+    static final int VERSION = 1;
+
+    private static final String MANIFEST = "index.json";
+    private static final int MAGIC = 0x454d4256;
+    private static final int HEADER_BYTES = 16;
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    record Segment(String text, Map<String, Object> metadata) {
+    }
+
+    record Source(String id, String hash, List<Segment> segments) {
+    }
+
+    record Manifest(int version, long generation, String fingerprint, int dimension, String vectors, List<Source> sources) {
+    }
+
+    /**
+     * Vectors of one source for a new generation, {@code segments} times dimension floats.
+     */
+    record Entry(Source source, FloatBuffer vectors) {
+    }
+
+    private final Path directory;
+    private final Manifest manifest;
+    private final FloatBuffer vectors;
+    private final VectorMath.Floats math;
+    private final float[] norms;
+    private final List<TextSegment> segments = new ArrayList<>();
+    private final List<String> ids = new ArrayList<>();
+    // Source id to the position of its first vector
+    private final Map<String, Integer> firsts = new HashMap<>();
+    private final Map<String, Source> sources = new HashMap<>();
+
+    private EmbeddingIndex(Path directory, Manifest manifest, ByteBuffer vectors) {
+        this.directory = directory;
+        this.manifest = manifest;
+        this.vectors = vectors.asFloatBuffer();
+        this.math = VectorMath.get().floats(vectors, manifest.dimension());
+        for (Source source : manifest.sources()) {
+            firsts.put(source.id(), segments.size());
+            sources.put(source.id(), source);
+            for (int i = 0; i < source.segments().size(); i++) {
+                Segment segment = source.segments().get(i);
+                ids.add(source.id() + "#" + i);
+                segments.add(TextSegment.from(segment.text(), Metadata.from(segment.metadata())));
+            }
+        }
+        this.norms = new float[segments.size()];
+        for (int i = 0; i < norms.length; i++) {
+            norms[i] = (float) Math.sqrt(math.dot(i, i));
+        }
+    }
+
+    /**
+     * @return The generation in {@code directory}, or null if there is none
+     */
+    static EmbeddingIndex open(Path directory) throws IOException {
+        Path manifestPath = directory.resolve(MANIFEST);
+        if (!Files.exists(manifestPath)) {
+            return null;
+        }
+        Manifest manifest = JSON.readValue(manifestPath.toFile(), Manifest.class);
+        if (manifest.version() != VERSION) {
+            throw new IOException("Unsupported index version " + manifest.version());
+        }
+        int count = manifest.sources().stream().mapToInt(source -> source.segments().size()).sum();
+        EmbeddingIndex index = new EmbeddingIndex(directory, manifest, map(directory.resolve(manifest.vectors()), manifest.dimension(), count));
+        deleteGenerationsExcept(directory, manifest.generation());
+        return index;
+    }
+
+    /**
+     * Writes the next generation after {@code previous}, which may be null, and returns it.
+     */
+    static EmbeddingIndex write(Path directory, EmbeddingIndex previous, String fingerprint, int dimension,
+                                List<Entry> entries) throws IOException {
+        Files.createDirectories(directory);
+        long generation = previous != null ? previous.manifest.generation() + 1 : 1;
+        // Leftovers of an unfinished or unreadable generation
+        deleteGenerationsExcept(directory, previous != null ? previous.manifest.generation() : 0);
+        String vectorsFile = "vectors-" + generation + ".bin";
+        int count = entries.stream().mapToInt(entry -> entry.source().segments().size()).sum();
+        checkMappable(dimension, count);
+
+        Path vectorsPath = directory.resolve(vectorsFile);
+        try (FileChannel channel = FileChannel.open(vectorsPath, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(dimension).putInt(count);
+            for (Entry entry : entries) {
+                FloatBuffer source = entry.vectors().duplicate();
+                if (source.remaining() != entry.source().segments().size() * dimension) {
+                    throw new IllegalArgumentException("Vector count does not match segments of " + entry.source().id());
+                }
+                while (source.hasRemaining()) {
+                    if (buffer.remaining() < Float.BYTES) {
+                        channel.write(buffer.flip());
+                        buffer.clear();
+                    }
+                    buffer.putFloat(source.get());
+                }
+            }
+            channel.write(buffer.flip());
+            channel.force(true);
+        }
+
+        Manifest manifest = new Manifest(VERSION, generation, fingerprint, dimension, vectorsFile,
+                entries.stream().map(Entry::source).toList());
+        Path manifestPath = directory.resolve(MANIFEST);
+        Path temporary = directory.resolve(MANIFEST + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(JSON.writeValueAsBytes(manifest)));
+            channel.force(true);
+        }
+        Files.move(temporary, manifestPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        EmbeddingIndex index = new EmbeddingIndex(directory, manifest, map(vectorsPath, dimension, count));
+        deleteGenerationsExcept(directory, generation);
+        return index;
+    }
+
+    long generation() {
+        return manifest.generation();
+    }
+
+    /**
+     * @return Path of a file that belongs to this generation, deleted along with it
+     */
+    Path file(String name) {
+        return directory.resolve(name + "-" + manifest.generation() + ".bin");
+    }
+
+    String fingerprint() {
+        return manifest.fingerprint();
+    }
+
+    int dimension() {
+        return manifest.dimension();
+    }
+
+    int size() {
+        return segments.size();
+    }
+
+    int sources() {
+        return sources.size();
+    }
+
+    Set<String> sourceIds() {
+        return sources.keySet();
+    }
+
+    /**
+     * @return The indexed state of a source, or null if it is not indexed
+     */
+    Source source(String id) {
+        return sources.get(id);
+    }
+
+    /**
+     * @return Position of the first vector of an indexed source
+     */
+    int first(String id) {
+        return firsts.get(id);
+    }
+
+    /**
+     * @return The vectors of an indexed source, as a view of the mapping
+     */
+    FloatBuffer vectors(String id) {
+        int dimension = manifest.dimension();
+        return vectors.slice(firsts.get(id) * dimension, sources.get(id).segments().size() * dimension);
+    }
+
+    float[] vector(int position) {
+        return vector(position, new float[manifest.dimension()]);
+    }
+
+    /**
+     * Copies the vector at {@code position} into {@code vector}, and returns it.
+     */
+    float[] vector(int position, float[] vector) {
+        vectors.get(position * manifest.dimension(), vector, 0, manifest.dimension());
+        return vector;
+    }
+
+    float norm(int position) {
+        return norms[position];
+    }
+
+    /**
+     * @return Size of the mapped vectors in bytes
+     */
+    long bytes() {
+        return (long) vectors.capacity() * Float.BYTES;
+    }
+
+    @Override
+    public double similarity(int a, int b) {
+        double dot = math.dot(a, b);
+        double norms = (double) this.norms[a] * this.norms[b];
+        return norms > 0 ? dot / norms : 0;
+    }
+
+    /**
+     * @return Cosine similarity between {@code query} and the vector at {@code position}
+     */
+    double similarity(float[] query, double queryNorm, int position) {
+        double dot = math.dot(query, position);
+        double norms = queryNorm * this.norms[position];
+        return norms > 0 ? dot / norms : 0;
+    }
+
+    TextSegment segment(int position) {
+        return segments.get(position);
+    }
+
+    String id(int position) {
+        return ids.get(position);
+    }
+
+    /**
+     * Rejects a generation whose vector file would exceed what a single mapping can hold.
+     *
+     * @return Size of the vector file in bytes
+     */
+    private static long checkMappable(int dimension, int count) throws IOException {
+        long bytes = HEADER_BYTES + (long) count * dimension * Float.BYTES;
+        if (bytes > Integer.MAX_VALUE) {
+            throw new IOException("Index of " + count + " vectors of dimension " + dimension
+                    + " exceeds the 2 GB mapping limit");
+        }
+        return bytes;
+    }
+
+    private static ByteBuffer map(Path path, int dimension, int count) throws IOException {
+        long expectedBytes = checkMappable(dimension, count);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() != expectedBytes) {
+                throw new IOException("Vector file " + path + " has " + channel.size() + " bytes, expected " + expectedBytes);
+            }
+            // The mapping stays valid after the channel is closed, until it becomes unreachable
+            ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, expectedBytes).order(ByteOrder.LITTLE_ENDIAN);
+            if (mapped.getInt(0) != MAGIC || mapped.getInt(4) != VERSION
+                    || mapped.getInt(8) != dimension || mapped.getInt(12) != count) {
+                throw new IOException("Vector file " + path + " does not match its manifest");
+            }
+            return mapped.position(HEADER_BYTES).slice().order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    private static void deleteGenerationsExcept(Path directory, long generation) {
+        String suffix = "-" + generation + ".bin";
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*-*.bin")) {
+            for (Path file : files) {
+                if (!file.getFileName().toString().endsWith(suffix)) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        } catch (IOException e) {
+            // Platforms that refuse to delete mapped files get another chance on the next start
+            log.warn("Failed to delete old index generations in {}: {}", directory, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,426 @@
+package com.aicodehelper.ai.rag;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntToDoubleFunction;
+
+/**
+ * Hierarchical navigable small world graph over the vectors of an index, for approximate nearest
+ * neighbour search by cosine similarity (Malkov and Yashunin, 2016).
+ *
+ * - Every node links to at most {@code m} neighbours per layer, {@code 2m} on the bottom layer,
+ *   chosen with the paper's diversity heuristic; {@code efConstruction} candidates are
+ *   considered when linking a new node
+ * - Inserts may run concurrently. Each neighbour list is an immutable array replaced under a
+ *   striped lock, so searches never lock and see every list either before or after a change
+ * - Nodes are vector positions; the vectors themselves stay in the index. Searches take the
+ *   similarity to their query as a function, so they may score on a compressed copy of the
+ *   vectors
+ *
+ * {@link #save} and {@link #load} persist the links in a compact binary file.
+ */
+final class HnswGraph {
+
+    /**
+     * Similarities between the vectors of the graph, used to link them.
+     */
+    interface Vectors {
+
+        double similarity(int a, int b);
+    }
+
+    private static final int MAGIC = 0x484e5357;
+    private static final int VERSION = 1;
+    private static final int LOCK_STRIPES = 1024;
+
+    private final Vectors vectors;
+    private final int m;
+    private final int efConstruction;
+    private final double levelMultiplier;
+    private final AtomicReferenceArray<Node> nodes;
+    private final AtomicReference<Node> entry = new AtomicReference<>();
+    private final ReentrantLock[] locks = new ReentrantLock[LOCK_STRIPES];
+    private final ThreadLocal<Visited> visited = ThreadLocal.withInitial(Visited::new);
+
+    /**
+     * A node and its neighbour lists, from the bottom layer up to its level.
+     */
+    private record Node(int id, AtomicReferenceArray<int[]> layers) {
+
+        int level() {
+            return layers.length() - 1;
+        }
+    }
+
+    record Scored(int node, double similarity) {
+    }
+
+    HnswGraph(Vectors vectors, int size, int m, int efConstruction) {
+        this.vectors = vectors;
+        this.m = Math.max(2, m);
+        this.efConstruction = Math.max(this.m, efConstruction);
+        this.levelMultiplier = 1 / Math.log(this.m);
+        this.nodes = new AtomicReferenceArray<>(size);
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * @return Whether the graph was built with these settings
+     */
+    boolean builtWith(int m, int efConstruction) {
+        return this.m == Math.max(2, m) && this.efConstruction == Math.max(this.m, efConstruction);
+    }
+
+    int size() {
+        return nodes.length();
+    }
+
+    /**
+     * Links a node into the graph. Safe to call concurrently for different nodes.
+     */
+    void insert(int id) {
+        int level = (int) (-Math.log(1 - ThreadLocalRandom.current().nextDouble()) * levelMultiplier);
+        AtomicReferenceArray<int[]> layers = new AtomicReferenceArray<>(level + 1);
+        for (int layer = 0; layer <= level; layer++) {
+            layers.set(layer, new int[0]);
+        }
+        Node node = new Node(id, layers);
+        nodes.set(id, node);
+
+        Node start = entry.get();
+        if (start == null && entry.compareAndSet(null, node)) {
+            return;
+        }
+        start = entry.get();
+
+        int current = start.id();
+        IntToDoubleFunction similarity = other -> vectors.similarity(id, other);
+        double currentSimilarity = similarity.applyAsDouble(current);
+        for (int layer = start.level(); layer > level; layer--) {
+            Scored closest = greedy(similarity, current, currentSimilarity, layer);
+            current = closest.node();
+            currentSimilarity = closest.similarity();
+        }
+
+        List<Scored> entryPoints = List.of(new Scored(current, currentSimilarity));
+        for (int layer = Math.min(level, start.level()); layer >= 0; layer--) {
+            List<Scored> candidates = searchLayer(id, similarity, entryPoints, efConstruction, layer);
+            int[] neighbours = selectNeighbours(candidates, m);
+            int maxConnections = layer == 0 ? 2 * m : m;
+            // Concurrent inserts may have linked to this node already
+            link(node, layer, neighbours, maxConnections);
+            for (int neighbour : neighbours) {
+                link(nodes.get(neighbour), layer, new int[] {id}, maxConnections);
+            }
+            entryPoints = candidates;
+        }
+
+        // Raise the entry point when this node reaches a new top layer
+        while (level > start.level() && !entry.compareAndSet(start, node)) {
+            start = entry.get();
+        }
+    }
+
+    /**
+     * @param similarity Similarity of a node to the query
+     * @return Up to {@code k} nodes most similar to the query, most similar first
+     */
+    List<Scored> search(IntToDoubleFunction similarity, int k, int ef) {
+        Node start = entry.get();
+        if (start == null) {
+            return List.of();
+        }
+        int current = start.id();
+        double currentSimilarity = similarity.applyAsDouble(current);
+        for (int layer = start.level(); layer > 0; layer--) {
+            Scored closest = greedy(similarity, current, currentSimilarity, layer);
+            current = closest.node();
+            currentSimilarity = closest.similarity();
+        }
+        List<Scored> found = searchLayer(-1, similarity, List.of(new Scored(current, currentSimilarity)), Math.max(ef, k), 0);
+        return found.subList(0, Math.min(k, found.size()));
+    }
+
+    /**
+     * Creates a graph for the next generation of an index, keeping the links between nodes that
+     * remain. Nodes at {@code -1} in {@code mapping} are dropped; new nodes still need inserting.
+     *
+     * @param mapping New id of every node of this graph, or -1
+     */
+    HnswGraph remap(Vectors next, int size, int[] mapping) {
+        HnswGraph graph = new HnswGraph(next, size, m, efConstruction);
+        Node top = null;
+        for (int id = 0; id < mapping.length; id++) {
+            Node node = nodes.get(id);
+            if (mapping[id] < 0 || node == null) {
+                continue;
+            }
+            AtomicReferenceArray<int[]> layers = new AtomicReferenceArray<>(node.layers().length());
+            for (int layer = 0; layer < layers.length(); layer++) {
+                layers.set(layer, Arrays.stream(node.layers().get(layer))
+                        .map(neighbour -> mapping[neighbour])
+                        .filter(neighbour -> neighbour >= 0)
+                        .toArray());
+            }
+            Node remapped = new Node(mapping[id], layers);
+            graph.nodes.set(remapped.id(), remapped);
+            if (top == null || remapped.level() > top.level()) {
+                top = remapped;
+            }
+        }
+        graph.entry.set(top);
+        return graph;
+    }
+
+    void save(Path path) throws IOException {
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary), 1 << 16))) {
+            Node start = entry.get();
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(m);
+            out.writeInt(efConstruction);
+            out.writeInt(nodes.length());
+            out.writeInt(start != null ? start.id() : -1);
+            for (int id = 0; id < nodes.length(); id++) {
+                Node node = nodes.get(id);
+                if (node == null) {
+                    throw new IllegalStateException("Node " + id + " was not inserted");
+                }
+                out.writeByte(node.level());
+                for (int layer = 0; layer <= node.level(); layer++) {
+                    int[] neighbours = node.layers().get(layer);
+                    out.writeShort(neighbours.length);
+                    for (int neighbour : neighbours) {
+                        out.writeInt(neighbour);
+                    }
+                }
+            }
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return The graph in {@code path}, or null if it was built for other settings or vectors
+     */
+    static HnswGraph load(Path path, Vectors vectors, int size, int m, int efConstruction) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a graph file: " + path);
+            }
+            HnswGraph graph = new HnswGraph(vectors, size, m, efConstruction);
+            if (!graph.builtWith(in.readInt(), in.readInt()) || in.readInt() != size) {
+                return null;
+            }
+            int entryId = in.readInt();
+            for (int id = 0; id < size; id++) {
+                AtomicReferenceArray<int[]> layers = new AtomicReferenceArray<>(in.readByte() + 1);
+                for (int layer = 0; layer < layers.length(); layer++) {
+                    int[] neighbours = new int[in.readShort()];
+                    for (int i = 0; i < neighbours.length; i++) {
+                        neighbours[i] = in.readInt();
+                        if (neighbours[i] < 0 || neighbours[i] >= size) {
+                            throw new IOException("Corrupt graph file: " + path);
+                        }
+                    }
+                    layers.set(layer, neighbours);
+                }
+                graph.nodes.set(id, new Node(id, layers));
+            }
+            graph.entry.set(entryId >= 0 ? graph.nodes.get(entryId) : null);
+            return graph;
+        }
+    }
+
+    /**
+     * Walks to the most similar neighbour until none is more similar than the current node.
+     */
+    private Scored greedy(IntToDoubleFunction similarityTo, int current, double currentSimilarity, int layer) {
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            for (int neighbour : neighbours(current, layer)) {
+                double similarity = similarityTo.applyAsDouble(neighbour);
+                if (similarity > currentSimilarity) {
+                    current = neighbour;
+                    currentSimilarity = similarity;
+                    improved = true;
+                }
+            }
+        }
+        return new Scored(current, currentSimilarity);
+    }
+
+    /**
+     * Best-first search of one layer for the {@code ef} nodes most similar to the target node or
+     * query.
+     *
+     * @param target Node being inserted, left out of the results, or -1 for a query
+     * @return Found nodes, most similar first
+     */
+    private List<Scored> searchLayer(int target, IntToDoubleFunction similarityTo, List<Scored> entryPoints, int ef, int layer) {
+        Visited seen = visited.get().reset(nodes.length());
+        // Most similar first
+        PriorityQueue<Scored> candidates = new PriorityQueue<>(Comparator.comparingDouble(Scored::similarity).reversed());
+        // Least similar first, so the head is the result to drop
+        PriorityQueue<Scored> results = new PriorityQueue<>(Comparator.comparingDouble(Scored::similarity));
+        for (Scored point : entryPoints) {
+            seen.add(point.node());
+            candidates.add(point);
+            results.add(point);
+        }
+        while (results.size() > ef) {
+            results.poll();
+        }
+
+        while (!candidates.isEmpty()) {
+            Scored candidate = candidates.poll();
+            if (results.size() >= ef && candidate.similarity() < results.peek().similarity()) {
+                break;
+            }
+            for (int neighbour : neighbours(candidate.node(), layer)) {
+                if (neighbour == target || !seen.add(neighbour)) {
+                    continue;
+                }
+                double similarity = similarityTo.applyAsDouble(neighbour);
+                if (results.size() < ef || similarity > results.peek().similarity()) {
+                    Scored scored = new Scored(neighbour, similarity);
+                    candidates.add(scored);
+                    results.add(scored);
+                    if (results.size() > ef) {
+                        results.poll();
+                    }
+                }
+            }
+        }
+
+        List<Scored> found = new ArrayList<>(results);
+        found.sort(Comparator.comparingDouble(Scored::similarity).reversed());
+        return found;
+    }
+
+    /**
+     * Keeps candidates, most similar first, that are more similar to the target than to any
+     * neighbour kept so far, which spreads links across directions instead of one cluster.
+     *
+     * @param candidates Sorted by similarity to the target, most similar first
+     */
+    private int[] selectNeighbours(List<Scored> candidates, int max) {
+        List<Scored> selected = new ArrayList<>(max);
+        for (Scored candidate : candidates) {
+            if (selected.size() >= max) {
+                break;
+            }
+            boolean diverse = true;
+            for (Scored kept : selected) {
+                if (vectors.similarity(candidate.node(), kept.node()) > candidate.similarity()) {
+                    diverse = false;
+                    break;
+                }
+            }
+            if (diverse) {
+                selected.add(candidate);
+            }
+        }
+        return selected.stream().mapToInt(Scored::node).toArray();
+    }
+
+    /**
+     * Adds links from {@code node} to {@code added}, pruning its list with the diversity
+     * heuristic when over {@code maxConnections}.
+     */
+    private void link(Node node, int layer, int[] added, int maxConnections) {
+        ReentrantLock lock = lock(node.id());
+        lock.lock();
+        try {
+            int[] current = node.layers().get(layer);
+            int[] extended = Arrays.copyOf(current, current.length + added.length);
+            int length = current.length;
+            for (int neighbour : added) {
+                if (!contains(current, neighbour)) {
+                    extended[length++] = neighbour;
+                }
+            }
+            if (length <= maxConnections) {
+                node.layers().set(layer, Arrays.copyOf(extended, length));
+                return;
+            }
+            List<Scored> candidates = new ArrayList<>(length);
+            for (int i = 0; i < length; i++) {
+                candidates.add(new Scored(extended[i], vectors.similarity(node.id(), extended[i])));
+            }
+            candidates.sort(Comparator.comparingDouble(Scored::similarity).reversed());
+            node.layers().set(layer, selectNeighbours(candidates, maxConnections));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int[] neighbours(int id, int layer) {
+        Node node = nodes.get(id);
+        // A node being inserted concurrently may not be published yet, or lack this layer
+        return node == null || layer > node.level() ? new int[0] : node.layers().get(layer);
+    }
+
+    private static boolean contains(int[] neighbours, int node) {
+        for (int neighbour : neighbours) {
+            if (neighbour == node) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private ReentrantLock lock(int id) {
+        return locks[id & (LOCK_STRIPES - 1)];
+    }
+
+    /**
+     * Nodes seen by one search, reused by the thread across searches.
+     */
+    private static final class Visited {
+
+        private int[] marks = new int[0];
+        private int epoch;
+
+        Visited reset(int size) {
+            if (marks.length < size) {
+                marks = new int[size];
+                epoch = 0;
+            }
+            if (++epoch == Integer.MAX_VALUE) {
+                Arrays.fill(marks, 0);
+                epoch = 1;
+            }
+            return this;
+        }
+
+        /**
+         * @return Whether the node was not seen before
+         */
+        boolean add(int node) {
+            if (marks[node] == epoch) {
+                return false;
+            }
+            marks[node] = epoch;
+            return true;
+        }
+    }
+}
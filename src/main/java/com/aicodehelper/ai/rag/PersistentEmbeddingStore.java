@@ -0,0 +1,464 @@
+package com.aicodehelper.ai.rag;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import dev.langchain4j.store.embedding.RelevanceScore;
+import dev.langchain4j.store.embedding.filter.Filter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.FloatBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntToDoubleFunction;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+/**
+ * Knowledge base embedding store persisted as an {@link EmbeddingIndex} in {@code directory}.
+ *
+ * - {@link #sync} brings the index up to date with the knowledge base sources. Sources whose
+ *   content hash is unchanged keep their vectors from disk; only new and changed sources are
+ *   split and embedded, in one batch. When the fingerprint of model and splitter settings
+ *   changes, everything is embedded again
+ * - Vectors are read through a memory mapping, so opening the index costs no embedding and
+ *   little heap besides the segment texts. Similarities use SIMD kernels when the build and JVM
+ *   provide them, scalar loops otherwise (see {@link VectorMath})
+ * - With {@code quantization} set to int8 or binary, searches rank on a {@link QuantizedVectors}
+ *   copy held off-heap, 4 or 32 times smaller than the vectors, and re-score the best
+ *   {@code rescore-factor} times the requested results with the full-precision vectors
+ * - Searches walk an {@link HnswGraph} over the vectors, saved with each generation. A sync
+ *   keeps the links between unchanged segments and inserts new segments on
+ *   {@code build-threads} threads; the graph is rebuilt when its settings change or when more
+ *   than a fifth of its nodes were removed
+ * - Searches with a metadata filter, and all searches when the graph is disabled, scan every
+ *   vector exactly
+ * - A sync swaps generations without blocking searches
+ *
+ * The index is only changed through {@link #sync}; the add methods are not supported.
+ */
+@Component
+@Slf4j
+public class PersistentEmbeddingStore implements EmbeddingStore<TextSegment> {
+
+    private static final String GRAPH_FILE = "graph";
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    @Value("${ai.rag.index.directory:data/rag-index}")
+    private String directory;
+
+    @Value("${ai.rag.index.hnsw.enabled:true}")
+    private boolean hnswEnabled;
+
+    @Value("${ai.rag.index.hnsw.m:16}")
+    private int m;
+
+    @Value("${ai.rag.index.hnsw.ef-construction:200}")
+    private int efConstruction;
+
+    @Value("${ai.rag.index.hnsw.ef-search:100}")
+    private int efSearch;
+
+    // 0 uses every available processor
+    @Value("${ai.rag.index.hnsw.build-threads:0}")
+    private int buildThreads;
+
+    // none, int8 or binary
+    @Value("${ai.rag.index.quantization:none}")
+    private String quantization;
+
+    @Value("${ai.rag.index.rescore-factor:4}")
+    private int rescoreFactor;
+
+    private QuantizedVectors.Quantization quantizationMode;
+
+    private final ReentrantLock syncLock = new ReentrantLock();
+    private volatile Generation generation;
+
+    private Timer graphSearches;
+    private Timer exactSearches;
+
+    /**
+     * A knowledge base source; {@code segments} is only called when the source must be embedded.
+     */
+    public record Source(String id, String hash, Supplier<List<TextSegment>> segments) {
+    }
+
+    /**
+     * Sources whose vectors were reused, embedded and dropped by a sync.
+     */
+    public record SyncResult(int reused, int embedded, int removed, int segmentsEmbedded) {
+    }
+
+    /**
+     * An index generation with its graph and quantized vectors, swapped together.
+     */
+    private record Generation(EmbeddingIndex index, HnswGraph graph, QuantizedVectors quantized) {
+    }
+
+    @PostConstruct
+    public void init() {
+        quantizationMode = QuantizedVectors.Quantization.valueOf(quantization.trim().toUpperCase(Locale.ROOT));
+        log.info("Initializing knowledge base index - directory: {}, hnsw: {} (m: {}, ef construction: {}, ef search: {}), "
+                        + "quantization: {} (rescore factor: {}), vector math: {}",
+                directory, hnswEnabled, m, efConstruction, efSearch, quantizationMode, rescoreFactor, VectorMath.get().name());
+        try {
+            EmbeddingIndex index = EmbeddingIndex.open(Path.of(directory));
+            if (index != null) {
+                generation = generation(index, hnswEnabled ? openGraph(index) : null);
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("Cannot read knowledge base index in {}, rebuilding it: {}", directory, e.getMessage());
+        }
+
+        graphSearches = Timer.builder("ai.rag.index.searches").tag("method", "hnsw").register(meterRegistry);
+        exactSearches = Timer.builder("ai.rag.index.searches").tag("method", "exact").register(meterRegistry);
+        Gauge.builder("ai.rag.index.segments", this, store -> store.generation != null ? store.generation.index().size() : 0)
+                .register(meterRegistry);
+        Gauge.builder("ai.rag.index.sources", this, store -> store.generation != null ? store.generation.index().sources() : 0)
+                .register(meterRegistry);
+        Gauge.builder("ai.rag.index.vectors.bytes", this, store -> store.generation != null ? store.generation.index().bytes() : 0)
+                .tag("storage", "mapped")
+                .register(meterRegistry);
+        Gauge.builder("ai.rag.index.vectors.bytes", this,
+                        store -> store.generation != null && store.generation.quantized() != null ? store.generation.quantized().bytes() : 0)
+                .tag("storage", "quantized")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Makes the index hold exactly {@code sources}, embedding those not indexed with the same hash.
+     *
+     * @param fingerprint Identifies everything besides the content that the vectors depend on
+     */
+    public SyncResult sync(String fingerprint, List<Source> sources, EmbeddingModel embeddingModel) {
+        syncLock.lock();
+        try {
+            Generation previous = generation;
+            EmbeddingIndex current = previous != null ? previous.index() : null;
+            int dimension = embeddingModel.dimension();
+            boolean compatible = current != null && current.fingerprint().equals(fingerprint) && current.dimension() == dimension;
+
+            List<EmbeddingIndex.Source> indexed = new ArrayList<>(sources.size());
+            List<TextSegment> pending = new ArrayList<>();
+            int reused = 0;
+            Set<String> ids = new HashSet<>();
+            for (Source source : sources) {
+                ids.add(source.id());
+                EmbeddingIndex.Source known = compatible ? current.source(source.id()) : null;
+                if (known != null && known.hash().equals(source.hash())) {
+                    indexed.add(known);
+                    reused++;
+                } else {
+                    List<TextSegment> segments = source.segments().get();
+                    indexed.add(new EmbeddingIndex.Source(source.id(), source.hash(), segments.stream()
+                            .map(segment -> new EmbeddingIndex.Segment(segment.text(), segment.metadata().toMap()))
+                            .toList()));
+                    pending.addAll(segments);
+                }
+            }
+            int removed = current == null ? 0 : (int) current.sourceIds().stream().filter(id -> !ids.contains(id)).count();
+            int embedded = sources.size() - reused;
+            if (compatible && embedded == 0 && removed == 0) {
+                return new SyncResult(reused, 0, 0, 0);
+            }
+
+            float[] vectors = embed(pending, embeddingModel, dimension);
+            List<EmbeddingIndex.Entry> entries = new ArrayList<>(indexed.size());
+            // New position of every vector carried over, -1 for dropped ones
+            int[] mapping = new int[compatible ? current.size() : 0];
+            Arrays.fill(mapping, -1);
+            List<Integer> inserted = new ArrayList<>(pending.size());
+            int offset = 0;
+            int position = 0;
+            for (EmbeddingIndex.Source source : indexed) {
+                int count = source.segments().size();
+                if (compatible && current.source(source.id()) == source) {
+                    entries.add(new EmbeddingIndex.Entry(source, current.vectors(source.id())));
+                    int first = current.first(source.id());
+                    for (int i = 0; i < count; i++) {
+                        mapping[first + i] = position + i;
+                    }
+                } else {
+                    entries.add(new EmbeddingIndex.Entry(source, FloatBuffer.wrap(vectors, offset, count * dimension).slice()));
+                    offset += count * dimension;
+                    for (int i = 0; i < count; i++) {
+                        inserted.add(position + i);
+                    }
+                }
+                position += count;
+            }
+            EmbeddingIndex next = EmbeddingIndex.write(Path.of(directory), current, fingerprint, dimension, entries);
+
+            HnswGraph graph = null;
+            if (hnswEnabled) {
+                HnswGraph previousGraph = previous != null ? previous.graph() : null;
+                graph = nextGraph(previousGraph, next, mapping, inserted);
+                graph.save(next.file(GRAPH_FILE));
+            }
+            generation = generation(next, graph);
+            return new SyncResult(reused, embedded, removed, pending.size());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write knowledge base index to " + directory, e);
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    @Override
+    public EmbeddingSearchResult<TextSegment> search(EmbeddingSearchRequest request) {
+        Generation current = generation;
+        if (current == null || current.index().size() == 0) {
+            return new EmbeddingSearchResult<>(List.of());
+        }
+        float[] query = request.queryEmbedding().vector();
+        double queryNorm = 0;
+        for (float value : query) {
+            queryNorm += value * value;
+        }
+        queryNorm = Math.sqrt(queryNorm);
+
+        long startedAt = System.nanoTime();
+        List<EmbeddingMatch<TextSegment>> matches;
+        if (current.graph() != null && request.filter() == null) {
+            matches = graphSearch(current, request, query, queryNorm);
+            graphSearches.record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+        } else {
+            matches = exactSearch(current, request, query, queryNorm);
+            exactSearches.record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+        }
+        return new EmbeddingSearchResult<>(matches);
+    }
+
+    @Override
+    public String add(Embedding embedding) {
+        throw new UnsupportedOperationException("The knowledge base index is updated through sync");
+    }
+
+    @Override
+    public void add(String id, Embedding embedding) {
+        throw new UnsupportedOperationException("The knowledge base index is updated through sync");
+    }
+
+    @Override
+    public String add(Embedding embedding, TextSegment textSegment) {
+        throw new UnsupportedOperationException("The knowledge base index is updated through sync");
+    }
+
+    @Override
+    public List<String> addAll(List<Embedding> embeddings) {
+        throw new UnsupportedOperationException("The knowledge base index is updated through sync");
+    }
+
+    private List<EmbeddingMatch<TextSegment>> graphSearch(Generation current, EmbeddingSearchRequest request,
+                                                          float[] query, double queryNorm) {
+        EmbeddingIndex index = current.index();
+        QuantizedVectors quantized = current.quantized();
+        List<Candidate> found;
+        if (quantized == null) {
+            found = candidates(current.graph().search(node -> index.similarity(query, queryNorm, node), request.maxResults(), efSearch));
+        } else {
+            QuantizedVectors.Query encoded = quantized.query(query, queryNorm);
+            List<HnswGraph.Scored> ranked = current.graph().search(node -> quantized.similarity(encoded, node),
+                    request.maxResults() * Math.max(1, rescoreFactor), efSearch);
+            found = rescore(index, candidates(ranked), query, queryNorm, request.maxResults());
+        }
+        return matches(index, found, request.minScore());
+    }
+
+    private List<EmbeddingMatch<TextSegment>> exactSearch(Generation current, EmbeddingSearchRequest request,
+                                                          float[] query, double queryNorm) {
+        EmbeddingIndex index = current.index();
+        QuantizedVectors quantized = current.quantized();
+        if (quantized == null) {
+            List<Candidate> found = top(index, request.filter(), position -> index.similarity(query, queryNorm, position),
+                    request.maxResults(), request.minScore());
+            return matches(index, found, request.minScore());
+        }
+        QuantizedVectors.Query encoded = quantized.query(query, queryNorm);
+        // Estimates may fall on either side of the minimum score, so it only applies after re-scoring
+        List<Candidate> ranked = top(index, request.filter(), position -> quantized.similarity(encoded, position),
+                request.maxResults() * Math.max(1, rescoreFactor), 0);
+        return matches(index, rescore(index, ranked, query, queryNorm, request.maxResults()), request.minScore());
+    }
+
+    /**
+     * @return Up to {@code count} positions passing {@code filter} that score at least
+     *         {@code minScore}, best first
+     */
+    private static List<Candidate> top(EmbeddingIndex index, Filter filter, IntToDoubleFunction similarity,
+                                       int count, double minScore) {
+        // Lowest score first, so the head is the candidate to drop
+        PriorityQueue<Candidate> best = new PriorityQueue<>(Comparator.comparingDouble(Candidate::score));
+        for (int position = 0; position < index.size(); position++) {
+            if (filter != null && !filter.test(index.segment(position).metadata())) {
+                continue;
+            }
+            double score = RelevanceScore.fromCosineSimilarity(similarity.applyAsDouble(position));
+            if (score < minScore) {
+                continue;
+            }
+            if (best.size() < count) {
+                best.add(new Candidate(position, score));
+            } else if (score > best.peek().score()) {
+                best.poll();
+                best.add(new Candidate(position, score));
+            }
+        }
+
+        List<Candidate> found = new ArrayList<>(best.size());
+        while (!best.isEmpty()) {
+            found.add(best.poll());
+        }
+        Collections.reverse(found);
+        return found;
+    }
+
+    /**
+     * Scores candidates ranked on quantized vectors with the full-precision vectors.
+     *
+     * @return The best {@code count} candidates, best first
+     */
+    private static List<Candidate> rescore(EmbeddingIndex index, List<Candidate> ranked, float[] query, double queryNorm, int count) {
+        return ranked.stream()
+                .map(candidate -> new Candidate(candidate.position(),
+                        RelevanceScore.fromCosineSimilarity(index.similarity(query, queryNorm, candidate.position()))))
+                .sorted(Comparator.comparingDouble(Candidate::score).reversed())
+                .limit(count)
+                .toList();
+    }
+
+    private static List<Candidate> candidates(List<HnswGraph.Scored> found) {
+        return found.stream()
+                .map(scored -> new Candidate(scored.node(), RelevanceScore.fromCosineSimilarity(scored.similarity())))
+                .toList();
+    }
+
+    private static List<EmbeddingMatch<TextSegment>> matches(EmbeddingIndex index, List<Candidate> found, double minScore) {
+        List<EmbeddingMatch<TextSegment>> matches = new ArrayList<>(found.size());
+        for (Candidate candidate : found) {
+            if (candidate.score() >= minScore) {
+                matches.add(match(index, candidate.position(), candidate.score()));
+            }
+        }
+        return matches;
+    }
+
+    private static EmbeddingMatch<TextSegment> match(EmbeddingIndex index, int position, double score) {
+        return new EmbeddingMatch<>(score, index.id(position), Embedding.from(index.vector(position)), index.segment(position));
+    }
+
+    /**
+     * @return A generation of {@code index}, with its vectors quantized when configured
+     */
+    private Generation generation(EmbeddingIndex index, HnswGraph graph) {
+        if (quantizationMode == QuantizedVectors.Quantization.NONE) {
+            return new Generation(index, graph, null);
+        }
+        long startedAt = System.nanoTime();
+        QuantizedVectors quantized = QuantizedVectors.of(index, quantizationMode);
+        log.info("Quantized {} knowledge base vectors to {} in {} ms: {} bytes off-heap for {} mapped",
+                index.size(), quantizationMode, (System.nanoTime() - startedAt) / 1_000_000, quantized.bytes(), index.bytes());
+        return new Generation(index, graph, quantized);
+    }
+
+    /**
+     * @return The saved graph of a generation, or a new one built from its vectors
+     */
+    private HnswGraph openGraph(EmbeddingIndex index) {
+        Path path = index.file(GRAPH_FILE);
+        if (Files.exists(path)) {
+            try {
+                HnswGraph graph = HnswGraph.load(path, index, index.size(), m, efConstruction);
+                if (graph != null) {
+                    return graph;
+                }
+                log.info("Rebuilding knowledge base graph for changed settings");
+            } catch (IOException | RuntimeException e) {
+                log.warn("Cannot read knowledge base graph {}, rebuilding it: {}", path, e.getMessage());
+            }
+        }
+        HnswGraph graph = build(new HnswGraph(index, index.size(), m, efConstruction), IntStream.range(0, index.size()).boxed().toList());
+        try {
+            graph.save(path);
+        } catch (IOException e) {
+            log.warn("Failed to save knowledge base graph {}: {}", path, e.getMessage());
+        }
+        return graph;
+    }
+
+    private HnswGraph nextGraph(HnswGraph previous, EmbeddingIndex next, int[] mapping, List<Integer> inserted) {
+        long kept = Arrays.stream(mapping).filter(position -> position >= 0).count();
+        boolean reusable = previous != null && previous.builtWith(m, efConstruction)
+                && previous.size() == mapping.length && kept * 5 >= mapping.length * 4L;
+        if (!reusable) {
+            return build(new HnswGraph(next, next.size(), m, efConstruction), IntStream.range(0, next.size()).boxed().toList());
+        }
+        return build(previous.remap(next, next.size(), mapping), inserted);
+    }
+
+    /**
+     * Inserts {@code nodes} into {@code graph} on {@code build-threads} threads.
+     */
+    private HnswGraph build(HnswGraph graph, List<Integer> nodes) {
+        long startedAt = System.nanoTime();
+        int threads = buildThreads > 0 ? buildThreads : Runtime.getRuntime().availableProcessors();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.submit(() -> nodes.parallelStream().forEach(graph::insert)).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while building the knowledge base graph", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed to build the knowledge base graph", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+        log.info("Inserted {} of {} segments into the knowledge base graph in {} ms on {} threads",
+                nodes.size(), graph.size(), (System.nanoTime() - startedAt) / 1_000_000, threads);
+        return graph;
+    }
+
+    private static float[] embed(List<TextSegment> segments, EmbeddingModel embeddingModel, int dimension) {
+        float[] vectors = new float[segments.size() * dimension];
+        if (segments.isEmpty()) {
+            return vectors;
+        }
+        List<Embedding> embeddings = embeddingModel.embedAll(segments).content();
+        for (int i = 0; i < embeddings.size(); i++) {
+            System.arraycopy(embeddings.get(i).vector(), 0, vectors, i * dimension, dimension);
+        }
+        return vectors;
+    }
+
+    private record Candidate(int position, double score) {
+    }
+}
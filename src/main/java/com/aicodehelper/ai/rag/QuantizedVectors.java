@@ -0,0 +1,149 @@
+package com.aicodehelper.ai.rag;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+/**
+ * A compressed off-heap copy of the vectors of an {@link EmbeddingIndex}, scanned instead of the
+ * full-precision vectors to pick candidates that are then re-scored exactly.
+ *
+ * - {@code INT8}: each vector scaled so its largest component becomes 127 and rounded to bytes,
+ *   a quarter of the float size. Estimates stay within about 1% of the cosine similarity
+ * - {@code BINARY}: one sign bit per component, a 32nd of the float size. Estimates only rank
+ *   coarsely, so more candidates need re-scoring. Bits are compared 64 at a time with
+ *   {@link Long#bitCount}, which compiles to a single popcount instruction
+ *
+ * The codes are built when a generation is opened, in one contiguous direct buffer that the
+ * garbage collector releases along with the generation. Safe for concurrent reads.
+ */
+final class QuantizedVectors {
+
+    enum Quantization {
+        NONE, INT8, BINARY
+    }
+
+    /**
+     * A query encoded like the vectors: int8 codes with their scale divided by the query norm, or
+     * sign bits.
+     */
+    record Query(byte[] bytes, long[] bits, float factor) {
+    }
+
+    private final Quantization quantization;
+    private final int dimension;
+    private final int words;
+    private final int stride;
+    private final ByteBuffer codes;
+    private final LongBuffer bits;
+    private final VectorMath.Bytes math;
+    // int8 scale divided by the norm, per vector
+    private final float[] factors;
+
+    private QuantizedVectors(Quantization quantization, int dimension, int size) {
+        this.quantization = quantization;
+        this.dimension = dimension;
+        this.words = (dimension + Long.SIZE - 1) / Long.SIZE;
+        this.stride = quantization == Quantization.INT8 ? dimension : words * Long.BYTES;
+        if ((long) stride * size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Index of " + size + " vectors is too large to quantize");
+        }
+        this.codes = ByteBuffer.allocateDirect(stride * size).order(ByteOrder.nativeOrder());
+        this.bits = codes.asLongBuffer();
+        this.math = VectorMath.get().bytes(codes, dimension);
+        this.factors = new float[quantization == Quantization.INT8 ? size : 0];
+    }
+
+    /**
+     * Encodes every vector of {@code index}.
+     */
+    static QuantizedVectors of(EmbeddingIndex index, Quantization quantization) {
+        if (quantization == Quantization.NONE) {
+            throw new IllegalArgumentException("No quantization to apply");
+        }
+        QuantizedVectors quantized = new QuantizedVectors(quantization, index.dimension(), index.size());
+        byte[] bytes = new byte[quantized.stride];
+        long[] bits = new long[quantized.words];
+        float[] vector = new float[index.dimension()];
+        for (int position = 0; position < index.size(); position++) {
+            index.vector(position, vector);
+            if (quantization == Quantization.INT8) {
+                quantized.factors[position] = quantized.encode(vector, index.norm(position), bytes);
+                quantized.codes.put(position * quantized.stride, bytes);
+            } else {
+                quantized.encode(vector, bits);
+                quantized.bits.put(position * quantized.words, bits);
+            }
+        }
+        return quantized;
+    }
+
+    /**
+     * @return Size of the codes and scales in bytes
+     */
+    long bytes() {
+        return codes.capacity() + (long) factors.length * Float.BYTES;
+    }
+
+    Query query(float[] query, double queryNorm) {
+        if (quantization == Quantization.INT8) {
+            byte[] bytes = new byte[dimension];
+            return new Query(bytes, null, encode(query, queryNorm, bytes));
+        }
+        long[] bits = new long[words];
+        encode(query, bits);
+        return new Query(null, bits, 0);
+    }
+
+    /**
+     * @return Estimated cosine similarity between the query and the vector at {@code position}
+     */
+    double similarity(Query query, int position) {
+        if (quantization == Quantization.INT8) {
+            return math.dot(query.bytes(), position) * (double) query.factor() * factors[position];
+        }
+        int base = position * words;
+        int distance = 0;
+        for (int word = 0; word < words; word++) {
+            distance += Long.bitCount(query.bits()[word] ^ bits.get(base + word));
+        }
+        return 1 - 2.0 * distance / dimension;
+    }
+
+    /**
+     * Writes the int8 codes of {@code vector} to {@code target}.
+     *
+     * @return The scale divided by {@code norm}, or 0 for a zero vector
+     */
+    private float encode(float[] vector, double norm, byte[] target) {
+        float max = 0;
+        for (int d = 0; d < dimension; d++) {
+            max = Math.max(max, Math.abs(vector[d]));
+        }
+        if (max == 0 || norm == 0) {
+            Arrays.fill(target, (byte) 0);
+            return 0;
+        }
+        float scale = max / 127;
+        for (int d = 0; d < dimension; d++) {
+            target[d] = (byte) Math.round(vector[d] / scale);
+        }
+        return (float) (scale / norm);
+    }
+
+    /**
+     * Writes the sign bits of {@code vector} to {@code target}.
+     */
+    private void encode(float[] vector, long[] target) {
+        for (int word = 0; word < words; word++) {
+            long bits = 0;
+            for (int d = word * Long.SIZE, end = Math.min(dimension, d + Long.SIZE); d < end; d++) {
+                if (vector[d] > 0) {
+                    bits |= 1L << (d - word * Long.SIZE);
+                }
+            }
+            target[word] = bits;
+        }
+    }
+}
@@ -1,21 +1,29 @@
 package com.aicodehelper.ai.rag;
 
 import dev.langchain4j.data.document.Document;
+import dev.langchain4j.data.document.DocumentSplitter;
 import dev.langchain4j.data.document.loader.FileSystemDocumentLoader;
 import dev.langchain4j.data.document.splitter.DocumentByParagraphSplitter;
 import dev.langchain4j.data.segment.TextSegment;
 import dev.langchain4j.model.embedding.EmbeddingModel;
 import dev.langchain4j.rag.content.retriever.ContentRetriever;
 import dev.langchain4j.rag.content.retriever.EmbeddingStoreContentRetriever;
-import dev.langchain4j.store.embedding.EmbeddingStore;
-import dev.langchain4j.store.embedding.EmbeddingStoreIngestor;
 import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 /**
  * RAG (Retrieval Augmented Generation) Configuration
@@ -25,7 +33,8 @@ import java.util.List;
  * 
  * - Document loading from the knowledge base directory
  * - Text segmentation with configurable chunk size and overlap
- * - Vector embedding generation for semantic search
+ * - Vector embedding generation for semantic search, persisted between restarts so that
+ *   only new and changed documents are embedded again
  * - Content retrieval with similarity scoring
  * 
  * The knowledge base contains programming guides, interview questions,
@@ -39,7 +48,7 @@ public class RagConfig {
     private EmbeddingModel embeddingModel;
 
     @Resource
-    private EmbeddingStore<TextSegment> embeddingStore;
+    private PersistentEmbeddingStore embeddingStore;
 
     @Value("${ai.rag.document-path:src/main/resources/docs}")
     private String documentPath;
@@ -56,14 +65,17 @@ public class RagConfig {
     @Value("${ai.rag.min-score:0.75}")
     private double minScore;
 
+    @Value("${ai.embedding.max-tokens:256}")
+    private int embeddingMaxTokens;
+
     /**
      * Creates and configures the content retriever for RAG functionality.
      * 
      * This method:
-     * 1. Loads documents from the knowledge base directory
-     * 2. Splits documents into manageable chunks with overlap
-     * 3. Generates embeddings for semantic search
-     * 4. Configures retrieval parameters for optimal results
+     * 1. Hashes the documents of the knowledge base directory
+     * 2. Splits and embeds only documents that are new or changed since the persisted index
+     *    was written; the vectors of the others are mapped from disk
+     * 3. Configures retrieval parameters for optimal results
      * 
      * @return Configured ContentRetriever for knowledge base queries
      */
@@ -72,33 +84,21 @@ public class RagConfig {
         log.info("Initializing RAG system with document path: {}", documentPath);
         
         try {
-            // Step 1: Load documents from knowledge base
-            List<Document> documents = FileSystemDocumentLoader.loadDocuments(documentPath);
-            log.info("Loaded {} documents from knowledge base", documents.size());
-            
-            // Step 2: Configure document splitter with optimized parameters
+            long startedAt = System.nanoTime();
+
+            // Step 1: Hash documents of the knowledge base
             DocumentByParagraphSplitter paragraphSplitter = new DocumentByParagraphSplitter(chunkSize, chunkOverlap);
             log.debug("Configured document splitter - chunk size: {}, overlap: {}", chunkSize, chunkOverlap);
+            List<PersistentEmbeddingStore.Source> sources = sources(paragraphSplitter);
+            log.info("Found {} documents in knowledge base", sources.size());
+
+            // Step 2: Embed new and changed documents, reuse the persisted vectors of the rest
+            PersistentEmbeddingStore.SyncResult result = embeddingStore.sync(fingerprint(), sources, embeddingModel);
+            log.info("Knowledge base index up to date in {} ms - reused: {}, embedded: {} ({} segments), removed: {}",
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt),
+                    result.reused(), result.embedded(), result.segmentsEmbedded(), result.removed());
             
-            // Step 3: Create embedding store ingestor with metadata enhancement
-            EmbeddingStoreIngestor ingestor = EmbeddingStoreIngestor.builder()
-                    .documentSplitter(paragraphSplitter)
-                    // Enhance text segments with source file information for better context
-                    .textSegmentTransformer(textSegment -> {
-                        String fileName = textSegment.metadata().getString("file_name");
-                        String enhancedText = String.format("Source: %s\n\n%s", fileName, textSegment.text());
-                        return TextSegment.from(enhancedText, textSegment.metadata());
-                    })
-                    .embeddingModel(embeddingModel)
-                    .embeddingStore(embeddingStore)
-                    .build();
-            
-            // Step 4: Process and ingest documents
-            log.info("Processing documents and generating embeddings...");
-            ingestor.ingest(documents);
-            log.info("Successfully ingested documents into embedding store");
-            
-            // Step 5: Configure content retriever with performance parameters
+            // Step 3: Configure content retriever with performance parameters
             ContentRetriever retriever = EmbeddingStoreContentRetriever.builder()
                     .embeddingStore(embeddingStore)
                     .embeddingModel(embeddingModel)
@@ -114,4 +114,54 @@ public class RagConfig {
             throw new RuntimeException("RAG initialization failed", e);
         }
     }
+
+    /**
+     * Documents of the knowledge base directory, identified by file name and tagged with the
+     * SHA-256 of their content. Segments are only produced for documents that must be embedded.
+     */
+    private List<PersistentEmbeddingStore.Source> sources(DocumentSplitter splitter) throws IOException {
+        List<PersistentEmbeddingStore.Source> sources = new ArrayList<>();
+        try (Stream<Path> files = Files.list(Path.of(documentPath))) {
+            for (Path file : files.filter(Files::isRegularFile).sorted().toList()) {
+                String hash = HexFormat.of().formatHex(sha256(Files.readAllBytes(file)));
+                sources.add(new PersistentEmbeddingStore.Source(file.getFileName().toString(), hash, () -> segments(file, splitter)));
+            }
+        }
+        return sources;
+    }
+
+    private static List<TextSegment> segments(Path file, DocumentSplitter splitter) {
+        Document document;
+        try {
+            document = FileSystemDocumentLoader.loadDocument(file);
+        } catch (RuntimeException e) {
+            log.warn("Skipping document {} that cannot be parsed: {}", file, e.getMessage());
+            return List.of();
+        }
+        // Enhance text segments with source file information for better context
+        return splitter.split(document).stream()
+                .map(textSegment -> {
+                    String fileName = textSegment.metadata().getString("file_name");
+                    String enhancedText = String.format("Source: %s\n\n%s", fileName, textSegment.text());
+                    return TextSegment.from(enhancedText, textSegment.metadata());
+                })
+                .toList();
+    }
+
+    /**
+     * Everything besides document content that the persisted vectors depend on; a change
+     * re-embeds the whole knowledge base.
+     */
+    private String fingerprint() {
+        return String.format("%s dimension=%d max-tokens=%d chunk-size=%d chunk-overlap=%d",
+                embeddingModel.getClass().getSimpleName(), embeddingModel.dimension(), embeddingMaxTokens, chunkSize, chunkOverlap);
+    }
+
+    private static byte[] sha256(byte[] content) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(content);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
 }
@@ -0,0 +1,127 @@
+package com.aicodehelper.ai.rag;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Similarity kernels over the vectors of the knowledge base index.
+ *
+ * - The scalar kernels here run on any JVM
+ * - Builds with the {@code vector} Maven profile add {@code SimdVectorMath}, written with the
+ *   Java Vector API. It is used when the JVM runs with
+ *   {@code --enable-preview --add-modules jdk.incubator.vector}; without those flags the class
+ *   cannot load and the scalar kernels are used instead
+ *
+ * Positions count vectors, not bytes.
+ */
+@Slf4j
+abstract class VectorMath {
+
+    private static final String SIMD_CLASS = "com.aicodehelper.ai.rag.SimdVectorMath";
+    private static final VectorMath INSTANCE = load();
+
+    /**
+     * Dot products with the float vectors of one buffer.
+     */
+    interface Floats {
+
+        float dot(int a, int b);
+
+        float dot(float[] query, int position);
+    }
+
+    /**
+     * Dot products with the signed byte vectors of one buffer.
+     */
+    interface Bytes {
+
+        int dot(byte[] query, int position);
+    }
+
+    /**
+     * @return The fastest kernels this JVM can run
+     */
+    static VectorMath get() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param vectors Little-endian floats, {@code dimension} per vector
+     */
+    abstract Floats floats(ByteBuffer vectors, int dimension);
+
+    /**
+     * @param codes Signed bytes, {@code dimension} per vector
+     */
+    abstract Bytes bytes(ByteBuffer codes, int dimension);
+
+    abstract String name();
+
+    private static VectorMath load() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                return (VectorMath) Class.forName(SIMD_CLASS).getDeclaredConstructor().newInstance();
+            } catch (ClassNotFoundException e) {
+                log.debug("SIMD vector kernels are not part of this build");
+            } catch (ReflectiveOperationException | LinkageError e) {
+                // Compiled with preview features, which this JVM was not started with
+                log.info("SIMD vector kernels unavailable, using scalar ones: {}", e.toString());
+            }
+        }
+        return new Scalar();
+    }
+
+    /**
+     * Plain loops, which the JIT compiler may still partly vectorize.
+     */
+    static final class Scalar extends VectorMath {
+
+        @Override
+        Floats floats(ByteBuffer vectors, int dimension) {
+            FloatBuffer floats = vectors.duplicate().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+            return new Floats() {
+
+                @Override
+                public float dot(int a, int b) {
+                    int baseA = a * dimension;
+                    int baseB = b * dimension;
+                    float dot = 0;
+                    for (int d = 0; d < dimension; d++) {
+                        dot += floats.get(baseA + d) * floats.get(baseB + d);
+                    }
+                    return dot;
+                }
+
+                @Override
+                public float dot(float[] query, int position) {
+                    int base = position * dimension;
+                    float dot = 0;
+                    for (int d = 0; d < dimension; d++) {
+                        dot += query[d] * floats.get(base + d);
+                    }
+                    return dot;
+                }
+            };
+        }
+
+        @Override
+        Bytes bytes(ByteBuffer codes, int dimension) {
+            return (query, position) -> {
+                int base = position * dimension;
+                int dot = 0;
+                for (int d = 0; d < dimension; d++) {
+                    dot += query[d] * codes.get(base + d);
+                }
+                return dot;
+            };
+        }
+
+        @Override
+        String name() {
+            return "scalar";
+        }
+    }
+}
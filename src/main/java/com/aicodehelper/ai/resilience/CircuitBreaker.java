@@ -0,0 +1,234 @@
+package com.aicodehelper.ai.resilience;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Count-based circuit breaker over the outcomes of the most recent upstream calls.
+ *
+ * The breaker opens when, over at least {@code minimumCalls} of the last {@code windowSize}
+ * calls, either the failure rate or the rate of calls slower than {@code slowCallDuration}
+ * reaches its threshold. An open breaker rejects calls for {@code openDuration}, then lets
+ * {@code halfOpenCalls} probes through: if all of them succeed quickly it closes again,
+ * otherwise it reopens.
+ *
+ * Callers take a permission with {@link #tryAcquire()} and report exactly one outcome for it.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * Point-in-time view of the breaker.
+     *
+     * @param state Current state
+     * @param calls Calls in the window
+     * @param failureRate Fraction of failed calls in the window
+     * @param slowCallRate Fraction of slow calls in the window
+     * @param retryAfter Time until an open breaker lets probes through, zero otherwise
+     */
+    public record Snapshot(State state, int calls, double failureRate, double slowCallRate, Duration retryAfter) {
+    }
+
+    private static final byte SUCCESS = 0;
+    private static final byte FAILURE = 1;
+    private static final byte SLOW = 2;
+
+    private final int minimumCalls;
+    private final double failureRateThreshold;
+    private final long slowCallNanos;
+    private final double slowCallRateThreshold;
+    private final Duration openDuration;
+    private final int halfOpenCalls;
+    private final Consumer<State> onTransition;
+    private final Clock clock;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final byte[] window;
+    private int next;
+    private int calls;
+    private int failures;
+    private int slowCalls;
+
+    private State state = State.CLOSED;
+    private long openedAt;
+    private int probesLeft;
+    private int probesSucceeded;
+
+    CircuitBreaker(int windowSize, int minimumCalls, double failureRateThreshold, Duration slowCallDuration,
+                   double slowCallRateThreshold, Duration openDuration, int halfOpenCalls,
+                   Consumer<State> onTransition, Clock clock) {
+        this.window = new byte[Math.max(1, windowSize)];
+        this.minimumCalls = Math.max(1, Math.min(minimumCalls, window.length));
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallNanos = slowCallDuration.toNanos();
+        this.slowCallRateThreshold = slowCallRateThreshold;
+        this.openDuration = openDuration;
+        this.halfOpenCalls = Math.max(1, halfOpenCalls);
+        this.onTransition = onTransition;
+        this.clock = clock;
+    }
+
+    /**
+     * @return Whether a call may proceed; if so, exactly one outcome must be reported for it
+     */
+    boolean tryAcquire() {
+        lock.lock();
+        try {
+            if (state == State.OPEN) {
+                if (clock.millis() < openedAt + openDuration.toMillis()) {
+                    return false;
+                }
+                transition(State.HALF_OPEN);
+            }
+            if (state == State.HALF_OPEN) {
+                if (probesLeft == 0) {
+                    return false;
+                }
+                probesLeft--;
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void onSuccess(long latencyNanos) {
+        boolean slow = latencyNanos >= slowCallNanos;
+        lock.lock();
+        try {
+            if (state == State.HALF_OPEN) {
+                if (slow) {
+                    transition(State.OPEN);
+                } else if (++probesSucceeded >= halfOpenCalls) {
+                    transition(State.CLOSED);
+                }
+            } else if (state == State.CLOSED) {
+                record(slow ? SLOW : SUCCESS);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void onFailure() {
+        lock.lock();
+        try {
+            if (state == State.HALF_OPEN) {
+                transition(State.OPEN);
+            } else if (state == State.CLOSED) {
+                record(FAILURE);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reports a call that says nothing about upstream health, such as one rejected as
+     * invalid; a half-open probe slot is given back.
+     */
+    void onIgnored() {
+        lock.lock();
+        try {
+            if (state == State.HALF_OPEN && probesLeft < halfOpenCalls - probesSucceeded) {
+                probesLeft++;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reports a call cancelled by its caller. One abandoned after the slow-call duration,
+     * typically at its deadline, counts as slow; an earlier one is ignored.
+     */
+    void onCancelled(long elapsedNanos) {
+        if (elapsedNanos >= slowCallNanos) {
+            onSuccess(elapsedNanos);
+        } else {
+            onIgnored();
+        }
+    }
+
+    public Snapshot snapshot() {
+        lock.lock();
+        try {
+            Duration retryAfter = state == State.OPEN
+                    ? Duration.ofMillis(Math.max(0, openedAt + openDuration.toMillis() - clock.millis()))
+                    : Duration.ZERO;
+            return new Snapshot(state, calls,
+                    calls == 0 ? 0 : (double) failures / calls,
+                    calls == 0 ? 0 : (double) slowCalls / calls,
+                    retryAfter);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public State state() {
+        lock.lock();
+        try {
+            return state;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adds an outcome to the window, replacing the oldest one once the window is full,
+     * and opens the breaker if a threshold is reached. Must be called with the lock held.
+     */
+    private void record(byte outcome) {
+        if (calls == window.length) {
+            forget(window[next]);
+        } else {
+            calls++;
+        }
+        window[next] = outcome;
+        next = (next + 1) % window.length;
+        if (outcome == FAILURE) {
+            failures++;
+        } else if (outcome == SLOW) {
+            slowCalls++;
+        }
+
+        if (calls >= minimumCalls && ((double) failures / calls >= failureRateThreshold
+                || (double) slowCalls / calls >= slowCallRateThreshold)) {
+            transition(State.OPEN);
+        }
+    }
+
+    private void forget(byte outcome) {
+        if (outcome == FAILURE) {
+            failures--;
+        } else if (outcome == SLOW) {
+            slowCalls--;
+        }
+    }
+
+    /**
+     * Must be called with the lock held.
+     */
+    private void transition(State target) {
+        state = target;
+        switch (target) {
+            case OPEN -> openedAt = clock.millis();
+            case HALF_OPEN -> {
+                probesLeft = halfOpenCalls;
+                probesSucceeded = 0;
+            }
+            case CLOSED -> {
+                next = 0;
+                calls = 0;
+                failures = 0;
+                slowCalls = 0;
+            }
+        }
+        onTransition.accept(target);
+    }
+}
@@ -0,0 +1,19 @@
+package com.aicodehelper.ai.resilience;
+
+import com.aicodehelper.ai.traffic.AdmissionRejectedException;
+import org.springframework.http.HttpStatus;
+
+import java.time.Duration;
+
+/**
+ * Thrown instead of calling Gemini while the circuit breaker is open.
+ *
+ * Answered like an admission rejection: 503 with a Retry-After of the time left until
+ * the breaker lets probe calls through again.
+ */
+public class CircuitOpenException extends AdmissionRejectedException {
+
+    public CircuitOpenException(Duration retryAfter) {
+        super(HttpStatus.SERVICE_UNAVAILABLE, retryAfter, "Gemini is currently unavailable, circuit breaker is open");
+    }
+}
@@ -0,0 +1,64 @@
+package com.aicodehelper.ai.resilience;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Percentile of the most recent call latencies, used as the hedging delay.
+ *
+ * Keeps the last {@code capacity} samples in a ring; the percentile is recomputed from a
+ * sorted copy every {@code RECOMPUTE_EVERY} samples rather than on every lookup.
+ */
+class LatencyTracker {
+
+    private static final int RECOMPUTE_EVERY = 16;
+
+    private final double percentile;
+    private final long[] samples;
+    private final ReentrantLock lock = new ReentrantLock();
+    private int next;
+    private int count;
+    private int sinceRecompute;
+    private long cached = -1;
+
+    LatencyTracker(int capacity, double percentile) {
+        this.samples = new long[Math.max(1, capacity)];
+        this.percentile = percentile;
+    }
+
+    void record(long latencyNanos) {
+        lock.lock();
+        try {
+            samples[next] = latencyNanos;
+            next = (next + 1) % samples.length;
+            count = Math.min(count + 1, samples.length);
+            if (++sinceRecompute >= RECOMPUTE_EVERY) {
+                cached = -1;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param minSamples Samples required before the percentile is trusted
+     * @return Latency percentile in nanoseconds, or -1 with too few samples
+     */
+    long percentileNanos(int minSamples) {
+        lock.lock();
+        try {
+            if (count == 0 || count < minSamples) {
+                return -1;
+            }
+            if (cached < 0) {
+                long[] sorted = Arrays.copyOf(samples, count);
+                Arrays.sort(sorted);
+                cached = sorted[Math.min(count - 1, (int) Math.ceil(percentile * count) - 1)];
+                sinceRecompute = 0;
+            }
+            return cached;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,499 @@
+package com.aicodehelper.ai.resilience;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.scheduler.Schedulers;
+import reactor.netty.http.client.PrematureCloseException;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Resilience layer around single upstream Gemini attempts.
+ *
+ * - Retries: transient failures (5xx, 429, connection errors) are retried with exponential
+ *   backoff and full jitter; every retry is paid from a global {@link RetryBudget}, so retries
+ *   stop when most calls are failing. A 429's Retry-After is left to the API key pool, which
+ *   cools the key off and sends the retry to another key or waits for one
+ * - Hedging: once a unary call has run longer than the recent p95 latency, a second attempt
+ *   is started and the first answer wins; hedges are paid from the same budget
+ * - Circuit breaker: opens on a high failure rate or on a high share of slow calls and then
+ *   fails fast with {@link CircuitOpenException} instead of queueing behind a sick upstream
+ *
+ * Streams are retried only until their first chunk, since text already sent cannot be
+ * taken back, and are never hedged. For streams the time to the first chunk is the latency
+ * compared against the slow-call threshold.
+ *
+ * Each model has its own circuit breaker and latency percentile, so one sick model tier
+ * does not fail calls to the others; the retry budget is shared by all models.
+ */
+@Component
+@Slf4j
+public class ModelCallResilience {
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    @Value("${ai.resilience.retry.enabled:true}")
+    private boolean retryEnabled;
+
+    @Value("${ai.resilience.retry.max-attempts:3}")
+    private int maxAttempts;
+
+    @Value("${ai.resilience.retry.initial-backoff-ms:200}")
+    private long initialBackoffMillis;
+
+    @Value("${ai.resilience.retry.max-backoff-ms:2000}")
+    private long maxBackoffMillis;
+
+    @Value("${ai.resilience.retry.budget-ratio:0.2}")
+    private double budgetRatio;
+
+    @Value("${ai.resilience.retry.budget-min-per-second:1.0}")
+    private double budgetMinPerSecond;
+
+    @Value("${ai.resilience.retry.budget-max-tokens:20}")
+    private double budgetMaxTokens;
+
+    @Value("${ai.resilience.hedging.enabled:false}")
+    private boolean hedgingEnabled;
+
+    @Value("${ai.resilience.hedging.percentile:0.95}")
+    private double hedgingPercentile;
+
+    @Value("${ai.resilience.hedging.min-delay-ms:1000}")
+    private long hedgingMinDelayMillis;
+
+    @Value("${ai.resilience.hedging.min-samples:20}")
+    private int hedgingMinSamples;
+
+    @Value("${ai.resilience.circuit-breaker.enabled:true}")
+    private boolean breakerEnabled;
+
+    @Value("${ai.resilience.circuit-breaker.window-size:50}")
+    private int breakerWindowSize;
+
+    @Value("${ai.resilience.circuit-breaker.minimum-calls:20}")
+    private int breakerMinimumCalls;
+
+    @Value("${ai.resilience.circuit-breaker.failure-rate-threshold:0.5}")
+    private double breakerFailureRateThreshold;
+
+    @Value("${ai.resilience.circuit-breaker.slow-call-duration-ms:30000}")
+    private long breakerSlowCallMillis;
+
+    @Value("${ai.resilience.circuit-breaker.slow-call-rate-threshold:0.8}")
+    private double breakerSlowCallRateThreshold;
+
+    @Value("${ai.resilience.circuit-breaker.open-seconds:30}")
+    private long breakerOpenSeconds;
+
+    @Value("${ai.resilience.circuit-breaker.half-open-calls:3}")
+    private int breakerHalfOpenCalls;
+
+    private Clock clock = Clock.systemUTC();
+
+    private RetryBudget retryBudget;
+    private final ConcurrentMap<String, ModelState> models = new ConcurrentHashMap<>();
+
+    private Counter retries;
+    private Counter retriesDenied;
+    private Counter hedges;
+    private Counter hedgesWon;
+
+    @PostConstruct
+    public void init() {
+        log.info("Initializing model call resilience - retry: {} (max attempts {}), hedging: {}, circuit breaker: {}",
+                retryEnabled, maxAttempts, hedgingEnabled, breakerEnabled);
+
+        retryBudget = new RetryBudget(budgetRatio, budgetMinPerSecond, budgetMaxTokens, clock);
+
+        retries = Counter.builder("ai.resilience.retries").tag("outcome", "attempted").register(meterRegistry);
+        retriesDenied = Counter.builder("ai.resilience.retries").tag("outcome", "budget_exhausted").register(meterRegistry);
+        hedges = Counter.builder("ai.resilience.hedges").tag("outcome", "fired").register(meterRegistry);
+        hedgesWon = Counter.builder("ai.resilience.hedges").tag("outcome", "won").register(meterRegistry);
+        Gauge.builder("ai.resilience.retry.budget", retryBudget, RetryBudget::available)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Runs a unary call with retries, hedging and the model's circuit breaker.
+     *
+     * @param model Model the call goes to
+     * @param attempt Supplies one upstream attempt; called once per attempt
+     * @return Result of the first successful attempt
+     */
+    public <T> Mono<T> execute(String model, Supplier<Mono<T>> attempt) {
+        return Mono.defer(() -> {
+            retryBudget.onRequest();
+            return execute(model(model), attempt, 1);
+        });
+    }
+
+    /**
+     * Runs a streaming call with the model's circuit breaker, retrying only before the first element.
+     *
+     * @param model Model the call goes to
+     * @param attempt Supplies one upstream attempt; called once per attempt
+     * @return Elements of the successful attempt
+     */
+    public <T> Flux<T> executeStream(String model, Supplier<Flux<T>> attempt) {
+        return Flux.defer(() -> {
+            retryBudget.onRequest();
+            return executeStream(model(model), attempt, 1);
+        });
+    }
+
+    /**
+     * @return Current circuit breaker state of a model, for health reporting and routing
+     */
+    public CircuitBreaker.Snapshot circuitBreaker(String model) {
+        return model(model).circuitBreaker.snapshot();
+    }
+
+    /**
+     * @return Recent unary call latency of a model at the hedging percentile, empty while
+     *         fewer than {@code min-samples} calls are known
+     */
+    public Optional<Duration> latency(String model) {
+        long percentile = model(model).latencyTracker.percentileNanos(hedgingMinSamples);
+        return percentile < 0 ? Optional.empty() : Optional.of(Duration.ofNanos(percentile));
+    }
+
+    private ModelState model(String model) {
+        return models.computeIfAbsent(model, ModelState::new);
+    }
+
+    private <T> Mono<T> execute(ModelState model, Supplier<Mono<T>> attempt, int number) {
+        long hedgeDelay = hedgingEnabled ? hedgeDelayNanos(model) : -1;
+        Mono<T> call = hedgeDelay < 0 ? guarded(model, attempt) : hedged(model, attempt, hedgeDelay);
+        return call.onErrorResume(error -> {
+            Duration backoff = retryBackoff(error, number);
+            if (backoff == null) {
+                return Mono.error(error);
+            }
+            return Mono.delay(backoff).then(Mono.defer(() -> execute(model, attempt, number + 1)));
+        });
+    }
+
+    private <T> Flux<T> executeStream(ModelState model, Supplier<Flux<T>> attempt, int number) {
+        AtomicBoolean emitted = new AtomicBoolean();
+        return guardedStream(model, attempt)
+                .doOnNext(element -> emitted.set(true))
+                .onErrorResume(error -> {
+                    Duration backoff = emitted.get() ? null : retryBackoff(error, number);
+                    if (backoff == null) {
+                        return Flux.error(error);
+                    }
+                    return Mono.delay(backoff).thenMany(Flux.defer(() -> executeStream(model, attempt, number + 1)));
+                });
+    }
+
+    /**
+     * One unary attempt, admitted and judged by the circuit breaker.
+     */
+    private <T> Mono<T> guarded(ModelState model, Supplier<Mono<T>> attempt) {
+        return Mono.defer(() -> {
+            if (!model.acquire()) {
+                return Mono.error(new CircuitOpenException(model.circuitBreaker.snapshot().retryAfter()));
+            }
+            long startedAt = System.nanoTime();
+            return attempt.get()
+                    .doOnSuccess(result -> {
+                        long latency = System.nanoTime() - startedAt;
+                        model.latencyTracker.record(latency);
+                        model.onSuccess(latency);
+                    })
+                    .doOnError(model::onFailure)
+                    .doOnCancel(() -> model.onCancelled(System.nanoTime() - startedAt));
+        });
+    }
+
+    /**
+     * One streaming attempt. Its outcome is decided by the first element, or by the
+     * termination of a stream that produced none.
+     */
+    private <T> Flux<T> guardedStream(ModelState model, Supplier<Flux<T>> attempt) {
+        return Flux.defer(() -> {
+            if (!model.acquire()) {
+                return Flux.error(new CircuitOpenException(model.circuitBreaker.snapshot().retryAfter()));
+            }
+            long startedAt = System.nanoTime();
+            AtomicBoolean decided = new AtomicBoolean();
+            return attempt.get()
+                    .doOnNext(element -> {
+                        if (decided.compareAndSet(false, true)) {
+                            model.onSuccess(System.nanoTime() - startedAt);
+                        }
+                    })
+                    .doOnComplete(() -> {
+                        if (decided.compareAndSet(false, true)) {
+                            model.onSuccess(System.nanoTime() - startedAt);
+                        }
+                    })
+                    .doOnError(error -> {
+                        if (decided.compareAndSet(false, true)) {
+                            model.onFailure(error);
+                        }
+                    })
+                    .doOnCancel(() -> {
+                        if (decided.compareAndSet(false, true)) {
+                            model.onCancelled(System.nanoTime() - startedAt);
+                        }
+                    });
+        });
+    }
+
+    private <T> Mono<T> hedged(ModelState model, Supplier<Mono<T>> attempt, long delayNanos) {
+        return Mono.create(sink -> {
+            Hedge<T> hedge = new Hedge<>(sink, model, attempt);
+            sink.onDispose(hedge::dispose);
+            hedge.start(false);
+            hedge.scheduleHedge(delayNanos);
+        });
+    }
+
+    /**
+     * @return Delay before a hedge is fired, or -1 while too few latencies are known
+     */
+    private long hedgeDelayNanos(ModelState model) {
+        long percentile = model.latencyTracker.percentileNanos(hedgingMinSamples);
+        return percentile < 0 ? -1 : Math.max(percentile, TimeUnit.MILLISECONDS.toNanos(hedgingMinDelayMillis));
+    }
+
+    /**
+     * @return Backoff before the next attempt, or null if the error must not be retried
+     */
+    private Duration retryBackoff(Throwable error, int attempt) {
+        if (!retryEnabled || attempt >= maxAttempts || !isRetryable(error)) {
+            return null;
+        }
+        long ceiling = Math.min(maxBackoffMillis, initialBackoffMillis << Math.min(attempt - 1, 20));
+        long backoff = ThreadLocalRandom.current().nextLong(ceiling + 1);
+        if (!retryBudget.tryWithdraw()) {
+            retriesDenied.increment();
+            log.warn("Retry budget exhausted, not retrying: {}", error.getMessage());
+            return null;
+        }
+        retries.increment();
+        log.info("Retrying Gemini call (attempt {}) in {} ms after: {}", attempt + 1, backoff, error.getMessage());
+        return Duration.ofMillis(backoff);
+    }
+
+    /**
+     * Transient failures worth another attempt: rate limiting, server errors and
+     * connections that failed or closed before a response.
+     */
+    static boolean isRetryable(Throwable error) {
+        if (error instanceof WebClientResponseException response) {
+            return response.getStatusCode().value() == 429 || response.getStatusCode().is5xxServerError();
+        }
+        return error instanceof WebClientRequestException || error instanceof PrematureCloseException;
+    }
+
+    /**
+     * Failures that count against upstream health. Rate limiting is excluded: it reflects
+     * our quota rather than the health of the service.
+     */
+    private static boolean isUpstreamFailure(Throwable error) {
+        return isRetryable(error)
+                && !(error instanceof WebClientResponseException response && response.getStatusCode().value() == 429);
+    }
+
+    /**
+     * Circuit breaker and latency percentile of one model.
+     */
+    private final class ModelState {
+
+        private final String model;
+        private final LatencyTracker latencyTracker;
+        private final CircuitBreaker circuitBreaker;
+        private final Counter rejections;
+
+        private ModelState(String model) {
+            this.model = model;
+            this.latencyTracker = new LatencyTracker(256, hedgingPercentile);
+            this.circuitBreaker = new CircuitBreaker(breakerWindowSize, breakerMinimumCalls, breakerFailureRateThreshold,
+                    Duration.ofMillis(breakerSlowCallMillis), breakerSlowCallRateThreshold,
+                    Duration.ofSeconds(breakerOpenSeconds), breakerHalfOpenCalls, this::onTransition, clock);
+            this.rejections = Counter.builder("ai.resilience.circuit.rejections").tag("model", model).register(meterRegistry);
+            Gauge.builder("ai.resilience.circuit.state", circuitBreaker, breaker -> breaker.state().ordinal())
+                    .description("0 = closed, 1 = open, 2 = half-open")
+                    .tag("model", model)
+                    .register(meterRegistry);
+        }
+
+        boolean acquire() {
+            if (!breakerEnabled) {
+                return true;
+            }
+            if (circuitBreaker.tryAcquire()) {
+                return true;
+            }
+            rejections.increment();
+            return false;
+        }
+
+        void onSuccess(long latencyNanos) {
+            if (breakerEnabled) {
+                circuitBreaker.onSuccess(latencyNanos);
+            }
+        }
+
+        void onFailure(Throwable error) {
+            if (!breakerEnabled) {
+                return;
+            }
+            if (isUpstreamFailure(error)) {
+                circuitBreaker.onFailure();
+            } else {
+                circuitBreaker.onIgnored();
+            }
+        }
+
+        void onCancelled(long elapsedNanos) {
+            if (breakerEnabled) {
+                circuitBreaker.onCancelled(elapsedNanos);
+            }
+        }
+
+        private void onTransition(CircuitBreaker.State state) {
+            Counter.builder("ai.resilience.circuit.transitions")
+                    .tag("model", model)
+                    .tag("state", state.name().toLowerCase())
+                    .register(meterRegistry)
+                    .increment();
+            log.warn("Circuit breaker of Gemini model {} is now {}", model, state);
+        }
+    }
+
+    /**
+     * A primary attempt and at most one hedge racing for the same result. The first value
+     * wins and cancels the other attempt. An error is reported as soon as no attempt is left
+     * running, which also drops a hedge that has not fired yet: a failed call is retried with
+     * backoff, and only if the error is retryable, rather than hedged at once.
+     */
+    private final class Hedge<T> {
+
+        private final MonoSink<T> sink;
+        private final ModelState model;
+        private final Supplier<Mono<T>> attempt;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Disposable.Composite attempts = Disposables.composite();
+        private Disposable timer;
+        private int running;
+        private boolean done;
+
+        private Hedge(MonoSink<T> sink, ModelState model, Supplier<Mono<T>> attempt) {
+            this.sink = sink;
+            this.model = model;
+            this.attempt = attempt;
+        }
+
+        void scheduleHedge(long delayNanos) {
+            lock.lock();
+            try {
+                if (!done) {
+                    timer = Schedulers.parallel().schedule(() -> start(true), delayNanos, TimeUnit.NANOSECONDS);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void start(boolean isHedge) {
+            lock.lock();
+            try {
+                if (done) {
+                    return;
+                }
+                if (isHedge) {
+                    timer = null;
+                    if (!retryBudget.tryWithdraw()) {
+                        retriesDenied.increment();
+                        return;
+                    }
+                    hedges.increment();
+                    log.info("Gemini call exceeded p{} latency, sending a hedged request", Math.round(hedgingPercentile * 100));
+                }
+                running++;
+            } finally {
+                lock.unlock();
+            }
+            attempts.add(guarded(model, attempt).subscribe(
+                    value -> succeed(value, isHedge),
+                    this::fail,
+                    () -> succeed(null, isHedge)));
+        }
+
+        void dispose() {
+            Disposable pending;
+            lock.lock();
+            try {
+                done = true;
+                pending = timer;
+                timer = null;
+            } finally {
+                lock.unlock();
+            }
+            if (pending != null) {
+                pending.dispose();
+            }
+            attempts.dispose();
+        }
+
+        private void succeed(T value, boolean isHedge) {
+            lock.lock();
+            try {
+                if (done) {
+                    return;
+                }
+                done = true;
+            } finally {
+                lock.unlock();
+            }
+            if (isHedge) {
+                hedgesWon.increment();
+            }
+            if (value == null) {
+                sink.success();
+            } else {
+                sink.success(value);
+            }
+        }
+
+        private void fail(Throwable error) {
+            lock.lock();
+            try {
+                if (done || --running > 0) {
+                    return;
+                }
+                done = true;
+            } finally {
+                lock.unlock();
+            }
+            sink.error(error);
+        }
+    }
+}
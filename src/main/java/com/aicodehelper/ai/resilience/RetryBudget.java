@@ -0,0 +1,71 @@
+package com.aicodehelper.ai.resilience;
+
+import java.time.Clock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Global cap on retries and hedges, shared by all upstream calls.
+ *
+ * Every original call deposits {@code ratio} tokens and every retry or hedge withdraws one,
+ * so extra attempts stay a bounded fraction of real traffic. When Gemini is failing for
+ * everyone, retries therefore dry up instead of multiplying the load. A trickle of
+ * {@code minPerSecond} tokens keeps retries possible at very low traffic. The balance is
+ * capped at {@code maxTokens}, which bounds the burst of retries after a quiet period.
+ */
+class RetryBudget {
+
+    private final double ratio;
+    private final double minPerSecond;
+    private final double maxTokens;
+    private final Clock clock;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private double tokens;
+    private long refilledAt;
+
+    RetryBudget(double ratio, double minPerSecond, double maxTokens, Clock clock) {
+        this.ratio = ratio;
+        this.minPerSecond = minPerSecond;
+        this.maxTokens = Math.max(1, maxTokens);
+        this.clock = clock;
+        this.tokens = this.maxTokens;
+        this.refilledAt = clock.millis();
+    }
+
+    void onRequest() {
+        lock.lock();
+        try {
+            tokens = Math.min(maxTokens, tokens + ratio);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return Whether one more attempt is allowed; if so, it has been paid for
+     */
+    boolean tryWithdraw() {
+        lock.lock();
+        try {
+            long now = clock.millis();
+            tokens = Math.min(maxTokens, tokens + (now - refilledAt) * minPerSecond / 1000.0);
+            refilledAt = now;
+            if (tokens < 1) {
+                return false;
+            }
+            tokens -= 1;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    double available() {
+        lock.lock();
+        try {
+            return tokens;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package com.aicodehelper.ai.routing;
+
+import com.aicodehelper.ai.resilience.CircuitBreaker;
+import com.aicodehelper.ai.resilience.CircuitOpenException;
+import com.aicodehelper.ai.resilience.ModelCallResilience;
+import com.aicodehelper.ai.traffic.RequestPriority;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+/**
+ * Chooses the Gemini model for each request between a fast, cheaper tier and a
+ * higher-quality tier.
+ *
+ * The preferred tier follows from the request:
+ * - Scheduling classes listed in {@code quality-classes} (learning reports by default) always
+ *   prefer the quality tier
+ * - Prompts of at least {@code long-prompt-chars} characters, or prompts that contain code,
+ *   prefer the quality tier
+ * - Everything else, such as a one-line syntax question, prefers the fast tier
+ *
+ * The other tier is taken instead when the preferred one is unhealthy: its circuit breaker is
+ * open, its failure rate over at least {@code min-calls} recent calls exceeds
+ * {@code max-error-rate} while the other's does not, or, for interactive requests, its recent
+ * latency exceeds {@code latency-budget-ms} while the other's does not. The other tier is also
+ * the fallback for a call rejected by an open breaker.
+ *
+ * Every decision that leads to an upstream call is counted as {@code ai.routing.decisions},
+ * tagged with the model and the reason, when the call is made. Answers served from the response
+ * cache are therefore not counted. Every fallback is counted as {@code ai.routing.fallbacks}.
+ * Routing is disabled unless {@code ai.routing.enabled} is set; disabled, or with both tiers set
+ * to the same model, all requests go to {@code google-ai.model-name}.
+ */
+@Component
+@Slf4j
+public class ModelRouter {
+
+    /**
+     * Model chosen for one request.
+     *
+     * @param model Model to call
+     * @param fallback Model to call when {@code model}'s circuit breaker is open, or null
+     * @param reason Why {@code model} was chosen, as used in the metric tag
+     */
+    public record Route(String model, String fallback, String reason) {
+    }
+
+    /**
+     * Code blocks, statement or block endings, declarations and stack trace frames.
+     * Deliberately loose: sending a plain question to the quality tier only costs money.
+     */
+    private static final Pattern CODE = Pattern.compile(
+            "```"
+                    + "|[;{}]\\s*$"
+                    + "|^\\s*(?:def|class|import|package|public|private|protected|function|const|let|var|#include|SELECT)\\s"
+                    + "|\\w+\\([^()\\n]*\\)\\s*(?:\\{|=>|->)"
+                    + "|^\\s*at [\\w.$]+\\(",
+            Pattern.MULTILINE);
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    @Resource
+    private ModelCallResilience modelCallResilience;
+
+    @Value("${google-ai.model-name:gemini-1.5-flash}")
+    private String defaultModel;
+
+    @Value("${ai.routing.enabled:false}")
+    private boolean enabled;
+
+    @Value("${ai.routing.fast-model:${google-ai.model-name:gemini-1.5-flash}}")
+    private String fastModel;
+
+    @Value("${ai.routing.quality-model:${google-ai.model-name:gemini-1.5-flash}}")
+    private String qualityModel;
+
+    @Value("${ai.routing.quality-classes:batch}")
+    private List<String> qualityClasses;
+
+    @Value("${ai.routing.long-prompt-chars:1500}")
+    private int longPromptChars;
+
+    @Value("${ai.routing.code-to-quality:true}")
+    private boolean codeToQuality;
+
+    @Value("${ai.routing.max-error-rate:0.25}")
+    private double maxErrorRate;
+
+    @Value("${ai.routing.min-calls:10}")
+    private int minCalls;
+
+    @Value("${ai.routing.latency-budget-ms:10000}")
+    private long latencyBudgetMillis;
+
+    private Set<RequestPriority> qualityPriorities;
+    private boolean routing;
+
+    @PostConstruct
+    public void init() {
+        qualityPriorities = EnumSet.noneOf(RequestPriority.class);
+        for (RequestPriority priority : RequestPriority.values()) {
+            if (qualityClasses.contains(priority.key())) {
+                qualityPriorities.add(priority);
+            }
+        }
+        routing = enabled && !fastModel.equals(qualityModel);
+        if (routing) {
+            log.info("Initializing model router - fast: {}, quality: {}, quality classes: {}, long prompts: {} chars",
+                    fastModel, qualityModel, qualityPriorities, longPromptChars);
+        } else {
+            log.info("Initializing model router - all requests go to {}", defaultModel);
+        }
+    }
+
+    /**
+     * @return Models requests may be routed to, the quality tier first
+     */
+    public List<String> models() {
+        return routing ? List.of(qualityModel, fastModel) : List.of(defaultModel);
+    }
+
+    /**
+     * Chooses the model for a request.
+     *
+     * @param prompt User prompt
+     * @param priority Scheduling class, which identifies the endpoint
+     * @return Chosen model with its fallback
+     */
+    public Route route(String prompt, RequestPriority priority) {
+        if (!routing) {
+            return new Route(defaultModel, null, "single_model");
+        }
+
+        String preferred;
+        String reason;
+        if (qualityPriorities.contains(priority)) {
+            preferred = qualityModel;
+            reason = "endpoint";
+        } else if (prompt.length() >= longPromptChars) {
+            preferred = qualityModel;
+            reason = "long_prompt";
+        } else if (codeToQuality && looksLikeCode(prompt)) {
+            preferred = qualityModel;
+            reason = "code";
+        } else {
+            preferred = fastModel;
+            reason = "short_prompt";
+        }
+        String other = preferred.equals(qualityModel) ? fastModel : qualityModel;
+
+        CircuitBreaker.Snapshot preferredHealth = modelCallResilience.circuitBreaker(preferred);
+        CircuitBreaker.Snapshot otherHealth = modelCallResilience.circuitBreaker(other);
+        if (preferredHealth.state() == CircuitBreaker.State.OPEN && otherHealth.state() != CircuitBreaker.State.OPEN) {
+            return new Route(other, preferred, "breaker_open");
+        }
+        if (preferredHealth.calls() >= minCalls && preferredHealth.failureRate() > maxErrorRate
+                && otherHealth.failureRate() <= maxErrorRate) {
+            return new Route(other, preferred, "error_rate");
+        }
+        if (priority == RequestPriority.INTERACTIVE && overBudget(preferred) && withinBudget(other)) {
+            return new Route(other, preferred, "latency");
+        }
+        return new Route(preferred, other, reason);
+    }
+
+    /**
+     * Calls the route's model, and its fallback if the model's circuit breaker is open.
+     * The routing decision is counted on subscription.
+     *
+     * @param route Route from {@link #route}
+     * @param call Call to one model
+     * @return Result of the model that answered
+     */
+    public <T> Mono<T> withFallback(Route route, Function<String, Mono<T>> call) {
+        return Mono.defer(() -> call.apply(called(route)))
+                .onErrorResume(CircuitOpenException.class, open -> route.fallback() == null
+                        ? Mono.error(open)
+                        : Mono.defer(() -> call.apply(fellBack(route))));
+    }
+
+    /**
+     * Streaming variant of {@link #withFallback(Route, Function)}. A breaker rejects a
+     * stream before its first element, so the fallback never repeats text.
+     */
+    public <T> Flux<T> withFallbackStream(Route route, Function<String, Flux<T>> call) {
+        return Flux.defer(() -> call.apply(called(route)))
+                .onErrorResume(CircuitOpenException.class, open -> route.fallback() == null
+                        ? Flux.error(open)
+                        : Flux.defer(() -> call.apply(fellBack(route))));
+    }
+
+    /**
+     * Heuristic for prompts that contain source code or stack traces.
+     */
+    static boolean looksLikeCode(String prompt) {
+        return CODE.matcher(prompt).find();
+    }
+
+    private boolean overBudget(String model) {
+        Optional<Duration> latency = modelCallResilience.latency(model);
+        return latency.isPresent() && latency.get().toMillis() > latencyBudgetMillis;
+    }
+
+    private boolean withinBudget(String model) {
+        Optional<Duration> latency = modelCallResilience.latency(model);
+        return latency.isEmpty() || latency.get().toMillis() <= latencyBudgetMillis;
+    }
+
+    /**
+     * Counts a routing decision whose model is about to be called.
+     *
+     * @return Model of the route
+     */
+    private String called(Route route) {
+        Counter.builder("ai.routing.decisions")
+                .tag("model", route.model())
+                .tag("reason", route.reason())
+                .register(meterRegistry)
+                .increment();
+        log.debug("Routed request to {} ({})", route.model(), route.reason());
+        return route.model();
+    }
+
+    private String fellBack(Route route) {
+        Counter.builder("ai.routing.fallbacks")
+                .tag("from", route.model())
+                .tag("to", route.fallback())
+                .register(meterRegistry)
+                .increment();
+        log.warn("Circuit breaker of {} is open, falling back to {}", route.model(), route.fallback());
+        return route.fallback();
+    }
+}
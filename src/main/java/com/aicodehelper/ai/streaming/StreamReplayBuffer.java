@@ -0,0 +1,343 @@
+package com.aicodehelper.ai.streaming;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the frames of in-flight and recently finished chat streams so that a client
+ * reconnecting with {@code Last-Event-ID} resumes where it left off instead of
+ * triggering a second generation.
+ *
+ * Every stream is keyed by memoryId plus a client-chosen request ID, and each frame
+ * gets the event ID {@code <requestId>:<sequence>}. The generation is owned by the
+ * buffer rather than by the first connection, so it keeps filling the buffer while the
+ * client is away. If no client is attached for {@code abandon-after-seconds} before the
+ * answer is complete, the generation is cancelled, which aborts the upstream exchange.
+ * Buffers are evicted once finished for longer than {@code ttl-seconds}, and finished ones
+ * oldest first when the number of streams or the total buffered text exceeds its cap. Streams
+ * still generating count towards the caps but are kept, so that their generation always stays
+ * reachable by a reconnect or is cancelled once abandoned.
+ */
+@Component
+@Slf4j
+public class StreamReplayBuffer {
+
+    private static final char ID_SEPARATOR = ':';
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    @Value("${ai.streaming.resume.enabled:true}")
+    private boolean enabled;
+
+    @Value("${ai.streaming.resume.max-streams:1000}")
+    private int maxStreams;
+
+    @Value("${ai.streaming.resume.max-total-chars:8000000}")
+    private long maxTotalChars;
+
+    @Value("${ai.streaming.resume.ttl-seconds:300}")
+    private long ttlSeconds;
+
+    @Value("${ai.streaming.resume.abandon-after-seconds:10}")
+    private long abandonAfterSeconds;
+
+    private Clock clock = Clock.systemUTC();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    // Insertion order is start order, which is the eviction order under pressure
+    private final LinkedHashMap<String, ReplayStream> streams = new LinkedHashMap<>();
+    private long totalChars;
+
+    private Counter resumeHits;
+    private Counter resumeMisses;
+    private Counter evictions;
+    private Counter abandoned;
+    private Disposable sweeper;
+
+    @PostConstruct
+    public void init() {
+        log.info("Initializing stream replay buffer - enabled: {}, max streams: {}, max chars: {}, ttl: {}s",
+                enabled, maxStreams, maxTotalChars, ttlSeconds);
+
+        resumeHits = Counter.builder("ai.streaming.resume").tag("result", "hit").register(meterRegistry);
+        resumeMisses = Counter.builder("ai.streaming.resume").tag("result", "miss").register(meterRegistry);
+        evictions = Counter.builder("ai.streaming.replay.evictions").register(meterRegistry);
+        abandoned = Counter.builder("ai.streaming.replay.abandoned").register(meterRegistry);
+        Gauge.builder("ai.streaming.replay.streams", this, buffer -> buffer.withLock(buffer.streams::size))
+                .register(meterRegistry);
+        Gauge.builder("ai.streaming.replay.chars", this, buffer -> buffer.withLock(() -> buffer.totalChars))
+                .register(meterRegistry);
+
+        long sweepSeconds = Math.max(1, ttlSeconds / 2);
+        sweeper = Schedulers.parallel().schedulePeriodically(this::evict, sweepSeconds, sweepSeconds, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (sweeper != null) {
+            sweeper.dispose();
+        }
+    }
+
+    /**
+     * Starts a stream and buffers its frames for later resumption.
+     *
+     * If a stream with the same key and prompt is already buffered, for example because the
+     * client reconnected before it received its first event, that stream is replayed from
+     * the beginning and no new generation is started. A request ID reused with a different
+     * prompt replaces the buffered stream with a new generation; clients still attached to
+     * the old one keep receiving it.
+     *
+     * @param memoryId Chat session of the stream
+     * @param requestId Client-chosen ID of this request, unique within the session
+     * @param prompt Message the stream answers
+     * @param generation Source of the frames; subscribed at most once
+     * @return Frames with their event IDs, from the first one
+     */
+    public Flux<StreamFrame> start(String memoryId, String requestId, String prompt, Supplier<Flux<String>> generation) {
+        if (!enabled) {
+            return Flux.defer(() -> withIds(requestId, generation.get()));
+        }
+        return Flux.defer(() -> {
+            String key = key(memoryId, requestId);
+            ReplayStream stream;
+            lock.lock();
+            try {
+                stream = streams.get(key);
+                if (stream != null && stream.prompt.equals(prompt)) {
+                    return stream.frames(-1);
+                }
+                if (stream != null) {
+                    log.info("Request ID of stream {} reused for a different prompt, starting a new generation", key);
+                    streams.remove(key);
+                    totalChars -= stream.chars;
+                }
+                stream = new ReplayStream(key, requestId, prompt);
+                streams.put(key, stream);
+            } finally {
+                lock.unlock();
+            }
+            evict();
+            stream.run(generation.get());
+            return stream.frames(-1);
+        });
+    }
+
+    /**
+     * Resumes a buffered stream after the event the client saw last.
+     *
+     * @param memoryId Chat session of the stream
+     * @param lastEventId Value of the {@code Last-Event-ID} header
+     * @return Remaining frames, or empty if the stream is unknown or already evicted
+     */
+    public Optional<Flux<StreamFrame>> resume(String memoryId, String lastEventId) {
+        int separator = lastEventId == null ? -1 : lastEventId.lastIndexOf(ID_SEPARATOR);
+        if (!enabled || separator <= 0) {
+            return Optional.empty();
+        }
+        String requestId = lastEventId.substring(0, separator);
+        long lastSequence;
+        try {
+            lastSequence = Long.parseLong(lastEventId.substring(separator + 1));
+        } catch (NumberFormatException e) {
+            return Optional.empty();
+        }
+
+        ReplayStream stream = withLock(() -> streams.get(key(memoryId, requestId)));
+        if (stream == null) {
+            resumeMisses.increment();
+            return Optional.empty();
+        }
+        resumeHits.increment();
+        log.info("Resuming stream {} after event {}", stream.key, lastSequence);
+        return Optional.of(stream.frames(lastSequence));
+    }
+
+    private Flux<StreamFrame> withIds(String requestId, Flux<String> frames) {
+        return frames.index((sequence, text) -> new StreamFrame(requestId + ID_SEPARATOR + sequence, text));
+    }
+
+    /**
+     * Drops expired streams, then the oldest finished ones while over either cap.
+     */
+    private void evict() {
+        long expiredBefore = clock.millis() - Duration.ofSeconds(ttlSeconds).toMillis();
+        lock.lock();
+        try {
+            Iterator<ReplayStream> iterator = streams.values().iterator();
+            while (iterator.hasNext()) {
+                ReplayStream stream = iterator.next();
+                if (stream.finishedAt == 0) {
+                    continue;
+                }
+                boolean expired = stream.finishedAt < expiredBefore;
+                boolean overCap = streams.size() > maxStreams || totalChars > maxTotalChars;
+                if (!expired && !overCap) {
+                    continue;
+                }
+                iterator.remove();
+                totalChars -= stream.chars;
+                evictions.increment();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private <T> T withLock(Supplier<T> action) {
+        lock.lock();
+        try {
+            return action.get();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static String key(String memoryId, String requestId) {
+        return memoryId + "/" + requestId;
+    }
+
+    /**
+     * One frame of a chat stream.
+     *
+     * @param id SSE event ID, {@code <requestId>:<sequence>}
+     * @param text Frame text
+     */
+    public record StreamFrame(String id, String text) {
+    }
+
+    /**
+     * Buffered frames of one generation, replayable to any number of subscribers.
+     */
+    private final class ReplayStream {
+
+        private final String key;
+        private final String requestId;
+        private final String prompt;
+        private final Sinks.Many<StreamFrame> sink = Sinks.many().replay().all();
+        private long sequence;
+        // Guarded by the buffer lock
+        private long chars;
+        private int subscribers;
+        private Disposable abandonTimer;
+        private volatile long finishedAt;
+        private volatile Disposable generation;
+
+        private ReplayStream(String key, String requestId, String prompt) {
+            this.key = key;
+            this.requestId = requestId;
+            this.prompt = prompt;
+        }
+
+        /**
+         * Subscribes the generation independently of any client connection.
+         */
+        void run(Flux<String> source) {
+            generation = source.subscribe(
+                    text -> {
+                        lock.lock();
+                        try {
+                            chars += text.length();
+                            if (streams.get(key) == this) {
+                                totalChars += text.length();
+                            }
+                        } finally {
+                            lock.unlock();
+                        }
+                        sink.tryEmitNext(new StreamFrame(requestId + ID_SEPARATOR + sequence++, text));
+                    },
+                    error -> {
+                        finishedAt = clock.millis();
+                        // A failed generation must be retried, not replayed
+                        lock.lock();
+                        try {
+                            if (streams.remove(key, this)) {
+                                totalChars -= chars;
+                            }
+                        } finally {
+                            lock.unlock();
+                        }
+                        sink.tryEmitError(error);
+                    },
+                    () -> {
+                        finishedAt = clock.millis();
+                        sink.tryEmitComplete();
+                    });
+        }
+
+        Flux<StreamFrame> frames(long afterSequence) {
+            return sink.asFlux()
+                    .skip(afterSequence + 1)
+                    .doOnSubscribe(subscription -> attach())
+                    .doFinally(signal -> detach());
+        }
+
+        private void attach() {
+            lock.lock();
+            try {
+                subscribers++;
+                if (abandonTimer != null) {
+                    abandonTimer.dispose();
+                    abandonTimer = null;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Starts the grace period once the last client has gone while the answer is incomplete.
+         */
+        private void detach() {
+            lock.lock();
+            try {
+                if (--subscribers == 0 && finishedAt == 0) {
+                    abandonTimer = Schedulers.parallel().schedule(this::abandon, abandonAfterSeconds, TimeUnit.SECONDS);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void abandon() {
+            lock.lock();
+            try {
+                if (subscribers > 0 || finishedAt != 0) {
+                    return;
+                }
+                abandonTimer = null;
+                finishedAt = clock.millis();
+                if (streams.remove(key, this)) {
+                    totalChars -= chars;
+                }
+            } finally {
+                lock.unlock();
+            }
+            abandoned.increment();
+            log.info("No client resumed stream {}, cancelling its generation", key);
+            generation.dispose();
+            sink.tryEmitError(new IllegalStateException("Stream abandoned by all clients"));
+        }
+    }
+}
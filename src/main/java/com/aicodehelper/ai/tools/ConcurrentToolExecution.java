@@ -0,0 +1,375 @@
+package com.aicodehelper.ai.tools;
+
+import com.aicodehelper.ai.traffic.CallerContext;
+import dev.langchain4j.agent.tool.Tool;
+import dev.langchain4j.agent.tool.ToolExecutionRequest;
+import dev.langchain4j.agent.tool.ToolMemoryId;
+import dev.langchain4j.agent.tool.ToolSpecification;
+import dev.langchain4j.agent.tool.ToolSpecifications;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.model.chat.listener.ChatModelListener;
+import dev.langchain4j.model.chat.listener.ChatModelResponseContext;
+import dev.langchain4j.service.tool.DefaultToolExecutor;
+import dev.langchain4j.service.tool.ToolExecutor;
+import dev.langchain4j.service.tool.ToolProvider;
+import dev.langchain4j.service.tool.ToolProviderResult;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.scheduler.Schedulers;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Parameter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the tool calls of one model turn concurrently, each with its own deadline.
+ *
+ * LangChain4j {@code AiServices} executes the tool calls of a turn one after another. As a
+ * {@link ChatModelListener}, this class sees every response before the service does and starts
+ * all of its tool calls at once on a bounded executor. The executors registered with the service are
+ * wrapped, so when the service then executes the calls in order, each one only waits for its
+ * already running call. A turn takes as long as its slowest tool rather than the sum of all.
+ *
+ * - Each call has {@code timeout-seconds} from its start. A call that misses it is cancelled and
+ *   answered with a note instead, so the model still gets the results of the other tools
+ * - Calls run on a pool of {@code max-threads} platform threads with a queue of {@code queue-size}.
+ *   With virtual threads enabled ({@code spring.threads.virtual.enabled}, set by the
+ *   {@code virtual-threads} profile), each call gets its own virtual thread instead, and at most
+ *   {@code max-virtual-calls} run at once
+ * - When the executor is saturated, calls run on the service's thread when it reaches them
+ * - The chat memory ID is not known when the model responds, so tools with a {@link ToolMemoryId}
+ *   parameter are not started early; tools from providers, such as MCP tools, are assumed not to
+ *   use it
+ * - Calls are registered with the {@link CallerContext} of the turn, so cancelling the caller
+ *   cancels queued calls and interrupts running ones
+ * - Started calls are matched to the service's requests by request ID, or by tool name and
+ *   arguments when the model gives no ID. A call the service asks for that should have been
+ *   started but was not found is counted in {@code ai.tools.prestart.misses}
+ * - Latency per tool and outcome is recorded in {@code ai.tools.latency}
+ */
+@Component
+@Slf4j
+public class ConcurrentToolExecution implements ChatModelListener {
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    @Value("${ai.tools.concurrency.enabled:true}")
+    private boolean enabled;
+
+    @Value("${ai.tools.concurrency.max-threads:8}")
+    private int maxThreads;
+
+    @Value("${ai.tools.concurrency.queue-size:32}")
+    private int queueSize;
+
+    @Value("${ai.tools.concurrency.max-virtual-calls:256}")
+    private int maxVirtualCalls;
+
+    @Value("${ai.tools.concurrency.timeout-seconds:15}")
+    private long timeoutSeconds;
+
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+
+    // Executors of the registered tools by name, for starting calls as soon as the model requests them
+    private final ConcurrentMap<String, ToolExecutor> executors = new ConcurrentHashMap<>();
+    // Calls started early, until the service collects them
+    private final ConcurrentMap<CallKey, Execution> started = new ConcurrentHashMap<>();
+
+    // Platform threads, unless virtual threads are enabled
+    private ThreadPoolExecutor pool;
+    // A virtual thread per call, with permits bounding the calls in flight
+    private ExecutorService virtualExecutor;
+    private Semaphore virtualPermits;
+    private Counter inline;
+    private Counter preStartMisses;
+
+    @PostConstruct
+    public void init() {
+        if (virtualThreads) {
+            log.info("Initializing concurrent tool execution - enabled: {}, virtual threads, max calls: {}, timeout: {} s",
+                    enabled, maxVirtualCalls, timeoutSeconds);
+
+            virtualExecutor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("tool-exec-", 1).factory());
+            virtualPermits = new Semaphore(Math.max(1, maxVirtualCalls));
+            Gauge.builder("ai.tools.active", virtualPermits, permits -> Math.max(1, maxVirtualCalls) - permits.availablePermits())
+                    .register(meterRegistry);
+            // Calls never queue: without a permit they run on the service's thread
+            Gauge.builder("ai.tools.queued", () -> 0).register(meterRegistry);
+        } else {
+            log.info("Initializing concurrent tool execution - enabled: {}, threads: {}, queue: {}, timeout: {} s",
+                    enabled, maxThreads, queueSize, timeoutSeconds);
+
+            AtomicInteger threads = new AtomicInteger();
+            pool = new ThreadPoolExecutor(maxThreads, maxThreads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(Math.max(1, queueSize)),
+                    task -> {
+                        Thread thread = new Thread(task, "tool-exec-" + threads.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            pool.allowCoreThreadTimeOut(true);
+            Gauge.builder("ai.tools.active", pool, ThreadPoolExecutor::getActiveCount).register(meterRegistry);
+            Gauge.builder("ai.tools.queued", pool, executor -> executor.getQueue().size()).register(meterRegistry);
+        }
+
+        inline = Counter.builder("ai.tools.inline").register(meterRegistry);
+        preStartMisses = Counter.builder("ai.tools.prestart.misses").register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (pool != null) {
+            pool.shutdownNow();
+        }
+        if (virtualExecutor != null) {
+            virtualExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * Collects the {@link Tool} methods of objects, like {@code AiServices.tools(Object...)} does,
+     * with executors that run concurrently.
+     */
+    public Map<ToolSpecification, ToolExecutor> tools(Object... objects) {
+        Map<ToolSpecification, ToolExecutor> tools = new LinkedHashMap<>();
+        for (Object object : objects) {
+            for (Method method : object.getClass().getDeclaredMethods()) {
+                if (method.isAnnotationPresent(Tool.class)) {
+                    ToolSpecification specification = ToolSpecifications.toolSpecificationFrom(method);
+                    tools.put(specification, register(specification.name(), new DefaultToolExecutor(object, method),
+                            !usesMemoryId(method)));
+                }
+            }
+        }
+        return tools;
+    }
+
+    /**
+     * @return Provider of the same tools as {@code provider}, with executors that run concurrently
+     */
+    public ToolProvider tools(ToolProvider provider) {
+        return request -> {
+            ToolProviderResult result = provider.provideTools(request);
+            if (result == null) {
+                return null;
+            }
+            Map<ToolSpecification, ToolExecutor> tools = new LinkedHashMap<>();
+            result.tools().forEach((specification, executor) ->
+                    tools.put(specification, register(specification.name(), executor, true)));
+            return new ToolProviderResult(tools);
+        };
+    }
+
+    @Override
+    public void onResponse(ChatModelResponseContext responseContext) {
+        AiMessage message = responseContext.chatResponse().aiMessage();
+        if (!enabled || message == null || !message.hasToolExecutionRequests()) {
+            return;
+        }
+        for (ToolExecutionRequest request : message.toolExecutionRequests()) {
+            ToolExecutor executor = executors.get(request.name());
+            if (executor == null) {
+                continue;
+            }
+            CallKey key = CallKey.of(request);
+            Execution execution = new Execution(request.name(), () -> executor.execute(request, null));
+            // An identical call without an ID is already pending; this one runs when the service reaches it
+            if (started.putIfAbsent(key, execution) != null) {
+                continue;
+            }
+            start(execution);
+            // A call the service never collects, say after it stopped the tool loop, is cancelled eventually
+            Schedulers.parallel().schedule(() -> {
+                if (started.remove(key, execution)) {
+                    execution.cancel();
+                }
+            }, timeoutSeconds * 2, TimeUnit.SECONDS);
+        }
+        if (message.toolExecutionRequests().size() > 1) {
+            log.info("Started {} tool calls concurrently", message.toolExecutionRequests().size());
+        }
+    }
+
+    /**
+     * @param preStart Whether calls may start before the service executes them, without a memory ID
+     */
+    private ToolExecutor register(String name, ToolExecutor executor, boolean preStart) {
+        ToolExecutor concurrent = (request, memoryId) -> {
+            Execution execution = started.remove(CallKey.of(request));
+            if (execution == null) {
+                if (enabled && preStart) {
+                    preStartMisses.increment();
+                    log.debug("Tool call {} was not started early, running it now", request.name());
+                }
+                execution = new Execution(request.name(), () -> executor.execute(request, memoryId));
+                start(execution);
+            }
+            return execution.await();
+        };
+        if (preStart) {
+            executors.put(name, executor);
+        }
+        return concurrent;
+    }
+
+    private void start(Execution execution) {
+        CallerContext.current().ifPresent(caller -> caller.track(execution::cancel));
+        // When saturated, or disabled, the caller runs it when it gets there
+        execution.queued = enabled && (virtualThreads ? startVirtual(execution.task) : startPooled(execution.task));
+    }
+
+    private static boolean usesMemoryId(Method method) {
+        for (Parameter parameter : method.getParameters()) {
+            if (parameter.isAnnotationPresent(ToolMemoryId.class)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean startPooled(Runnable task) {
+        try {
+            pool.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    private boolean startVirtual(Runnable task) {
+        if (!virtualPermits.tryAcquire()) {
+            return false;
+        }
+        try {
+            virtualExecutor.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    virtualPermits.release();
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            virtualPermits.release();
+            return false;
+        }
+    }
+
+    private Timer latency(String tool, String outcome) {
+        return Timer.builder("ai.tools.latency")
+                .tag("tool", tool)
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    /**
+     * Identifies a requested call by its ID, or by tool and arguments when it has none.
+     */
+    private record CallKey(String id, String name, String arguments) {
+
+        static CallKey of(ToolExecutionRequest request) {
+            return request.id() != null
+                    ? new CallKey(request.id(), null, null)
+                    : new CallKey(null, request.name(), request.arguments());
+        }
+    }
+
+    /**
+     * One tool call, running on the executor or waiting to run on the caller's thread.
+     */
+    private final class Execution {
+
+        private final String tool;
+        private final FutureTask<String> task;
+        private final long startedAt = System.nanoTime();
+        private final AtomicBoolean recorded = new AtomicBoolean();
+        private volatile boolean queued = true;
+
+        private Execution(String tool, Callable<String> call) {
+            this.tool = tool;
+            this.task = new FutureTask<>(() -> {
+                try {
+                    String result = call.call();
+                    record("success");
+                    return result;
+                } catch (Exception e) {
+                    record("error");
+                    throw e;
+                }
+            });
+        }
+
+        String await() {
+            if (!queued) {
+                inline.increment();
+                task.run();
+            }
+            try {
+                long remaining = startedAt + TimeUnit.SECONDS.toNanos(timeoutSeconds) - System.nanoTime();
+                return task.get(Math.max(0, remaining), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                // Recorded first, as the interrupted call would otherwise record itself as an error
+                record("timeout");
+                task.cancel(true);
+                log.warn("Tool {} did not finish within {} s and was cancelled", tool, timeoutSeconds);
+                return String.format("The %s tool did not finish within %d seconds. Answer with the results of the other tools.",
+                        tool, timeoutSeconds);
+            } catch (InterruptedException e) {
+                cancel();
+                Thread.currentThread().interrupt();
+                return String.format("The %s tool was cancelled.", tool);
+            } catch (CancellationException e) {
+                return String.format("The %s tool was cancelled.", tool);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException runtime) {
+                    throw runtime;
+                }
+                throw new IllegalStateException("Tool " + tool + " failed: " + e.getCause().getMessage(), e.getCause());
+            }
+        }
+
+        /**
+         * Cancels the call if it has not finished, interrupting it if it is running.
+         */
+        void cancel() {
+            if (!task.isDone()) {
+                // Recorded first, as the interrupted call would otherwise record itself as an error
+                record("cancelled");
+                task.cancel(true);
+            }
+        }
+
+        private void record(String outcome) {
+            if (recorded.compareAndSet(false, true)) {
+                latency(tool, outcome).record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+}
@@ -21,14 +21,20 @@ import java.util.List;
  * This tool searches for relevant interview questions from mianshiya.com
  * based on user-provided keywords. It's particularly useful for helping
  * users prepare for technical interviews in various programming domains.
+ * 
+ * Cancelling the request a search serves interrupts its thread. The fetch itself is only
+ * aborted on a virtual thread; on a platform thread it runs to its timeout and the result is
+ * discarded.
  */
 @Component
 @Slf4j
 public class InterviewQuestionTool {
 
-    private static final String BASE_SEARCH_URL = "https://www.mianshiya.com/search/all?searchText=";
     private static final String USER_AGENT = "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36";
     
+    @Value("${ai.tools.web-scraper.base-url:https://www.mianshiya.com/search/all?searchText=}")
+    private String baseSearchUrl;
+
     @Value("${ai.tools.web-scraper.timeout-seconds:10}")
     private int timeoutSeconds;
 
@@ -56,13 +62,18 @@ public class InterviewQuestionTool {
             """)
     public String searchInterviewQuestions(@P("The technology, language, or concept to search for") String keyword) {
         log.info("Searching for interview questions with keyword: {}", keyword);
+
+        // The request this tool call serves has been cancelled; don't start the fetch
+        if (Thread.currentThread().isInterrupted()) {
+            return cancelled(keyword);
+        }
         
         List<String> questions = new ArrayList<>();
         
         try {
             // Encode keyword to handle special characters and non-ASCII characters
             String encodedKeyword = URLEncoder.encode(keyword.trim(), StandardCharsets.UTF_8);
-            String searchUrl = BASE_SEARCH_URL + encodedKeyword;
+            String searchUrl = baseSearchUrl + encodedKeyword;
             
             log.debug("Fetching interview questions from: {}", searchUrl);
             
@@ -71,6 +82,9 @@ public class InterviewQuestionTool {
                     .userAgent(USER_AGENT)
                     .timeout(timeoutSeconds * 1000) // Convert seconds to milliseconds
                     .get();
+            if (Thread.currentThread().isInterrupted()) {
+                return cancelled(keyword);
+            }
             
             // Extract question elements from the page
             Elements questionElements = document.select(".ant-table-cell > a");
@@ -103,6 +117,10 @@ public class InterviewQuestionTool {
             return result.toString();
             
         } catch (IOException e) {
+            // An interrupted virtual thread aborts the fetch with an I/O error
+            if (Thread.currentThread().isInterrupted()) {
+                return cancelled(keyword);
+            }
             log.error("Failed to fetch interview questions for keyword '{}': {}", keyword, e.getMessage(), e);
             return String.format("Unable to retrieve interview questions for '%s' due to network error: %s", 
                     keyword, e.getMessage());
@@ -111,4 +129,9 @@ public class InterviewQuestionTool {
             return String.format("An unexpected error occurred while searching for questions about '%s'. Please try again later.", keyword);
         }
     }
-}
\ No newline at end of file
+
+    private static String cancelled(String keyword) {
+        log.info("Interview question search for '{}' stopped: request was cancelled", keyword);
+        return String.format("Search for '%s' was cancelled.", keyword);
+    }
+}
@@ -0,0 +1,78 @@
+package com.aicodehelper.ai.traffic;
+
+/**
+ * Latency-driven concurrency limit, in the spirit of TCP Vegas / Netflix's gradient limiter.
+ *
+ * Two moving averages of the observed latency are kept: a fast one that tracks current
+ * conditions and a slow one that approximates the no-load baseline. While the fast
+ * average stays close to the baseline the limit grows; when Gemini slows down and the
+ * fast average rises, the ratio drops below one and the limit shrinks accordingly.
+ * Dropped calls (timeouts, upstream overload) cut the limit multiplicatively.
+ *
+ * Not thread-safe; callers serialize access.
+ */
+class AdaptiveConcurrencyLimit {
+
+    private static final double SHORT_SMOOTHING = 0.2;
+    private static final double LONG_SMOOTHING = 0.01;
+    private static final double LATENCY_TOLERANCE = 1.5;
+    private static final double LIMIT_SMOOTHING = 0.2;
+    private static final double DROP_BACKOFF = 0.9;
+
+    private final boolean adaptive;
+    private final int minLimit;
+    private final int maxLimit;
+
+    private double limit;
+    private double shortLatencyNanos;
+    private double longLatencyNanos;
+
+    AdaptiveConcurrencyLimit(boolean adaptive, int initialLimit, int minLimit, int maxLimit) {
+        this.adaptive = adaptive;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = initialLimit;
+    }
+
+    int current() {
+        return (int) limit;
+    }
+
+    /**
+     * @return Smoothed latency of recent calls in nanoseconds, or 0 before the first sample
+     */
+    double averageLatencyNanos() {
+        return shortLatencyNanos;
+    }
+
+    void onSample(long latencyNanos, int inFlight) {
+        shortLatencyNanos = shortLatencyNanos == 0 ? latencyNanos
+                : shortLatencyNanos * (1 - SHORT_SMOOTHING) + latencyNanos * SHORT_SMOOTHING;
+        longLatencyNanos = longLatencyNanos == 0 ? latencyNanos
+                : longLatencyNanos * (1 - LONG_SMOOTHING) + latencyNanos * LONG_SMOOTHING;
+
+        // Let the baseline follow quickly when latency recovers after an incident
+        if (longLatencyNanos / shortLatencyNanos > 2) {
+            longLatencyNanos *= 0.95;
+        }
+
+        // Only grow when the current limit is actually being used
+        if (!adaptive || inFlight < limit / 2) {
+            return;
+        }
+
+        double gradient = Math.max(0.5, Math.min(1.0, LATENCY_TOLERANCE * longLatencyNanos / shortLatencyNanos));
+        double target = limit * gradient + Math.sqrt(limit);
+        limit = clamp(limit * (1 - LIMIT_SMOOTHING) + target * LIMIT_SMOOTHING);
+    }
+
+    void onDropped() {
+        if (adaptive) {
+            limit = clamp(limit * DROP_BACKOFF);
+        }
+    }
+
+    private double clamp(double value) {
+        return Math.max(minLimit, Math.min(maxLimit, value));
+    }
+}
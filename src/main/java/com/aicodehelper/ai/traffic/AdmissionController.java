@@ -0,0 +1,479 @@
+package com.aicodehelper.ai.traffic;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Admission control and scheduling for upstream model calls.
+ *
+ * - Bulkhead: at most {@code limit} calls are in flight; the limit adapts to observed latency
+ * - Priority classes: interactive chat, knowledge chat and batch reports wait in a
+ *   {@link WeightedFairQueue}, so capacity is shared by weight and round-robin between clients
+ * - Class share: a class may hold at most {@code max-share} of the limit, which keeps a burst of
+ *   reports from occupying every slot that interactive streams need for their first token
+ * - Fast rejection: 429 when a class queue is full, 503 when the deadline cannot be met,
+ *   both with a Retry-After estimate, instead of letting requests pile up and time out together
+ *
+ * Classes are configured under {@code ai.scheduling.<class>} (weight, max-share, max-queue-size,
+ * timeout-seconds). Permits are released when a call terminates, errors or is cancelled. No
+ * thread is blocked while waiting for a permit.
+ */
+@Component
+@Slf4j
+public class AdmissionController {
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    @Resource
+    private Environment environment;
+
+    @Value("${ai.admission.enabled:true}")
+    private boolean enabled;
+
+    @Value("${ai.admission.adaptive:true}")
+    private boolean adaptive;
+
+    @Value("${ai.admission.initial-limit:20}")
+    private int initialLimit;
+
+    @Value("${ai.admission.min-limit:4}")
+    private int minLimit;
+
+    @Value("${ai.admission.max-limit:200}")
+    private int maxLimit;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Map<RequestPriority, SchedulingClass> classes = new EnumMap<>(RequestPriority.class);
+
+    private WeightedFairQueue<Waiter> queue;
+    private AdaptiveConcurrencyLimit limit;
+
+    @PostConstruct
+    public void init() {
+        limit = new AdaptiveConcurrencyLimit(adaptive, initialLimit, minLimit, maxLimit);
+
+        Map<RequestPriority, Integer> weights = new EnumMap<>(RequestPriority.class);
+        for (RequestPriority priority : RequestPriority.values()) {
+            SchedulingClass schedulingClass = new SchedulingClass(priority);
+            classes.put(priority, schedulingClass);
+            weights.put(priority, schedulingClass.weight);
+        }
+        queue = new WeightedFairQueue<>(weights);
+
+        Gauge.builder("ai.admission.limit", this, AdmissionController::currentLimit).register(meterRegistry);
+
+        log.info("Initializing admission control - enabled: {}, adaptive: {}, limit: {} ({}-{}), classes: {}",
+                enabled, adaptive, initialLimit, minLimit, maxLimit, classes.values());
+    }
+
+    /**
+     * @return Deadline budget of the class, applied to requests that do not carry their own
+     */
+    public Duration timeout(RequestPriority priority) {
+        return classes.get(priority).timeout;
+    }
+
+    /**
+     * Runs the call once a permit is available, within the class's default deadline.
+     */
+    public <T> Mono<T> admit(Mono<T> call, RequestPriority priority, String clientId) {
+        return admit(call, priority, clientId, timeout(priority));
+    }
+
+    /**
+     * Runs the call once a permit is available.
+     *
+     * @param call Upstream call, subscribed only after admission
+     * @param priority Scheduling class of the request
+     * @param clientId Caller identity used for fairness within the class
+     * @param timeout Time budget of the request; admission fails fast if it cannot be met
+     * @return Mono that either runs the call or fails with {@link AdmissionRejectedException}
+     */
+    public <T> Mono<T> admit(Mono<T> call, RequestPriority priority, String clientId, Duration timeout) {
+        if (!enabled) {
+            return call;
+        }
+        return Mono.usingWhen(
+                acquire(priority, clientId, timeout),
+                permit -> call.doOnSuccess(value -> permit.markSucceeded()),
+                Permit::release,
+                (permit, error) -> permit.releaseFailed(error),
+                Permit::release);
+    }
+
+    /**
+     * Runs the stream once a permit is available, within the class's default deadline.
+     */
+    public <T> Flux<T> admitStream(Flux<T> stream, RequestPriority priority, String clientId) {
+        return admitStream(stream, priority, clientId, timeout(priority));
+    }
+
+    /**
+     * Runs the stream once a permit is available and holds the permit until the stream ends.
+     * The latency sample for a stream is its time to first chunk.
+     */
+    public <T> Flux<T> admitStream(Flux<T> stream, RequestPriority priority, String clientId, Duration timeout) {
+        if (!enabled) {
+            return stream;
+        }
+        return Flux.usingWhen(
+                acquire(priority, clientId, timeout),
+                permit -> stream.doOnNext(chunk -> permit.markSucceeded()),
+                Permit::release,
+                (permit, error) -> permit.releaseFailed(error),
+                Permit::release);
+    }
+
+    private Mono<Permit> acquire(RequestPriority priority, String clientId, Duration timeout) {
+        SchedulingClass schedulingClass = classes.get(priority);
+        return Mono.create(sink -> {
+            long now = System.nanoTime();
+            long deadline = now + timeout.toNanos();
+            List<Waiter> granted;
+            Permit permit = null;
+            AdmissionRejectedException rejection = null;
+
+            lock.lock();
+            try {
+                // Waiters that can run are granted first, in fair order, so that a new arrival
+                // never takes capacity ahead of them and only its own class's queue is left to
+                // respect
+                granted = grantWaiters();
+                int position = queue.size(priority) + 1;
+                if (position == 1 && hasCapacity(schedulingClass)) {
+                    permit = grant(schedulingClass, now);
+                } else if (position > schedulingClass.maxQueueSize) {
+                    schedulingClass.queueFullRejections.increment();
+                    rejection = new AdmissionRejectedException(HttpStatus.TOO_MANY_REQUESTS,
+                            estimateWait(schedulingClass, position),
+                            "Too many concurrent AI requests, please retry later");
+                } else if (now + estimateWait(schedulingClass, position).toNanos() > deadline) {
+                    schedulingClass.deadlineRejections.increment();
+                    rejection = new AdmissionRejectedException(HttpStatus.SERVICE_UNAVAILABLE,
+                            estimateWait(schedulingClass, position),
+                            "AI service is busy and cannot answer within the request deadline");
+                } else {
+                    Waiter waiter = new Waiter(sink, schedulingClass, clientId, now);
+                    queue.add(waiter, priority, clientId);
+                    waiter.expiry = Schedulers.parallel().schedule(() -> expire(waiter), deadline - now, TimeUnit.NANOSECONDS);
+                    sink.onCancel(() -> cancel(waiter));
+                }
+            } finally {
+                lock.unlock();
+            }
+            complete(granted);
+            if (permit != null) {
+                sink.success(permit);
+            } else if (rejection != null) {
+                sink.error(rejection);
+            }
+        });
+    }
+
+    private void expire(Waiter waiter) {
+        if (!waiter.state.compareAndSet(Waiter.WAITING, Waiter.EXPIRED)) {
+            return;
+        }
+        removeFromQueue(waiter);
+        waiter.schedulingClass.expiredInQueue.increment();
+        waiter.sink.error(new AdmissionRejectedException(HttpStatus.SERVICE_UNAVAILABLE,
+                estimateWait(waiter.schedulingClass, queueDepth(waiter.schedulingClass)),
+                "AI service is busy; request deadline expired while queued"));
+    }
+
+    private void cancel(Waiter waiter) {
+        if (waiter.state.compareAndSet(Waiter.WAITING, Waiter.CANCELLED)) {
+            waiter.expiry.dispose();
+            removeFromQueue(waiter);
+        } else if (waiter.state.get() == Waiter.GRANTED) {
+            // Granted concurrently with the cancellation; the permit may never reach the subscriber
+            waiter.permit.release();
+        }
+    }
+
+    private void onRelease(Permit permit, Throwable error) {
+        boolean succeeded = permit.firstResultAt != 0;
+        long latency = permit.firstResultAt - permit.startedAt;
+        List<Waiter> granted;
+
+        lock.lock();
+        try {
+            if (succeeded) {
+                limit.onSample(latency, inFlight.get());
+            } else if (isOverloadSignal(error)) {
+                limit.onDropped();
+            }
+            inFlight.decrementAndGet();
+            permit.schedulingClass.inFlight.decrementAndGet();
+            granted = grantWaiters();
+        } finally {
+            lock.unlock();
+        }
+        complete(granted);
+    }
+
+    /**
+     * Grants queued waiters in fair order while any class with waiters has capacity.
+     * Must be called with the lock held.
+     *
+     * @return Waiters granted, to be completed once the lock is released
+     */
+    private List<Waiter> grantWaiters() {
+        List<Waiter> granted = new ArrayList<>(0);
+        Waiter waiter;
+        while (inFlight.get() < limit.current()
+                && (waiter = queue.poll(priority -> hasCapacity(classes.get(priority)))) != null) {
+            // Assigned before the state change so a racing cancellation always finds it
+            Permit next = new Permit(waiter.schedulingClass, System.nanoTime());
+            waiter.permit = next;
+            if (waiter.state.compareAndSet(Waiter.WAITING, Waiter.GRANTED)) {
+                inFlight.incrementAndGet();
+                waiter.schedulingClass.inFlight.incrementAndGet();
+                granted.add(waiter);
+            }
+        }
+        return granted;
+    }
+
+    /**
+     * Completes granted waiters. Called outside the lock: subscribers start their upstream
+     * call synchronously.
+     */
+    private void complete(List<Waiter> granted) {
+        for (Waiter waiter : granted) {
+            waiter.expiry.dispose();
+            waiter.schedulingClass.queueWait.record(waiter.permit.startedAt - waiter.enqueuedAt, TimeUnit.NANOSECONDS);
+            waiter.sink.success(waiter.permit);
+        }
+    }
+
+    private boolean hasCapacity(SchedulingClass schedulingClass) {
+        return inFlight.get() < limit.current() && schedulingClass.inFlight.get() < schedulingClass.limit();
+    }
+
+    private Permit grant(SchedulingClass schedulingClass, long now) {
+        inFlight.incrementAndGet();
+        schedulingClass.inFlight.incrementAndGet();
+        return new Permit(schedulingClass, now);
+    }
+
+    private void removeFromQueue(Waiter waiter) {
+        lock.lock();
+        try {
+            queue.remove(waiter, waiter.schedulingClass.priority, waiter.clientId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Estimates the wait of the {@code position}-th waiter of a class. A class receives its
+     * weight's share of the slots while others are queued, and all of them otherwise.
+     */
+    private Duration estimateWait(SchedulingClass schedulingClass, int position) {
+        double latency = limit.averageLatencyNanos();
+        if (latency == 0) {
+            return Duration.ZERO;
+        }
+        double share = queue.size() > queue.size(schedulingClass.priority)
+                ? (double) schedulingClass.weight / totalWeight()
+                : 1.0;
+        double slots = Math.max(1, Math.min(schedulingClass.limit(), limit.current() * share));
+        return Duration.ofNanos((long) (latency * position / slots));
+    }
+
+    private int totalWeight() {
+        int total = 0;
+        for (SchedulingClass schedulingClass : classes.values()) {
+            total += schedulingClass.weight;
+        }
+        return total;
+    }
+
+    private int queueDepth(SchedulingClass schedulingClass) {
+        lock.lock();
+        try {
+            return queue.size(schedulingClass.priority);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int currentLimit() {
+        lock.lock();
+        try {
+            return limit.current();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Counter rejectionCounter(RequestPriority priority, String reason) {
+        return Counter.builder("ai.admission.rejections")
+                .tag("class", priority.key())
+                .tag("reason", reason)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Upstream signals that mean "send less", as opposed to request-specific failures.
+     */
+    private static boolean isOverloadSignal(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof TimeoutException) {
+                return true;
+            }
+            if (cause instanceof WebClientResponseException response
+                    && (response.getStatusCode().value() == 429 || response.getStatusCode().is5xxServerError())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A caller waiting in the queue. Exactly one of grant, expiry or cancellation wins.
+     */
+    private static final class Waiter {
+
+        static final int WAITING = 0;
+        static final int GRANTED = 1;
+        static final int EXPIRED = 2;
+        static final int CANCELLED = 3;
+
+        private final MonoSink<Permit> sink;
+        private final SchedulingClass schedulingClass;
+        private final String clientId;
+        private final long enqueuedAt;
+        private final AtomicInteger state = new AtomicInteger(WAITING);
+        private volatile Disposable expiry;
+        private volatile Permit permit;
+
+        private Waiter(MonoSink<Permit> sink, SchedulingClass schedulingClass, String clientId, long enqueuedAt) {
+            this.sink = sink;
+            this.schedulingClass = schedulingClass;
+            this.clientId = clientId;
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+
+    /**
+     * Configuration, counters and meters of one priority class.
+     */
+    private final class SchedulingClass {
+
+        private final RequestPriority priority;
+        private final int weight;
+        private final double maxShare;
+        private final int maxQueueSize;
+        private final Duration timeout;
+        private final AtomicInteger inFlight = new AtomicInteger();
+
+        private final Counter queueFullRejections;
+        private final Counter deadlineRejections;
+        private final Counter expiredInQueue;
+        private final Timer queueWait;
+
+        private SchedulingClass(RequestPriority priority) {
+            String prefix = "ai.scheduling." + priority.key() + ".";
+            this.priority = priority;
+            this.weight = environment.getProperty(prefix + "weight", Integer.class, priority.defaultWeight());
+            this.maxShare = environment.getProperty(prefix + "max-share", Double.class, priority.defaultMaxShare());
+            this.maxQueueSize = environment.getProperty(prefix + "max-queue-size", Integer.class,
+                    priority.defaultMaxQueueSize());
+            this.timeout = Duration.ofSeconds(environment.getProperty(prefix + "timeout-seconds", Long.class,
+                    priority.defaultTimeout().toSeconds()));
+
+            this.queueFullRejections = rejectionCounter(priority, "queue_full");
+            this.deadlineRejections = rejectionCounter(priority, "deadline");
+            this.expiredInQueue = rejectionCounter(priority, "expired_in_queue");
+            this.queueWait = Timer.builder("ai.admission.queue.wait")
+                    .tag("class", priority.key())
+                    .register(meterRegistry);
+            Gauge.builder("ai.admission.queue.depth", this, AdmissionController.this::queueDepth)
+                    .tag("class", priority.key())
+                    .register(meterRegistry);
+            Gauge.builder("ai.admission.in-flight", inFlight, AtomicInteger::get)
+                    .tag("class", priority.key())
+                    .register(meterRegistry);
+        }
+
+        /**
+         * @return Slots this class may hold at the current limit, at least one
+         */
+        int limit() {
+            return Math.max(1, (int) Math.ceil(limit.current() * maxShare));
+        }
+
+        @Override
+        public String toString() {
+            return priority.key() + "(weight=" + weight + ", max-share=" + maxShare
+                    + ", max-queue=" + maxQueueSize + ", timeout=" + timeout.toSeconds() + "s)";
+        }
+    }
+
+    /**
+     * Right to run one upstream call. Released exactly once.
+     */
+    private final class Permit {
+
+        private final SchedulingClass schedulingClass;
+        private final long startedAt;
+        private final AtomicBoolean released = new AtomicBoolean();
+        private volatile long firstResultAt;
+
+        private Permit(SchedulingClass schedulingClass, long startedAt) {
+            this.schedulingClass = schedulingClass;
+            this.startedAt = startedAt;
+        }
+
+        void markSucceeded() {
+            if (firstResultAt == 0) {
+                firstResultAt = System.nanoTime();
+            }
+        }
+
+        Mono<Void> release() {
+            if (released.compareAndSet(false, true)) {
+                onRelease(this, null);
+            }
+            return Mono.empty();
+        }
+
+        Mono<Void> releaseFailed(Throwable error) {
+            firstResultAt = 0;
+            if (released.compareAndSet(false, true)) {
+                onRelease(this, error);
+            }
+            return Mono.empty();
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.aicodehelper.ai.traffic;
+
+import lombok.Getter;
+import org.springframework.http.HttpStatus;
+
+import java.time.Duration;
+
+/**
+ * Thrown when a model call is refused by admission control instead of being queued.
+ *
+ * Carries the HTTP status the caller should answer with (429 when the wait queue is
+ * full, 503 when the request's deadline cannot be met) and a Retry-After hint.
+ */
+@Getter
+public class AdmissionRejectedException extends RuntimeException {
+
+    private final HttpStatus status;
+    private final Duration retryAfter;
+
+    public AdmissionRejectedException(HttpStatus status, Duration retryAfter, String message) {
+        super(message);
+        this.status = status;
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * @return Retry-After header value in whole seconds, at least one
+     */
+    public long getRetryAfterSeconds() {
+        return Math.max(1, (retryAfter.toMillis() + 999) / 1000);
+    }
+}
@@ -0,0 +1,98 @@
+package com.aicodehelper.ai.traffic;
+
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Flux;
+
+import java.util.Optional;
+import java.util.function.Supplier;
+
+/**
+ * Caller of the model calls started on the current thread.
+ *
+ * Calls made through LangChain4j {@code AiServices} reach the chat model adapters without any
+ * way to pass the caller along. LangChain4j starts them synchronously on the invoking thread, so
+ * the controller runs the service invocation inside {@link #run} and the adapters read the
+ * context from there. Streaming service methods only start the call when their Flux is
+ * subscribed, so those are subscribed inside the context through {@link #stream}:
+ *
+ * - Priority and client identity keep admission control fair between callers
+ * - Streaming calls register their subscription, so {@link #cancel()} stops generation
+ *   upstream when the caller goes away
+ *
+ * A context belongs to one request, so completed calls are not unregistered. Without a
+ * context, calls are interactive requests of an anonymous client.
+ */
+public final class CallerContext {
+
+    private static final ThreadLocal<CallerContext> CURRENT = new ThreadLocal<>();
+
+    private final RequestPriority priority;
+    private final String clientId;
+    private final Disposable.Composite calls = Disposables.composite();
+
+    public CallerContext(RequestPriority priority, String clientId) {
+        this.priority = priority;
+        this.clientId = clientId;
+    }
+
+    /**
+     * @return Context of the calls started on this thread, if any
+     */
+    public static Optional<CallerContext> current() {
+        return Optional.ofNullable(CURRENT.get());
+    }
+
+    /**
+     * Runs an action with this context as the current one.
+     */
+    public <T> T run(Supplier<T> action) {
+        CallerContext previous = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            return action.get();
+        } finally {
+            if (previous != null) {
+                CURRENT.set(previous);
+            } else {
+                CURRENT.remove();
+            }
+        }
+    }
+
+    /**
+     * Invokes a stream source and subscribes to it with this context as the current one.
+     *
+     * Cancelling the returned stream cancels this context, which stops the calls the stream
+     * started upstream. Each subscription invokes the source again, so it is meant to be
+     * subscribed once.
+     */
+    public <T> Flux<T> stream(Supplier<Flux<T>> source) {
+        return Flux.create(sink -> {
+            sink.onCancel(this::cancel);
+            track(run(() -> source.get().subscribe(sink::next, sink::error, sink::complete)));
+        });
+    }
+
+    public RequestPriority priority() {
+        return priority;
+    }
+
+    public String clientId() {
+        return clientId;
+    }
+
+    /**
+     * Registers an in-flight call. A call registered after {@link #cancel()} is disposed at once.
+     */
+    public void track(Disposable call) {
+        calls.add(call);
+    }
+
+    /**
+     * Cancels the in-flight calls and any registered later.
+     */
+    public void cancel() {
+        calls.dispose();
+    }
+}
@@ -0,0 +1,138 @@
+package com.aicodehelper.ai.traffic;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Single-flight deduplication of identical concurrent model calls.
+ *
+ * The first caller for a key (the leader) starts the upstream call; callers that
+ * arrive while it is still in flight (joiners) subscribe to the same publisher and
+ * receive the same result. For streams, a joiner first receives the chunks that
+ * were already produced and then the live tail.
+ *
+ * The upstream call is cancelled only when every subscriber has gone away, and the
+ * key is released as soon as the call terminates, so finished results are never
+ * served from here (that is the response cache's job).
+ */
+@Component
+@Slf4j
+public class RequestCoalescer {
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    @Value("${ai.coalescing.enabled:true}")
+    private boolean enabled;
+
+    private final ConcurrentHashMap<String, Mono<?>> inFlightCalls = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Flux<String>> inFlightStreams = new ConcurrentHashMap<>();
+
+    private Counter unaryLeaders;
+    private Counter unaryJoiners;
+    private Counter streamLeaders;
+    private Counter streamJoiners;
+
+    @PostConstruct
+    public void init() {
+        log.info("Initializing request coalescing - enabled: {}", enabled);
+
+        unaryLeaders = requestCounter("unary", "leader");
+        unaryJoiners = requestCounter("unary", "joiner");
+        streamLeaders = requestCounter("stream", "leader");
+        streamJoiners = requestCounter("stream", "joiner");
+
+        Gauge.builder("ai.coalescing.in-flight", inFlightCalls, ConcurrentHashMap::size).tag("mode", "unary").register(meterRegistry);
+        Gauge.builder("ai.coalescing.in-flight", inFlightStreams, ConcurrentHashMap::size).tag("mode", "stream").register(meterRegistry);
+    }
+
+    /**
+     * Joins the in-flight call for the key, or starts it if there is none.
+     *
+     * @param key Effective request identity (prompt, model and generation config)
+     * @param upstream Supplier of the upstream call, invoked only by the leader
+     * @return Mono shared by all concurrent callers with the same key
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Mono<T> join(String key, Supplier<Mono<T>> upstream) {
+        if (!enabled) {
+            return upstream.get();
+        }
+        return Mono.defer(() -> {
+            AtomicReference<Mono<T>> created = new AtomicReference<>();
+            // Keys identify one kind of call, so all callers of a key expect the same result type
+            Mono<T> shared = (Mono<T>) inFlightCalls.computeIfAbsent(key, k -> {
+                AtomicReference<Mono<T>> self = new AtomicReference<>();
+                Mono<T> call = upstream.get()
+                        .doFinally(signal -> inFlightCalls.remove(k, self.get()))
+                        .share();
+                self.set(call);
+                created.set(call);
+                return call;
+            });
+
+            if (shared == created.get()) {
+                unaryLeaders.increment();
+            } else {
+                unaryJoiners.increment();
+                log.debug("Joined in-flight model call for key hash {}", key.hashCode());
+            }
+            return shared;
+        });
+    }
+
+    /**
+     * Joins the in-flight stream for the key, or starts it if there is none.
+     *
+     * Chunks are replayed to late joiners, so every subscriber sees the complete answer.
+     *
+     * @param key Effective request identity (prompt, model and generation config)
+     * @param upstream Supplier of the upstream stream, invoked only by the leader
+     * @return Flux shared by all concurrent callers with the same key
+     */
+    public Flux<String> joinStream(String key, Supplier<Flux<String>> upstream) {
+        if (!enabled) {
+            return upstream.get();
+        }
+        return Flux.defer(() -> {
+            AtomicReference<Flux<String>> created = new AtomicReference<>();
+            Flux<String> shared = inFlightStreams.computeIfAbsent(key, k -> {
+                AtomicReference<Flux<String>> self = new AtomicReference<>();
+                Flux<String> stream = upstream.get()
+                        .doFinally(signal -> inFlightStreams.remove(k, self.get()))
+                        .replay()
+                        .refCount();
+                self.set(stream);
+                created.set(stream);
+                return stream;
+            });
+
+            if (shared == created.get()) {
+                streamLeaders.increment();
+            } else {
+                streamJoiners.increment();
+                log.debug("Joined in-flight model stream for key hash {}", key.hashCode());
+            }
+            return shared;
+        });
+    }
+
+    private Counter requestCounter(String mode, String role) {
+        return Counter.builder("ai.coalescing.requests")
+                .tag("mode", mode)
+                .tag("role", role)
+                .register(meterRegistry);
+    }
+}
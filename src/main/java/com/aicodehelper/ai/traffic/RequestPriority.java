@@ -0,0 +1,59 @@
+package com.aicodehelper.ai.traffic;
+
+import java.time.Duration;
+
+/**
+ * Scheduling classes for upstream model calls.
+ *
+ * Each class is configured under {@code ai.scheduling.<key>}; the values here are the
+ * defaults used when a property is absent. Declaration order breaks ties between
+ * classes with equal virtual time, so more latency-sensitive classes come first.
+ */
+public enum RequestPriority {
+
+    /** Streaming chat, where users watch time to first token */
+    INTERACTIVE("interactive", 8, 1.0, 100, Duration.ofSeconds(30)),
+
+    /** Knowledge base questions answered in one response */
+    KNOWLEDGE("knowledge", 4, 0.8, 100, Duration.ofSeconds(60)),
+
+    /** Learning reports and other long prompts with large outputs */
+    BATCH("batch", 1, 0.5, 20, Duration.ofSeconds(120));
+
+    private final String key;
+    private final int defaultWeight;
+    private final double defaultMaxShare;
+    private final int defaultMaxQueueSize;
+    private final Duration defaultTimeout;
+
+    RequestPriority(String key, int defaultWeight, double defaultMaxShare, int defaultMaxQueueSize, Duration defaultTimeout) {
+        this.key = key;
+        this.defaultWeight = defaultWeight;
+        this.defaultMaxShare = defaultMaxShare;
+        this.defaultMaxQueueSize = defaultMaxQueueSize;
+        this.defaultTimeout = defaultTimeout;
+    }
+
+    /**
+     * @return Name used in configuration keys and metric tags
+     */
+    public String key() {
+        return key;
+    }
+
+    int defaultWeight() {
+        return defaultWeight;
+    }
+
+    double defaultMaxShare() {
+        return defaultMaxShare;
+    }
+
+    int defaultMaxQueueSize() {
+        return defaultMaxQueueSize;
+    }
+
+    Duration defaultTimeout() {
+        return defaultTimeout;
+    }
+}
@@ -0,0 +1,125 @@
+package com.aicodehelper.ai.traffic;
+
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Wait queue with weighted fair queuing across priority classes and round-robin
+ * fairness between clients within a class.
+ *
+ * Classes are served by stride scheduling: every dequeue advances the class's virtual
+ * time by {@code 1 / weight}, and the eligible class with the smallest virtual time goes
+ * next. A class that was idle re-enters at the current virtual time, so it cannot bank
+ * credit while empty and then starve the others. Within a class each client has its own
+ * FIFO, and clients take turns, so one client submitting many reports does not delay
+ * another client's single report.
+ *
+ * Not thread-safe; callers serialize access.
+ */
+class WeightedFairQueue<E> {
+
+    private final Map<RequestPriority, ClassQueue<E>> classes = new EnumMap<>(RequestPriority.class);
+    private double virtualTime;
+    private int size;
+
+    WeightedFairQueue(Map<RequestPriority, Integer> weights) {
+        for (RequestPriority priority : RequestPriority.values()) {
+            classes.put(priority, new ClassQueue<>(Math.max(1, weights.getOrDefault(priority, 1))));
+        }
+    }
+
+    void add(E element, RequestPriority priority, String clientId) {
+        ClassQueue<E> queue = classes.get(priority);
+        if (queue.size == 0) {
+            queue.pass = Math.max(queue.pass, virtualTime);
+        }
+        queue.add(clientId, element);
+        size++;
+    }
+
+    /**
+     * Removes the next element from the classes accepted by {@code eligible}.
+     *
+     * @return Next element, or null if no eligible class has waiters
+     */
+    E poll(Predicate<RequestPriority> eligible) {
+        RequestPriority next = null;
+        for (Map.Entry<RequestPriority, ClassQueue<E>> entry : classes.entrySet()) {
+            ClassQueue<E> queue = entry.getValue();
+            if (queue.size > 0 && eligible.test(entry.getKey())
+                    && (next == null || queue.pass < classes.get(next).pass)) {
+                next = entry.getKey();
+            }
+        }
+        if (next == null) {
+            return null;
+        }
+        ClassQueue<E> queue = classes.get(next);
+        virtualTime = queue.pass;
+        queue.pass += 1.0 / queue.weight;
+        size--;
+        return queue.poll();
+    }
+
+    boolean remove(E element, RequestPriority priority, String clientId) {
+        if (classes.get(priority).remove(clientId, element)) {
+            size--;
+            return true;
+        }
+        return false;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int size(RequestPriority priority) {
+        return classes.get(priority).size;
+    }
+
+    private static final class ClassQueue<E> {
+
+        private final int weight;
+        // Insertion order is the round-robin order; a served client moves to the back
+        private final LinkedHashMap<String, ArrayDeque<E>> clients = new LinkedHashMap<>();
+        private double pass;
+        private int size;
+
+        private ClassQueue(int weight) {
+            this.weight = weight;
+        }
+
+        void add(String clientId, E element) {
+            clients.computeIfAbsent(clientId, id -> new ArrayDeque<>()).addLast(element);
+            size++;
+        }
+
+        E poll() {
+            Iterator<Map.Entry<String, ArrayDeque<E>>> first = clients.entrySet().iterator();
+            Map.Entry<String, ArrayDeque<E>> entry = first.next();
+            first.remove();
+            E element = entry.getValue().pollFirst();
+            if (!entry.getValue().isEmpty()) {
+                clients.put(entry.getKey(), entry.getValue());
+            }
+            size--;
+            return element;
+        }
+
+        boolean remove(String clientId, E element) {
+            ArrayDeque<E> queue = clients.get(clientId);
+            if (queue == null || !queue.remove(element)) {
+                return false;
+            }
+            if (queue.isEmpty()) {
+                clients.remove(clientId);
+            }
+            size--;
+            return true;
+        }
+    }
+}
@@ -2,6 +2,7 @@ package com.aicodehelper.config;
 
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.servlet.config.annotation.CorsRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
@@ -14,6 +15,7 @@ import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
  * Includes security-conscious defaults while maintaining development flexibility.
  */
 @Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 @Slf4j
 public class CorsConfig implements WebMvcConfigurer {
 
@@ -37,7 +39,7 @@ public class CorsConfig implements WebMvcConfigurer {
                 // Allow all headers for flexibility
                 .allowedHeaders("*")
                 // Expose necessary headers for frontend
-                .exposedHeaders("Content-Type", "X-Requested-With", "Accept", "Authorization", "Cache-Control")
+                .exposedHeaders("Content-Type", "X-Requested-With", "Accept", "Authorization", "Cache-Control", "Retry-After")
                 // Cache preflight requests
                 .maxAge(maxAge);
                 
@@ -0,0 +1,111 @@
+package com.aicodehelper.config;
+
+import io.netty.channel.ChannelOption;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
+
+/**
+ * Gemini HTTP Client Configuration
+ *
+ * Builds the WebClient used for Gemini calls on a dedicated reactor-netty
+ * connection pool instead of the shared default one, so that pool size,
+ * keep-alive and queueing for a connection can be tuned under {@code google-ai.http}.
+ *
+ * - HTTP/2 is negotiated via ALPN for https endpoints, multiplexing concurrent
+ *   calls over few connections; plain http endpoints stay on HTTP/1.1
+ * - Pool metrics (active, idle, pending, total connections) are published to
+ *   Micrometer as {@code reactor.netty.connection.provider.*} with {@code name=gemini}
+ */
+@Configuration
+@Slf4j
+public class GeminiHttpClientConfig {
+
+    /** Pool name, used as the {@code name} tag of the pool metrics */
+    public static final String POOL_NAME = "gemini";
+
+    @Value("${google-ai.base-url:https://generativelanguage.googleapis.com/v1beta/models/}")
+    private String baseUrl;
+
+    @Value("${google-ai.http.max-connections:100}")
+    private int maxConnections;
+
+    @Value("${google-ai.http.pending-acquire-max-count:500}")
+    private int pendingAcquireMaxCount;
+
+    @Value("${google-ai.http.pending-acquire-timeout-ms:5000}")
+    private long pendingAcquireTimeoutMillis;
+
+    @Value("${google-ai.http.max-idle-time-seconds:30}")
+    private long maxIdleTimeSeconds;
+
+    @Value("${google-ai.http.max-life-time-seconds:300}")
+    private long maxLifeTimeSeconds;
+
+    @Value("${google-ai.http.evict-in-background-seconds:30}")
+    private long evictInBackgroundSeconds;
+
+    @Value("${google-ai.http.connect-timeout-ms:5000}")
+    private int connectTimeoutMillis;
+
+    @Value("${google-ai.http.http2:true}")
+    private boolean http2;
+
+    /**
+     * Connection pool for Gemini calls; closed with the application context.
+     *
+     * @return Configured connection provider
+     */
+    @Bean(destroyMethod = "dispose")
+    public ConnectionProvider geminiConnectionProvider() {
+        log.info("Configuring Gemini connection pool - max connections: {}, pending acquire: {} / {}ms, idle: {}s, life: {}s",
+                maxConnections, pendingAcquireMaxCount, pendingAcquireTimeoutMillis, maxIdleTimeSeconds, maxLifeTimeSeconds);
+
+        return ConnectionProvider.builder(POOL_NAME)
+                .maxConnections(maxConnections)
+                .pendingAcquireMaxCount(pendingAcquireMaxCount)
+                .pendingAcquireTimeout(Duration.ofMillis(pendingAcquireTimeoutMillis))
+                .maxIdleTime(Duration.ofSeconds(maxIdleTimeSeconds))
+                .maxLifeTime(Duration.ofSeconds(maxLifeTimeSeconds))
+                .evictInBackground(Duration.ofSeconds(evictInBackgroundSeconds))
+                // Most recently used first keeps a warm core of connections under light load
+                .lifo()
+                .metrics(true)
+                .build();
+    }
+
+    /**
+     * WebClient for the Gemini REST API.
+     *
+     * @param geminiConnectionProvider Pool from {@link #geminiConnectionProvider()}
+     * @return WebClient bound to the pool
+     */
+    @Bean
+    public WebClient geminiWebClient(ConnectionProvider geminiConnectionProvider) {
+        boolean useHttp2 = http2 && baseUrl.startsWith("https:");
+        log.info("Configuring Gemini WebClient - base URL: {}, HTTP/2: {}", baseUrl, useHttp2);
+
+        HttpClient httpClient = HttpClient.create(geminiConnectionProvider)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectTimeoutMillis)
+                .keepAlive(true)
+                .compress(true)
+                .metrics(true, uri -> POOL_NAME);
+        if (useHttp2) {
+            // ALPN picks h2 when the server offers it and falls back to HTTP/1.1 otherwise
+            httpClient = httpClient.protocol(HttpProtocol.H2, HttpProtocol.HTTP11)
+                    .secure();
+        }
+
+        return WebClient.builder()
+                .clientConnector(new ReactorClientHttpConnector(httpClient))
+                .build();
+    }
+}
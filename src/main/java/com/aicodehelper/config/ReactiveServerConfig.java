@@ -0,0 +1,57 @@
+package com.aicodehelper.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.web.embedded.netty.NettyReactiveWebServerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.reactive.config.CorsRegistry;
+import org.springframework.web.reactive.config.WebFluxConfigurer;
+
+/**
+ * Reactive Server Configuration
+ * 
+ * Active only when the application runs as a reactive web application
+ * (see the {@code reactive} profile in application.yml). In this mode requests
+ * are served by Netty's event loop, so in-flight model calls cost no threads.
+ * 
+ * Both Tomcat and Netty are on the classpath, and Spring Boot prefers Tomcat
+ * for reactive applications too, so the Netty factory is declared explicitly.
+ */
+@Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+@Slf4j
+public class ReactiveServerConfig implements WebFluxConfigurer {
+
+    @Value("${cors.allowed-origins:http://localhost:3000,http://localhost:5173,http://localhost:8080}")
+    private String[] allowedOrigins;
+
+    @Value("${cors.max-age:3600}")
+    private long maxAge;
+
+    /**
+     * Selects Netty as the embedded reactive server.
+     * 
+     * @return Netty web server factory
+     */
+    @Bean
+    public NettyReactiveWebServerFactory nettyReactiveWebServerFactory() {
+        log.info("Starting in reactive mode on Netty");
+        return new NettyReactiveWebServerFactory();
+    }
+
+    @Override
+    public void addCorsMappings(CorsRegistry registry) {
+        log.info("Configuring reactive CORS with allowed origins: {}", (Object) allowedOrigins);
+        
+        // Mirrors the servlet CorsConfig so the frontend behaves the same in both modes
+        registry.addMapping("/**")
+                .allowCredentials(true)
+                .allowedOriginPatterns(allowedOrigins)
+                .allowedMethods("GET", "POST", "PUT", "DELETE", "OPTIONS", "PATCH")
+                .allowedHeaders("*")
+                .exposedHeaders("Content-Type", "X-Requested-With", "Accept", "Authorization", "Cache-Control", "Retry-After")
+                .maxAge(maxAge);
+    }
+}
@@ -1,16 +1,31 @@
 package com.aicodehelper.controller;
 
 import com.aicodehelper.ai.AiCodeHelperService;
+import com.aicodehelper.ai.resilience.CircuitBreaker;
+import com.aicodehelper.ai.resilience.ModelCallResilience;
+import com.aicodehelper.ai.routing.ModelRouter;
+import com.aicodehelper.ai.streaming.SseFrameCoalescer;
+import com.aicodehelper.ai.streaming.StreamReplayBuffer;
+import com.aicodehelper.ai.traffic.AdmissionRejectedException;
+import com.aicodehelper.ai.traffic.CallerContext;
+import com.aicodehelper.ai.traffic.RequestPriority;
 import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.*;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 import org.springframework.http.ResponseEntity;
 import com.aicodehelper.ai.model.GoogleAiStudioClient;
+import java.time.Duration;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
 
 /**
  * REST Controller for AI-powered programming assistance.
@@ -33,104 +48,146 @@ public class AiController {
     @Resource
     private GoogleAiStudioClient googleAiStudioClient;
 
+    @Resource
+    private SseFrameCoalescer sseFrameCoalescer;
+
+    @Resource
+    private StreamReplayBuffer streamReplayBuffer;
+
+    @Resource
+    private ModelCallResilience modelCallResilience;
+
+    @Resource
+    private ModelRouter modelRouter;
+
+    /** Optional header identifying the caller for fair scheduling between clients */
+    private static final String CLIENT_ID_HEADER = "X-Client-Id";
+
+    /** Longest accepted session ID, which keys the chat memory and its on-disk log */
+    private static final int MAX_SESSION_ID_LENGTH = 128;
+
     /**
      * Streaming chat endpoint with session memory.
      * 
      * Provides real-time AI responses using Server-Sent Events (SSE).
-     * Each session maintains its own conversation history.
+     * Each session maintains its own conversation history, so clients must send a session ID
+     * of their own, such as a random UUID, rather than share one. The answer is generated by
+     * the AI service, so session memory, retrieval, tools and input guardrails apply,
+     * while chunks are still forwarded as Gemini emits them.
+     * 
+     * Every event carries an ID. A client that loses the connection reconnects with the
+     * same requestId and a {@code Last-Event-ID} header and receives the rest of the
+     * answer from the replay buffer instead of a new generation. If that answer is no longer
+     * buffered, the reconnect gets a single error event and nothing is generated: a new answer
+     * would not continue the text the client already shows, and would add the message to the
+     * session memory a second time.
      * 
-     * @param sessionId Unique identifier for conversation session
+     * @param sessionId Client-chosen identifier of the conversation session, at most 128 characters
      * @param message User's input message
+     * @param requestId Client-chosen ID of this answer, needed to resume it
+     * @param lastEventId ID of the last event received before a reconnect
+     * @param clientId Caller identity for fair scheduling; defaults to the session
      * @return Flux stream of response chunks
      */
     @GetMapping(value = "/chat/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
     public Flux<ServerSentEvent<String>> streamChat(
-            @RequestParam(name = "memoryId", defaultValue = "1") int sessionId,
-            @RequestParam String message) {
+            @RequestParam(name = "memoryId") String sessionId,
+            @RequestParam String message,
+            @RequestParam(required = false) String requestId,
+            @RequestHeader(name = "Last-Event-ID", required = false) String lastEventId,
+            @RequestHeader(name = CLIENT_ID_HEADER, required = false) String clientId) {
         
+        if (sessionId.isBlank() || sessionId.length() > MAX_SESSION_ID_LENGTH) {
+            return Flux.just(ServerSentEvent.<String>builder()
+                    .event("error")
+                    .data("Error: memoryId must be between 1 and " + MAX_SESSION_ID_LENGTH + " characters")
+                    .build());
+        }
         log.info("Starting streaming chat for session: {} with message length: {}", sessionId, message.length());
         
-        try {
-            // Use direct Google AI Studio client for streaming
-            String response = googleAiStudioClient.generateContent(message);
-            
-            // Preserve line structure while streaming - split by words but maintain line breaks
-            String[] lines = response.split("\n");
-            java.util.List<String> chunks = new java.util.ArrayList<>();
-            
-            for (String line : lines) {
-                if (line.trim().isEmpty()) {
-                    // Preserve empty lines
-                    chunks.add("\n");
-                } else {
-                    // Split line into words but add line break at the end
-                    String[] words = line.split(" ");
-                    for (int i = 0; i < words.length; i++) {
-                        String word = words[i];
-                        if (i < words.length - 1) {
-                            chunks.add(word + " ");
-                        } else {
-                            // Last word in line gets the line break
-                            chunks.add(word + "\n");
-                        }
-                    }
-                }
-            }
-            
-            return Flux.range(0, chunks.size())
-                    .delayElements(java.time.Duration.ofMillis(50))
-                    .map(index -> {
-                        String chunk = chunks.get(index);
-                        log.debug("Sending chunk {}: '{}'", index, chunk.replace("\n", "\\n"));
-                        
-                        // SSE requires newlines to be properly escaped
-                        String escapedChunk = chunk.replace("\n", "\\n");
-                        
-                        return ServerSentEvent.<String>builder()
-                                .data(escapedChunk)
-                                .build();
-                    })
-                    .doOnComplete(() -> log.info("Streaming chat completed for session: {}", sessionId))
-                    .doOnError(error -> log.error("Streaming chat error for session {}: {}", sessionId, error.getMessage()));
-                    
-        } catch (Exception e) {
-            log.error("Error in streaming chat for session {}: {}", sessionId, e.getMessage(), e);
+        String client = clientId != null ? clientId : "session-" + sessionId;
+        String streamId = requestId != null ? requestId : UUID.randomUUID().toString();
+        Optional<Flux<StreamReplayBuffer.StreamFrame>> resumed = streamReplayBuffer.resume(sessionId, lastEventId);
+        if (resumed.isEmpty() && lastEventId != null) {
+            log.warn("Stream of session {} cannot be resumed after event {}, it is no longer buffered", sessionId, lastEventId);
             return Flux.just(ServerSentEvent.<String>builder()
-                    .data("Error: " + e.getMessage())
+                    .event("error")
+                    .data("Error: The answer can no longer be resumed, please send the message again")
                     .build());
         }
+        // Small partial candidates are merged into fewer frames. Newlines need no escaping: the
+        // SSE encoder writes multi-line text as consecutive data: lines of the same event
+        return resumed
+                .orElseGet(() -> streamReplayBuffer.start(sessionId, streamId, message, () -> sseFrameCoalescer.coalesce(
+                        serviceStream(sessionId, message, client))))
+                .map(frame -> ServerSentEvent.<String>builder()
+                        .id(frame.id())
+                        .data(frame.text())
+                        .build())
+                .doOnComplete(() -> log.info("Streaming chat completed for session: {}", sessionId))
+                .onErrorResume(AdmissionRejectedException.class, rejected -> {
+                    log.warn("Streaming chat rejected for session {}: {}", sessionId, rejected.getMessage());
+                    return Flux.just(ServerSentEvent.<String>builder()
+                            .event("error")
+                            .retry(Duration.ofSeconds(rejected.getRetryAfterSeconds()))
+                            .data("Error: " + rejected.getMessage())
+                            .build());
+                })
+                .onErrorResume(error -> {
+                    log.error("Streaming chat error for session {}: {}", sessionId, error.getMessage(), error);
+                    return Flux.just(ServerSentEvent.<String>builder()
+                            .data("Error: " + error.getMessage())
+                            .build());
+                });
+    }
+
+    /**
+     * Streams an answer from the AI service on behalf of a client.
+     * 
+     * The service retrieves knowledge base content and loads the session memory when invoked,
+     * and starts generating when its stream is subscribed. Both happen on a bounded elastic
+     * thread within the caller's context, which also cancels the upstream call when the
+     * stream is cancelled.
+     */
+    private Flux<String> serviceStream(String sessionId, String message, String client) {
+        return Flux.defer(() -> new CallerContext(RequestPriority.INTERACTIVE, client)
+                        .stream(() -> aiCodeHelperService.chatStream(sessionId, message)))
+                .subscribeOn(Schedulers.boundedElastic());
     }
 
     /**
      * Simple chat endpoint without streaming.
      * 
+     * The response is deferred until the model answers, so no request thread is
+     * held while the upstream call is in flight.
+     * 
      * @param message User's input message
      * @return Complete AI response
      */
     @PostMapping("/chat")
-    public ResponseEntity<Map<String, Object>> chat(@RequestBody Map<String, String> request) {
-        try {
-            String message = request.get("message");
-            if (message == null || message.trim().isEmpty()) {
-                return ResponseEntity.badRequest()
-                        .body(Map.of("error", "Message is required"));
-            }
-            
-            log.info("Processing simple chat request with message length: {}", message.length());
-            
-            // Use direct Google AI Studio client instead of complex service
-            String response = googleAiStudioClient.generateContent(message);
-            
-            return ResponseEntity.ok(Map.of(
-                    "response", response,
-                    "model", "Google AI Studio - Gemini 1.5 Flash"
-            ));
-            
-        } catch (Exception e) {
-            log.error("Error in chat: {}", e.getMessage(), e);
-            return ResponseEntity.internalServerError()
-                    .body(Map.of("error", "Failed to get AI response: " + e.getMessage()));
+    public Mono<ResponseEntity<Map<String, Object>>> chat(
+            @RequestBody Map<String, String> request,
+            @RequestHeader(name = CLIENT_ID_HEADER, required = false) String clientId) {
+        String message = request.get("message");
+        if (message == null || message.trim().isEmpty()) {
+            return Mono.just(ResponseEntity.badRequest()
+                    .body(Map.of("error", "Message is required")));
         }
+        
+        log.info("Processing simple chat request with message length: {}", message.length());
+        
+        // Use direct Google AI Studio client instead of complex service
+        return googleAiStudioClient.generate(message, RequestPriority.INTERACTIVE, clientOrAnonymous(clientId))
+                .map(content -> ResponseEntity.ok(Map.<String, Object>of(
+                        "response", content.text(),
+                        "model", content.model()
+                )))
+                .onErrorResume(AdmissionRejectedException.class, AiController::rejected)
+                .onErrorResume(e -> {
+                    log.error("Error in chat: {}", e.getMessage(), e);
+                    return Mono.just(ResponseEntity.internalServerError()
+                            .body(Map.of("error", "Failed to get AI response: " + e.getMessage())));
+                });
     }
 
 
@@ -142,30 +199,30 @@ public class AiController {
      * @return AI response enhanced with knowledge base information
      */
     @PostMapping("/chat/knowledge")
-    public ResponseEntity<Map<String, Object>> chatWithKnowledgeBase(@RequestBody Map<String, String> request) {
-        try {
-            String message = request.get("message");
-            if (message == null || message.trim().isEmpty()) {
-                return ResponseEntity.badRequest()
-                        .body(Map.of("error", "Message is required"));
-            }
-            
-            log.info("Processing knowledge base query with message length: {}", message.length());
-            
-            // Use direct Google AI Studio client with knowledge base context
-            String knowledgePrompt = "Based on programming best practices and knowledge base, please answer: " + message;
-            String response = googleAiStudioClient.generateContent(knowledgePrompt);
-            
-            return ResponseEntity.ok(Map.of(
-                    "content", response,
-                    "sources", List.of() // Empty sources for now
-            ));
-            
-        } catch (Exception e) {
-            log.error("Error in knowledge base chat: {}", e.getMessage(), e);
-            return ResponseEntity.internalServerError()
-                    .body(Map.of("error", "Failed to search knowledge base: " + e.getMessage()));
+    public Mono<ResponseEntity<Map<String, Object>>> chatWithKnowledgeBase(
+            @RequestBody Map<String, String> request,
+            @RequestHeader(name = CLIENT_ID_HEADER, required = false) String clientId) {
+        String message = request.get("message");
+        if (message == null || message.trim().isEmpty()) {
+            return Mono.just(ResponseEntity.badRequest()
+                    .body(Map.of("error", "Message is required")));
         }
+        
+        log.info("Processing knowledge base query with message length: {}", message.length());
+        
+        // Use direct Google AI Studio client with knowledge base context
+        String knowledgePrompt = "Based on programming best practices and knowledge base, please answer: " + message;
+        return googleAiStudioClient.generateContentAsync(knowledgePrompt, RequestPriority.KNOWLEDGE, clientOrAnonymous(clientId))
+                .map(response -> ResponseEntity.ok(Map.<String, Object>of(
+                        "content", response,
+                        "sources", List.of() // Empty sources for now
+                )))
+                .onErrorResume(AdmissionRejectedException.class, AiController::rejected)
+                .onErrorResume(e -> {
+                    log.error("Error in knowledge base chat: {}", e.getMessage(), e);
+                    return Mono.just(ResponseEntity.internalServerError()
+                            .body(Map.of("error", "Failed to search knowledge base: " + e.getMessage())));
+                });
     }
 
     /**
@@ -175,45 +232,83 @@ public class AiController {
      * @return Structured learning recommendations
      */
     @PostMapping("/learning-report")
-    public ResponseEntity<Map<String, Object>> generateLearningReport(@RequestBody Map<String, String> request) {
-        try {
-            String message = request.get("message");
-            if (message == null || message.trim().isEmpty()) {
-                return ResponseEntity.badRequest()
-                        .body(Map.of("error", "Message is required"));
-            }
-            
-            log.info("Generating learning report for user request with message length: {}", message.length());
-            
-            // Create learning report prompt
-            String reportPrompt = "Create a personalized programming learning report for: " + message + 
-                    "\n\nPlease provide:\n1. Learning path recommendations\n2. Specific skills to focus on\n3. Practical projects to build\n4. Resources and tools to use\n5. Timeline suggestions";
-            
-            String response = googleAiStudioClient.generateContent(reportPrompt);
-            
-            // Parse response into structured format for frontend
-            String[] lines = response.split("\n");
-            List<String> recommendations = List.of(lines);
-            
-            return ResponseEntity.ok(Map.of(
-                    "studentName", "Programming Student",
-                    "recommendations", recommendations
-            ));
-            
-        } catch (Exception e) {
-            log.error("Error generating learning report: {}", e.getMessage(), e);
-            return ResponseEntity.internalServerError()
-                    .body(Map.of("error", "Failed to generate learning report: " + e.getMessage()));
+    public Mono<ResponseEntity<Map<String, Object>>> generateLearningReport(
+            @RequestBody Map<String, String> request,
+            @RequestHeader(name = CLIENT_ID_HEADER, required = false) String clientId) {
+        String message = request.get("message");
+        if (message == null || message.trim().isEmpty()) {
+            return Mono.just(ResponseEntity.badRequest()
+                    .body(Map.of("error", "Message is required")));
         }
+        
+        log.info("Generating learning report for user request with message length: {}", message.length());
+        
+        // Create learning report prompt
+        String reportPrompt = "Create a personalized programming learning report for: " + message + 
+                "\n\nPlease provide:\n1. Learning path recommendations\n2. Specific skills to focus on\n3. Practical projects to build\n4. Resources and tools to use\n5. Timeline suggestions";
+        
+        // Reports are long and large; they yield to interactive traffic in the scheduler
+        return googleAiStudioClient.generateContentAsync(reportPrompt, RequestPriority.BATCH, clientOrAnonymous(clientId))
+                .map(response -> {
+                    // Parse response into structured format for frontend
+                    String[] lines = response.split("\n");
+                    List<String> recommendations = List.of(lines);
+                    
+                    return ResponseEntity.ok(Map.<String, Object>of(
+                            "studentName", "Programming Student",
+                            "recommendations", recommendations
+                    ));
+                })
+                .onErrorResume(AdmissionRejectedException.class, AiController::rejected)
+                .onErrorResume(e -> {
+                    log.error("Error generating learning report: {}", e.getMessage(), e);
+                    return Mono.just(ResponseEntity.internalServerError()
+                            .body(Map.of("error", "Failed to generate learning report: " + e.getMessage())));
+                });
+    }
+
+    private static String clientOrAnonymous(String clientId) {
+        return clientId != null ? clientId : GoogleAiStudioClient.ANONYMOUS_CLIENT;
+    }
+
+    /**
+     * Maps an admission control rejection to its status code with a Retry-After header,
+     * so overloaded requests are distinguishable from failed ones.
+     */
+    private static Mono<ResponseEntity<Map<String, Object>>> rejected(AdmissionRejectedException e) {
+        log.warn("Request rejected by admission control: {}", e.getMessage());
+        return Mono.just(ResponseEntity.status(e.getStatus())
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                .body(Map.of("error", e.getMessage())));
     }
 
     /**
      * Health check endpoint.
      * 
-     * @return Simple status message
+     * The service stays up while Gemini is failing; that case is reported as
+     * {@code DEGRADED} together with the circuit breaker state of each routed model.
+     * 
+     * @return Service status and circuit breaker states by model
      */
     @GetMapping("/health")
-    public String health() {
-        return "AI Code Helper Service is running";
+    public Map<String, Object> health() {
+        Map<String, Object> breakers = new LinkedHashMap<>();
+        boolean degraded = false;
+        for (String model : modelRouter.models()) {
+            CircuitBreaker.Snapshot breaker = modelCallResilience.circuitBreaker(model);
+            degraded |= breaker.state() != CircuitBreaker.State.CLOSED;
+            breakers.put(model, Map.of(
+                    "state", breaker.state().name(),
+                    "calls", breaker.calls(),
+                    "failureRate", breaker.failureRate(),
+                    "slowCallRate", breaker.slowCallRate(),
+                    "retryAfterSeconds", breaker.retryAfter().toSeconds()
+            ));
+        }
+        return Map.of(
+                "status", degraded ? "DEGRADED" : "UP",
+                "message", "AI Code Helper Service is running",
+                "circuitBreakers", breakers
+        );
     }
 }
@@ -0,0 +1,136 @@
+package com.aicodehelper.ai;
+
+import com.aicodehelper.ai.model.GoogleAiStudioClient;
+import com.aicodehelper.ai.tools.InterviewQuestionTool;
+import com.aicodehelper.support.GeminiTestFixtures;
+import com.aicodehelper.support.StubGeminiServer;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.env.YamlPropertySourceLoader;
+import org.springframework.core.env.PropertySource;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the virtual-thread execution mode.
+ *
+ * Drives the blocking model client and the interview question tool against a local
+ * stub server from many virtual threads at once, and uses JFR to verify that none
+ * of them pins its carrier thread while blocked.
+ */
+@Slf4j
+class VirtualThreadModeTest {
+
+    private static final int CONCURRENT_CALLS = 500;
+
+    private static StubGeminiServer stub;
+
+    private GoogleAiStudioClient client;
+    private InterviewQuestionTool tool;
+
+    @BeforeAll
+    static void startStub() throws Exception {
+        stub = StubGeminiServer.start().withDelay(Duration.ofMillis(50));
+    }
+
+    @AfterAll
+    static void stopStub() {
+        stub.close();
+    }
+
+    @BeforeEach
+    void setUp() {
+        client = GeminiTestFixtures.client(stub).build();
+
+        tool = new InterviewQuestionTool();
+        ReflectionTestUtils.setField(tool, "baseSearchUrl", stub.searchUrl());
+        ReflectionTestUtils.setField(tool, "timeoutSeconds", 5);
+        ReflectionTestUtils.setField(tool, "maxQuestions", 10);
+    }
+
+    @Test
+    @DisplayName("Virtual-thread profile should enable virtual threads")
+    void testProfileEnablesVirtualThreads() throws Exception {
+        List<PropertySource<?>> documents = new YamlPropertySourceLoader()
+                .load("application.yml", new ClassPathResource("application.yml"));
+
+        PropertySource<?> profile = documents.stream()
+                .filter(document -> "virtual-threads".equals(
+                        String.valueOf(document.getProperty("spring.config.activate.on-profile"))))
+                .findFirst()
+                .orElseThrow(() -> new AssertionError("virtual-threads profile is missing"));
+
+        assertEquals("true", String.valueOf(profile.getProperty("spring.threads.virtual.enabled")));
+    }
+
+    @Test
+    @DisplayName("Blocking model and tool calls should run concurrently on virtual threads without pinning")
+    void testBlockingCallsDoNotPinCarrierThreads(@TempDir Path tempDir) throws Exception {
+        // Warm up outside the recording so class initialization is not reported as pinning
+        runConcurrently(4);
+
+        Path recordingFile = tempDir.resolve("pinning.jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("jdk.VirtualThreadPinned").withThreshold(Duration.ZERO).withStackTrace();
+            recording.start();
+
+            long start = System.nanoTime();
+            runConcurrently(CONCURRENT_CALLS);
+            Duration elapsed = Duration.ofNanos(System.nanoTime() - start);
+            log.info("Completed {} blocking calls on virtual threads in {} ms", CONCURRENT_CALLS, elapsed.toMillis());
+
+            recording.stop();
+            recording.dump(recordingFile);
+        }
+
+        List<RecordedEvent> pinnedEvents = RecordingFile.readAllEvents(recordingFile);
+        String stacks = pinnedEvents.stream()
+                .map(event -> String.valueOf(event.getStackTrace()))
+                .collect(Collectors.joining("\n---\n"));
+        assertTrue(pinnedEvents.isEmpty(), "Virtual threads pinned their carrier:\n" + stacks);
+    }
+
+    private void runConcurrently(int calls) throws Exception {
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < calls; i++) {
+                int call = i;
+                results.add(executor.submit(() -> {
+                    assertTrue(Thread.currentThread().isVirtual(), "Call should run on a virtual thread");
+                    // Distinct prompts, so every model call really goes upstream
+                    return call % 2 == 0
+                            ? client.generateContent("What is a HashMap? #" + call)
+                            : tool.searchInterviewQuestions("Java");
+                }));
+            }
+
+            for (int i = 0; i < results.size(); i++) {
+                String result = results.get(i).get();
+                if (i % 2 == 0) {
+                    assertEquals("Stub answer from Gemini", result);
+                } else {
+                    assertTrue(result.contains("What is a HashMap?"), "Tool should return scraped questions");
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.aicodehelper.ai.cache;
+
+import com.aicodehelper.ai.model.GoogleAiStudioClient;
+import com.aicodehelper.support.GeminiTestFixtures;
+import com.aicodehelper.support.StubGeminiServer;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the exact and semantic tiers of the response cache.
+ */
+class ResponseCacheTest {
+
+    private static final String MODEL = "gemini-test";
+    private static final String CONFIG = "temperature=0.7,maxOutputTokens=2000";
+
+    private SimpleMeterRegistry meterRegistry;
+    private ResponseCache cache;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        cache = GeminiTestFixtures.responseCache(true, keywordEmbeddingModel(), meterRegistry);
+    }
+
+    @Test
+    @DisplayName("Exact tier should match prompts that differ only in whitespace")
+    void testExactHitOnNormalizedPrompt() {
+        cache.store(cache.lookup("What is a HashMap?", MODEL, CONFIG), "A hash table");
+
+        ResponseCache.Lookup lookup = cache.lookup("  What is a   HashMap? ", MODEL, CONFIG);
+
+        assertTrue(lookup.isHit());
+        assertEquals("A hash table", lookup.answer());
+        assertEquals(1.0, counter("exact", "hit"));
+    }
+
+    @Test
+    @DisplayName("Exact tier should keep prompts apart that differ in identifier case")
+    void testExactKeyKeepsCase() {
+        cache.store(cache.lookup("Why does Foo return NULL?", MODEL, CONFIG), "Foo has no value");
+
+        assertFalse(cache.lookup("Why does foo return null?", MODEL, CONFIG).isHit());
+        assertEquals(0.0, counter("exact", "hit"));
+    }
+
+    @Test
+    @DisplayName("Cached answers should not be shared across models or generation configs")
+    void testKeyIncludesModelAndConfig() {
+        cache.store(cache.lookup("What is a HashMap?", MODEL, CONFIG), "A hash table");
+
+        assertFalse(cache.lookup("What is a HashMap?", "gemini-other", CONFIG).isHit());
+        assertFalse(cache.lookup("What is a HashMap?", MODEL, "temperature=0.2,maxOutputTokens=2000").isHit());
+    }
+
+    @Test
+    @DisplayName("An answer from a fallback model should be cached under that model only")
+    void testStoresUnderAnsweringModel() {
+        cache.store(cache.lookup("explain java hashmap", MODEL, CONFIG), "gemini-other", "A hash table");
+
+        assertFalse(cache.lookup("explain java hashmap", MODEL, CONFIG).isHit());
+        assertFalse(cache.lookup("java hashmap explain please", MODEL, CONFIG).isHit());
+        assertTrue(cache.lookup("explain java hashmap", "gemini-other", CONFIG).isHit());
+        assertTrue(cache.lookup("java hashmap explain please", "gemini-other", CONFIG).isHit());
+    }
+
+    @Test
+    @DisplayName("Semantic tier should serve answers for similar prompts above the threshold")
+    void testSemanticHit() {
+        cache.store(cache.lookup("explain java hashmap", MODEL, CONFIG), "A hash table");
+
+        ResponseCache.Lookup similar = cache.lookup("hashmap in java explain please", MODEL, CONFIG);
+        ResponseCache.Lookup unrelated = cache.lookup("explain spring beans", MODEL, CONFIG);
+
+        assertTrue(similar.isHit());
+        assertEquals("A hash table", similar.answer());
+        assertFalse(unrelated.isHit());
+        assertEquals(1.0, counter("semantic", "hit"));
+        assertEquals(2.0, counter("semantic", "miss"));
+    }
+
+    @Test
+    @DisplayName("Tiers should evict the least recently used entry when full")
+    void testLruEviction() {
+        ReflectionTestUtils.setField(cache, "exactMaxEntries", 2);
+        ReflectionTestUtils.setField(cache, "semanticEnabled", false);
+        cache.init();
+
+        cache.store(cache.lookup("first", MODEL, CONFIG), "1");
+        cache.store(cache.lookup("second", MODEL, CONFIG), "2");
+        cache.lookup("first", MODEL, CONFIG);
+        cache.store(cache.lookup("third", MODEL, CONFIG), "3");
+
+        assertTrue(cache.lookup("first", MODEL, CONFIG).isHit());
+        assertFalse(cache.lookup("second", MODEL, CONFIG).isHit());
+        assertTrue(cache.lookup("third", MODEL, CONFIG).isHit());
+    }
+
+    @Test
+    @DisplayName("Entries should expire after their TTL")
+    void testTtlExpiry() {
+        MutableClock clock = new MutableClock();
+        ReflectionTestUtils.setField(cache, "clock", clock);
+        cache.init();
+
+        cache.store(cache.lookup("What is a HashMap?", MODEL, CONFIG), "A hash table");
+        clock.advance(Duration.ofMinutes(61));
+
+        assertFalse(cache.lookup("What is a HashMap?", MODEL, CONFIG).isHit());
+    }
+
+    @Test
+    @DisplayName("Cached answers should be served to blocking and streaming callers without an upstream call")
+    void testClientServesCachedAnswers() throws Exception {
+        try (StubGeminiServer stub = StubGeminiServer.start()) {
+            GoogleAiStudioClient client = GeminiTestFixtures.client(stub).responseCache(cache).build();
+
+            assertEquals("Stub answer from Gemini", client.generateContent("What is a HashMap?"));
+            assertEquals("Stub answer from Gemini", client.generateContent("what is a hashmap"));
+            List<String> streamed = client.streamContent("What is a HashMap?").collectList().block();
+
+            assertEquals(List.of("Stub answer from Gemini"), streamed);
+            assertEquals(1, stub.requestCount());
+        }
+    }
+
+    private double counter(String tier, String result) {
+        return meterRegistry.get("ai.cache.requests").tag("tier", tier).tag("result", result).counter().count();
+    }
+
+    /**
+     * Bag-of-words embedding over a tiny vocabulary, enough to make similarity meaningful.
+     */
+    private static EmbeddingModel keywordEmbeddingModel() {
+        List<String> vocabulary = List.of("java", "hashmap", "explain", "spring", "beans");
+        return segments -> Response.from(segments.stream().map(segment -> {
+            String text = segment.text().toLowerCase(Locale.ROOT);
+            float[] vector = new float[vocabulary.size()];
+            for (int i = 0; i < vocabulary.size(); i++) {
+                vector[i] = text.contains(vocabulary.get(i)) ? 1f : 0f;
+            }
+            return new Embedding(vector);
+        }).toList());
+    }
+
+    private static final class MutableClock extends Clock {
+
+        private Instant now = Instant.parse("2025-01-01T00:00:00Z");
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.aicodehelper.ai.embedding;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.onnx.allminilml6v2.AllMiniLmL6V2EmbeddingModel;
+import dev.langchain4j.store.embedding.CosineSimilarity;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests batched inference of the bundled all-MiniLM-L6-v2 model against one-at-a-time inference.
+ */
+class BatchedOnnxEmbeddingModelTest {
+
+    private static final List<String> TEXTS = List.of(
+            "HashMap",
+            "How does a Java HashMap handle collisions?",
+            "Explain dependency injection in Spring Boot with an example of constructor injection and bean scopes.",
+            "Redis",
+            "What is the difference between a process and a thread?",
+            "\u4ec0\u4e48\u662f\u5783\u573e\u56de\u6536?");
+
+    private static BatchedOnnxEmbeddingModel model;
+
+    @BeforeAll
+    static void loadModel() {
+        model = BatchedOnnxEmbeddingModel.allMiniLmL6V2(2, 4, 256);
+    }
+
+    @AfterAll
+    static void closeModel() throws Exception {
+        model.close();
+    }
+
+    @Test
+    @DisplayName("Embeddings should be unit vectors that place related texts close together")
+    void testEmbedsBySimilarity() {
+        Embedding question = model.embed("How do hash maps resolve collisions in Java?").content();
+        Embedding related = model.embed("Java HashMap collision handling with buckets and trees").content();
+        Embedding unrelated = model.embed("The best time to plant tomatoes is in spring").content();
+
+        assertEquals(384, model.dimension());
+        assertEquals(384, question.dimension());
+        assertEquals(1.0, norm(question), 1e-4);
+        assertTrue(CosineSimilarity.between(question, related) > 0.7);
+        assertTrue(CosineSimilarity.between(question, unrelated) < 0.3);
+    }
+
+    @Test
+    @DisplayName("Batched, padded inference should match one-at-a-time inference of LangChain4j's model")
+    void testBatchesMatchSingleInference() {
+        AllMiniLmL6V2EmbeddingModel reference = new AllMiniLmL6V2EmbeddingModel();
+
+        List<Embedding> batched = model.embedAll(segments()).content();
+
+        assertEquals(TEXTS.size(), batched.size());
+        for (int i = 0; i < TEXTS.size(); i++) {
+            Embedding single = reference.embed(TEXTS.get(i)).content();
+            assertEquals(1.0, CosineSimilarity.between(single, batched.get(i)), 1e-4, TEXTS.get(i));
+        }
+    }
+
+    @Test
+    @DisplayName("Concurrent calls should each get their own buffers")
+    void testConcurrentCalls() {
+        List<Embedding> expected = model.embedAll(segments()).content();
+
+        List<CompletableFuture<List<Embedding>>> calls = IntStream.range(0, 8)
+                .mapToObj(i -> CompletableFuture.supplyAsync(() -> model.embedAll(segments()).content()))
+                .toList();
+
+        for (CompletableFuture<List<Embedding>> call : calls) {
+            List<Embedding> actual = call.join();
+            for (int i = 0; i < expected.size(); i++) {
+                assertArrayEquals(expected.get(i).vector(), actual.get(i).vector(), 1e-5f);
+            }
+        }
+    }
+
+    private static List<TextSegment> segments() {
+        return TEXTS.stream().map(TextSegment::from).toList();
+    }
+
+    private static double norm(Embedding embedding) {
+        double sum = 0;
+        for (float value : embedding.vector()) {
+            sum += value * value;
+        }
+        return Math.sqrt(sum);
+    }
+}
@@ -0,0 +1,66 @@
+package com.aicodehelper.ai.embedding;
+
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.embedding.onnx.allminilml6v2.AllMiniLmL6V2EmbeddingModel;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Embedding throughput of the batched ONNX model at several batch sizes, next to LangChain4j's
+ * one-text-per-run model as a baseline.
+ *
+ * Run with {@code mvn test -Dtest=EmbeddingThroughputBenchmark -Dbenchmark=true}; optionally
+ * {@code -Dbenchmark.threads=N}. Texts are knowledge-base-sized chunks of 20 to 200 words, truncated
+ * to 128 tokens like the baseline's tokenizer does.
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class EmbeddingThroughputBenchmark {
+
+    private static final int TEXTS = 512;
+    private static final int[] BATCH_SIZES = {1, 8, 32, 64};
+    private static final int MAX_TOKENS = 128;
+
+    @Test
+    @DisplayName("Embeddings per second by batch size")
+    void measureThroughput() throws Exception {
+        int threads = Integer.getInteger("benchmark.threads", Runtime.getRuntime().availableProcessors());
+        List<TextSegment> texts = texts();
+
+        System.out.printf("%nEmbedding throughput, %d texts, %d threads%n", TEXTS, threads);
+        System.out.printf("%-32s %12s%n", "model", "texts/s");
+        System.out.printf("%-32s %12.1f%n", "langchain4j, one text per run", throughput(new AllMiniLmL6V2EmbeddingModel(), texts));
+        for (int batchSize : BATCH_SIZES) {
+            try (BatchedOnnxEmbeddingModel model = BatchedOnnxEmbeddingModel.allMiniLmL6V2(threads, batchSize, MAX_TOKENS)) {
+                System.out.printf("%-32s %12.1f%n", "batched, batch size " + batchSize, throughput(model, texts));
+            }
+        }
+    }
+
+    private static double throughput(EmbeddingModel model, List<TextSegment> texts) {
+        model.embedAll(texts.subList(0, 64));
+        long startedAt = System.nanoTime();
+        model.embedAll(texts);
+        return texts.size() / ((System.nanoTime() - startedAt) / 1e9);
+    }
+
+    private static List<TextSegment> texts() {
+        String[] words = ("java spring bean hashmap thread lock redis cache index query transaction jvm garbage "
+                + "collector interface stream lambda socket http request response latency memory heap").split(" ");
+        Random random = new Random(42);
+        List<TextSegment> texts = new ArrayList<>(TEXTS);
+        for (int i = 0; i < TEXTS; i++) {
+            StringBuilder text = new StringBuilder();
+            for (int word = 20 + random.nextInt(180); word > 0; word--) {
+                text.append(words[random.nextInt(words.length)]).append(' ');
+            }
+            texts.add(TextSegment.from(text.toString()));
+        }
+        return texts;
+    }
+}
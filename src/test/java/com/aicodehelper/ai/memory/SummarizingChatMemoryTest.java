@@ -0,0 +1,203 @@
+package com.aicodehelper.ai.memory;
+
+import dev.langchain4j.agent.tool.ToolExecutionRequest;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.ToolExecutionResultMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.memory.ChatMemory;
+import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.store.memory.chat.InMemoryChatMemoryStore;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the token budget of the summarizing chat memory and its background compaction.
+ */
+class SummarizingChatMemoryTest {
+
+    private static final int BUDGET = 300;
+
+    private SimpleMeterRegistry meterRegistry;
+    private SummarizingModel model;
+    private ChatMemoryCompactor compactor;
+    private InMemoryChatMemoryStore store;
+    private final GeminiTokenEstimator estimator = new GeminiTokenEstimator();
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        model = new SummarizingModel();
+        store = new InMemoryChatMemoryStore();
+        compactor = new ChatMemoryCompactor();
+        ReflectionTestUtils.setField(compactor, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(compactor, "myGeminiChatModel", model);
+        ReflectionTestUtils.setField(compactor, "maxTokens", BUDGET);
+        ReflectionTestUtils.setField(compactor, "summaryMaxTokens", 60);
+        ReflectionTestUtils.setField(compactor, "threads", 1);
+        ReflectionTestUtils.setField(compactor, "queueSize", 10);
+        compactor.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        model.release.countDown();
+        compactor.destroy();
+    }
+
+    @Test
+    @DisplayName("Prompt tokens should stay within the budget however long the conversation gets")
+    void testPromptStaysWithinBudget() throws Exception {
+        model.release.countDown();
+        SummarizingChatMemory memory = (SummarizingChatMemory) compactor.memory(1, store);
+        memory.add(SystemMessage.from("You are a programming assistant."));
+
+        // Two halves, each compacted before going on, so the second compaction extends a summary
+        for (int turn = 0; turn < 30; turn++) {
+            memory.add(UserMessage.from("Question " + turn + " about collections"));
+            memory.add(AiMessage.from(("Answer " + turn + " with some code. ").repeat(10)));
+            assertTrue(estimator.estimateTokenCountInMessages(memory.messages()) <= BUDGET,
+                    "Turn " + turn + " sends " + estimator.estimateTokenCountInMessages(memory.messages()) + " tokens");
+            if (turn == 14) {
+                awaitCompacted(memory, 1);
+            }
+        }
+        awaitCompacted(memory, 2);
+
+        List<ChatMessage> messages = memory.messages();
+        assertInstanceOf(SystemMessage.class, messages.get(0));
+        UserMessage summary = assertInstanceOf(UserMessage.class, messages.get(1));
+        assertEquals(SummarizingChatMemory.SUMMARY_NAME, summary.name());
+        assertTrue(summary.singleText().contains("Summary " + model.requests.size()), summary.singleText());
+        assertEquals("Answer 29 with some code. ".repeat(10), ((AiMessage) messages.get(messages.size() - 1)).text());
+        assertTrue(store.getMessages(1).size() < 12, "Summarized turns leave the store: " + store.getMessages(1).size());
+        assertFalse(model.requests.get(0).messages().get(1).toString().contains("Previous summary"));
+        assertTrue(model.requests.get(1).messages().get(1).toString().contains("Previous summary"),
+                "Later summaries extend the earlier ones");
+    }
+
+    @Test
+    @DisplayName("Compaction should run off the request path, with older turns left out meanwhile")
+    void testCompactsInBackground() throws Exception {
+        ChatMemory memory = compactor.memory(1, store);
+
+        long startedAt = System.nanoTime();
+        for (int turn = 0; turn < 10; turn++) {
+            memory.add(UserMessage.from("Question " + turn));
+            memory.add(AiMessage.from(("Answer " + turn + ". ").repeat(20)));
+        }
+        long elapsedMillis = (System.nanoTime() - startedAt) / 1_000_000;
+
+        assertTrue(elapsedMillis < 500, "Adding messages waited for the summary: " + elapsedMillis + " ms");
+        assertEquals(20, store.getMessages(1).size(), "Nothing is summarized yet");
+        assertTrue(estimator.estimateTokenCountInMessages(memory.messages()) <= BUDGET);
+        assertEquals("Question 9", ((UserMessage) memory.messages().get(memory.messages().size() - 2)).singleText());
+
+        model.release.countDown();
+        awaitCompactions("success", 1);
+        assertEquals(SummarizingChatMemory.SUMMARY_NAME, ((UserMessage) store.getMessages(1).get(0)).name());
+    }
+
+    @Test
+    @DisplayName("A summary of turns that changed meanwhile should be discarded")
+    void testDiscardsStaleSummaries() throws Exception {
+        ChatMemory memory = compactor.memory(1, store);
+        for (int turn = 0; turn < 10; turn++) {
+            memory.add(UserMessage.from("Question " + turn));
+            memory.add(AiMessage.from(("Answer " + turn + ". ").repeat(20)));
+        }
+        Thread.sleep(100);
+        memory.clear();
+        memory.add(UserMessage.from("Fresh start"));
+
+        model.release.countDown();
+        awaitCompactions("stale", 1);
+        assertEquals(List.of(UserMessage.from("Fresh start")), memory.messages());
+    }
+
+    @Test
+    @DisplayName("A turn with tool calls should be kept whole even when it exceeds the budget")
+    void testKeepsToolTurnsWhole() {
+        ChatMemory memory = compactor.memory(1, store);
+        memory.add(UserMessage.from("Earlier question"));
+        memory.add(AiMessage.from("Earlier answer"));
+        ToolExecutionRequest call = ToolExecutionRequest.builder()
+                .id("call-1").name("searchInterviewQuestions").arguments("{\"keyword\":\"java\"}").build();
+        memory.add(UserMessage.from("Find Java questions"));
+        memory.add(AiMessage.from(List.of(call)));
+        memory.add(ToolExecutionResultMessage.from(call, "Question. ".repeat(200)));
+
+        List<ChatMessage> messages = memory.messages();
+        assertEquals(3, messages.size());
+        assertEquals("Find Java questions", ((UserMessage) messages.get(0)).singleText());
+        assertInstanceOf(ToolExecutionResultMessage.class, messages.get(2));
+    }
+
+    @Test
+    @DisplayName("Token estimates should count CJK characters individually")
+    void testEstimatesTokens() {
+        assertEquals(3, estimator.estimateTokenCountInText("HashMap java"));
+        assertEquals(5, estimator.estimateTokenCountInText("\u4ec0\u4e48\u662f HashMap"));
+        assertEquals(4 + 3, estimator.estimateTokenCountInMessage(UserMessage.from("HashMap java")));
+    }
+
+    /**
+     * Waits for {@code count} successful compactions and for the memory to be back within budget,
+     * after which no compaction runs until more messages are added.
+     */
+    private void awaitCompacted(SummarizingChatMemory memory, long count) throws InterruptedException {
+        awaitCompactions("success", count);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (memory.isOverBudget()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Memory still over budget after 5 seconds");
+            Thread.sleep(10);
+        }
+    }
+
+    private void awaitCompactions(String outcome, long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < deadline) {
+            Timer timer = meterRegistry.find("ai.chat.memory.compactions").tag("outcome", outcome).timer();
+            if (timer != null && timer.count() >= count) {
+                return;
+            }
+            Thread.sleep(10);
+        }
+        fail("No " + outcome + " compaction within 5 seconds");
+    }
+
+    /**
+     * Numbers its summaries and blocks until released.
+     */
+    private static final class SummarizingModel implements ChatModel {
+
+        private final CountDownLatch release = new CountDownLatch(1);
+        private final List<ChatRequest> requests = new CopyOnWriteArrayList<>();
+
+        @Override
+        public ChatResponse doChat(ChatRequest request) {
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            requests.add(request);
+            return ChatResponse.builder().aiMessage(AiMessage.from("Summary " + requests.size())).build();
+        }
+    }
+}
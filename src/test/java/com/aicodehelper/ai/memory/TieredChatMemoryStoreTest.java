@@ -0,0 +1,207 @@
+package com.aicodehelper.ai.memory;
+
+import dev.langchain4j.agent.tool.ToolExecutionRequest;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.UserMessage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the hot tier bounds of the chat memory store and the disk log behind it.
+ */
+class TieredChatMemoryStoreTest {
+
+    @TempDir
+    Path directory;
+
+    private SimpleMeterRegistry meterRegistry;
+    private MutableClock clock;
+    private TieredChatMemoryStore store;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        clock = new MutableClock();
+        store = store(meterRegistry);
+    }
+
+    @AfterEach
+    void tearDown() {
+        store.destroy();
+    }
+
+    @Test
+    @DisplayName("Least recently used sessions beyond the hot tier should be spilled and read back on return")
+    void testSpillsAndRehydratesSessions() {
+        List<Object> evicted = new CopyOnWriteArrayList<>();
+        store.onEviction(evicted::add);
+
+        store.updateMessages(1, conversation("What is a HashMap?"));
+        store.updateMessages(2, conversation("What is a TreeMap?"));
+        store.getMessages(1);
+        store.updateMessages(3, conversation("What is a LinkedList?"));
+
+        assertEquals(List.of(2), evicted, "Session 2 was least recently used");
+        assertEquals(2.0, gauge("ai.chat.memory.hot.sessions"));
+        assertEquals(1.0, gauge("ai.chat.memory.disk.sessions"));
+
+        assertEquals(conversation("What is a TreeMap?"), store.getMessages(2));
+        assertEquals(1.0, meterRegistry.get("ai.chat.memory.lookups").tag("tier", "disk").counter().count());
+        assertEquals(List.of(2, 1), evicted, "Rehydrating session 2 displaced session 1");
+        assertTrue(store.getMessages(4).isEmpty());
+    }
+
+    @Test
+    @DisplayName("Sessions should survive a restart, while deleted sessions stay deleted")
+    void testRestoresSessionsAfterRestart() {
+        List<ChatMessage> withToolCall = List.of(
+                UserMessage.from("Find questions about Redis"),
+                AiMessage.from(List.of(ToolExecutionRequest.builder()
+                        .id("call-1").name("searchInterviewQuestions").arguments("{\"keyword\":\"redis\"}").build())));
+        store.updateMessages(1, withToolCall);
+        store.updateMessages("default", conversation("\u4ec0\u4e48\u662f Redis?"));
+        store.updateMessages(2, conversation("Forget me"));
+        ReflectionTestUtils.invokeMethod(store, "sweep");
+        store.deleteMessages(2);
+        store.destroy();
+
+        store = store(new SimpleMeterRegistry());
+
+        assertEquals(withToolCall, store.getMessages(1));
+        assertEquals(conversation("\u4ec0\u4e48\u662f Redis?"), store.getMessages("default"));
+        assertTrue(store.getMessages(2).isEmpty());
+    }
+
+    @Test
+    @DisplayName("Idle sessions should leave the heap and garbage should be compacted away")
+    void testEvictsIdleSessionsAndCompacts() throws Exception {
+        ReflectionTestUtils.setField(store, "compactionMinBytes", 1L);
+        for (int turn = 0; turn < 20; turn++) {
+            store.updateMessages(1, conversation("Turn " + turn));
+            ReflectionTestUtils.invokeMethod(store, "sweep");
+        }
+        long compactedSize = Files.size(directory.resolve("chat-memory.log"));
+
+        clock.advance(Duration.ofMinutes(31));
+        ReflectionTestUtils.invokeMethod(store, "sweep");
+
+        assertEquals(0.0, gauge("ai.chat.memory.hot.sessions"));
+        assertEquals(compactedSize, Files.size(directory.resolve("chat-memory.log")), "A clean session is not written again");
+        assertTrue(compactedSize < 500, "Only the latest snapshot is kept: " + compactedSize + " bytes");
+        assertEquals(conversation("Turn 19"), store.getMessages(1));
+    }
+
+    @Test
+    @DisplayName("A failed compaction swap should leave the log open on the uncompacted file")
+    void testSurvivesFailedCompactionSwap() throws Exception {
+        ReflectionTestUtils.setField(store, "compactionMinBytes", 1L);
+        ChatMemoryLog.Swap failing = (compacted, log) -> {
+            throw new AccessDeniedException(log.toString(), null, "file is in use");
+        };
+        ReflectionTestUtils.setField(ReflectionTestUtils.getField(store, "diskLog"), "swap", failing);
+        store.updateMessages(1, conversation("What is a HashMap?"));
+        store.updateMessages(2, conversation("What is a TreeMap?"));
+        store.updateMessages(3, conversation("What is a LinkedList?"));
+        for (int turn = 0; turn < 5; turn++) {
+            store.updateMessages(2, conversation("Turn " + turn));
+            ReflectionTestUtils.invokeMethod(store, "sweep");
+        }
+
+        // Session 1 was spilled before the failed compactions and must still be readable and writable
+        assertEquals(conversation("What is a HashMap?"), store.getMessages(1));
+        store.updateMessages(4, conversation("What is a HashSet?"));
+        ReflectionTestUtils.invokeMethod(store, "sweep");
+        assertFalse(Files.exists(directory.resolve("chat-memory.log.compact")));
+        store.destroy();
+
+        store = store(new SimpleMeterRegistry());
+        assertEquals(conversation("What is a HashMap?"), store.getMessages(1));
+        assertEquals(conversation("Turn 4"), store.getMessages(2));
+        assertEquals(conversation("What is a HashSet?"), store.getMessages(4));
+    }
+
+    @Test
+    @DisplayName("A torn record at the end of the log should be cut off on opening")
+    void testRecoversFromTornTail() throws Exception {
+        store.updateMessages(1, conversation("What is a HashMap?"));
+        store.destroy();
+        Path logFile = directory.resolve("chat-memory.log");
+        long intactSize = Files.size(logFile);
+        Files.write(logFile, new byte[] {0, 0, 1, 0, 42, 42}, StandardOpenOption.APPEND);
+
+        store = store(new SimpleMeterRegistry());
+        store.updateMessages(2, conversation("What is a TreeMap?"));
+        store.destroy();
+        store = store(new SimpleMeterRegistry());
+
+        assertTrue(Files.size(logFile) > intactSize);
+        assertEquals(conversation("What is a HashMap?"), store.getMessages(1));
+        assertEquals(conversation("What is a TreeMap?"), store.getMessages(2));
+    }
+
+    private TieredChatMemoryStore store(SimpleMeterRegistry registry) {
+        TieredChatMemoryStore memoryStore = new TieredChatMemoryStore();
+        ReflectionTestUtils.setField(memoryStore, "meterRegistry", registry);
+        ReflectionTestUtils.setField(memoryStore, "enabled", true);
+        ReflectionTestUtils.setField(memoryStore, "directory", directory.toString());
+        ReflectionTestUtils.setField(memoryStore, "maxHotSessions", 2);
+        ReflectionTestUtils.setField(memoryStore, "idleMinutes", 30L);
+        ReflectionTestUtils.setField(memoryStore, "flushIntervalSeconds", 3600L);
+        ReflectionTestUtils.setField(memoryStore, "compactionMinBytes", 1L << 20);
+        ReflectionTestUtils.setField(memoryStore, "clock", clock);
+        memoryStore.init();
+        return memoryStore;
+    }
+
+    private double gauge(String name) {
+        return meterRegistry.get(name).gauge().value();
+    }
+
+    private static List<ChatMessage> conversation(String question) {
+        return List.of(UserMessage.from(question), AiMessage.from("Answer to " + question));
+    }
+
+    private static final class MutableClock extends Clock {
+
+        private Instant now = Instant.parse("2025-01-01T00:00:00Z");
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
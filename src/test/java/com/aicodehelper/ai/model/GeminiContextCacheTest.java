@@ -0,0 +1,152 @@
+package com.aicodehelper.ai.model;
+
+import com.aicodehelper.support.GeminiTestFixtures;
+import com.aicodehelper.support.StubGeminiServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests caching of the static prompt prefix against the stub server's cachedContents endpoints.
+ */
+class GeminiContextCacheTest {
+
+    private StubGeminiServer stub;
+    private SimpleMeterRegistry meterRegistry;
+    private Instant now;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        stub = StubGeminiServer.start();
+        meterRegistry = new SimpleMeterRegistry();
+        now = Instant.now();
+    }
+
+    @AfterEach
+    void tearDown() {
+        stub.close();
+    }
+
+    @Test
+    @DisplayName("Calls should send the prefix inline until the cache exists, then reference it")
+    void testReferencesCachedPrefix() {
+        GeminiContextCache contextCache = contextCache();
+        GoogleAiStudioClient client = client(contextCache);
+
+        client.generateContent("First question");
+        awaitCondition(() -> meterRegistry.get("ai.context-cache.entries").gauge().value() == 1);
+        client.generateContent("Second question");
+
+        List<String> bodies = stub.receivedBodies();
+        assertTrue(bodies.get(0).contains("\"systemInstruction\""), "Prefix inline before the cache exists");
+        assertTrue(bodies.get(0).contains("expert programming assistant"), "System prompt is part of the prefix");
+        assertTrue(bodies.get(0).contains("When providing code examples"), "Formatting instructions are part of the prefix");
+        assertTrue(bodies.get(1).contains("\"cachedContent\":\"cachedContents/stub-1\""), bodies.get(1));
+        assertFalse(bodies.get(1).contains("systemInstruction"), "No inline prefix with a cached one");
+        assertTrue(bodies.get(1).contains("Second question"));
+        assertEquals(List.of("POST /v1beta/cachedContents"), stub.receivedCacheRequests());
+    }
+
+    @Test
+    @DisplayName("When Gemini refuses to cache the prefix, calls should keep sending it inline without retrying at once")
+    void testFallsBackToInlinePrefix() {
+        stub.refuseContextCaching();
+        GoogleAiStudioClient client = client(contextCache());
+
+        client.generateContent("First question");
+        awaitCondition(() -> meterRegistry.find("ai.context-cache.operations").tag("outcome", "failure").counter() != null);
+        client.generateContent("Second question");
+
+        assertTrue(stub.receivedBodies().stream().allMatch(body -> body.contains("\"systemInstruction\"")));
+        assertEquals(List.of("POST /v1beta/cachedContents"), stub.receivedCacheRequests());
+    }
+
+    @Test
+    @DisplayName("A prefix below the minimum cacheable size should never be submitted for caching")
+    void testSkipsPrefixBelowMinimum() {
+        GeminiContextCache contextCache = GeminiTestFixtures.contextCache(false, stub, meterRegistry);
+        ReflectionTestUtils.setField(contextCache, "webClient", GeminiTestFixtures.webClient(stub.baseUrl()));
+        ReflectionTestUtils.setField(contextCache, "enabled", true);
+        ReflectionTestUtils.setField(contextCache, "minTokens", 4096L);
+        contextCache.init();
+        GoogleAiStudioClient client = client(contextCache);
+
+        client.generateContent("First question");
+        client.generateContent("Second question");
+
+        assertTrue(stub.receivedBodies().stream().allMatch(body -> body.contains("\"systemInstruction\"")));
+        assertEquals(List.of(), stub.receivedCacheRequests());
+    }
+
+    @Test
+    @DisplayName("A cache in use should be extended once half of its TTL has passed")
+    void testRefreshesBeforeExpiry() {
+        GeminiContextCache contextCache = contextCache();
+        GoogleAiStudioClient client = client(contextCache);
+        client.generateContent("First question");
+        awaitCondition(() -> meterRegistry.get("ai.context-cache.entries").gauge().value() == 1);
+
+        contextCache.refresh();
+        now = now.plus(Duration.ofMinutes(35));
+        client.generateContent("Second question");
+        contextCache.refresh();
+        awaitCondition(() -> stub.receivedCacheRequests().size() == 2);
+
+        assertEquals(List.of("POST /v1beta/cachedContents", "PATCH /v1beta/cachedContents/stub-1"),
+                stub.receivedCacheRequests(), "Not extended while more than half of the TTL is left");
+    }
+
+    private GeminiContextCache contextCache() {
+        GeminiContextCache contextCache = GeminiTestFixtures.contextCache(true, stub, meterRegistry);
+        ReflectionTestUtils.setField(contextCache, "clock", new Clock() {
+            @Override
+            public ZoneOffset getZone() {
+                return ZoneOffset.UTC;
+            }
+
+            @Override
+            public Clock withZone(ZoneId zone) {
+                return this;
+            }
+
+            @Override
+            public Instant instant() {
+                return now;
+            }
+        });
+        return contextCache;
+    }
+
+    private GoogleAiStudioClient client(GeminiContextCache contextCache) {
+        return GeminiTestFixtures.client(stub)
+                .meterRegistry(meterRegistry)
+                .contextCache(contextCache)
+                .build();
+    }
+
+    private static void awaitCondition(BooleanSupplier condition) {
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "Condition not met in time");
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new AssertionError(e);
+            }
+        }
+    }
+}
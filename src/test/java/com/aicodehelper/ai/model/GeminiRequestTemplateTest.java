@@ -0,0 +1,54 @@
+package com.aicodehelper.ai.model;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests that the pre-serialized request body matches what Jackson produces for the full body.
+ */
+class GeminiRequestTemplateTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private static final Function<String, Object> BODY = prompt -> Map.of(
+            "contents", List.of(Map.of("parts", List.of(Map.of("text", prompt + "\n\nIMPORTANT: use ```java blocks")))),
+            "generationConfig", Map.of("temperature", 0.7, "maxOutputTokens", 2000));
+
+    @Test
+    @DisplayName("Rendered bodies should equal a full serialization")
+    void testRenderMatchesFullSerialization() throws Exception {
+        GeminiRequestTemplate template = new GeminiRequestTemplate(objectMapper, BODY);
+
+        for (String prompt : List.of("", "What is a HashMap?", "Quote \" backslash \\ tab \t newline \n control \u0001")) {
+            assertArrayEquals(objectMapper.writeValueAsBytes(BODY.apply(prompt)), template.render(prompt),
+                    "Prompt: " + prompt);
+        }
+    }
+
+    @Test
+    @DisplayName("Non-ASCII prompts should render as UTF-8 with the same JSON content")
+    void testRenderNonAsciiPrompt() throws Exception {
+        GeminiRequestTemplate template = new GeminiRequestTemplate(objectMapper, BODY);
+        String prompt = "\u65e5\u672c\u8a9e \u2713 emoji \uD83D\uDE00";
+
+        // Jackson escapes surrogate pairs while the template writes them as UTF-8; both are the same JSON
+        assertEquals(objectMapper.readTree(objectMapper.writeValueAsBytes(BODY.apply(prompt))),
+                objectMapper.readTree(template.render(prompt)));
+    }
+
+    @Test
+    @DisplayName("A body that does not embed the prompt exactly once should be rejected")
+    void testPromptSlotIsRequired() {
+        assertThrows(IllegalStateException.class,
+                () -> new GeminiRequestTemplate(objectMapper, prompt -> Map.of("text", "constant")));
+        assertThrows(IllegalStateException.class,
+                () -> new GeminiRequestTemplate(objectMapper, prompt -> List.of(prompt, prompt)));
+    }
+}
@@ -0,0 +1,140 @@
+package com.aicodehelper.ai.model;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.NettyDataBuffer;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import reactor.core.publisher.Flux;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for extracting candidate text from Gemini responses split across arbitrary buffers.
+ */
+class GeminiResponseParserTest {
+
+    private static final String RESPONSE = "{\"candidates\":[{\"content\":{\"parts\":[{\"text\":\"Hello, \\\"w\u00f6rld\\\"\\n\"},"
+            + "{\"text\":\"again\"}],\"role\":\"model\"},\"finishReason\":\"STOP\"},"
+            + "{\"content\":{\"parts\":[{\"text\":\"second candidate\"}]}}],"
+            + "\"usageMetadata\":{\"text\":\"not a candidate\",\"promptTokenCount\":3}}";
+
+    private final GeminiResponseParser parser = new GeminiResponseParser(new JsonFactory());
+    private final NettyDataBufferFactory bufferFactory = new NettyDataBufferFactory(new UnpooledByteBufAllocator(true));
+    private final List<DataBuffer> buffers = new ArrayList<>();
+
+    @Test
+    @DisplayName("Should extract the first candidate's text regardless of how the body is split")
+    void testResponseSplitAtEveryBoundary() {
+        for (int size : new int[]{1, 2, 7, 64, RESPONSE.length()}) {
+            GeminiResponse parsed = parser.response(split(RESPONSE, size)).block();
+
+            assertEquals("Hello, \"w\u00f6rld\"\nagain", parsed.text(), "Split into chunks of " + size);
+            assertEquals("STOP", parsed.finishReason());
+        }
+        assertAllReleased();
+    }
+
+    @Test
+    @DisplayName("Should extract function calls, the finish reason and token usage regardless of how the body is split")
+    void testResponseMetadataSplitAtEveryBoundary() {
+        String response = "{\"candidates\":[{\"content\":{\"parts\":[{\"text\":\"Searching\"},"
+                + "{\"functionCall\":{\"args\":{\"keyword\":\"java\",\"filters\":{\"tags\":[\"jvm\",1.5]}},\"name\":\"search\"}},"
+                + "{\"functionCall\":{\"name\":\"noArgs\"}}],\"role\":\"model\"},\"finishReason\":\"STOP\"},"
+                + "{\"content\":{\"parts\":[{\"functionCall\":{\"name\":\"other\"}}]},\"finishReason\":\"MAX_TOKENS\"}],"
+                + "\"usageMetadata\":{\"promptTokenCount\":12,\"candidatesTokenCount\":5,\"totalTokenCount\":17,"
+                + "\"cachedContentTokenCount\":8}}";
+
+        for (int size : new int[]{1, 3, 16, response.length()}) {
+            GeminiResponse parsed = parser.response(split(response, size)).block();
+
+            assertEquals("Searching", parsed.text(), "Split into chunks of " + size);
+            assertEquals(List.of(
+                    new GeminiResponse.FunctionCall("search", "{\"keyword\":\"java\",\"filters\":{\"tags\":[\"jvm\",1.5]}}"),
+                    new GeminiResponse.FunctionCall("noArgs", "{}")), parsed.functionCalls());
+            assertEquals("STOP", parsed.finishReason());
+            assertEquals(new GeminiResponse.Usage(12, 5, 17, 8), parsed.usage());
+        }
+        assertAllReleased();
+    }
+
+    @Test
+    @DisplayName("A response without candidates should parse to one without text, calls or usage")
+    void testResponseWithoutText() {
+        String blocked = "{\"promptFeedback\":{\"blockReason\":\"SAFETY\"}}";
+
+        GeminiResponse parsed = parser.response(split(blocked, 5)).block();
+
+        assertFalse(parsed.hasText());
+        assertEquals(List.of(), parsed.functionCalls());
+        assertNull(parsed.usage());
+        assertAllReleased();
+    }
+
+    @Test
+    @DisplayName("A truncated response should fail instead of returning partial text")
+    void testTruncatedResponse() {
+        String truncated = RESPONSE.substring(0, 60);
+
+        assertThrows(IllegalStateException.class, () -> parser.response(split(truncated, 8)).block());
+        assertAllReleased();
+    }
+
+    @Test
+    @DisplayName("Should split SSE events on blank lines with LF or CRLF endings across buffers")
+    void testStreamEvents() {
+        String stream = ": keep-alive\r\n\r\n"
+                + "data: " + chunk("Hel") + "\r\n\r\n"
+                + "event: message\n"
+                + "data:" + chunk("lo ") + "\n\n"
+                + "data: {\"candidates\":[{\"finishReason\":\"STOP\"}]}\r\n\r\n"
+                + "data: " + chunk("world");
+
+        for (int size : new int[]{1, 3, 10, stream.length()}) {
+            List<GeminiResponse> events = parser.stream(split(stream, size)).collectList().block();
+
+            assertEquals(List.of("Hel", "lo ", "", "world"),
+                    events.stream().map(event -> event.hasText() ? event.text() : "").toList(), "Split into chunks of " + size);
+            assertEquals("STOP", events.get(2).finishReason());
+        }
+        assertAllReleased();
+    }
+
+    @Test
+    @DisplayName("A malformed event should fail the stream")
+    void testMalformedEvent() {
+        String stream = "data: " + chunk("ok") + "\n\ndata: {\"candidates\":[\n\n";
+
+        assertThrows(IllegalStateException.class, () -> parser.stream(split(stream, 4)).collectList().block());
+        assertAllReleased();
+    }
+
+    private static String chunk(String text) {
+        return "{\"candidates\":[{\"content\":{\"parts\":[{\"text\":\"" + text + "\"}],\"role\":\"model\"}}]}";
+    }
+
+    private Flux<DataBuffer> split(String body, int size) {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        List<DataBuffer> chunks = new ArrayList<>();
+        for (int i = 0; i < bytes.length; i += size) {
+            DataBuffer buffer = bufferFactory.allocateBuffer(size);
+            buffer.write(Arrays.copyOfRange(bytes, i, Math.min(bytes.length, i + size)));
+            chunks.add(buffer);
+        }
+        buffers.addAll(chunks);
+        return Flux.fromIterable(chunks);
+    }
+
+    private void assertAllReleased() {
+        for (DataBuffer buffer : buffers) {
+            assertEquals(0, ((NettyDataBuffer) buffer).getNativeBuffer().refCnt(), "Buffer was not released");
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.aicodehelper.ai.model;
+
+import com.aicodehelper.support.GeminiTestFixtures;
+import com.aicodehelper.support.StubGeminiServer;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.langchain4j.agent.tool.ToolExecutionRequest;
+import dev.langchain4j.agent.tool.ToolSpecification;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.ToolExecutionResultMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.model.chat.listener.ChatModelListener;
+import dev.langchain4j.model.chat.listener.ChatModelResponseContext;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.request.json.JsonObjectSchema;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.output.FinishReason;
+import dev.langchain4j.model.output.Response;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the mapping of LangChain4j chat requests onto native Gemini requests, against the stub server.
+ */
+class GoogleAiStudioChatModelTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private StubGeminiServer stub;
+    private SimpleMeterRegistry meterRegistry;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        stub = StubGeminiServer.start();
+        meterRegistry = new SimpleMeterRegistry();
+    }
+
+    @AfterEach
+    void tearDown() {
+        stub.close();
+    }
+
+    @Test
+    @DisplayName("Messages should map onto the system instruction and alternating user and model turns")
+    void testMapsMessagesToTurns() throws Exception {
+        String systemPrompt = new ClassPathResource("system-prompt.txt").getContentAsString(StandardCharsets.UTF_8);
+
+        Response<AiMessage> response = chatModel(List.of()).generate(List.of(
+                SystemMessage.from(systemPrompt),
+                UserMessage.from("What is a HashMap?"),
+                AiMessage.from("A hash table implementation."),
+                UserMessage.from("And a TreeMap?")));
+
+        JsonNode body = objectMapper.readTree(stub.receivedBodies().get(0));
+        String systemInstruction = body.at("/systemInstruction/parts/0/text").asText();
+        assertTrue(systemInstruction.startsWith(systemPrompt.trim()), "System prompt becomes the system instruction");
+        assertTrue(systemInstruction.contains("When providing code examples"), "The system prompt selects the static prefix");
+        JsonNode contents = body.get("contents");
+        assertEquals(3, contents.size());
+        assertEquals("user", contents.get(0).get("role").asText());
+        assertEquals("What is a HashMap?", contents.get(0).at("/parts/0/text").asText());
+        assertEquals("model", contents.get(1).get("role").asText());
+        assertEquals("A hash table implementation.", contents.get(1).at("/parts/0/text").asText());
+        assertEquals("user", contents.get(2).get("role").asText());
+        assertFalse(stub.receivedBodies().get(0).contains("User:"), "No flattened transcript");
+
+        assertEquals("Stub answer from Gemini", response.content().text());
+        assertEquals(FinishReason.STOP, response.finishReason());
+        assertNotNull(response.tokenUsage(), "Usage reported by Gemini is returned");
+        assertTrue(response.tokenUsage().inputTokenCount() > 0);
+        assertEquals(response.tokenUsage().inputTokenCount() + response.tokenUsage().outputTokenCount(),
+                response.tokenUsage().totalTokenCount());
+        assertEquals(response.tokenUsage().inputTokenCount().doubleValue(),
+                meterRegistry.get("ai.tokens").tag("type", "input").summary().totalAmount());
+    }
+
+    @Test
+    @DisplayName("Another system message should be sent as is instead of the static prefix")
+    void testSendsOtherSystemMessageInline() throws Exception {
+        chatModel(List.of()).chat(ChatRequest.builder()
+                .messages(SystemMessage.from("You only answer in haiku."), UserMessage.from("Explain recursion"))
+                .build());
+
+        JsonNode body = objectMapper.readTree(stub.receivedBodies().get(0));
+        assertEquals("You only answer in haiku.", body.at("/systemInstruction/parts/0/text").asText());
+    }
+
+    @Test
+    @DisplayName("Function calls should become tool execution requests, and their results function responses")
+    void testToolCallRoundTrip() throws Exception {
+        stub.callFunctionNext("interviewQuestionSearch", "{\"keyword\":\"java\",\"limit\":3}");
+        ToolSpecification tool = ToolSpecification.builder()
+                .name("interviewQuestionSearch")
+                .description("Searches interview questions")
+                .parameters(JsonObjectSchema.builder().addStringProperty("keyword").required("keyword").build())
+                .build();
+        GoogleAiStudioChatModel chatModel = chatModel(List.of());
+        UserMessage question = UserMessage.from("Find Java interview questions");
+
+        ChatResponse call = chatModel.chat(ChatRequest.builder()
+                .messages(question)
+                .toolSpecifications(tool)
+                .build());
+
+        assertEquals(FinishReason.TOOL_EXECUTION, call.finishReason());
+        ToolExecutionRequest request = call.aiMessage().toolExecutionRequests().get(0);
+        assertEquals("interviewQuestionSearch", request.name());
+        assertNotNull(request.id(), "Calls get an ID to be told apart");
+        assertEquals("java", objectMapper.readTree(request.arguments()).get("keyword").asText());
+        JsonNode declaration = objectMapper.readTree(stub.receivedBodies().get(0)).at("/tools/0/functionDeclarations/0");
+        assertEquals("interviewQuestionSearch", declaration.get("name").asText());
+        assertEquals("keyword", declaration.at("/parameters/required/0").asText());
+
+        ChatResponse answer = chatModel.chat(ChatRequest.builder()
+                .messages(question, call.aiMessage(), ToolExecutionResultMessage.from(request, "1. What is the JVM?"))
+                .toolSpecifications(tool)
+                .build());
+
+        assertEquals("Stub answer from Gemini", answer.aiMessage().text());
+        JsonNode contents = objectMapper.readTree(stub.receivedBodies().get(1)).get("contents");
+        assertEquals("model", contents.get(1).get("role").asText());
+        assertEquals(3, contents.get(1).at("/parts/0/functionCall/args/limit").asInt());
+        assertEquals("user", contents.get(2).get("role").asText());
+        assertEquals("interviewQuestionSearch", contents.get(2).at("/parts/0/functionResponse/name").asText());
+        assertEquals("1. What is the JVM?", contents.get(2).at("/parts/0/functionResponse/response/content").asText());
+    }
+
+    @Test
+    @DisplayName("Listeners should receive the response with its token usage")
+    void testNotifiesListeners() {
+        List<ChatResponse> responses = new ArrayList<>();
+        ChatModelListener listener = new ChatModelListener() {
+            @Override
+            public void onResponse(ChatModelResponseContext responseContext) {
+                responses.add(responseContext.chatResponse());
+            }
+        };
+
+        chatModel(List.of(listener)).chat("Explain recursion");
+
+        assertEquals(1, responses.size());
+        assertNotNull(responses.get(0).tokenUsage());
+        assertEquals("gemini-test", responses.get(0).modelName());
+    }
+
+    private GoogleAiStudioChatModel chatModel(List<ChatModelListener> listeners) {
+        GoogleAiStudioClient client = GeminiTestFixtures.client(stub).meterRegistry(meterRegistry).build();
+        return new GoogleAiStudioChatModel(client, listeners);
+    }
+}
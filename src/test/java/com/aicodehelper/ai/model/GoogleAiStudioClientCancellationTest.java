@@ -0,0 +1,77 @@
+package com.aicodehelper.ai.model;
+
+import com.aicodehelper.support.GeminiTestFixtures;
+import com.aicodehelper.support.StubGeminiServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests that upstream calls stop when their caller goes away or their deadline passes.
+ */
+class GoogleAiStudioClientCancellationTest {
+
+    private StubGeminiServer stub;
+    private SimpleMeterRegistry meterRegistry;
+    private GoogleAiStudioClient client;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        stub = StubGeminiServer.start();
+        meterRegistry = new SimpleMeterRegistry();
+        client = GeminiTestFixtures.client(stub)
+                .meterRegistry(meterRegistry)
+                .requestTimeoutSeconds(1)
+                .build();
+    }
+
+    @AfterEach
+    void tearDown() {
+        stub.close();
+    }
+
+    @Test
+    @DisplayName("Cancelling a stream should abort the upstream exchange and be counted")
+    void testDisconnectAbortsStream() {
+        stub.respondWith("one two three four five").withChunkDelay(Duration.ofMillis(200));
+
+        List<String> received = client.streamContent("Count to five").take(1).collectList().block();
+
+        assertEquals(List.of("one "), received);
+        assertEquals(1, meterRegistry.get("ai.generation.abandoned").tag("mode", "stream").timer().count());
+    }
+
+    @Test
+    @DisplayName("A call past its deadline should fail with a timeout and be counted as abandoned")
+    void testDeadlineAbortsCall() {
+        stub.withDelay(Duration.ofSeconds(3));
+
+        RuntimeException error = assertThrows(RuntimeException.class, () -> client.generateContent("Slow question"));
+
+        assertInstanceOf(TimeoutException.class, error.getCause());
+        assertEquals(1, meterRegistry.get("ai.generation.abandoned").tag("mode", "unary").timer().count());
+    }
+
+    @Test
+    @DisplayName("A stream past its deadline should fail even while chunks keep arriving")
+    void testDeadlineAbortsStream() {
+        stub.respondWith("a b c d e f g h i j k l").withChunkDelay(Duration.ofMillis(200));
+
+        assertThrows(TimeoutException.class, () -> {
+            try {
+                client.streamContent("Long answer").blockLast();
+            } catch (RuntimeException e) {
+                throw e.getCause();
+            }
+        });
+        assertEquals(1, meterRegistry.get("ai.generation.abandoned").tag("mode", "stream").timer().count());
+    }
+}
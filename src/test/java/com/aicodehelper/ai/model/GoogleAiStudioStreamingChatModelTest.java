@@ -0,0 +1,186 @@
+package com.aicodehelper.ai.model;
+
+import com.aicodehelper.ai.traffic.AdmissionController;
+import com.aicodehelper.ai.traffic.CallerContext;
+import com.aicodehelper.ai.traffic.RequestPriority;
+import com.aicodehelper.support.GeminiTestFixtures;
+import com.aicodehelper.support.StubGeminiServer;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.memory.chat.MessageWindowChatMemory;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.chat.response.StreamingChatResponseHandler;
+import dev.langchain4j.model.output.FinishReason;
+import dev.langchain4j.service.AiServices;
+import dev.langchain4j.service.MemoryId;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests streaming chat through the Gemini streaming endpoint of the stub server, directly and
+ * through an AI service with chat memory.
+ */
+class GoogleAiStudioStreamingChatModelTest {
+
+    interface Assistant {
+        Flux<String> chat(@MemoryId int sessionId, @dev.langchain4j.service.UserMessage String message);
+    }
+
+    private StubGeminiServer stub;
+    private SimpleMeterRegistry meterRegistry;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        stub = StubGeminiServer.start().respondWith("Streams deliver answers in pieces");
+        meterRegistry = new SimpleMeterRegistry();
+    }
+
+    @AfterEach
+    void tearDown() {
+        stub.close();
+    }
+
+    @Test
+    @DisplayName("Chunks should reach the handler as they arrive, followed by the complete response")
+    void testStreamsPartialResponses() throws Exception {
+        List<String> partials = new CopyOnWriteArrayList<>();
+        CompletableFuture<ChatResponse> completed = new CompletableFuture<>();
+
+        streamingModel().chat(ChatRequest.builder().messages(UserMessage.from("Explain streams")).build(),
+                handler(partials, completed));
+
+        ChatResponse response = completed.get(5, TimeUnit.SECONDS);
+        assertEquals(List.of("Streams ", "deliver ", "answers ", "in ", "pieces"), partials);
+        assertEquals("Streams deliver answers in pieces", response.aiMessage().text());
+        assertEquals(FinishReason.STOP, response.finishReason());
+        assertEquals(9, response.tokenUsage().outputTokenCount(), "Totals come from the last event");
+        assertEquals(1, meterRegistry.get("ai.stream.first-token").tag("model", "gemini-test").timer().count());
+        assertEquals(4, meterRegistry.get("ai.stream.inter-token").tag("model", "gemini-test").timer().count());
+    }
+
+    @Test
+    @DisplayName("Streamed answers should go through session memory")
+    void testStreamsThroughChatMemory() throws Exception {
+        Assistant assistant = AiServices.builder(Assistant.class)
+                .streamingChatModel(streamingModel())
+                .chatMemoryProvider(sessionId -> MessageWindowChatMemory.withMaxMessages(10))
+                .build();
+
+        String first = String.join("", assistant.chat(1, "What is a stream?").collectList().block(Duration.ofSeconds(5)));
+        assistant.chat(1, "Show an example").collectList().block(Duration.ofSeconds(5));
+        assistant.chat(2, "Unrelated session").collectList().block(Duration.ofSeconds(5));
+
+        assertEquals("Streams deliver answers in pieces", first);
+        ObjectMapper objectMapper = new ObjectMapper();
+        JsonNode second = objectMapper.readTree(stub.receivedBodies().get(1)).get("contents");
+        assertEquals(3, second.size(), "Earlier turns of the session are sent along");
+        assertEquals("What is a stream?", second.get(0).at("/parts/0/text").asText());
+        assertEquals("model", second.get(1).get("role").asText());
+        assertEquals("Streams deliver answers in pieces", second.get(1).at("/parts/0/text").asText());
+        assertEquals(1, objectMapper.readTree(stub.receivedBodies().get(2)).get("contents").size());
+    }
+
+    @Test
+    @DisplayName("Cancelling the caller context should stop the upstream stream")
+    void testCancelsThroughCallerContext() throws Exception {
+        stub.withChunkDelay(Duration.ofMillis(200));
+        List<String> partials = new CopyOnWriteArrayList<>();
+        CompletableFuture<ChatResponse> completed = new CompletableFuture<>();
+        CallerContext caller = new CallerContext(RequestPriority.INTERACTIVE, "client-a");
+
+        caller.run(() -> {
+            streamingModel().chat(ChatRequest.builder().messages(UserMessage.from("Explain streams")).build(),
+                    handler(partials, completed));
+            return null;
+        });
+        long deadline = System.currentTimeMillis() + 5000;
+        while (partials.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        caller.cancel();
+        Thread.sleep(600);
+
+        assertFalse(completed.isDone(), "A cancelled stream does not complete");
+        assertTrue(partials.size() < 5, "Chunks stop after cancellation: " + partials);
+        assertEquals(1, meterRegistry.get("ai.generation.abandoned").tag("mode", "stream").timer().count());
+    }
+
+    @Test
+    @DisplayName("An AI service stream should carry the caller context to the model and stop upstream when cancelled")
+    void testServiceStreamKeepsCallerContext() throws Exception {
+        stub.withChunkDelay(Duration.ofMillis(200));
+        List<String> clients = new CopyOnWriteArrayList<>();
+        AdmissionController admissionController = GeminiTestFixtures.admissionController(new AdmissionController() {
+            @Override
+            public <T> Flux<T> admitStream(Flux<T> stream, RequestPriority priority, String clientId) {
+                clients.add(clientId);
+                return super.admitStream(stream, priority, clientId);
+            }
+        }, true, 10, new MockEnvironment(), meterRegistry);
+        GoogleAiStudioClient client = GeminiTestFixtures.client(stub)
+                .meterRegistry(meterRegistry)
+                .admissionController(admissionController)
+                .build();
+        Assistant assistant = AiServices.builder(Assistant.class)
+                .streamingChatModel(new GoogleAiStudioStreamingChatModel(client, List.of()))
+                .chatMemoryProvider(sessionId -> MessageWindowChatMemory.withMaxMessages(10))
+                .build();
+        List<String> partials = new CopyOnWriteArrayList<>();
+        CallerContext caller = new CallerContext(RequestPriority.INTERACTIVE, "client-a");
+
+        Disposable subscription = caller.stream(() -> assistant.chat(1, "Explain streams"))
+                .subscribeOn(Schedulers.boundedElastic())
+                .subscribe(partials::add);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (partials.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        subscription.dispose();
+        Thread.sleep(600);
+
+        assertEquals(List.of("client-a"), clients, "The model call is admitted for the caller's client");
+        assertTrue(partials.size() < 5, "Chunks stop after cancellation: " + partials);
+        assertEquals(1, meterRegistry.get("ai.generation.abandoned").tag("mode", "stream").timer().count());
+    }
+
+    private GoogleAiStudioStreamingChatModel streamingModel() {
+        GoogleAiStudioClient client = GeminiTestFixtures.client(stub).meterRegistry(meterRegistry).build();
+        return new GoogleAiStudioStreamingChatModel(client, List.of());
+    }
+
+    private static StreamingChatResponseHandler handler(List<String> partials, CompletableFuture<ChatResponse> completed) {
+        return new StreamingChatResponseHandler() {
+            @Override
+            public void onPartialResponse(String partialResponse) {
+                partials.add(partialResponse);
+            }
+
+            @Override
+            public void onCompleteResponse(ChatResponse completeResponse) {
+                completed.complete(completeResponse);
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                completed.completeExceptionally(error);
+            }
+        };
+    }
+}
@@ -0,0 +1,198 @@
+package com.aicodehelper.ai.quota;
+
+import com.aicodehelper.ai.model.GoogleAiStudioClient;
+import com.aicodehelper.ai.resilience.ModelCallResilience;
+import com.aicodehelper.ai.traffic.AdmissionRejectedException;
+import com.aicodehelper.support.GeminiTestFixtures;
+import com.aicodehelper.support.StubGeminiServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests key selection, rate limiting and cool-off of the API key pool.
+ */
+class ApiKeyPoolTest {
+
+    private Instant now;
+    private SimpleMeterRegistry meterRegistry;
+
+    @BeforeEach
+    void setUp() {
+        now = Instant.parse("2025-01-01T00:00:00Z");
+        meterRegistry = new SimpleMeterRegistry();
+    }
+
+    @Test
+    @DisplayName("Calls should go to the key with the most headroom")
+    void testSpreadsAcrossKeys() {
+        ApiKeyPool pool = pool(List.of("key-a", "key-b"), 10, 1000);
+
+        assertEquals("key-a", pool.acquire(100).block().key());
+        assertEquals("key-b", pool.acquire(100).block().key());
+        assertEquals("key-a", pool.acquire(100).block().key());
+        assertEquals(2.0, meterRegistry.get("ai.keys.requests").tag("key", "key-0").counter().count());
+    }
+
+    @Test
+    @DisplayName("Tokens reserved beyond the actual usage should be refunded")
+    void testUnusedTokensAreRefunded() {
+        ApiKeyPool pool = pool(List.of("key-a"), 100, 1000);
+
+        pool.acquire(800).block().complete(100);
+
+        assertNotNull(pool.acquire(800).block(), "The refund leaves 900 of 1000 tokens");
+        assertThrows(AdmissionRejectedException.class, () -> pool.acquire(800).block());
+    }
+
+    @Test
+    @DisplayName("Failed and cancelled calls should give back their whole reservation")
+    void testUnsettledReservationsAreRefunded() {
+        ApiKeyPool pool = pool(List.of("key-a"), 100, 1000);
+
+        pool.acquire(800).block().fail(WebClientResponseException.create(500, "Internal Server Error",
+                new HttpHeaders(), new byte[0], StandardCharsets.UTF_8));
+        ApiKeyPool.Lease cancelled = pool.acquire(800).block();
+        cancelled.release();
+        ApiKeyPool.Lease completed = pool.acquire(800).block();
+        completed.complete(800);
+        completed.release();
+
+        assertThrows(AdmissionRejectedException.class, () -> pool.acquire(800).block(),
+                "Releasing a settled lease refunds nothing");
+        assertEquals(0.0, meterRegistry.get("ai.keys.rate-limited").tag("key", "key-0").counter().count());
+    }
+
+    @Test
+    @DisplayName("A call abandoned at its deadline should not keep its token reservation")
+    void testDeadlineRefundsReservation() throws Exception {
+        try (StubGeminiServer stub = StubGeminiServer.start()) {
+            ApiKeyPool pool = pool(List.of("key-a"), 100, 3000);
+            GoogleAiStudioClient client = GeminiTestFixtures.client(stub).meterRegistry(meterRegistry)
+                    .apiKeyPool(pool)
+                    .requestTimeoutSeconds(1)
+                    .build();
+            stub.withDelay(Duration.ofSeconds(3));
+
+            assertThrows(RuntimeException.class, () -> client.generateContent("Slow question"));
+
+            // The clock stands still, so only a refund makes room for a second maximum-size call
+            assertNotNull(pool.acquire(2500).block());
+        }
+    }
+
+    @Test
+    @DisplayName("A rate-limited key should cool off for its Retry-After while the other keys take the calls")
+    void testRateLimitedKeyCoolsOff() {
+        ApiKeyPool pool = pool(List.of("key-a", "key-b"), 100, 100_000);
+
+        pool.acquire(10).block().fail(tooManyRequests("30"));
+
+        assertEquals("key-b", pool.acquire(10).block().key());
+        assertEquals("key-b", pool.acquire(10).block().key());
+        assertEquals(1.0, meterRegistry.get("ai.keys.cooling").tag("key", "key-0").gauge().value());
+
+        now = now.plusSeconds(31);
+        assertEquals("key-a", pool.acquire(10).block().key());
+    }
+
+    @Test
+    @DisplayName("With every key at its limit a call should be rejected with 429 and the time until a key frees up")
+    void testAllKeysExhausted() {
+        ApiKeyPool pool = pool(List.of("key-a", "key-b"), 2, 100_000);
+        for (int i = 0; i < 4; i++) {
+            pool.acquire(10).block();
+        }
+
+        AdmissionRejectedException rejected = assertThrows(AdmissionRejectedException.class,
+                () -> pool.acquire(10).block());
+
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS, rejected.getStatus());
+        assertEquals(Duration.ofSeconds(30), rejected.getRetryAfter(), "Half a minute refills one of two requests");
+        assertEquals(1.0, meterRegistry.get("ai.keys.exhausted").counter().count());
+
+        now = now.plusSeconds(30);
+        assertNotNull(pool.acquire(10).block());
+    }
+
+    @Test
+    @DisplayName("Without configured limits a key should never be throttled locally")
+    void testUnconfiguredLimitsAreNotEnforced() {
+        ApiKeyPool pool = pool(List.of("key-a"), 0, 0);
+
+        for (int i = 0; i < 1000; i++) {
+            assertEquals("key-a", pool.acquire(10_000).block().key());
+        }
+        assertEquals(0.0, meterRegistry.get("ai.keys.exhausted").counter().count());
+        assertEquals(0.0, meterRegistry.get("ai.keys.utilization").tag("limit", "requests").gauge().value());
+    }
+
+    @Test
+    @DisplayName("A call rate limited by Gemini should be retried on another key")
+    void testRetryUsesAnotherKey() throws Exception {
+        try (StubGeminiServer stub = StubGeminiServer.start()) {
+            ModelCallResilience resilience = GeminiTestFixtures.modelCallResilience(true, false, false, meterRegistry);
+            resilience.init();
+            GoogleAiStudioClient client = GeminiTestFixtures.client(stub).meterRegistry(meterRegistry)
+                    .apiKeyPool(GeminiTestFixtures.apiKeyPool(List.of("key-a", "key-b"), 100, meterRegistry))
+                    .modelCallResilience(resilience)
+                    .build();
+            stub.respondWith("Answer from the second key").failNext(1, 429);
+
+            assertEquals("Answer from the second key", client.generateContent("Hello"));
+
+            assertEquals(List.of("key-a", "key-b"), stub.receivedApiKeys());
+            assertEquals(1.0, meterRegistry.get("ai.keys.rate-limited").tag("key", "key-0").counter().count());
+        }
+    }
+
+    private ApiKeyPool pool(List<String> keys, long requestsPerMinute, long tokensPerMinute) {
+        ApiKeyPool pool = new ApiKeyPool();
+        ReflectionTestUtils.setField(pool, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(pool, "apiKeys", keys);
+        ReflectionTestUtils.setField(pool, "requestsPerMinute", requestsPerMinute);
+        ReflectionTestUtils.setField(pool, "tokensPerMinute", tokensPerMinute);
+        ReflectionTestUtils.setField(pool, "coolOffSeconds", 60L);
+        ReflectionTestUtils.setField(pool, "maxWaitMillis", 0L);
+        ReflectionTestUtils.setField(pool, "clock", new Clock() {
+            @Override
+            public ZoneOffset getZone() {
+                return ZoneOffset.UTC;
+            }
+
+            @Override
+            public Clock withZone(ZoneId zone) {
+                return this;
+            }
+
+            @Override
+            public Instant instant() {
+                return now;
+            }
+        });
+        pool.init();
+        return pool;
+    }
+
+    private static WebClientResponseException tooManyRequests(String retryAfter) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RETRY_AFTER, retryAfter);
+        return WebClientResponseException.create(429, "Too Many Requests", headers, new byte[0],
+                StandardCharsets.UTF_8);
+    }
+}
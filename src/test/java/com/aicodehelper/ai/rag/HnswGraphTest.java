@@ -0,0 +1,195 @@
+package com.aicodehelper.ai.rag;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests recall of the HNSW graph against an exact scan, concurrent building and persistence.
+ */
+class HnswGraphTest {
+
+    private static final int DIMENSION = 32;
+    private static final int K = 10;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    @DisplayName("A graph built by concurrent inserts should find nearly all exact nearest neighbours")
+    void testRecallWithConcurrentInserts() throws Exception {
+        RandomVectors vectors = new RandomVectors(3000, 1);
+        HnswGraph graph = new HnswGraph(vectors, vectors.size(), 8, 64);
+
+        insertConcurrently(graph, IntStream.range(0, vectors.size()).toArray());
+
+        assertTrue(recall(graph, vectors, 200) >= 0.95);
+    }
+
+    @Test
+    @DisplayName("Searches running during inserts should not fail")
+    void testSearchesDuringInserts() throws Exception {
+        RandomVectors vectors = new RandomVectors(2000, 2);
+        HnswGraph graph = new HnswGraph(vectors, vectors.size(), 8, 64);
+        Random random = new Random(3);
+
+        CompletableFuture<Void> inserts = CompletableFuture.runAsync(() -> {
+            for (int node = 0; node < vectors.size(); node++) {
+                graph.insert(node);
+            }
+        });
+        while (!inserts.isDone()) {
+            float[] query = vectors.random(random);
+            List<HnswGraph.Scored> found = graph.search(node -> vectors.similarity(query, norm(query), node), K, 32);
+            assertTrue(found.size() <= K);
+        }
+        inserts.get();
+
+        assertTrue(recall(graph, vectors, 100) >= 0.9);
+    }
+
+    @Test
+    @DisplayName("A saved graph should load with the same links and answer the same")
+    void testSaveAndLoad() throws Exception {
+        RandomVectors vectors = new RandomVectors(1000, 4);
+        HnswGraph graph = new HnswGraph(vectors, vectors.size(), 8, 64);
+        insertConcurrently(graph, IntStream.range(0, vectors.size()).toArray());
+        Path path = directory.resolve("graph-1.bin");
+
+        graph.save(path);
+        HnswGraph loaded = HnswGraph.load(path, vectors, vectors.size(), 8, 64);
+
+        assertNotNull(loaded);
+        Random random = new Random(5);
+        for (int i = 0; i < 50; i++) {
+            float[] query = vectors.random(random);
+            assertEquals(graph.search(node -> vectors.similarity(query, norm(query), node), K, 32),
+                    loaded.search(node -> vectors.similarity(query, norm(query), node), K, 32));
+        }
+        assertNull(HnswGraph.load(path, vectors, vectors.size(), 16, 64));
+        assertNull(HnswGraph.load(path, vectors, vectors.size() + 1, 8, 64));
+    }
+
+    @Test
+    @DisplayName("A remapped graph should drop removed nodes and take new ones without losing recall")
+    void testRemap() throws Exception {
+        RandomVectors before = new RandomVectors(2000, 6);
+        HnswGraph graph = new HnswGraph(before, before.size(), 8, 64);
+        insertConcurrently(graph, IntStream.range(0, before.size()).toArray());
+
+        // Drop the first 200 vectors, keep the rest in order and append 300 new ones
+        RandomVectors after = new RandomVectors(2100, 7);
+        for (int node = 200; node < before.size(); node++) {
+            after.vectors[node - 200] = before.vectors[node];
+        }
+        int[] mapping = IntStream.range(0, before.size()).map(node -> node < 200 ? -1 : node - 200).toArray();
+        HnswGraph remapped = graph.remap(after, after.size(), mapping);
+        insertConcurrently(remapped, IntStream.range(1800, after.size()).toArray());
+
+        assertTrue(recall(remapped, after, 200) >= 0.95);
+    }
+
+    private static void insertConcurrently(HnswGraph graph, int[] nodes) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<CompletableFuture<Void>> inserts = Arrays.stream(nodes)
+                    .mapToObj(node -> CompletableFuture.runAsync(() -> graph.insert(node), pool))
+                    .toList();
+            CompletableFuture.allOf(inserts.toArray(CompletableFuture[]::new)).get();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * @return Fraction of the exact top {@code K} found by the graph, over random queries
+     */
+    private static double recall(HnswGraph graph, RandomVectors vectors, int queries) {
+        Random random = new Random(42);
+        int found = 0;
+        for (int i = 0; i < queries; i++) {
+            float[] query = vectors.random(random);
+            double queryNorm = norm(query);
+            List<Integer> exact = IntStream.range(0, vectors.size()).boxed()
+                    .sorted(Comparator.comparingDouble((Integer node) -> vectors.similarity(query, queryNorm, node)).reversed())
+                    .limit(K)
+                    .toList();
+            List<Integer> approximate = graph.search(node -> vectors.similarity(query, queryNorm, node), K, 64).stream()
+                    .map(HnswGraph.Scored::node)
+                    .toList();
+            found += (int) approximate.stream().filter(exact::contains).count();
+        }
+        return found / (double) (queries * K);
+    }
+
+    private static double norm(float[] vector) {
+        double sum = 0;
+        for (float value : vector) {
+            sum += value * value;
+        }
+        return Math.sqrt(sum);
+    }
+
+    /**
+     * Vectors around a few random cluster centres, like embeddings of related texts.
+     */
+    private static class RandomVectors implements HnswGraph.Vectors {
+
+        private final float[][] vectors;
+
+        RandomVectors(int size, long seed) {
+            Random random = new Random(seed);
+            List<float[]> centres = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                centres.add(gaussian(random, null, 1));
+            }
+            vectors = new float[size][];
+            for (int i = 0; i < size; i++) {
+                vectors[i] = gaussian(random, centres.get(random.nextInt(centres.size())), 0.5);
+            }
+        }
+
+        int size() {
+            return vectors.length;
+        }
+
+        float[] random(Random random) {
+            return gaussian(random, vectors[random.nextInt(vectors.length)], 0.3);
+        }
+
+        @Override
+        public double similarity(int a, int b) {
+            return similarity(vectors[a], norm(vectors[a]), b);
+        }
+
+        double similarity(float[] query, double queryNorm, int node) {
+            float[] vector = vectors[node];
+            double dot = 0;
+            for (int d = 0; d < DIMENSION; d++) {
+                dot += query[d] * vector[d];
+            }
+            return dot / (queryNorm * norm(vector));
+        }
+
+        private static float[] gaussian(Random random, float[] centre, double spread) {
+            float[] vector = new float[DIMENSION];
+            for (int d = 0; d < DIMENSION; d++) {
+                vector[d] = (float) ((centre != null ? centre[d] : 0) + random.nextGaussian() * spread);
+            }
+            return vector;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.aicodehelper.ai.rag;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * Recall and latency of HNSW searches against the exact scan, on clustered 384-dimensional
+ * vectors shaped like sentence embeddings of a large knowledge base.
+ *
+ * Run with {@code mvn test -Dtest=HnswRecallBenchmark -Dbenchmark=true}; optionally
+ * {@code -Dbenchmark.segments=N}. Recall is the fraction of the exact top 10 found.
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class HnswRecallBenchmark {
+
+    private static final int DIMENSION = 384;
+    private static final int K = 10;
+    private static final int QUERIES = 500;
+    private static final int[] EF_SEARCH = {16, 32, 64, 128, 256};
+
+    @TempDir
+    Path directory;
+
+    @Test
+    @DisplayName("Recall and latency by ef search")
+    void measureRecallAndLatency() {
+        int segments = Integer.getInteger("benchmark.segments", 50_000);
+        Random random = new Random(42);
+        float[][] vectors = clustered(random, segments);
+        EmbeddingModel model = new FixedEmbeddingModel(vectors);
+        List<PersistentEmbeddingStore.Source> sources = new ArrayList<>();
+        for (int first = 0; first < segments; first += 100) {
+            int from = first;
+            sources.add(new PersistentEmbeddingStore.Source("doc" + first, "v1", () -> IntStream.range(from, Math.min(segments, from + 100))
+                    .mapToObj(i -> TextSegment.from(String.valueOf(i)))
+                    .toList()));
+        }
+
+        long startedAt = System.nanoTime();
+        store(true, 64).sync("fixed", sources, model);
+        System.out.printf("%nIndexed %d segments with the graph in %d ms on %d threads%n",
+                segments, (System.nanoTime() - startedAt) / 1_000_000, Runtime.getRuntime().availableProcessors());
+
+        List<float[]> queries = IntStream.range(0, QUERIES)
+                .mapToObj(i -> perturb(random, vectors[random.nextInt(segments)], 0.5f))
+                .toList();
+        PersistentEmbeddingStore exact = store(false, 0);
+        List<List<String>> truth = new ArrayList<>();
+        long[] exactLatencies = new long[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            long queryStartedAt = System.nanoTime();
+            truth.add(ids(exact, queries.get(i)));
+            exactLatencies[i] = System.nanoTime() - queryStartedAt;
+        }
+
+        System.out.printf("%-12s %8s %12s %12s%n", "search", "recall", "mean us", "p99 us");
+        System.out.printf("%-12s %8.3f %12.0f %12.0f%n", "exact", 1.0, mean(exactLatencies), p99(exactLatencies));
+        for (int ef : EF_SEARCH) {
+            PersistentEmbeddingStore graph = store(true, ef);
+            queries.subList(0, 50).forEach(query -> ids(graph, query));
+            long[] latencies = new long[QUERIES];
+            int found = 0;
+            for (int i = 0; i < QUERIES; i++) {
+                long queryStartedAt = System.nanoTime();
+                List<String> ids = ids(graph, queries.get(i));
+                latencies[i] = System.nanoTime() - queryStartedAt;
+                found += (int) ids.stream().filter(truth.get(i)::contains).count();
+            }
+            System.out.printf("%-12s %8.3f %12.0f %12.0f%n", "hnsw ef " + ef, found / (double) (QUERIES * K), mean(latencies), p99(latencies));
+        }
+    }
+
+    private PersistentEmbeddingStore store(boolean hnsw, int efSearch) {
+        PersistentEmbeddingStore store = new PersistentEmbeddingStore();
+        ReflectionTestUtils.setField(store, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(store, "directory", directory.toString());
+        ReflectionTestUtils.setField(store, "hnswEnabled", hnsw);
+        ReflectionTestUtils.setField(store, "m", 16);
+        ReflectionTestUtils.setField(store, "efConstruction", 200);
+        ReflectionTestUtils.setField(store, "efSearch", efSearch);
+        ReflectionTestUtils.setField(store, "quantization", "none");
+        ReflectionTestUtils.setField(store, "rescoreFactor", 4);
+        store.init();
+        return store;
+    }
+
+    private static List<String> ids(PersistentEmbeddingStore store, float[] query) {
+        return store.search(EmbeddingSearchRequest.builder()
+                        .queryEmbedding(Embedding.from(query))
+                        .maxResults(K)
+                        .minScore(0.0)
+                        .build())
+                .matches().stream().map(EmbeddingMatch::embeddingId).toList();
+    }
+
+    private static float[][] clustered(Random random, int size) {
+        float[][] centres = new float[size / 50 + 1][];
+        for (int i = 0; i < centres.length; i++) {
+            centres[i] = perturb(random, new float[DIMENSION], 1f);
+        }
+        float[][] vectors = new float[size][];
+        for (int i = 0; i < size; i++) {
+            vectors[i] = perturb(random, centres[random.nextInt(centres.length)], 1.0f);
+        }
+        return vectors;
+    }
+
+    /**
+     * @param noise Length of the random offset added to the unit vector {@code centre}
+     * @return The normalized sum
+     */
+    private static float[] perturb(Random random, float[] centre, float noise) {
+        float[] vector = new float[DIMENSION];
+        float spread = noise / (float) Math.sqrt(DIMENSION);
+        double norm = 0;
+        for (int d = 0; d < DIMENSION; d++) {
+            vector[d] = centre[d] + (float) random.nextGaussian() * spread;
+            norm += vector[d] * vector[d];
+        }
+        for (int d = 0; d < DIMENSION; d++) {
+            vector[d] /= (float) Math.sqrt(norm);
+        }
+        return vector;
+    }
+
+    private static double mean(long[] latencies) {
+        return Arrays.stream(latencies).average().orElse(0) / 1000;
+    }
+
+    private static double p99(long[] latencies) {
+        long[] sorted = latencies.clone();
+        Arrays.sort(sorted);
+        return sorted[(int) (sorted.length * 0.99)] / 1000.0;
+    }
+
+    /**
+     * Returns the prepared vector of the segment whose text is its number.
+     */
+    private record FixedEmbeddingModel(float[][] vectors) implements EmbeddingModel {
+
+        @Override
+        public Response<List<Embedding>> embedAll(List<TextSegment> segments) {
+            return Response.from(segments.stream().map(segment -> Embedding.from(vectors[Integer.parseInt(segment.text())])).toList());
+        }
+
+        @Override
+        public int dimension() {
+            return DIMENSION;
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package com.aicodehelper.ai.rag;
+
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static dev.langchain4j.store.embedding.filter.MetadataFilterBuilder.metadataKey;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests incremental syncs of the persisted knowledge base index across restarts.
+ */
+class PersistentEmbeddingStoreTest {
+
+    private static final String FINGERPRINT = "letters";
+
+    @TempDir
+    Path directory;
+
+    private final LetterEmbeddingModel model = new LetterEmbeddingModel();
+
+    @Test
+    @DisplayName("A restart with unchanged documents should map the index without embedding anything")
+    void testReopensWithoutEmbedding() {
+        PersistentEmbeddingStore store = store();
+        store.sync(FINGERPRINT, List.of(source("java.md", "v1", "java java", "spring"), source("redis.md", "v1", "redis")), model);
+        assertEquals(3, model.embedded.get());
+
+        PersistentEmbeddingStore restarted = store();
+        PersistentEmbeddingStore.SyncResult result = restarted.sync(FINGERPRINT,
+                List.of(source("java.md", "v1", "java java", "spring"), source("redis.md", "v1", "redis")), model);
+
+        assertEquals(new PersistentEmbeddingStore.SyncResult(2, 0, 0, 0), result);
+        assertEquals(3, model.embedded.get());
+        List<EmbeddingMatch<TextSegment>> matches = search(restarted, "redis", 1);
+        assertEquals("redis", matches.get(0).embedded().text());
+        assertEquals("redis.md#0", matches.get(0).embeddingId());
+        assertEquals(1.0, matches.get(0).score(), 1e-6);
+        assertEquals("redis.md", matches.get(0).embedded().metadata().getString("file_name"));
+        assertEquals(List.of("graph-1.bin", "vectors-1.bin"), generationFiles());
+    }
+
+    @Test
+    @DisplayName("Only new and changed documents should be embedded, and removed ones dropped")
+    void testEmbedsChangedDocumentsOnly() {
+        store().sync(FINGERPRINT, List.of(source("java.md", "v1", "java"), source("redis.md", "v1", "redis"),
+                source("kafka.md", "v1", "kafka")), model);
+        model.embedded.set(0);
+
+        PersistentEmbeddingStore restarted = store();
+        PersistentEmbeddingStore.SyncResult result = restarted.sync(FINGERPRINT, List.of(
+                source("java.md", "v1", "java"),
+                source("redis.md", "v2", "redis cluster", "redis sentinel"),
+                source("mysql.md", "v1", "mysql")), model);
+
+        assertEquals(new PersistentEmbeddingStore.SyncResult(1, 2, 1, 3), result);
+        assertEquals(3, model.embedded.get());
+        assertEquals("java", search(restarted, "java", 1).get(0).embedded().text());
+        assertEquals("redis sentinel", search(restarted, "redis sentinel", 1).get(0).embedded().text());
+        assertTrue(search(restarted, "kafka", 10).stream().noneMatch(match -> match.embedded().text().equals("kafka")));
+        assertEquals(List.of("graph-2.bin", "vectors-2.bin"), generationFiles());
+
+        // Vectors carried over from the previous generation survive a further restart
+        assertEquals("java", search(store(), "java", 1).get(0).embedded().text());
+    }
+
+    @Test
+    @DisplayName("A changed fingerprint should embed every document again")
+    void testFingerprintChangeRebuilds() {
+        store().sync(FINGERPRINT, List.of(source("java.md", "v1", "java"), source("redis.md", "v1", "redis")), model);
+        model.embedded.set(0);
+
+        PersistentEmbeddingStore.SyncResult result = store().sync("letters, smaller chunks",
+                List.of(source("java.md", "v1", "java"), source("redis.md", "v1", "redis")), model);
+
+        assertEquals(new PersistentEmbeddingStore.SyncResult(0, 2, 0, 2), result);
+        assertEquals(2, model.embedded.get());
+    }
+
+    @Test
+    @DisplayName("Search should apply the result limit, minimum score and metadata filter")
+    void testSearchOptions() {
+        PersistentEmbeddingStore store = store();
+        store.sync(FINGERPRINT, List.of(source("a.md", "v1", "aaab", "aabb", "abbb"), source("b.md", "v1", "bbbb")), model);
+        Embedding query = model.embed("aaaa").content();
+
+        List<EmbeddingMatch<TextSegment>> matches = store.search(EmbeddingSearchRequest.builder()
+                .queryEmbedding(query).maxResults(2).build()).matches();
+        assertEquals(List.of("aaab", "aabb"), matches.stream().map(match -> match.embedded().text()).toList());
+
+        matches = store.search(EmbeddingSearchRequest.builder()
+                .queryEmbedding(query).maxResults(10).minScore(0.8).build()).matches();
+        assertEquals(List.of("aaab", "aabb"), matches.stream().map(match -> match.embedded().text()).toList());
+
+        matches = store.search(EmbeddingSearchRequest.builder()
+                .queryEmbedding(model.embed("bbbb").content()).maxResults(10)
+                .filter(metadataKey("file_name").isEqualTo("a.md")).build()).matches();
+        assertEquals(List.of("abbb", "aabb", "aaab"), matches.stream().map(match -> match.embedded().text()).toList());
+    }
+
+    @Test
+    @DisplayName("A restart should load the saved graph, and a missing graph should be rebuilt from the vectors")
+    void testReopensGraph() throws Exception {
+        List<PersistentEmbeddingStore.Source> sources = IntStream.range(0, 50)
+                .mapToObj(i -> source("doc" + i + ".md", "v1", "a".repeat(i % 7 + 1) + "b".repeat(i % 5 + 1) + "c".repeat(i % 3)))
+                .toList();
+        PersistentEmbeddingStore store = store();
+        store.sync(FINGERPRINT, sources, model);
+        Path graph = directory.resolve("graph-1.bin");
+        FileTime saved = Files.getLastModifiedTime(graph);
+        List<EmbeddingMatch<TextSegment>> expected = search(store, "aaabbc", 5);
+
+        assertEquals(expected, search(store(), "aaabbc", 5));
+        assertEquals(saved, Files.getLastModifiedTime(graph));
+
+        Files.delete(graph);
+        assertEquals(expected.get(0).embedded().text(), search(store(), "aaabbc", 5).get(0).embedded().text());
+        assertTrue(Files.exists(graph));
+    }
+
+    @Test
+    @DisplayName("An index beyond the 2 GB mapping limit should be rejected before anything is written")
+    void testRejectsIndexBeyondMappingLimit() throws Exception {
+        EmbeddingIndex.Entry entry = new EmbeddingIndex.Entry(
+                new EmbeddingIndex.Source("big.md", "v1", List.of(new EmbeddingIndex.Segment("big", Map.of()))),
+                FloatBuffer.allocate(0));
+
+        IOException rejected = assertThrows(IOException.class,
+                () -> EmbeddingIndex.write(directory, null, FINGERPRINT, 600_000_000, List.of(entry)));
+
+        assertTrue(rejected.getMessage().contains("2 GB mapping limit"), rejected.getMessage());
+        assertEquals(List.of(), generationFiles());
+    }
+
+    @Test
+    @DisplayName("A corrupt index should be rebuilt")
+    void testRebuildsCorruptIndex() throws Exception {
+        store().sync(FINGERPRINT, List.of(source("java.md", "v1", "java")), model);
+        Files.write(directory.resolve("vectors-1.bin"), new byte[7]);
+        model.embedded.set(0);
+
+        PersistentEmbeddingStore restarted = store();
+        PersistentEmbeddingStore.SyncResult result = restarted.sync(FINGERPRINT, List.of(source("java.md", "v1", "java")), model);
+
+        assertEquals(new PersistentEmbeddingStore.SyncResult(0, 1, 0, 1), result);
+        assertEquals("java", search(restarted, "java", 1).get(0).embedded().text());
+    }
+
+    @Test
+    @DisplayName("Searches ranked on int8 quantized vectors should return full-precision scores")
+    void testQuantizedSearch() {
+        List<PersistentEmbeddingStore.Source> sources = IntStream.range(0, 50)
+                .mapToObj(i -> source("doc" + i + ".md", "v1", "a".repeat(i % 7 + 1) + "b".repeat(i % 5 + 1) + "c".repeat(i % 3)))
+                .toList();
+        PersistentEmbeddingStore exact = store();
+        exact.sync(FINGERPRINT, sources, model);
+        PersistentEmbeddingStore quantized = store("int8");
+
+        for (String text : List.of("aaabbc", "abbbbbcc", "aaaaaaab")) {
+            assertEquals(scores(search(exact, text, 5)), scores(search(quantized, text, 5)));
+        }
+        assertEquals(1.0, search(quantized, "aaabbc", 1).get(0).score(), 1e-6);
+
+        // Filtered searches scan the quantized vectors instead of walking the graph
+        List<EmbeddingMatch<TextSegment>> filtered = quantized.search(EmbeddingSearchRequest.builder()
+                .queryEmbedding(model.embed("aaabbc").content()).maxResults(3)
+                .filter(metadataKey("file_name").isEqualTo("doc16.md")).build()).matches();
+        assertEquals(List.of("doc16.md#0"), filtered.stream().map(EmbeddingMatch::embeddingId).toList());
+        assertEquals(1.0, filtered.get(0).score(), 1e-6);
+    }
+
+    private PersistentEmbeddingStore store() {
+        return store("none");
+    }
+
+    private PersistentEmbeddingStore store(String quantization) {
+        PersistentEmbeddingStore store = new PersistentEmbeddingStore();
+        ReflectionTestUtils.setField(store, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(store, "directory", directory.toString());
+        ReflectionTestUtils.setField(store, "hnswEnabled", true);
+        ReflectionTestUtils.setField(store, "m", 8);
+        ReflectionTestUtils.setField(store, "efConstruction", 32);
+        ReflectionTestUtils.setField(store, "efSearch", 32);
+        ReflectionTestUtils.setField(store, "buildThreads", 2);
+        ReflectionTestUtils.setField(store, "quantization", quantization);
+        ReflectionTestUtils.setField(store, "rescoreFactor", 4);
+        store.init();
+        return store;
+    }
+
+    private static PersistentEmbeddingStore.Source source(String file, String hash, String... texts) {
+        return new PersistentEmbeddingStore.Source(file, hash, () -> Arrays.stream(texts)
+                .map(text -> TextSegment.from(text, Metadata.from("file_name", file)))
+                .toList());
+    }
+
+    private List<EmbeddingMatch<TextSegment>> search(PersistentEmbeddingStore store, String text, int maxResults) {
+        return store.search(EmbeddingSearchRequest.builder()
+                .queryEmbedding(model.embed(text).content())
+                .maxResults(maxResults)
+                .build()).matches();
+    }
+
+    private static List<Double> scores(List<EmbeddingMatch<TextSegment>> matches) {
+        return matches.stream().map(EmbeddingMatch::score).toList();
+    }
+
+    private List<String> generationFiles() {
+        try (var files = Files.list(directory)) {
+            return files.map(file -> file.getFileName().toString()).filter(name -> name.endsWith(".bin")).sorted().toList();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Embeds texts as their letter counts, and counts the segments it embedded.
+     */
+    private static class LetterEmbeddingModel implements EmbeddingModel {
+
+        private final AtomicInteger embedded = new AtomicInteger();
+
+        @Override
+        public Response<List<Embedding>> embedAll(List<TextSegment> segments) {
+            embedded.addAndGet(segments.size());
+            return Response.from(segments.stream().map(segment -> {
+                float[] vector = new float[26];
+                for (char c : segment.text().toCharArray()) {
+                    if (c >= 'a' && c <= 'z') {
+                        vector[c - 'a']++;
+                    }
+                }
+                return Embedding.from(vector);
+            }).toList());
+        }
+
+        @Override
+        public int dimension() {
+            return 26;
+        }
+    }
+}
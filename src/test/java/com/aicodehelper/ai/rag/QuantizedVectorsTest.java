@@ -0,0 +1,92 @@
+package com.aicodehelper.ai.rag;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.FloatBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the similarity estimates and sizes of quantized vectors against the full-precision index.
+ */
+class QuantizedVectorsTest {
+
+    // Not a multiple of any lane count or of 64 bits
+    private static final int DIMENSION = 100;
+    private static final int SIZE = 500;
+
+    @TempDir
+    Path directory;
+
+    private final Random random = new Random(42);
+
+    @Test
+    @DisplayName("int8 estimates should stay close to the cosine similarity")
+    void testInt8Estimates() throws Exception {
+        EmbeddingIndex index = index();
+        QuantizedVectors quantized = QuantizedVectors.of(index, QuantizedVectors.Quantization.INT8);
+
+        for (int i = 0; i < 20; i++) {
+            float[] query = gaussian(null, 1);
+            double queryNorm = norm(query);
+            QuantizedVectors.Query encoded = quantized.query(query, queryNorm);
+            for (int position = 0; position < index.size(); position++) {
+                assertEquals(index.similarity(query, queryNorm, position), quantized.similarity(encoded, position), 0.02);
+            }
+        }
+        assertEquals((long) SIZE * DIMENSION + (long) SIZE * Float.BYTES, quantized.bytes());
+    }
+
+    @Test
+    @DisplayName("Binary estimates should rank the vector a query was derived from among the first candidates")
+    void testBinaryRanking() throws Exception {
+        EmbeddingIndex index = index();
+        QuantizedVectors quantized = QuantizedVectors.of(index, QuantizedVectors.Quantization.BINARY);
+
+        for (int i = 0; i < 20; i++) {
+            int target = random.nextInt(SIZE);
+            float[] query = gaussian(index.vector(target), 0.2);
+            QuantizedVectors.Query encoded = quantized.query(query, norm(query));
+            List<Integer> ranked = IntStream.range(0, index.size()).boxed()
+                    .sorted(Comparator.comparingDouble((Integer position) -> quantized.similarity(encoded, position)).reversed())
+                    .limit(10)
+                    .toList();
+            assertTrue(ranked.contains(target));
+        }
+        assertEquals((long) SIZE * 2 * Long.BYTES, quantized.bytes());
+    }
+
+    private EmbeddingIndex index() throws Exception {
+        List<EmbeddingIndex.Entry> entries = new ArrayList<>();
+        for (int i = 0; i < SIZE; i++) {
+            EmbeddingIndex.Source source = new EmbeddingIndex.Source("doc" + i, "v1", List.of(new EmbeddingIndex.Segment("text " + i, Map.of())));
+            entries.add(new EmbeddingIndex.Entry(source, FloatBuffer.wrap(gaussian(null, 1))));
+        }
+        return EmbeddingIndex.write(directory, null, "random", DIMENSION, entries);
+    }
+
+    private float[] gaussian(float[] centre, double spread) {
+        float[] vector = new float[DIMENSION];
+        for (int d = 0; d < DIMENSION; d++) {
+            vector[d] = (float) ((centre != null ? centre[d] : 0) + random.nextGaussian() * spread);
+        }
+        return vector;
+    }
+
+    private static double norm(float[] vector) {
+        double sum = 0;
+        for (float value : vector) {
+            sum += value * value;
+        }
+        return Math.sqrt(sum);
+    }
+}
@@ -0,0 +1,79 @@
+package com.aicodehelper.ai.rag;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the scalar kernels, and the SIMD ones when the build and JVM provide them, against plain
+ * loops for lengths on and off the lane count.
+ */
+class VectorMathTest {
+
+    private final Random random = new Random(42);
+
+    @Test
+    @DisplayName("Float dot products should match a plain loop")
+    void testFloatDot() {
+        for (VectorMath math : kernels()) {
+            for (int dimension = 1; dimension <= 70; dimension++) {
+                float[] a = gaussian(dimension);
+                float[] b = gaussian(dimension);
+                // Vectors start off the natural alignment, like those after the index file header
+                ByteBuffer buffer = ByteBuffer.allocateDirect(2 * dimension * Float.BYTES + 4).order(ByteOrder.LITTLE_ENDIAN);
+                buffer.position(4);
+                ByteBuffer vectors = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+                for (int d = 0; d < dimension; d++) {
+                    vectors.putFloat(d * Float.BYTES, a[d]);
+                    vectors.putFloat((dimension + d) * Float.BYTES, b[d]);
+                }
+                double expected = 0;
+                for (int d = 0; d < dimension; d++) {
+                    expected += a[d] * b[d];
+                }
+
+                VectorMath.Floats floats = math.floats(vectors, dimension);
+                assertEquals(expected, floats.dot(0, 1), 1e-4, math.name());
+                assertEquals(expected, floats.dot(a, 1), 1e-4, math.name());
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Byte dot products should match a plain loop without overflowing")
+    void testByteDot() {
+        for (VectorMath math : kernels()) {
+            for (int dimension = 1; dimension <= 70; dimension++) {
+                byte[] a = new byte[dimension];
+                ByteBuffer codes = ByteBuffer.allocateDirect(2 * dimension);
+                int expected = 0;
+                for (int d = 0; d < dimension; d++) {
+                    a[d] = (byte) (random.nextInt(255) - 127);
+                    byte b = d % 2 == 0 ? -127 : (byte) (random.nextInt(255) - 127);
+                    codes.put(dimension + d, b);
+                    expected += a[d] * b;
+                }
+
+                assertEquals(expected, math.bytes(codes, dimension).dot(a, 1), math.name());
+            }
+        }
+    }
+
+    private static List<VectorMath> kernels() {
+        return List.of(new VectorMath.Scalar(), VectorMath.get());
+    }
+
+    private float[] gaussian(int dimension) {
+        float[] vector = new float[dimension];
+        for (int d = 0; d < dimension; d++) {
+            vector[d] = (float) random.nextGaussian();
+        }
+        return vector;
+    }
+}
@@ -0,0 +1,169 @@
+package com.aicodehelper.ai.rag;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import dev.langchain4j.store.embedding.inmemory.InMemoryEmbeddingStore;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * Memory and latency of exact scans over 384-dimensional vectors: langchain4j's in-memory store
+ * of on-heap float arrays, the mapped index, and the int8 and binary quantized copies re-scored
+ * with full precision.
+ *
+ * Run with {@code mvn test -Dtest=VectorScanBenchmark -Dbenchmark=true}, adding {@code -Pvector}
+ * for the SIMD kernels; optionally {@code -Dbenchmark.segments=N}. Recall is the fraction of the
+ * exact top 10 found.
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class VectorScanBenchmark {
+
+    private static final int DIMENSION = 384;
+    private static final int K = 10;
+    private static final int QUERIES = 200;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    @DisplayName("Memory, latency and recall by vector storage")
+    void measureScans() {
+        int segments = Integer.getInteger("benchmark.segments", 50_000);
+        Random random = new Random(42);
+        float[][] vectors = clustered(random, segments);
+        List<float[]> queries = IntStream.range(0, QUERIES)
+                .mapToObj(i -> perturb(random, vectors[random.nextInt(segments)], 0.5f))
+                .toList();
+
+        InMemoryEmbeddingStore<TextSegment> inMemory = new InMemoryEmbeddingStore<>();
+        inMemory.addAll(Arrays.stream(vectors).map(Embedding::from).toList(),
+                IntStream.range(0, segments).mapToObj(i -> TextSegment.from(String.valueOf(i))).toList());
+        List<PersistentEmbeddingStore.Source> sources = new ArrayList<>();
+        for (int first = 0; first < segments; first += 100) {
+            int from = first;
+            sources.add(new PersistentEmbeddingStore.Source("doc" + first, "v1", () -> IntStream.range(from, Math.min(segments, from + 100))
+                    .mapToObj(i -> TextSegment.from(String.valueOf(i)))
+                    .toList()));
+        }
+        store(new SimpleMeterRegistry(), "none", 4).sync("fixed", sources, new FixedEmbeddingModel(vectors));
+
+        List<List<String>> truth = queries.stream().map(query -> texts(inMemory, query)).toList();
+        System.out.printf("%n%-30s %12s %10s %12s %8s%n", "storage", "vector MB", "mean us", "p99 us", "recall");
+        // An array of DIMENSION floats per vector, plus its 16-byte header
+        report("in-memory float[]", (long) segments * (DIMENSION * Float.BYTES + 16), inMemory, queries, truth);
+        for (String[] setting : new String[][] {{"none", "1"}, {"int8", "4"}, {"binary", "4"}, {"binary", "10"}}) {
+            MeterRegistry registry = new SimpleMeterRegistry();
+            PersistentEmbeddingStore store = store(registry, setting[0], Integer.parseInt(setting[1]));
+            String storage = setting[0].equals("none") ? "mapped" : "quantized";
+            long bytes = (long) registry.get("ai.rag.index.vectors.bytes").tag("storage", storage).gauge().value();
+            report(setting[0].equals("none") ? "mapped " + VectorMath.get().name() : setting[0] + " rescore x" + setting[1], bytes, store, queries, truth);
+        }
+    }
+
+    private static void report(String name, long bytes, EmbeddingStore<TextSegment> store, List<float[]> queries, List<List<String>> truth) {
+        queries.subList(0, 20).forEach(query -> texts(store, query));
+        long[] latencies = new long[queries.size()];
+        int found = 0;
+        for (int i = 0; i < queries.size(); i++) {
+            long startedAt = System.nanoTime();
+            List<String> texts = texts(store, queries.get(i));
+            latencies[i] = System.nanoTime() - startedAt;
+            found += (int) texts.stream().filter(truth.get(i)::contains).count();
+        }
+        System.out.printf("%-30s %12.1f %10.0f %12.0f %8.3f%n", name, bytes / 1e6, mean(latencies), p99(latencies),
+                found / (double) (queries.size() * K));
+    }
+
+    private PersistentEmbeddingStore store(MeterRegistry registry, String quantization, int rescoreFactor) {
+        PersistentEmbeddingStore store = new PersistentEmbeddingStore();
+        ReflectionTestUtils.setField(store, "meterRegistry", registry);
+        ReflectionTestUtils.setField(store, "directory", directory.toString());
+        ReflectionTestUtils.setField(store, "hnswEnabled", false);
+        ReflectionTestUtils.setField(store, "quantization", quantization);
+        ReflectionTestUtils.setField(store, "rescoreFactor", rescoreFactor);
+        store.init();
+        return store;
+    }
+
+    private static List<String> texts(EmbeddingStore<TextSegment> store, float[] query) {
+        return store.search(EmbeddingSearchRequest.builder()
+                        .queryEmbedding(Embedding.from(query))
+                        .maxResults(K)
+                        .minScore(0.0)
+                        .build())
+                .matches().stream().map(EmbeddingMatch::embedded).map(TextSegment::text).toList();
+    }
+
+    private static float[][] clustered(Random random, int size) {
+        float[][] centres = new float[size / 50 + 1][];
+        for (int i = 0; i < centres.length; i++) {
+            centres[i] = perturb(random, new float[DIMENSION], 1f);
+        }
+        float[][] vectors = new float[size][];
+        for (int i = 0; i < size; i++) {
+            vectors[i] = perturb(random, centres[random.nextInt(centres.length)], 1.0f);
+        }
+        return vectors;
+    }
+
+    /**
+     * @param noise Length of the random offset added to the unit vector {@code centre}
+     * @return The normalized sum
+     */
+    private static float[] perturb(Random random, float[] centre, float noise) {
+        float[] vector = new float[DIMENSION];
+        float spread = noise / (float) Math.sqrt(DIMENSION);
+        double norm = 0;
+        for (int d = 0; d < DIMENSION; d++) {
+            vector[d] = centre[d] + (float) random.nextGaussian() * spread;
+            norm += vector[d] * vector[d];
+        }
+        for (int d = 0; d < DIMENSION; d++) {
+            vector[d] /= (float) Math.sqrt(norm);
+        }
+        return vector;
+    }
+
+    private static double mean(long[] latencies) {
+        return Arrays.stream(latencies).average().orElse(0) / 1000;
+    }
+
+    private static double p99(long[] latencies) {
+        long[] sorted = latencies.clone();
+        Arrays.sort(sorted);
+        return sorted[(int) (sorted.length * 0.99)] / 1000.0;
+    }
+
+    /**
+     * Returns the prepared vector of the segment whose text is its number.
+     */
+    private record FixedEmbeddingModel(float[][] vectors) implements EmbeddingModel {
+
+        @Override
+        public Response<List<Embedding>> embedAll(List<TextSegment> segments) {
+            return Response.from(segments.stream().map(segment -> Embedding.from(vectors[Integer.parseInt(segment.text())])).toList());
+        }
+
+        @Override
+        public int dimension() {
+            return DIMENSION;
+        }
+    }
+}
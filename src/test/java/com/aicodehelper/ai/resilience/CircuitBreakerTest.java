@@ -0,0 +1,147 @@
+package com.aicodehelper.ai.resilience;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the circuit breaker state machine.
+ */
+class CircuitBreakerTest {
+
+    private static final long FAST = Duration.ofMillis(100).toNanos();
+    private static final long SLOW = Duration.ofSeconds(5).toNanos();
+
+    private Instant now;
+    private List<CircuitBreaker.State> transitions;
+    private CircuitBreaker breaker;
+
+    @BeforeEach
+    void setUp() {
+        now = Instant.parse("2025-01-01T00:00:00Z");
+        transitions = new ArrayList<>();
+        breaker = new CircuitBreaker(10, 4, 0.5, Duration.ofSeconds(1), 0.8, Duration.ofSeconds(30), 2,
+                transitions::add, new Clock() {
+                    @Override
+                    public ZoneOffset getZone() {
+                        return ZoneOffset.UTC;
+                    }
+
+                    @Override
+                    public Clock withZone(java.time.ZoneId zone) {
+                        return this;
+                    }
+
+                    @Override
+                    public Instant instant() {
+                        return now;
+                    }
+                });
+    }
+
+    @Test
+    @DisplayName("Should open once the failure rate reaches the threshold over the minimum number of calls")
+    void testOpensOnFailureRate() {
+        call(true, FAST);
+        call(false, FAST);
+        call(false, FAST);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state(), "Below the minimum number of calls");
+
+        call(true, FAST);
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+        assertFalse(breaker.tryAcquire());
+        assertEquals(Duration.ofSeconds(30), breaker.snapshot().retryAfter());
+    }
+
+    @Test
+    @DisplayName("Should open when most calls are slow even though they succeed")
+    void testOpensOnSlowCalls() {
+        for (int i = 0; i < 4; i++) {
+            call(true, SLOW);
+        }
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+        assertEquals(1.0, breaker.snapshot().slowCallRate());
+    }
+
+    @Test
+    @DisplayName("Old outcomes should leave the window as new ones arrive")
+    void testSlidingWindow() {
+        call(false, FAST);
+        for (int i = 0; i < 9; i++) {
+            call(true, FAST);
+        }
+        call(false, FAST);
+        call(false, FAST);
+        call(false, FAST);
+
+        assertEquals(10, breaker.snapshot().calls());
+        assertEquals(0.3, breaker.snapshot().failureRate(), 1e-9);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+    }
+
+    @Test
+    @DisplayName("After the open period, successful probes should close the breaker and a failed one reopen it")
+    void testHalfOpenProbes() {
+        openBreaker();
+        now = now.plusSeconds(31);
+
+        assertTrue(breaker.tryAcquire());
+        assertTrue(breaker.tryAcquire());
+        assertFalse(breaker.tryAcquire(), "Only the configured number of probes may run");
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+
+        now = now.plusSeconds(31);
+        assertTrue(breaker.tryAcquire());
+        breaker.onSuccess(FAST);
+        assertTrue(breaker.tryAcquire());
+        breaker.onSuccess(FAST);
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+        assertEquals(0, breaker.snapshot().calls());
+        assertEquals(List.of(CircuitBreaker.State.OPEN, CircuitBreaker.State.HALF_OPEN, CircuitBreaker.State.OPEN,
+                CircuitBreaker.State.HALF_OPEN, CircuitBreaker.State.CLOSED), transitions);
+    }
+
+    @Test
+    @DisplayName("A cancelled probe should give its slot back, unless it was cancelled after being slow")
+    void testCancelledProbe() {
+        openBreaker();
+        now = now.plusSeconds(31);
+        assertTrue(breaker.tryAcquire());
+        assertTrue(breaker.tryAcquire());
+
+        breaker.onCancelled(FAST);
+        assertTrue(breaker.tryAcquire());
+
+        breaker.onCancelled(SLOW);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+    }
+
+    private void openBreaker() {
+        for (int i = 0; i < 4; i++) {
+            call(false, FAST);
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+    }
+
+    private void call(boolean success, long latencyNanos) {
+        assertTrue(breaker.tryAcquire());
+        if (success) {
+            breaker.onSuccess(latencyNanos);
+        } else {
+            breaker.onFailure();
+        }
+    }
+}
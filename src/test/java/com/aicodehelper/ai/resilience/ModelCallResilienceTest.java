@@ -0,0 +1,134 @@
+package com.aicodehelper.ai.resilience;
+
+import com.aicodehelper.ai.model.GoogleAiStudioClient;
+import com.aicodehelper.support.GeminiTestFixtures;
+import com.aicodehelper.support.StubGeminiServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests retries, hedging and the circuit breaker against a stub server that injects
+ * delays and error responses.
+ */
+class ModelCallResilienceTest {
+
+    private StubGeminiServer stub;
+    private SimpleMeterRegistry meterRegistry;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        stub = StubGeminiServer.start();
+        meterRegistry = new SimpleMeterRegistry();
+    }
+
+    @AfterEach
+    void tearDown() {
+        stub.close();
+    }
+
+    @Test
+    @DisplayName("Server errors and rate limiting should be retried until an attempt succeeds")
+    void testTransientFailuresAreRetried() {
+        GoogleAiStudioClient client = client(GeminiTestFixtures.modelCallResilience(true, false, false, meterRegistry));
+        stub.respondWith("Recovered answer").failNext(1, 503).failNext(1, 429).withRetryAfter("0");
+
+        assertEquals("Recovered answer", client.generateContent("Hello"));
+
+        assertEquals(3, stub.requestCount());
+        assertEquals(2.0, meterRegistry.get("ai.resilience.retries").tag("outcome", "attempted").counter().count());
+    }
+
+    @Test
+    @DisplayName("Client errors should fail without a retry")
+    void testClientErrorsAreNotRetried() {
+        GoogleAiStudioClient client = client(GeminiTestFixtures.modelCallResilience(true, false, false, meterRegistry));
+        stub.failNext(1, 400);
+
+        assertThrows(RuntimeException.class, () -> client.generateContent("Hello"));
+
+        assertEquals(1, stub.requestCount());
+    }
+
+    @Test
+    @DisplayName("Retries should stop once the global retry budget is spent")
+    void testRetryBudget() {
+        ModelCallResilience resilience = GeminiTestFixtures.modelCallResilience(true, false, false, meterRegistry);
+        ReflectionTestUtils.setField(resilience, "budgetMaxTokens", 1.0);
+        ReflectionTestUtils.setField(resilience, "budgetRatio", 0.0);
+        ReflectionTestUtils.setField(resilience, "budgetMinPerSecond", 0.0);
+        GoogleAiStudioClient client = client(resilience);
+        stub.failNext(10, 503);
+
+        assertThrows(RuntimeException.class, () -> client.generateContent("First"));
+        assertThrows(RuntimeException.class, () -> client.generateContent("Second"));
+
+        assertEquals(3, stub.requestCount(), "One retry for the first call, none for the second");
+        assertEquals(2.0, meterRegistry.get("ai.resilience.retries").tag("outcome", "budget_exhausted").counter().count());
+    }
+
+    @Test
+    @DisplayName("A call slower than the recent p95 should be hedged and answered by the faster attempt")
+    void testSlowCallIsHedged() {
+        GoogleAiStudioClient client = client(GeminiTestFixtures.modelCallResilience(false, true, false, meterRegistry));
+        for (int i = 0; i < 20; i++) {
+            client.generateContent("Warm-up " + i);
+        }
+        stub.delayNext(Duration.ofSeconds(3));
+
+        long startedAt = System.nanoTime();
+        assertEquals("Stub answer from Gemini", client.generateContent("Slow question"));
+        Duration elapsed = Duration.ofNanos(System.nanoTime() - startedAt);
+
+        assertTrue(elapsed.compareTo(Duration.ofSeconds(2)) < 0, "Hedge should have answered, took " + elapsed);
+        assertEquals(22, stub.requestCount());
+        assertEquals(1.0, meterRegistry.get("ai.resilience.hedges").tag("outcome", "won").counter().count());
+    }
+
+    @Test
+    @DisplayName("An open circuit breaker should fail fast with 503 without calling Gemini")
+    void testCircuitBreakerOpens() {
+        ModelCallResilience resilience = GeminiTestFixtures.modelCallResilience(false, false, true, meterRegistry);
+        GoogleAiStudioClient client = client(resilience);
+        stub.failNext(4, 500);
+        for (int i = 0; i < 4; i++) {
+            assertThrows(RuntimeException.class, () -> client.generateContent("Failing"));
+        }
+
+        CircuitOpenException error = assertThrows(CircuitOpenException.class, () -> client.generateContent("Rejected"));
+
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, error.getStatus());
+        assertTrue(error.getRetryAfterSeconds() > 0);
+        assertEquals(4, stub.requestCount());
+        assertEquals(CircuitBreaker.State.OPEN, resilience.circuitBreaker("gemini-test").state());
+    }
+
+    @Test
+    @DisplayName("A stream that fails before its first chunk should be retried")
+    void testStreamRetriedBeforeFirstChunk() {
+        GoogleAiStudioClient client = client(GeminiTestFixtures.modelCallResilience(true, false, false, meterRegistry));
+        stub.respondWith("one two").failNext(1, 502);
+
+        List<String> chunks = client.streamContent("Count").collectList().block();
+
+        assertEquals(List.of("one ", "two"), chunks);
+        assertEquals(2, stub.requestCount());
+    }
+
+    private GoogleAiStudioClient client(ModelCallResilience resilience) {
+        resilience.init();
+        return GeminiTestFixtures.client(stub)
+                .meterRegistry(meterRegistry)
+                .modelCallResilience(resilience)
+                .build();
+    }
+}
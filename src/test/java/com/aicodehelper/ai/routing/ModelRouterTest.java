@@ -0,0 +1,142 @@
+package com.aicodehelper.ai.routing;
+
+import com.aicodehelper.ai.model.GoogleAiStudioClient;
+import com.aicodehelper.ai.resilience.CircuitOpenException;
+import com.aicodehelper.ai.resilience.ModelCallResilience;
+import com.aicodehelper.ai.traffic.RequestPriority;
+import com.aicodehelper.support.GeminiTestFixtures;
+import com.aicodehelper.support.StubGeminiServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests model choice by request signals and model health, and the breaker fallback.
+ */
+class ModelRouterTest {
+
+    private static final String FAST = "gemini-fast";
+    private static final String QUALITY = "gemini-quality";
+
+    private SimpleMeterRegistry meterRegistry;
+    private ModelCallResilience resilience;
+    private ModelRouter router;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        resilience = GeminiTestFixtures.modelCallResilience(false, false, true, meterRegistry);
+        resilience.init();
+        router = GeminiTestFixtures.modelRouter(FAST, QUALITY, resilience, meterRegistry);
+    }
+
+    @Test
+    @DisplayName("Short questions should go to the fast model, reports, long prompts and code to the quality model")
+    void testRoutesByRequest() {
+        assertRoute(FAST, "short_prompt", router.route("What does the volatile keyword do?", RequestPriority.INTERACTIVE));
+        assertRoute(QUALITY, "endpoint", router.route("Java", RequestPriority.BATCH));
+        assertRoute(QUALITY, "long_prompt", router.route("Explain ".repeat(300), RequestPriority.KNOWLEDGE));
+        assertRoute(QUALITY, "code", router.route("Why does this fail?\nint x = list.get(0);", RequestPriority.INTERACTIVE));
+
+        assertEquals(QUALITY, router.route("Hi", RequestPriority.INTERACTIVE).fallback());
+    }
+
+    @Test
+    @DisplayName("Decisions should be counted when the model is called, not for answers served from the cache")
+    void testCountsCalledDecisionsOnly() throws Exception {
+        try (StubGeminiServer stub = StubGeminiServer.start()) {
+            GoogleAiStudioClient client = GeminiTestFixtures.client(stub)
+                    .meterRegistry(meterRegistry)
+                    .modelRouter(router)
+                    .responseCache(GeminiTestFixtures.responseCache(true, GeminiTestFixtures.zeroEmbeddingModel(), meterRegistry))
+                    .build();
+
+            client.generateContent("What is a record?");
+            client.generateContent("What is a record?");
+
+            assertEquals(1, stub.requestCount());
+            assertEquals(1.0, meterRegistry.get("ai.routing.decisions")
+                    .tag("model", FAST).tag("reason", "short_prompt").counter().count());
+        }
+    }
+
+    @Test
+    @DisplayName("The code heuristic should detect code blocks, statements, declarations and stack traces")
+    void testCodeHeuristic() {
+        assertTrue(ModelRouter.looksLikeCode("Look at this:\n```java\nfoo();\n```"));
+        assertTrue(ModelRouter.looksLikeCode("for (int i = 0; i < n; i++) {\n}"));
+        assertTrue(ModelRouter.looksLikeCode("def fib(n):\n    return n"));
+        assertTrue(ModelRouter.looksLikeCode("Exception in thread \"main\"\n    at com.example.Main.run(Main.java:12)"));
+        assertTrue(ModelRouter.looksLikeCode("const add = (a, b) => a + b"));
+
+        assertFalse(ModelRouter.looksLikeCode("What is the difference between a list and a set?"));
+        assertFalse(ModelRouter.looksLikeCode("How do I learn Python (as a beginner)?"));
+    }
+
+    @Test
+    @DisplayName("A call rejected by an open breaker should fall back to the other model")
+    void testFallbackOnOpenBreaker() {
+        ModelRouter.Route route = new ModelRouter.Route(QUALITY, FAST, "code");
+
+        String answer = router.withFallback(route, model -> QUALITY.equals(model)
+                ? Mono.<String>error(new CircuitOpenException(Duration.ofSeconds(30)))
+                : Mono.just("Answer from " + model)).block();
+
+        assertEquals("Answer from " + FAST, answer);
+        assertEquals(1.0, meterRegistry.get("ai.routing.fallbacks").tag("from", QUALITY).tag("to", FAST).counter().count());
+    }
+
+    @Test
+    @DisplayName("With routing disabled every request should go to the configured model")
+    void testSingleModel() {
+        ModelRouter single = GeminiTestFixtures.modelRouter(QUALITY, QUALITY, resilience, meterRegistry);
+
+        ModelRouter.Route route = single.route("```java\nfoo();\n```", RequestPriority.BATCH);
+
+        assertRoute(QUALITY, "single_model", route);
+        assertNull(route.fallback());
+        assertEquals(List.of(QUALITY), single.models());
+    }
+
+    @Test
+    @DisplayName("Requests should move to the other model while the preferred model's breaker is open")
+    void testAvoidsModelWithOpenBreaker() throws Exception {
+        try (StubGeminiServer stub = StubGeminiServer.start()) {
+            GoogleAiStudioClient client = GeminiTestFixtures.client(stub)
+                    .meterRegistry(meterRegistry)
+                    .modelCallResilience(resilience)
+                    .modelRouter(router)
+                    .build();
+            assertEquals("Stub answer from Gemini", client.generateContent("What is a record?"));
+            stub.failNext(4, 500);
+            for (int i = 0; i < 4; i++) {
+                String prompt = "Fix this: foo(" + i + ");";
+                assertThrows(RuntimeException.class, () -> client.generateContent(prompt));
+            }
+
+            GoogleAiStudioClient.GeneratedContent rerouted = client
+                    .generate("Fix this: bar();", RequestPriority.INTERACTIVE, GoogleAiStudioClient.ANONYMOUS_CLIENT)
+                    .block();
+
+            assertEquals("Stub answer from Gemini", rerouted.text());
+            // The answer names the model that produced it, not the preferred one
+            assertEquals(FAST, rerouted.model());
+
+            assertEquals(List.of(FAST, QUALITY, QUALITY, QUALITY, QUALITY, FAST), stub.receivedModels());
+            assertEquals(1.0, meterRegistry.get("ai.routing.decisions")
+                    .tag("model", FAST).tag("reason", "breaker_open").counter().count());
+        }
+    }
+
+    private static void assertRoute(String model, String reason, ModelRouter.Route route) {
+        assertEquals(model, route.model());
+        assertEquals(reason, route.reason());
+    }
+}
@@ -0,0 +1,71 @@
+package com.aicodehelper.ai.streaming;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for merging streamed chunks into SSE frames by size and time.
+ */
+class SseFrameCoalescerTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private SseFrameCoalescer coalescer;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        coalescer = new SseFrameCoalescer();
+        ReflectionTestUtils.setField(coalescer, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(coalescer, "enabled", true);
+        ReflectionTestUtils.setField(coalescer, "maxDelayMillis", 16L);
+        ReflectionTestUtils.setField(coalescer, "maxChars", 20);
+        coalescer.init();
+    }
+
+    @Test
+    @DisplayName("A burst of chunks should be merged into size-bounded frames without losing text")
+    void testBurstIsMergedBySize() {
+        List<String> words = Flux.range(0, 30).map(i -> "w" + i + " ").collectList().block();
+
+        List<String> frames = coalescer.coalesce(Flux.fromIterable(words)).collectList().block();
+
+        assertEquals(String.join("", words), String.join("", frames));
+        assertEquals("w0 ", frames.get(0), "First chunk should be sent immediately");
+        assertTrue(frames.size() < 10, "Expected far fewer frames than chunks, got " + frames.size());
+        assertTrue(frames.stream().skip(1).allMatch(frame -> frame.length() < 20 + 4));
+        assertEquals(30.0, meterRegistry.get("ai.streaming.chunks").counter().count());
+        assertEquals(frames.size(), (int) meterRegistry.get("ai.streaming.frames").counter().count());
+    }
+
+    @Test
+    @DisplayName("Pending text should be flushed after the maximum delay even if the frame is small")
+    void testSlowChunksAreFlushedByTime() {
+        List<String> frames = Flux.just("a", "b", "c", "d")
+                .delayElements(Duration.ofMillis(100))
+                .transform(coalescer::coalesce)
+                .collectList()
+                .block();
+
+        assertEquals(List.of("a", "b", "c", "d"), frames);
+    }
+
+    @Test
+    @DisplayName("Newlines should be kept verbatim and pending text flushed before an error")
+    void testNewlinesAndErrors() {
+        Flux<String> source = Flux.just("line 1\n", "line 2\n\n", "line 3")
+                .concatWith(Flux.error(new IllegalStateException("upstream failed")));
+
+        StringBuilder text = new StringBuilder();
+        assertThrows(IllegalStateException.class, () -> coalescer.coalesce(source).doOnNext(text::append).blockLast());
+        assertEquals("line 1\nline 2\n\nline 3", text.toString());
+    }
+}
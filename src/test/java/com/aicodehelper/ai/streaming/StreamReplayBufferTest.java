@@ -0,0 +1,194 @@
+package com.aicodehelper.ai.streaming;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Flux;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for resuming chat streams from the replay buffer.
+ */
+class StreamReplayBufferTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private StreamReplayBuffer buffer;
+    private AtomicInteger generations;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        generations = new AtomicInteger();
+        buffer = new StreamReplayBuffer();
+        ReflectionTestUtils.setField(buffer, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(buffer, "enabled", true);
+        ReflectionTestUtils.setField(buffer, "maxStreams", 2);
+        ReflectionTestUtils.setField(buffer, "maxTotalChars", 1000L);
+        ReflectionTestUtils.setField(buffer, "ttlSeconds", 60L);
+        ReflectionTestUtils.setField(buffer, "abandonAfterSeconds", 1L);
+        buffer.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        buffer.destroy();
+    }
+
+    @Test
+    @DisplayName("Reconnecting with Last-Event-ID should continue after that event without a new generation")
+    void testResumeAfterLastEvent() {
+        List<StreamReplayBuffer.StreamFrame> first = buffer.start("session-1", "req-1", "question", () -> generation("a", "b", "c", "d"))
+                .take(2)
+                .collectList()
+                .block();
+        assertEquals(List.of("req-1:0", "req-1:1"), first.stream().map(StreamReplayBuffer.StreamFrame::id).toList());
+
+        List<String> rest = buffer.resume("session-1", "req-1:1").orElseThrow()
+                .map(StreamReplayBuffer.StreamFrame::text)
+                .collectList()
+                .block();
+
+        assertEquals(List.of("c", "d"), rest);
+        assertEquals(1, generations.get());
+        assertEquals(1.0, meterRegistry.get("ai.streaming.resume").tag("result", "hit").counter().count());
+    }
+
+    @Test
+    @DisplayName("A slow generation should keep filling the buffer while the client is disconnected")
+    void testGenerationOutlivesConnection() {
+        Flux<String> slow = Flux.just("one ", "two ", "three").delayElements(Duration.ofMillis(50));
+        buffer.start("session-1", "req-1", "question", () -> slow).take(1).blockLast();
+
+        List<String> rest = buffer.resume("session-1", "req-1:0").orElseThrow()
+                .map(StreamReplayBuffer.StreamFrame::text)
+                .collectList()
+                .block();
+
+        assertEquals(List.of("two ", "three"), rest);
+    }
+
+    @Test
+    @DisplayName("Starting a known request again should replay it instead of generating twice")
+    void testRestartReplays() {
+        buffer.start("session-1", "req-1", "question", () -> generation("a", "b")).blockLast();
+
+        List<String> replayed = buffer.start("session-1", "req-1", "question", () -> generation("x"))
+                .map(StreamReplayBuffer.StreamFrame::text)
+                .collectList()
+                .block();
+
+        assertEquals(List.of("a", "b"), replayed);
+        assertEquals(1, generations.get());
+    }
+
+    @Test
+    @DisplayName("Reusing a request ID for a different prompt should start a new generation")
+    void testRestartWithDifferentPromptGenerates() {
+        buffer.start("session-1", "req-1", "question", () -> generation("a", "b")).blockLast();
+
+        List<String> answered = buffer.start("session-1", "req-1", "another question", () -> generation("x"))
+                .map(StreamReplayBuffer.StreamFrame::text)
+                .collectList()
+                .block();
+
+        assertEquals(List.of("x"), answered);
+        assertEquals(2, generations.get());
+        // The new answer replaces the old one for resumption and in the size accounting
+        assertEquals(List.of("x"), buffer.resume("session-1", "req-1:-1").orElseThrow()
+                .map(StreamReplayBuffer.StreamFrame::text)
+                .collectList()
+                .block());
+        assertEquals(1.0, meterRegistry.get("ai.streaming.replay.chars").gauge().value());
+    }
+
+    @Test
+    @DisplayName("Streams should be evicted by age and count, and unknown or malformed IDs should not resume")
+    void testEviction() {
+        buffer.start("session-1", "req-1", "question", () -> generation("a")).blockLast();
+        buffer.start("session-1", "req-2", "question", () -> generation("b")).blockLast();
+        buffer.start("session-2", "req-1", "question", () -> generation("c")).blockLast();
+
+        // Only two streams fit: the oldest one is gone
+        assertTrue(buffer.resume("session-1", "req-1:0").isEmpty());
+        assertTrue(buffer.resume("session-1", "req-2:0").isPresent());
+        assertTrue(buffer.resume("session-9", "req-2:0").isEmpty());
+        assertTrue(buffer.resume("session-1", "garbage").isEmpty());
+        assertTrue(buffer.resume("session-1", "req-2:x").isEmpty());
+
+        ReflectionTestUtils.setField(buffer, "clock",
+                Clock.fixed(Instant.now().plus(Duration.ofMinutes(2)), ZoneOffset.UTC));
+        ReflectionTestUtils.invokeMethod(buffer, "evict");
+
+        assertTrue(buffer.resume("session-1", "req-2:0").isEmpty());
+        assertEquals(0.0, meterRegistry.get("ai.streaming.replay.streams").gauge().value());
+        assertEquals(0.0, meterRegistry.get("ai.streaming.replay.chars").gauge().value());
+    }
+
+    @Test
+    @DisplayName("Streams still generating should not be evicted over the caps")
+    void testInFlightStreamsAreNotEvicted() {
+        AtomicInteger cancelled = new AtomicInteger();
+        for (int i = 1; i <= 3; i++) {
+            Flux<String> slow = Flux.interval(Duration.ofMillis(50)).map(n -> "chunk " + n)
+                    .doOnCancel(cancelled::incrementAndGet);
+            buffer.start("session-1", "req-" + i, "question", () -> slow).take(1).blockLast();
+        }
+        buffer.start("session-2", "req-1", "question", () -> generation("done")).blockLast();
+        ReflectionTestUtils.invokeMethod(buffer, "evict");
+
+        // Over the cap of two, only the finished stream can go
+        assertTrue(buffer.resume("session-1", "req-1:0").isPresent());
+        assertTrue(buffer.resume("session-1", "req-3:0").isPresent());
+        assertTrue(buffer.resume("session-2", "req-1:0").isEmpty());
+        assertEquals(0, cancelled.get());
+    }
+
+    @Test
+    @DisplayName("A failed generation should not be kept for replay")
+    void testFailedGenerationIsDropped() {
+        Flux<String> failing = Flux.concat(Flux.just("partial"), Flux.error(new IllegalStateException("upstream failed")));
+
+        assertThrows(IllegalStateException.class, () -> buffer.start("session-1", "req-1", "question", () -> failing).blockLast());
+        assertTrue(buffer.resume("session-1", "req-1:0").isEmpty());
+    }
+
+    @Test
+    @DisplayName("A generation nobody reconnects to should be cancelled after the grace period")
+    void testAbandonedGenerationIsCancelled() throws InterruptedException {
+        AtomicInteger cancelled = new AtomicInteger();
+        Flux<String> slow = Flux.interval(Duration.ofMillis(50)).map(i -> "chunk " + i)
+                .doOnCancel(cancelled::incrementAndGet);
+
+        buffer.start("session-1", "req-1", "question", () -> slow).take(1).blockLast();
+        Thread.sleep(300);
+        // Still within the grace period: resumable, and a reconnect keeps the generation alive
+        List<String> resumed = buffer.resume("session-1", "req-1:0").orElseThrow()
+                .take(2)
+                .map(StreamReplayBuffer.StreamFrame::text)
+                .collectList()
+                .block();
+        assertEquals(List.of("chunk 1", "chunk 2"), resumed);
+        assertEquals(0, cancelled.get());
+
+        Thread.sleep(1500);
+        assertEquals(1, cancelled.get());
+        assertTrue(buffer.resume("session-1", "req-1:2").isEmpty());
+        assertEquals(1.0, meterRegistry.get("ai.streaming.replay.abandoned").counter().count());
+    }
+
+    private Flux<String> generation(String... frames) {
+        generations.incrementAndGet();
+        return Flux.just(frames);
+    }
+}
@@ -0,0 +1,293 @@
+package com.aicodehelper.ai.tools;
+
+import com.aicodehelper.ai.traffic.CallerContext;
+import com.aicodehelper.ai.traffic.RequestPriority;
+import dev.langchain4j.agent.tool.P;
+import dev.langchain4j.agent.tool.Tool;
+import dev.langchain4j.agent.tool.ToolExecutionRequest;
+import dev.langchain4j.agent.tool.ToolMemoryId;
+import dev.langchain4j.agent.tool.ToolSpecification;
+import dev.langchain4j.agent.tool.ToolSpecifications;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.ToolExecutionResultMessage;
+import dev.langchain4j.memory.chat.MessageWindowChatMemory;
+import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.listener.ChatModelListener;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.service.AiServices;
+import dev.langchain4j.service.MemoryId;
+import dev.langchain4j.service.UserMessage;
+import dev.langchain4j.service.tool.DefaultToolExecutor;
+import dev.langchain4j.service.tool.ToolExecutor;
+import dev.langchain4j.service.tool.ToolProviderResult;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests concurrent execution of the tool calls of one model turn through an AI service.
+ */
+class ConcurrentToolExecutionTest {
+
+    interface Assistant {
+        String chat(String message);
+    }
+
+    interface SessionAssistant {
+        String chat(@MemoryId String sessionId, @UserMessage String message);
+    }
+
+    public static class SlowTools {
+
+        @Tool("Searches interview questions")
+        public String searchInterviewQuestions(@P("Keyword") String keyword) throws InterruptedException {
+            Thread.sleep(keyword.equals("slow") ? 5_000 : 400);
+            return "Questions about " + keyword;
+        }
+    }
+
+    public static class ThreadRecordingTools {
+
+        private final List<Boolean> virtual = new CopyOnWriteArrayList<>();
+
+        @Tool("Searches interview questions")
+        public String searchInterviewQuestions(@P("Keyword") String keyword) throws InterruptedException {
+            Thread.sleep(200);
+            virtual.add(Thread.currentThread().isVirtual());
+            return "Questions about " + keyword;
+        }
+    }
+
+    public static class BlockingTools {
+
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch interrupted = new CountDownLatch(1);
+
+        @Tool("Searches interview questions")
+        public String searchInterviewQuestions(@P("Keyword") String keyword) {
+            started.countDown();
+            try {
+                Thread.sleep(10_000);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+            return "Questions about " + keyword;
+        }
+    }
+
+    public static class SessionTools {
+
+        private final List<Object> memoryIds = new CopyOnWriteArrayList<>();
+
+        @Tool("Searches interview questions")
+        public String searchInterviewQuestions(@ToolMemoryId Object memoryId, @P("Keyword") String keyword) {
+            memoryIds.add(memoryId);
+            return "Questions about " + keyword;
+        }
+    }
+
+    private SimpleMeterRegistry meterRegistry;
+    private ConcurrentToolExecution toolExecution;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        toolExecution = new ConcurrentToolExecution();
+        ReflectionTestUtils.setField(toolExecution, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(toolExecution, "enabled", true);
+        ReflectionTestUtils.setField(toolExecution, "maxThreads", 4);
+        ReflectionTestUtils.setField(toolExecution, "queueSize", 4);
+        ReflectionTestUtils.setField(toolExecution, "timeoutSeconds", 1L);
+        toolExecution.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        toolExecution.destroy();
+    }
+
+    @Test
+    @DisplayName("The tool calls of one turn should run concurrently")
+    void testRunsToolCallsConcurrently() {
+        ToolCallingModel model = new ToolCallingModel(toolExecution, "java", "redis", "spring");
+        Assistant assistant = AiServices.builder(Assistant.class)
+                .chatModel(model)
+                .chatMemory(MessageWindowChatMemory.withMaxMessages(10))
+                .tools(toolExecution.tools(new SlowTools()))
+                .build();
+
+        long startedAt = System.nanoTime();
+        String answer = assistant.chat("Find questions");
+        long elapsedMillis = (System.nanoTime() - startedAt) / 1_000_000;
+
+        assertEquals("Done", answer);
+        assertTrue(elapsedMillis < 1_000, "Three 400 ms calls took " + elapsedMillis + " ms");
+        assertEquals(List.of("Questions about java", "Questions about redis", "Questions about spring"), model.toolResults);
+        assertEquals(3, meterRegistry.get("ai.tools.latency")
+                .tag("tool", "searchInterviewQuestions").tag("outcome", "success").timer().count());
+        assertEquals(0.0, meterRegistry.get("ai.tools.prestart.misses").counter().count());
+    }
+
+    @Test
+    @DisplayName("Cancelling the caller context should interrupt a running tool call")
+    void testCancelsThroughCallerContext() throws Exception {
+        ReflectionTestUtils.setField(toolExecution, "timeoutSeconds", 30L);
+        ToolCallingModel model = new ToolCallingModel(toolExecution, "java");
+        BlockingTools tools = new BlockingTools();
+        Assistant assistant = AiServices.builder(Assistant.class)
+                .chatModel(model)
+                .chatMemory(MessageWindowChatMemory.withMaxMessages(10))
+                .tools(toolExecution.tools(tools))
+                .build();
+        CallerContext caller = new CallerContext(RequestPriority.INTERACTIVE, "client-a");
+
+        CompletableFuture<String> answer = CompletableFuture.supplyAsync(() -> caller.run(() -> assistant.chat("Find questions")));
+        assertTrue(tools.started.await(5, TimeUnit.SECONDS), "The tool call started");
+        caller.cancel();
+
+        assertTrue(tools.interrupted.await(1, TimeUnit.SECONDS), "The running call was interrupted");
+        assertEquals("Done", answer.get(5, TimeUnit.SECONDS));
+        assertEquals(List.of("The searchInterviewQuestions tool was cancelled."), model.toolResults);
+        assertEquals(1, meterRegistry.get("ai.tools.latency").tag("outcome", "cancelled").timer().count());
+    }
+
+    @Test
+    @DisplayName("A tool that takes the memory ID should run when the service executes it, with the session's ID")
+    void testPassesMemoryIdToTools() {
+        ToolCallingModel model = new ToolCallingModel(toolExecution, "java", "redis");
+        SessionTools tools = new SessionTools();
+        SessionAssistant assistant = AiServices.builder(SessionAssistant.class)
+                .chatModel(model)
+                .chatMemoryProvider(sessionId -> MessageWindowChatMemory.withMaxMessages(10))
+                .tools(toolExecution.tools(tools))
+                .build();
+
+        assistant.chat("session-a", "Find questions");
+
+        assertEquals(List.of("session-a", "session-a"), tools.memoryIds);
+        assertEquals(List.of("Questions about java", "Questions about redis"), model.toolResults);
+        assertEquals(0.0, meterRegistry.get("ai.tools.prestart.misses").counter().count());
+    }
+
+    @Test
+    @DisplayName("A call past its timeout should be answered with a note while the others return results")
+    void testReturnsPartialResultsOnTimeout() {
+        ToolCallingModel model = new ToolCallingModel(toolExecution, "slow", "java");
+        Assistant assistant = AiServices.builder(Assistant.class)
+                .chatModel(model)
+                .chatMemory(MessageWindowChatMemory.withMaxMessages(10))
+                .tools(toolExecution.tools(new SlowTools()))
+                .build();
+
+        long startedAt = System.nanoTime();
+        assistant.chat("Find questions");
+        long elapsedMillis = (System.nanoTime() - startedAt) / 1_000_000;
+
+        assertTrue(elapsedMillis < 2_500, "Timed out after " + elapsedMillis + " ms");
+        assertTrue(model.toolResults.get(0).contains("did not finish within 1 seconds"), model.toolResults.get(0));
+        assertEquals("Questions about java", model.toolResults.get(1));
+        assertEquals(1, meterRegistry.get("ai.tools.latency").tag("outcome", "timeout").timer().count());
+    }
+
+    @Test
+    @DisplayName("Tools from a provider should run concurrently too")
+    void testWrapsToolProviders() throws Exception {
+        ToolCallingModel model = new ToolCallingModel(toolExecution, "java", "redis");
+        Method search = SlowTools.class.getMethod("searchInterviewQuestions", String.class);
+        Map<ToolSpecification, ToolExecutor> tools = Map.of(
+                ToolSpecifications.toolSpecificationFrom(search), new DefaultToolExecutor(new SlowTools(), search));
+        Assistant assistant = AiServices.builder(Assistant.class)
+                .chatModel(model)
+                .chatMemory(MessageWindowChatMemory.withMaxMessages(10))
+                .toolProvider(toolExecution.tools(request -> new ToolProviderResult(tools)))
+                .build();
+
+        long startedAt = System.nanoTime();
+        assistant.chat("Find questions");
+        long elapsedMillis = (System.nanoTime() - startedAt) / 1_000_000;
+
+        assertTrue(elapsedMillis < 750, "Two 400 ms calls took " + elapsedMillis + " ms");
+        assertEquals(List.of("Questions about java", "Questions about redis"), model.toolResults);
+    }
+
+    @Test
+    @DisplayName("With virtual threads, calls should get a virtual thread each up to the permit limit")
+    void testRunsOnVirtualThreadsWithinPermits() {
+        toolExecution.destroy();
+        ReflectionTestUtils.setField(toolExecution, "virtualThreads", true);
+        ReflectionTestUtils.setField(toolExecution, "maxVirtualCalls", 2);
+        toolExecution.init();
+
+        ToolCallingModel model = new ToolCallingModel(toolExecution, "java", "redis", "spring");
+        ThreadRecordingTools tools = new ThreadRecordingTools();
+        Assistant assistant = AiServices.builder(Assistant.class)
+                .chatModel(model)
+                .chatMemory(MessageWindowChatMemory.withMaxMessages(10))
+                .tools(toolExecution.tools(tools))
+                .build();
+
+        assistant.chat("Find questions");
+
+        assertEquals(List.of("Questions about java", "Questions about redis", "Questions about spring"), model.toolResults);
+        // The third call found no permit and ran on the service's own thread
+        assertEquals(List.of(true, true, false), tools.virtual);
+        assertEquals(1.0, meterRegistry.get("ai.tools.inline").counter().count());
+        assertEquals(0.0, meterRegistry.get("ai.tools.active").gauge().value());
+    }
+
+    /**
+     * Asks for one search per keyword, then answers "Done" once it has the results.
+     */
+    private static final class ToolCallingModel implements ChatModel {
+
+        private final ChatModelListener listener;
+        private final List<String> keywords;
+        private final List<String> toolResults = new CopyOnWriteArrayList<>();
+
+        private ToolCallingModel(ChatModelListener listener, String... keywords) {
+            this.listener = listener;
+            this.keywords = List.of(keywords);
+        }
+
+        @Override
+        public ChatResponse doChat(ChatRequest request) {
+            List<ChatMessage> messages = request.messages();
+            if (messages.get(messages.size() - 1) instanceof ToolExecutionResultMessage) {
+                messages.stream()
+                        .filter(ToolExecutionResultMessage.class::isInstance)
+                        .forEach(message -> toolResults.add(((ToolExecutionResultMessage) message).text()));
+                return ChatResponse.builder().aiMessage(AiMessage.from("Done")).build();
+            }
+            List<ToolExecutionRequest> calls = new ArrayList<>();
+            for (int i = 0; i < keywords.size(); i++) {
+                calls.add(ToolExecutionRequest.builder()
+                        .id("call-" + i)
+                        .name("searchInterviewQuestions")
+                        .arguments("{\"keyword\":\"" + keywords.get(i) + "\"}")
+                        .build());
+            }
+            return ChatResponse.builder().aiMessage(AiMessage.from(calls)).build();
+        }
+
+        @Override
+        public List<ChatModelListener> listeners() {
+            return List.of(listener);
+        }
+    }
+}
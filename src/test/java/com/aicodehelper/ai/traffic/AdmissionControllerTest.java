@@ -0,0 +1,173 @@
+package com.aicodehelper.ai.traffic;
+
+import com.aicodehelper.ai.model.GoogleAiStudioClient;
+import com.aicodehelper.support.GeminiTestFixtures;
+import com.aicodehelper.support.StubGeminiServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.env.MockEnvironment;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.aicodehelper.ai.traffic.RequestPriority.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the admission control bulkhead in front of upstream model calls.
+ */
+class AdmissionControllerTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+    private SimpleMeterRegistry meterRegistry;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+    }
+
+    @Test
+    @DisplayName("No more calls than the limit should run concurrently")
+    void testLimitIsRespected() {
+        AdmissionController controller = GeminiTestFixtures.admissionController(true, 2, 100, meterRegistry);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+
+        List<Integer> results = Flux.range(0, 10)
+                .flatMap(i -> controller.admit(Mono.defer(() -> {
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    return Mono.delay(Duration.ofMillis(50)).map(tick -> i);
+                }).doOnTerminate(running::decrementAndGet), INTERACTIVE, "client", TIMEOUT))
+                .collectList()
+                .block();
+
+        assertEquals(10, results.size());
+        assertEquals(2, maxRunning.get());
+        assertEquals(0.0, meterRegistry.get("ai.admission.in-flight").tag("class", "interactive").gauge().value());
+    }
+
+    @Test
+    @DisplayName("Calls beyond the queue capacity should be rejected with 429 and a Retry-After hint")
+    void testQueueFullIsRejected() {
+        AdmissionController controller = GeminiTestFixtures.admissionController(true, 1, 1, meterRegistry);
+        Mono<String> slow = Mono.delay(Duration.ofMillis(300)).thenReturn("done");
+
+        controller.admit(slow, INTERACTIVE, "client", TIMEOUT).subscribe();
+        controller.admit(slow, INTERACTIVE, "client", TIMEOUT).subscribe();
+
+        AdmissionRejectedException rejected = assertThrows(AdmissionRejectedException.class,
+                () -> controller.admit(slow, INTERACTIVE, "client", TIMEOUT).block());
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS, rejected.getStatus());
+        assertTrue(rejected.getRetryAfterSeconds() >= 1);
+        assertEquals(1.0, meterRegistry.get("ai.admission.rejections").tag("class", "interactive").tag("reason", "queue_full").counter().count());
+        assertEquals(1.0, meterRegistry.get("ai.admission.queue.depth").tag("class", "interactive").gauge().value());
+    }
+
+    @Test
+    @DisplayName("A queued call whose deadline passes should fail with 503 without running")
+    void testDeadlineExpiryIsRejected() {
+        AdmissionController controller = GeminiTestFixtures.admissionController(true, 1, 10, meterRegistry);
+        AtomicInteger started = new AtomicInteger();
+
+        controller.admit(Mono.delay(Duration.ofMillis(500)), INTERACTIVE, "client", TIMEOUT).subscribe();
+
+        AdmissionRejectedException rejected = assertThrows(AdmissionRejectedException.class,
+                () -> controller.admit(Mono.fromCallable(started::incrementAndGet), INTERACTIVE, "client",
+                        Duration.ofMillis(100)).block());
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, rejected.getStatus());
+        assertEquals(0, started.get());
+        assertEquals(0.0, meterRegistry.get("ai.admission.queue.depth").tag("class", "interactive").gauge().value());
+    }
+
+    @Test
+    @DisplayName("Permits should be released when calls fail or are cancelled")
+    void testPermitsReleasedOnErrorAndCancel() {
+        AdmissionController controller = GeminiTestFixtures.admissionController(true, 1, 10, meterRegistry);
+
+        assertThrows(IllegalStateException.class,
+                () -> controller.admit(Mono.error(new IllegalStateException("boom")), INTERACTIVE, "client", TIMEOUT).block());
+
+        controller.admit(Mono.never(), INTERACTIVE, "client", TIMEOUT).subscribe().dispose();
+        // A waiter that gives up must not keep its place in the queue
+        controller.admit(Mono.never(), INTERACTIVE, "client", TIMEOUT).subscribe();
+        controller.admit(Mono.just("queued"), INTERACTIVE, "client", TIMEOUT).subscribe().dispose();
+
+        assertEquals(1.0, meterRegistry.get("ai.admission.in-flight").tag("class", "interactive").gauge().value());
+        assertEquals(0.0, meterRegistry.get("ai.admission.queue.depth").tag("class", "interactive").gauge().value());
+    }
+
+    @Test
+    @DisplayName("Queued interactive requests should be admitted ahead of earlier queued reports")
+    void testInteractiveOvertakesQueuedReports() {
+        AdmissionController controller = GeminiTestFixtures.admissionController(true, 1, 100, meterRegistry);
+        List<String> order = new CopyOnWriteArrayList<>();
+
+        controller.admit(Mono.delay(Duration.ofMillis(200)), INTERACTIVE, "holder", TIMEOUT).subscribe();
+        // Record start order; completions are delivered after the permit hand-off
+        Flux<Boolean> reports = Flux.range(0, 4).flatMap(i -> controller.admit(
+                Mono.fromCallable(() -> order.add("report-" + i)), BATCH, "reporter", TIMEOUT));
+        Flux<Boolean> chats = Flux.range(0, 2).flatMap(i -> controller.admit(
+                Mono.fromCallable(() -> order.add("chat-" + i)), INTERACTIVE, "user-" + i, TIMEOUT));
+
+        Flux.merge(reports, chats).blockLast();
+
+        // Weight 8 against 1: both chats run before the second report
+        assertEquals(6, order.size());
+        assertTrue(order.indexOf("chat-0") < order.indexOf("report-1"));
+        assertTrue(order.indexOf("chat-1") < order.indexOf("report-1"));
+    }
+
+    @Test
+    @DisplayName("Reports should not occupy more than their share of the limit")
+    void testBatchShareLeavesRoomForInteractive() {
+        MockEnvironment environment = new MockEnvironment()
+                .withProperty("ai.scheduling.batch.max-share", "0.5");
+        AdmissionController controller = GeminiTestFixtures.admissionController(true, 4, environment, meterRegistry);
+
+        for (int i = 0; i < 4; i++) {
+            controller.admit(Mono.never(), BATCH, "reporter-" + i, TIMEOUT).subscribe();
+        }
+        String chat = controller.admit(Mono.just("chat"), INTERACTIVE, "user", Duration.ofMillis(200)).block();
+
+        assertEquals("chat", chat);
+        assertEquals(2.0, meterRegistry.get("ai.admission.in-flight").tag("class", "batch").gauge().value());
+        assertEquals(2.0, meterRegistry.get("ai.admission.queue.depth").tag("class", "batch").gauge().value());
+    }
+
+    @Test
+    @DisplayName("Streams should hold their permit until the last chunk and reject overflow")
+    void testStreamsThroughClient() throws Exception {
+        try (StubGeminiServer stub = StubGeminiServer.start()) {
+            stub.respondWith("one two three").withChunkDelay(Duration.ofMillis(100));
+            AdmissionController controller = GeminiTestFixtures.admissionController(true, 1, 0, meterRegistry);
+            GoogleAiStudioClient client = GeminiTestFixtures.client(stub)
+                    .admissionController(controller)
+                    .build();
+
+            Flux<String> first = client.streamContent("Count to three");
+            Flux<String> second = Mono.delay(Duration.ofMillis(50))
+                    .flatMapMany(tick -> client.streamContent("Count to four"));
+
+            List<String> chunks = first.collectList().block();
+            AdmissionRejectedException rejected = null;
+            try {
+                Flux.merge(first, second).blockLast();
+            } catch (AdmissionRejectedException e) {
+                rejected = e;
+            }
+
+            assertEquals(List.of("one ", "two ", "three"), chunks);
+            assertNotNull(rejected);
+            assertEquals(HttpStatus.TOO_MANY_REQUESTS, rejected.getStatus());
+            assertEquals(0.0, meterRegistry.get("ai.admission.in-flight").tag("class", "interactive").gauge().value());
+        }
+    }
+}
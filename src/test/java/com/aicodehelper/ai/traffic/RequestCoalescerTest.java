@@ -0,0 +1,87 @@
+package com.aicodehelper.ai.traffic;
+
+import com.aicodehelper.ai.model.GoogleAiStudioClient;
+import com.aicodehelper.support.GeminiTestFixtures;
+import com.aicodehelper.support.StubGeminiServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for single-flight coalescing of identical concurrent model calls.
+ */
+class RequestCoalescerTest {
+
+    private StubGeminiServer stub;
+    private SimpleMeterRegistry meterRegistry;
+    private GoogleAiStudioClient client;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        stub = StubGeminiServer.start();
+        meterRegistry = new SimpleMeterRegistry();
+        client = GeminiTestFixtures.client(stub)
+                .requestCoalescer(GeminiTestFixtures.requestCoalescer(true, meterRegistry))
+                .build();
+    }
+
+    @AfterEach
+    void tearDown() {
+        stub.close();
+    }
+
+    @Test
+    @DisplayName("Identical concurrent prompts should share one upstream call")
+    void testConcurrentPromptsShareOneCall() {
+        stub.withDelay(Duration.ofMillis(300));
+
+        List<String> answers = Flux.range(0, 20)
+                .flatMap(i -> client.generateContentAsync("What is a HashMap?"))
+                .collectList()
+                .block();
+
+        assertEquals(20, answers.size());
+        assertTrue(answers.stream().allMatch("Stub answer from Gemini"::equals));
+        assertEquals(1, stub.requestCount());
+        assertEquals(19.0, meterRegistry.get("ai.coalescing.requests")
+                .tag("mode", "unary").tag("role", "joiner").counter().count());
+    }
+
+    @Test
+    @DisplayName("Different prompts should not be coalesced")
+    void testDifferentPromptsAreNotCoalesced() {
+        stub.withDelay(Duration.ofMillis(100));
+
+        Mono.zip(client.generateContentAsync("What is a HashMap?"), client.generateContentAsync("What is a TreeMap?"))
+                .block();
+
+        assertEquals(2, stub.requestCount());
+    }
+
+    @Test
+    @DisplayName("Late stream joiners should receive the chunks already produced and then the live tail")
+    void testLateStreamJoinerReceivesFullAnswer() {
+        stub.respondWith("one two three four five").withChunkDelay(Duration.ofMillis(100));
+
+        Flux<String> first = client.streamContent("Count to five");
+        // The late joiner subscribes after the first chunks have been produced
+        Flux<String> late = Mono.delay(Duration.ofMillis(150))
+                .flatMapMany(tick -> client.streamContent("Count to five"));
+
+        List<List<String>> results = Flux.merge(first.collectList(), late.collectList()).collectList().block();
+
+        List<String> expected = List.of("one ", "two ", "three ", "four ", "five");
+        assertEquals(expected, results.get(0));
+        assertEquals(expected, results.get(1));
+        assertEquals(1, stub.requestCount());
+    }
+}
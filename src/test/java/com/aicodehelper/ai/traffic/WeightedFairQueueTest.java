@@ -0,0 +1,80 @@
+package com.aicodehelper.ai.traffic;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static com.aicodehelper.ai.traffic.RequestPriority.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for weighted fair queuing across classes and round-robin between clients.
+ */
+class WeightedFairQueueTest {
+
+    @Test
+    @DisplayName("Backlogged classes should be served in proportion to their weights")
+    void testServiceFollowsWeights() {
+        WeightedFairQueue<String> queue = new WeightedFairQueue<>(Map.of(INTERACTIVE, 8, KNOWLEDGE, 4, BATCH, 1));
+        for (int i = 0; i < 100; i++) {
+            queue.add("interactive", INTERACTIVE, "client");
+            queue.add("knowledge", KNOWLEDGE, "client");
+            queue.add("batch", BATCH, "client");
+        }
+
+        List<String> served = new ArrayList<>();
+        for (int i = 0; i < 130; i++) {
+            served.add(queue.poll(priority -> true));
+        }
+
+        assertEquals(80, served.stream().filter("interactive"::equals).count());
+        assertEquals(40, served.stream().filter("knowledge"::equals).count());
+        assertEquals(10, served.stream().filter("batch"::equals).count());
+    }
+
+    @Test
+    @DisplayName("Clients within a class should take turns regardless of how much each submitted")
+    void testClientsTakeTurns() {
+        WeightedFairQueue<String> queue = new WeightedFairQueue<>(Map.of());
+        for (int i = 0; i < 3; i++) {
+            queue.add("a" + i, BATCH, "heavy");
+        }
+        queue.add("b0", BATCH, "light");
+
+        List<String> served = new ArrayList<>();
+        while (queue.size() > 0) {
+            served.add(queue.poll(priority -> true));
+        }
+
+        assertEquals(List.of("a0", "b0", "a1", "a2"), served);
+    }
+
+    @Test
+    @DisplayName("An idle class should not bank credit, and ineligible classes should be skipped")
+    void testIdleClassAndEligibility() {
+        WeightedFairQueue<String> queue = new WeightedFairQueue<>(Map.of(INTERACTIVE, 1, BATCH, 1));
+        for (int i = 0; i < 10; i++) {
+            queue.add("batch", BATCH, "client");
+            queue.poll(priority -> true);
+        }
+        for (int i = 0; i < 5; i++) {
+            queue.add("batch", BATCH, "client");
+            queue.add("interactive", INTERACTIVE, "client");
+        }
+
+        // Equal weights: interactive must not catch up on the whole batch history first
+        List<String> served = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            served.add(queue.poll(priority -> true));
+        }
+        assertTrue(served.contains("batch"));
+
+        assertEquals("batch", queue.poll(priority -> priority == BATCH));
+        assertFalse(queue.remove("missing", INTERACTIVE, "client"));
+        assertTrue(queue.remove("interactive", INTERACTIVE, "client"));
+        assertEquals(4, queue.size());
+    }
+}
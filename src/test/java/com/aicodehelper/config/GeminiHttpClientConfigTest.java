@@ -0,0 +1,80 @@
+package com.aicodehelper.config;
+
+import com.aicodehelper.ai.model.GoogleAiStudioClient;
+import com.aicodehelper.support.GeminiTestFixtures;
+import com.aicodehelper.support.StubGeminiServer;
+import io.micrometer.core.instrument.Metrics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.netty.resources.ConnectionProvider;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the dedicated Gemini connection pool against the local stub server.
+ */
+class GeminiHttpClientConfigTest {
+
+    private StubGeminiServer stub;
+    private ConnectionProvider connectionProvider;
+    private GoogleAiStudioClient client;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        stub = StubGeminiServer.start();
+
+        GeminiHttpClientConfig config = GeminiTestFixtures.httpClientConfig(stub.baseUrl());
+        ReflectionTestUtils.setField(config, "maxConnections", 4);
+        connectionProvider = config.geminiConnectionProvider();
+
+        client = GeminiTestFixtures.client(stub)
+                .webClient(config.geminiWebClient(connectionProvider))
+                .build();
+    }
+
+    @AfterEach
+    void tearDown() {
+        connectionProvider.dispose();
+        stub.close();
+    }
+
+    @Test
+    @DisplayName("Calls should go through the pooled client and publish pool metrics")
+    void testPoolMetricsArePublished() {
+        stub.respondWith("Pooled answer");
+
+        assertEquals("Pooled answer", client.generateContent("Hello"));
+
+        assertNotNull(Metrics.globalRegistry.find("reactor.netty.connection.provider.total.connections")
+                .tag("name", GeminiHttpClientConfig.POOL_NAME)
+                .gauge());
+    }
+
+    @Test
+    @DisplayName("Pre-warming should open the configured number of connections without generating")
+    void testPrewarmOpensConnections() throws Exception {
+        ReflectionTestUtils.setField(client, "prewarmConnections", 2);
+
+        client.prewarm();
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (stub.requestCount() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(2, stub.requestCount());
+    }
+
+    @Test
+    @DisplayName("Pre-warming should be skipped when disabled")
+    void testPrewarmDisabled() throws Exception {
+        ReflectionTestUtils.setField(client, "prewarmConnections", 0);
+
+        client.prewarm();
+
+        Thread.sleep(200);
+        assertEquals(0, stub.requestCount());
+    }
+}
@@ -0,0 +1,340 @@
+package com.aicodehelper.support;
+
+import com.aicodehelper.ai.cache.ResponseCache;
+import com.aicodehelper.ai.model.GeminiContextCache;
+import com.aicodehelper.ai.model.GoogleAiStudioClient;
+import com.aicodehelper.ai.quota.ApiKeyPool;
+import com.aicodehelper.ai.resilience.ModelCallResilience;
+import com.aicodehelper.ai.routing.ModelRouter;
+import com.aicodehelper.ai.traffic.AdmissionController;
+import com.aicodehelper.ai.traffic.RequestCoalescer;
+import com.aicodehelper.ai.traffic.RequestPriority;
+import com.aicodehelper.config.GeminiHttpClientConfig;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.core.env.Environment;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import java.util.List;
+
+/**
+ * Builds Gemini client components outside a Spring context, wired the same way
+ * the application wires them but pointed at a {@link StubGeminiServer}.
+ */
+public final class GeminiTestFixtures {
+
+    private GeminiTestFixtures() {
+    }
+
+    /**
+     * Creates a response cache with the application's default sizes.
+     */
+    public static ResponseCache responseCache(boolean enabled, EmbeddingModel embeddingModel, MeterRegistry meterRegistry) {
+        ResponseCache cache = new ResponseCache();
+        ReflectionTestUtils.setField(cache, "embeddingModel", embeddingModel);
+        ReflectionTestUtils.setField(cache, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(cache, "enabled", enabled);
+        ReflectionTestUtils.setField(cache, "evictionPolicy", "LRU");
+        ReflectionTestUtils.setField(cache, "exactMaxEntries", 1000);
+        ReflectionTestUtils.setField(cache, "exactTtlMinutes", 60L);
+        ReflectionTestUtils.setField(cache, "semanticEnabled", true);
+        ReflectionTestUtils.setField(cache, "semanticMaxEntries", 500);
+        ReflectionTestUtils.setField(cache, "semanticTtlMinutes", 60L);
+        ReflectionTestUtils.setField(cache, "similarityThreshold", 0.92);
+        cache.init();
+        return cache;
+    }
+
+    /**
+     * Creates a request coalescer.
+     */
+    public static RequestCoalescer requestCoalescer(boolean enabled, MeterRegistry meterRegistry) {
+        RequestCoalescer coalescer = new RequestCoalescer();
+        ReflectionTestUtils.setField(coalescer, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(coalescer, "enabled", enabled);
+        coalescer.init();
+        return coalescer;
+    }
+
+    /**
+     * Creates an admission controller with a fixed concurrency limit, where every class
+     * may use the whole limit and queue up to {@code maxQueueSize} requests.
+     */
+    public static AdmissionController admissionController(boolean enabled, int limit, int maxQueueSize,
+                                                          MeterRegistry meterRegistry) {
+        MockEnvironment environment = new MockEnvironment();
+        for (RequestPriority priority : RequestPriority.values()) {
+            environment.setProperty("ai.scheduling." + priority.key() + ".max-share", "1.0");
+            environment.setProperty("ai.scheduling." + priority.key() + ".max-queue-size", String.valueOf(maxQueueSize));
+        }
+        return admissionController(enabled, limit, environment, meterRegistry);
+    }
+
+    /**
+     * Creates an admission controller with a fixed concurrency limit and scheduling classes
+     * configured from the given environment.
+     */
+    public static AdmissionController admissionController(boolean enabled, int limit, Environment environment,
+                                                          MeterRegistry meterRegistry) {
+        return admissionController(new AdmissionController(), enabled, limit, environment, meterRegistry);
+    }
+
+    /**
+     * Configures and initializes an admission controller, such as a subclass recording the calls
+     * it admits, with a fixed concurrency limit.
+     */
+    public static <C extends AdmissionController> C admissionController(C controller, boolean enabled, int limit,
+                                                                       Environment environment, MeterRegistry meterRegistry) {
+        ReflectionTestUtils.setField(controller, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(controller, "environment", environment);
+        ReflectionTestUtils.setField(controller, "enabled", enabled);
+        ReflectionTestUtils.setField(controller, "adaptive", false);
+        ReflectionTestUtils.setField(controller, "initialLimit", limit);
+        ReflectionTestUtils.setField(controller, "minLimit", 1);
+        ReflectionTestUtils.setField(controller, "maxLimit", limit);
+        controller.init();
+        return controller;
+    }
+
+    /**
+     * Creates an API key pool where each key allows the given requests per minute and
+     * practically unlimited tokens.
+     */
+    public static ApiKeyPool apiKeyPool(List<String> keys, long requestsPerMinute, MeterRegistry meterRegistry) {
+        ApiKeyPool pool = new ApiKeyPool();
+        ReflectionTestUtils.setField(pool, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(pool, "apiKeys", keys);
+        ReflectionTestUtils.setField(pool, "requestsPerMinute", requestsPerMinute);
+        ReflectionTestUtils.setField(pool, "tokensPerMinute", 100_000_000L);
+        ReflectionTestUtils.setField(pool, "coolOffSeconds", 60L);
+        ReflectionTestUtils.setField(pool, "maxWaitMillis", 0L);
+        pool.init();
+        return pool;
+    }
+
+    /**
+     * Creates the resilience layer with the application's defaults, but with short backoffs
+     * and retries, hedging and the circuit breaker each switched on only if requested.
+     * Individual settings can be changed with {@link ReflectionTestUtils} before {@code init()}.
+     */
+    public static ModelCallResilience modelCallResilience(boolean retry, boolean hedging, boolean circuitBreaker,
+                                                          MeterRegistry meterRegistry) {
+        ModelCallResilience resilience = new ModelCallResilience();
+        ReflectionTestUtils.setField(resilience, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(resilience, "retryEnabled", retry);
+        ReflectionTestUtils.setField(resilience, "maxAttempts", 3);
+        ReflectionTestUtils.setField(resilience, "initialBackoffMillis", 10L);
+        ReflectionTestUtils.setField(resilience, "maxBackoffMillis", 50L);
+        ReflectionTestUtils.setField(resilience, "budgetRatio", 0.2);
+        ReflectionTestUtils.setField(resilience, "budgetMinPerSecond", 1.0);
+        ReflectionTestUtils.setField(resilience, "budgetMaxTokens", 20.0);
+        ReflectionTestUtils.setField(resilience, "hedgingEnabled", hedging);
+        ReflectionTestUtils.setField(resilience, "hedgingPercentile", 0.95);
+        ReflectionTestUtils.setField(resilience, "hedgingMinDelayMillis", 50L);
+        ReflectionTestUtils.setField(resilience, "hedgingMinSamples", 20);
+        ReflectionTestUtils.setField(resilience, "breakerEnabled", circuitBreaker);
+        ReflectionTestUtils.setField(resilience, "breakerWindowSize", 10);
+        ReflectionTestUtils.setField(resilience, "breakerMinimumCalls", 4);
+        ReflectionTestUtils.setField(resilience, "breakerFailureRateThreshold", 0.5);
+        ReflectionTestUtils.setField(resilience, "breakerSlowCallMillis", 30000L);
+        ReflectionTestUtils.setField(resilience, "breakerSlowCallRateThreshold", 0.8);
+        ReflectionTestUtils.setField(resilience, "breakerOpenSeconds", 30L);
+        ReflectionTestUtils.setField(resilience, "breakerHalfOpenCalls", 1);
+        return resilience;
+    }
+
+    /**
+     * Creates a model router between a fast and a quality model with the application's
+     * default rules. With both models equal every request goes to that model.
+     */
+    public static ModelRouter modelRouter(String fastModel, String qualityModel, ModelCallResilience resilience,
+                                          MeterRegistry meterRegistry) {
+        ModelRouter router = new ModelRouter();
+        ReflectionTestUtils.setField(router, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(router, "modelCallResilience", resilience);
+        ReflectionTestUtils.setField(router, "defaultModel", qualityModel);
+        ReflectionTestUtils.setField(router, "enabled", true);
+        ReflectionTestUtils.setField(router, "fastModel", fastModel);
+        ReflectionTestUtils.setField(router, "qualityModel", qualityModel);
+        ReflectionTestUtils.setField(router, "qualityClasses", List.of("batch"));
+        ReflectionTestUtils.setField(router, "longPromptChars", 1500);
+        ReflectionTestUtils.setField(router, "codeToQuality", true);
+        ReflectionTestUtils.setField(router, "maxErrorRate", 0.25);
+        ReflectionTestUtils.setField(router, "minCalls", 10);
+        ReflectionTestUtils.setField(router, "latencyBudgetMillis", 10000L);
+        router.init();
+        return router;
+    }
+
+    /**
+     * Creates the context cache for the stub server, with a one-hour TTL and no minimum
+     * prefix size.
+     */
+    public static GeminiContextCache contextCache(boolean enabled, StubGeminiServer stub, MeterRegistry meterRegistry) {
+        GeminiContextCache contextCache = new GeminiContextCache();
+        ReflectionTestUtils.setField(contextCache, "meterRegistry", meterRegistry);
+        if (enabled) {
+            ReflectionTestUtils.setField(contextCache, "webClient", webClient(stub.baseUrl()));
+        }
+        ReflectionTestUtils.setField(contextCache, "baseUrl", stub.baseUrl());
+        ReflectionTestUtils.setField(contextCache, "enabled", enabled);
+        ReflectionTestUtils.setField(contextCache, "ttlMinutes", 60L);
+        ReflectionTestUtils.setField(contextCache, "minTokens", 0L);
+        ReflectionTestUtils.setField(contextCache, "retryAfterFailureMinutes", 30L);
+        contextCache.init();
+        return contextCache;
+    }
+
+    /**
+     * Creates the Gemini HTTP client configuration with the application's default pool
+     * settings, pointed at the given base URL.
+     */
+    public static GeminiHttpClientConfig httpClientConfig(String baseUrl) {
+        GeminiHttpClientConfig config = new GeminiHttpClientConfig();
+        ReflectionTestUtils.setField(config, "baseUrl", baseUrl);
+        ReflectionTestUtils.setField(config, "maxConnections", 100);
+        ReflectionTestUtils.setField(config, "pendingAcquireMaxCount", 500);
+        ReflectionTestUtils.setField(config, "pendingAcquireTimeoutMillis", 5000L);
+        ReflectionTestUtils.setField(config, "maxIdleTimeSeconds", 30L);
+        ReflectionTestUtils.setField(config, "maxLifeTimeSeconds", 300L);
+        ReflectionTestUtils.setField(config, "evictInBackgroundSeconds", 30L);
+        ReflectionTestUtils.setField(config, "connectTimeoutMillis", 5000);
+        ReflectionTestUtils.setField(config, "http2", true);
+        return config;
+    }
+
+    /**
+     * Creates a WebClient on its own bounded connection pool, as the application does.
+     * A bounded pool also keeps the number of idle connections below what the stub
+     * server holds open, so pooled connections are not closed under the client.
+     */
+    public static WebClient webClient(String baseUrl) {
+        GeminiHttpClientConfig config = httpClientConfig(baseUrl);
+        return config.geminiWebClient(config.geminiConnectionProvider());
+    }
+
+    /**
+     * Starts building a client that talks to the stub server. Unless replaced, every
+     * optional layer in front of the upstream call is disabled.
+     */
+    public static ClientBuilder client(StubGeminiServer stub) {
+        return new ClientBuilder(stub);
+    }
+
+    /**
+     * Embedding model that returns the zero vector, like the application's stub model.
+     */
+    public static EmbeddingModel zeroEmbeddingModel() {
+        return texts -> Response.from(texts.stream().map(text -> new Embedding(new float[]{0f})).toList());
+    }
+
+    /**
+     * Assembles a {@link GoogleAiStudioClient} from test components.
+     */
+    public static final class ClientBuilder {
+
+        private final StubGeminiServer stub;
+        private MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        private long requestTimeoutSeconds = 120;
+        private ResponseCache responseCache;
+        private RequestCoalescer requestCoalescer;
+        private AdmissionController admissionController;
+        private WebClient webClient;
+        private ModelCallResilience modelCallResilience;
+        private ApiKeyPool apiKeyPool;
+        private ModelRouter modelRouter;
+        private GeminiContextCache contextCache;
+
+        private ClientBuilder(StubGeminiServer stub) {
+            this.stub = stub;
+        }
+
+        public ClientBuilder responseCache(ResponseCache responseCache) {
+            this.responseCache = responseCache;
+            return this;
+        }
+
+        public ClientBuilder requestCoalescer(RequestCoalescer requestCoalescer) {
+            this.requestCoalescer = requestCoalescer;
+            return this;
+        }
+
+        public ClientBuilder meterRegistry(MeterRegistry meterRegistry) {
+            this.meterRegistry = meterRegistry;
+            return this;
+        }
+
+        public ClientBuilder requestTimeoutSeconds(long requestTimeoutSeconds) {
+            this.requestTimeoutSeconds = requestTimeoutSeconds;
+            return this;
+        }
+
+        public ClientBuilder admissionController(AdmissionController admissionController) {
+            this.admissionController = admissionController;
+            return this;
+        }
+
+        public ClientBuilder webClient(WebClient webClient) {
+            this.webClient = webClient;
+            return this;
+        }
+
+        public ClientBuilder modelCallResilience(ModelCallResilience modelCallResilience) {
+            this.modelCallResilience = modelCallResilience;
+            return this;
+        }
+
+        public ClientBuilder apiKeyPool(ApiKeyPool apiKeyPool) {
+            this.apiKeyPool = apiKeyPool;
+            return this;
+        }
+
+        /**
+         * Routes between models; the router must use this builder's resilience layer.
+         */
+        public ClientBuilder modelRouter(ModelRouter modelRouter) {
+            this.modelRouter = modelRouter;
+            return this;
+        }
+
+        public ClientBuilder contextCache(GeminiContextCache contextCache) {
+            this.contextCache = contextCache;
+            return this;
+        }
+
+        public GoogleAiStudioClient build() {
+            GoogleAiStudioClient client = new GoogleAiStudioClient();
+            ReflectionTestUtils.setField(client, "apiKeyPool", apiKeyPool != null
+                    ? apiKeyPool : GeminiTestFixtures.apiKeyPool(List.of("test-key"), 1_000_000, meterRegistry));
+            ReflectionTestUtils.setField(client, "baseUrl", stub.baseUrl());
+            ReflectionTestUtils.setField(client, "temperature", 0.7);
+            ReflectionTestUtils.setField(client, "maxOutputTokens", 2000);
+            ReflectionTestUtils.setField(client, "requestTimeoutSeconds", requestTimeoutSeconds);
+            ReflectionTestUtils.setField(client, "meterRegistry", meterRegistry);
+            ReflectionTestUtils.setField(client, "webClient", webClient != null ? webClient : GeminiTestFixtures.webClient(stub.baseUrl()));
+            ReflectionTestUtils.setField(client, "responseCache", responseCache != null
+                    ? responseCache : GeminiTestFixtures.responseCache(false, zeroEmbeddingModel(), meterRegistry));
+            ReflectionTestUtils.setField(client, "requestCoalescer", requestCoalescer != null
+                    ? requestCoalescer : GeminiTestFixtures.requestCoalescer(false, meterRegistry));
+            ModelCallResilience resilience = modelCallResilience;
+            if (resilience == null) {
+                resilience = GeminiTestFixtures.modelCallResilience(false, false, false, meterRegistry);
+                resilience.init();
+            }
+            ReflectionTestUtils.setField(client, "modelCallResilience", resilience);
+            ReflectionTestUtils.setField(client, "modelRouter", modelRouter != null
+                    ? modelRouter : GeminiTestFixtures.modelRouter("gemini-test", "gemini-test", resilience, meterRegistry));
+            ReflectionTestUtils.setField(client, "contextCache", contextCache != null
+                    ? contextCache : GeminiTestFixtures.contextCache(false, stub, meterRegistry));
+            ReflectionTestUtils.setField(client, "admissionController", admissionController != null
+                    ? admissionController : GeminiTestFixtures.admissionController(false, 1, 0, meterRegistry));
+            client.init();
+            return client;
+        }
+    }
+}
@@ -0,0 +1,312 @@
+package com.aicodehelper.support;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import reactor.netty.http.HttpResources;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Minimal local stand-in for the Gemini REST API and the interview question site.
+ *
+ * Serves model metadata, {@code generateContent}, {@code streamGenerateContent} (SSE) and a search page
+ * shaped like the one scraped by InterviewQuestionTool, so tests can drive the real
+ * HTTP code paths without network access or an API key.
+ *
+ * Model requests can be made to fail with a given status or to answer after a delay,
+ * to exercise retries, hedging and the circuit breaker. Context caches can be created
+ * and extended through {@code cachedContents}, or caching can be refused. Answers report
+ * token usage derived from the request and answer sizes, and can call a function instead.
+ *
+ * Requests are handled on platform threads so that any virtual-thread diagnostics
+ * recorded by a test only reflect the client side.
+ */
+public class StubGeminiServer implements AutoCloseable {
+
+    static {
+        // The JDK server closes connections beyond this many idle ones, which a client can
+        // pick from its pool just as they close; read once when the server class loads
+        System.setProperty("sun.net.httpserver.maxIdleConnections", "1000");
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final AtomicInteger requestCount = new AtomicInteger();
+
+    private volatile String responseText = "Stub answer from Gemini";
+    private volatile Duration delay = Duration.ZERO;
+    private volatile Duration chunkDelay = Duration.ZERO;
+    private final Queue<Integer> failures = new ConcurrentLinkedQueue<>();
+    private final Queue<Duration> nextDelays = new ConcurrentLinkedQueue<>();
+    private volatile String retryAfter;
+    private final Queue<String> apiKeys = new ConcurrentLinkedQueue<>();
+    private final Queue<String> models = new ConcurrentLinkedQueue<>();
+    private final Queue<String> bodies = new ConcurrentLinkedQueue<>();
+    private final Queue<String> cacheRequests = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger cacheCount = new AtomicInteger();
+    private volatile boolean refuseContextCaching;
+    private final Queue<String> functionCalls = new ConcurrentLinkedQueue<>();
+
+    private StubGeminiServer(HttpServer server, ExecutorService executor) {
+        this.server = server;
+        this.executor = executor;
+    }
+
+    public static StubGeminiServer start() throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 1024);
+        ExecutorService executor = Executors.newFixedThreadPool(32);
+        StubGeminiServer stub = new StubGeminiServer(server, executor);
+        server.createContext("/", stub::handle);
+        server.setExecutor(executor);
+        server.start();
+        return stub;
+    }
+
+    /**
+     * @return Value for {@code google-ai.base-url}
+     */
+    public String baseUrl() {
+        return "http://localhost:" + server.getAddress().getPort() + "/v1beta/models/";
+    }
+
+    /**
+     * @return Value for {@code ai.tools.web-scraper.base-url}
+     */
+    public String searchUrl() {
+        return "http://localhost:" + server.getAddress().getPort() + "/search?searchText=";
+    }
+
+    public StubGeminiServer respondWith(String text) {
+        this.responseText = text;
+        return this;
+    }
+
+    public StubGeminiServer withDelay(Duration delay) {
+        this.delay = delay;
+        return this;
+    }
+
+    public StubGeminiServer withChunkDelay(Duration chunkDelay) {
+        this.chunkDelay = chunkDelay;
+        return this;
+    }
+
+    /**
+     * Answers the next {@code times} model requests with an error status instead of content.
+     */
+    public StubGeminiServer failNext(int times, int status) {
+        for (int i = 0; i < times; i++) {
+            failures.add(status);
+        }
+        return this;
+    }
+
+    /**
+     * Sends a Retry-After header, in seconds, with injected error responses.
+     */
+    public StubGeminiServer withRetryAfter(String seconds) {
+        this.retryAfter = seconds;
+        return this;
+    }
+
+    /**
+     * Delays the next model requests by the given durations, in arrival order, before
+     * falling back to the fixed delay.
+     */
+    public StubGeminiServer delayNext(Duration... delays) {
+        nextDelays.addAll(List.of(delays));
+        return this;
+    }
+
+    /**
+     * Answers context cache creation with 400, as Gemini does for prefixes below the minimum size.
+     */
+    public StubGeminiServer refuseContextCaching() {
+        this.refuseContextCaching = true;
+        return this;
+    }
+
+    /**
+     * Answers the next {@code generateContent} request with a call of the given function.
+     *
+     * @param argumentsJson Arguments as a JSON object
+     */
+    public StubGeminiServer callFunctionNext(String name, String argumentsJson) {
+        functionCalls.add("{\"functionCall\":{\"name\":\"" + name + "\",\"args\":" + argumentsJson + "}}");
+        return this;
+    }
+
+    /**
+     * @return Bodies of the model requests received so far, in arrival order
+     */
+    public List<String> receivedBodies() {
+        return List.copyOf(bodies);
+    }
+
+    /**
+     * @return Method and path of the context cache requests received so far, in arrival order
+     */
+    public List<String> receivedCacheRequests() {
+        return List.copyOf(cacheRequests);
+    }
+
+    /**
+     * @return API keys of the model requests received so far, in arrival order
+     */
+    public List<String> receivedApiKeys() {
+        return List.copyOf(apiKeys);
+    }
+
+    /**
+     * @return Models addressed by the model requests received so far, in arrival order
+     */
+    public List<String> receivedModels() {
+        return List.copyOf(models);
+    }
+
+    public int requestCount() {
+        return requestCount.get();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requestCount.incrementAndGet();
+        try (exchange) {
+            String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            String path = exchange.getRequestURI().getPath();
+            boolean modelRequest = path.endsWith(":streamGenerateContent") || path.endsWith(":generateContent");
+            if (modelRequest) {
+                apiKeys.add(String.valueOf(exchange.getRequestHeaders().getFirst("x-goog-api-key")));
+                models.add(path.substring(path.lastIndexOf('/') + 1, path.lastIndexOf(':')));
+                bodies.add(body);
+            }
+            Duration nextDelay = modelRequest ? nextDelays.poll() : null;
+            sleep(nextDelay != null ? nextDelay : delay);
+
+            Integer failure = modelRequest ? failures.poll() : null;
+            if (failure != null) {
+                if (retryAfter != null) {
+                    exchange.getResponseHeaders().set("Retry-After", retryAfter);
+                }
+                write(exchange, failure, "application/json",
+                        "{\"error\":{\"code\":" + failure + ",\"message\":\"Injected failure\"}}");
+            } else if (path.endsWith(":streamGenerateContent")) {
+                writeStream(exchange, body.length());
+            } else if (path.endsWith(":generateContent")) {
+                String functionCall = functionCalls.poll();
+                write(exchange, 200, "application/json", functionCall != null
+                        ? responseJson(functionCall, "STOP", body.length(), 10)
+                        : candidateJson(responseText, body.length()));
+            } else if (path.startsWith("/v1beta/cachedContents")) {
+                cacheRequests.add(exchange.getRequestMethod() + " " + path);
+                handleCachedContents(exchange, path);
+            } else if (path.startsWith("/v1beta/models/") && "GET".equals(exchange.getRequestMethod())) {
+                write(exchange, 200, "application/json", "{\"name\":\"models/" + path.substring(path.lastIndexOf('/') + 1) + "\"}");
+            } else if (path.startsWith("/search")) {
+                write(exchange, 200, "text/html", searchPage());
+            } else {
+                write(exchange, 404, "text/plain", "Not found");
+            }
+        }
+    }
+
+    private void handleCachedContents(HttpExchange exchange, String path) throws IOException {
+        String expireTime = Instant.now().plus(Duration.ofHours(1)).toString();
+        if ("POST".equals(exchange.getRequestMethod())) {
+            if (refuseContextCaching) {
+                write(exchange, 400, "application/json",
+                        "{\"error\":{\"code\":400,\"message\":\"Cached content is too small\"}}");
+            } else {
+                write(exchange, 200, "application/json", "{\"name\":\"cachedContents/stub-" + cacheCount.incrementAndGet()
+                        + "\",\"expireTime\":\"" + expireTime + "\"}");
+            }
+        } else if ("PATCH".equals(exchange.getRequestMethod())) {
+            write(exchange, 200, "application/json", "{\"name\":\"" + path.substring("/v1beta/".length())
+                    + "\",\"expireTime\":\"" + expireTime + "\"}");
+        } else {
+            write(exchange, 405, "text/plain", "Method not allowed");
+        }
+    }
+
+    private void writeStream(HttpExchange exchange, int requestChars) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+        exchange.sendResponseHeaders(200, 0);
+        try (OutputStream out = exchange.getResponseBody()) {
+            int streamedChars = 0;
+            for (String word : responseText.split("(?<= )")) {
+                // Like Gemini, every event reports the usage so far
+                streamedChars += word.length();
+                out.write(("data: " + responseJson(textPart(word), "STOP", requestChars, (streamedChars + 3) / 4) + "\n\n")
+                        .getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                sleep(chunkDelay);
+            }
+        }
+    }
+
+    private static void write(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static String candidateJson(String text, int requestChars) {
+        return responseJson(textPart(text), "STOP", requestChars, (text.length() + 3) / 4);
+    }
+
+    private static String textPart(String text) {
+        String escaped = text.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+        return "{\"text\":\"" + escaped + "\"}";
+    }
+
+    /**
+     * @return Response with one candidate and usage metadata, counting four characters per prompt token
+     */
+    private static String responseJson(String part, String finishReason, int requestChars, int outputTokens) {
+        int promptTokens = (requestChars + 3) / 4;
+        return "{\"candidates\":[{\"content\":{\"parts\":[" + part + "],\"role\":\"model\"},"
+                + "\"finishReason\":\"" + finishReason + "\"}],"
+                + "\"usageMetadata\":{\"promptTokenCount\":" + promptTokens + ",\"candidatesTokenCount\":" + outputTokens
+                + ",\"totalTokenCount\":" + (promptTokens + outputTokens) + "}}";
+    }
+
+    private static String searchPage() {
+        return "<html><body><table><tr>"
+                + "<td class=\"ant-table-cell\"><a>What is a HashMap?</a></td>"
+                + "<td class=\"ant-table-cell\"><a>Explain Spring bean scopes</a></td>"
+                + "</tr></table></body></html>";
+    }
+
+    private static void sleep(Duration duration) {
+        if (duration.isZero()) {
+            return;
+        }
+        try {
+            Thread.sleep(duration);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+        // The shared WebClient connection pool keeps connections to this server; a later stub
+        // may be bound to the same port and would otherwise be handed those dead connections
+        HttpResources.reset();
+    }
+}
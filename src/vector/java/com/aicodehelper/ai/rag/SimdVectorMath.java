@@ -0,0 +1,108 @@
+package com.aicodehelper.ai.rag;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Kernels written with the Java Vector API at the widest lane count the CPU supports, loading
+ * straight from the index buffers through memory segments. Loaded by {@link VectorMath#get}.
+ *
+ * - Float vectors are little-endian, as in the index file
+ * - int8 codes are widened to int lanes before multiplying, so sums cannot overflow below
+ *   about 130 000 dimensions
+ */
+final class SimdVectorMath extends VectorMath {
+
+    private static final ValueLayout.OfFloat FLOAT = ValueLayout.JAVA_FLOAT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+    private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+    // 8 or 16 int lanes, fed by as many bytes
+    private static final VectorSpecies<Integer> INTS =
+            IntVector.SPECIES_PREFERRED.vectorBitSize() >= 512 ? IntVector.SPECIES_512 : IntVector.SPECIES_256;
+    private static final VectorSpecies<Byte> BYTES = VectorSpecies.of(byte.class, VectorShape.forBitSize(INTS.length() * Byte.SIZE));
+
+    @Override
+    Floats floats(ByteBuffer vectors, int dimension) {
+        MemorySegment segment = MemorySegment.ofBuffer(vectors);
+        long stride = (long) dimension * Float.BYTES;
+        return new Floats() {
+
+            @Override
+            public float dot(int a, int b) {
+                return SimdVectorMath.dot(segment, a * stride, b * stride, dimension);
+            }
+
+            @Override
+            public float dot(float[] query, int position) {
+                return SimdVectorMath.dot(query, segment, position * stride, dimension);
+            }
+        };
+    }
+
+    @Override
+    Bytes bytes(ByteBuffer codes, int dimension) {
+        MemorySegment segment = MemorySegment.ofBuffer(codes);
+        return (query, position) -> dotBytes(query, segment, (long) position * dimension, dimension);
+    }
+
+    @Override
+    String name() {
+        return "simd (" + FLOATS.length() + " float lanes)";
+    }
+
+    private static float dot(MemorySegment segment, long a, long b, int dimension) {
+        FloatVector sum = FloatVector.zero(FLOATS);
+        int d = 0;
+        for (int bound = FLOATS.loopBound(dimension); d < bound; d += FLOATS.length()) {
+            long offset = (long) d * Float.BYTES;
+            sum = load(segment, a + offset).fma(load(segment, b + offset), sum);
+        }
+        float dot = sum.reduceLanes(VectorOperators.ADD);
+        for (; d < dimension; d++) {
+            long offset = (long) d * Float.BYTES;
+            dot += segment.get(FLOAT, a + offset) * segment.get(FLOAT, b + offset);
+        }
+        return dot;
+    }
+
+    private static float dot(float[] query, MemorySegment segment, long offset, int dimension) {
+        FloatVector sum = FloatVector.zero(FLOATS);
+        int d = 0;
+        for (int bound = FLOATS.loopBound(dimension); d < bound; d += FLOATS.length()) {
+            sum = FloatVector.fromArray(FLOATS, query, d).fma(load(segment, offset + (long) d * Float.BYTES), sum);
+        }
+        float dot = sum.reduceLanes(VectorOperators.ADD);
+        for (; d < dimension; d++) {
+            dot += query[d] * segment.get(FLOAT, offset + (long) d * Float.BYTES);
+        }
+        return dot;
+    }
+
+    private static int dotBytes(byte[] query, MemorySegment segment, long offset, int dimension) {
+        IntVector sum = IntVector.zero(INTS);
+        int d = 0;
+        for (int bound = BYTES.loopBound(dimension); d < bound; d += BYTES.length()) {
+            IntVector x = (IntVector) ByteVector.fromArray(BYTES, query, d).convertShape(VectorOperators.B2I, INTS, 0);
+            IntVector y = (IntVector) ByteVector.fromMemorySegment(BYTES, segment, offset + d, ByteOrder.LITTLE_ENDIAN)
+                    .convertShape(VectorOperators.B2I, INTS, 0);
+            sum = sum.add(x.mul(y));
+        }
+        int dot = sum.reduceLanes(VectorOperators.ADD);
+        for (; d < dimension; d++) {
+            dot += query[d] * segment.get(ValueLayout.JAVA_BYTE, offset + d);
+        }
+        return dot;
+    }
+
+    private static FloatVector load(MemorySegment segment, long offset) {
+        return FloatVector.fromMemorySegment(FLOATS, segment, offset, ByteOrder.LITTLE_ENDIAN);
+    }
+}